@@ -0,0 +1,277 @@
+package com.pynode.cxf.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import org.apache.cxf.Bus;
+import org.apache.cxf.helpers.HttpHeaderHelper;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.message.MessageUtils;
+import org.apache.cxf.service.model.EndpointInfo;
+import org.apache.cxf.transport.AbstractConduit;
+import org.apache.cxf.transport.http.HTTPConduit;
+import org.apache.cxf.transport.http.HTTPException;
+import org.apache.cxf.ws.addressing.EndpointReferenceType;
+
+/**
+ * Base of the conduits that do not use the JDK's {@code HttpURLConnection}: the request
+ * body is buffered, sent when the output stream is closed, and the whole response is passed
+ * to the incoming observer, the way CXF's {@code HTTPConduit} does.<br />
+ * Request buffers are sized after the previous request, so that similar requests are
+ * buffered without growing, and handed over without copying.
+ * @author Christos Fragoulides
+ */
+abstract class AbstractHttpConduit extends AbstractConduit {
+
+    /** Largest request body size used as a hint for the buffers of later requests. */
+    static final int MAX_PAYLOAD_SIZE_HINT = 64 * 1024;
+    static final int DEFAULT_PAYLOAD_SIZE_HINT = 512;
+    private static final byte[] EMPTY_CONTENT = new byte[0];
+
+    private EndpointInfo endpointInfo;
+
+    /**
+     * This field holds the "default" URL for this particular conduit, which
+     * is created on demand.
+     */
+    private URL defaultEndpointURL;
+    private String defaultEndpointURLString;
+    private boolean fromEndpointReferenceType;
+    /** Size of the last request body. */
+    private volatile int payloadSizeHint = DEFAULT_PAYLOAD_SIZE_HINT;
+
+    protected AbstractHttpConduit(Bus bus, EndpointInfo endpointInfo, EndpointReferenceType target)
+            throws IOException {
+
+        super(getTargetReference(endpointInfo, target, bus));
+        this.endpointInfo = endpointInfo;
+
+        if (target != null) {
+            fromEndpointReferenceType = true;
+        }
+    }
+
+    /**
+     * This function sets up a URL based on ENDPOINT_ADDRESS, PATH_INFO,
+     * and QUERY_STRING properties in the Message. The QUERY_STRING gets
+     * added with a "?" after the PATH_INFO. If the ENDPOINT_ADDRESS is not
+     * set on the Message, the endpoint address is taken from the
+     * "defaultEndpointURL".
+     * <p>
+     * The PATH_INFO is only added to the endpoint address string should
+     * the PATH_INFO not equal the end of the endpoint address string.
+     *
+     * @param message The message holds the addressing information.
+     *
+     * @return The full URL specifying the HTTP request to the endpoint.
+     *
+     * @throws MalformedURLException
+     */
+    protected URL setupURL(Message message) throws MalformedURLException {
+        String result = (String) message.get(Message.ENDPOINT_ADDRESS);
+        String pathInfo = (String) message.get(Message.PATH_INFO);
+        String queryString = (String) message.get(Message.QUERY_STRING);
+        if (result == null) {
+            if (pathInfo == null && queryString == null) {
+                URL url = getURL();
+                message.put(Message.ENDPOINT_ADDRESS, defaultEndpointURLString);
+                return url;
+            }
+            result = getURL().toString();
+            message.put(Message.ENDPOINT_ADDRESS, result);
+        }
+
+        // REVISIT: is this really correct?
+        if (null != pathInfo && !result.endsWith(pathInfo)) {
+            result = result + pathInfo;
+        }
+        if (queryString != null) {
+            result = result + "?" + queryString;
+        }
+        return new URL(result);
+    }
+
+    /**
+     * @return the default target URL
+     */
+    protected URL getURL() throws MalformedURLException {
+        return getURL(true);
+    }
+
+    /**
+     * @param createOnDemand create URL on-demand if null
+     * @return the default target URL
+     */
+    protected synchronized URL getURL(boolean createOnDemand)
+        throws MalformedURLException {
+        if (defaultEndpointURL == null && createOnDemand) {
+            if (fromEndpointReferenceType && getTarget().getAddress().getValue() != null) {
+                defaultEndpointURL = new URL(this.getTarget().getAddress().getValue());
+                defaultEndpointURLString = defaultEndpointURL.toExternalForm();
+                return defaultEndpointURL;
+            }
+            if (endpointInfo.getAddress() == null) {
+                throw new MalformedURLException("Invalid address. Endpoint address cannot be null.");
+            }
+            defaultEndpointURL = new URL(endpointInfo.getAddress());
+            defaultEndpointURLString = defaultEndpointURL.toExternalForm();
+        }
+        return defaultEndpointURL;
+    }
+
+    /**
+     * Creates a buffer for the body of a request, large enough for the body of the previous
+     * request with a body.
+     * @return a new {@code PayloadBuffer}.
+     */
+    protected PayloadBuffer createPayloadBuffer() {
+        return new PayloadBuffer(payloadSizeHint);
+    }
+
+    /**
+     * Remembers the size of a request body as the size of the next request buffers.
+     * @param size the size in bytes.
+     */
+    protected void updatePayloadSizeHint(int size) {
+        if (size > 0) payloadSizeHint = Math.min(size, MAX_PAYLOAD_SIZE_HINT);
+    }
+
+    /**
+     * Passes a response to the incoming observer.
+     * @param outMessage the request message.
+     * @param url the URL the request was sent to.
+     * @param responseCode the HTTP status code of the response.
+     * @param headers the response headers, with case insensitive names. The map becomes the
+     * protocol headers of the response message, without copying.
+     * @param content the response body, may be {@code null}. It is not copied.
+     * @throws IOException if the status is an error not handled by the caller, or the
+     * charset of the response is not supported.
+     */
+    protected void handleResponse(Message outMessage, URL url, int responseCode,
+            Map<String, List<String>> headers, byte[] content) throws IOException {
+
+        Exchange exchange = outMessage.getExchange();
+        if (exchange != null) {
+            exchange.put(Message.RESPONSE_CODE, responseCode);
+        }
+
+        // This property should be set in case the exceptions should not be handled here
+        // For example jax rs uses this
+        boolean noExceptions = MessageUtils.isTrue(outMessage.getContextualProperty(
+            "org.apache.cxf.http.no_io_exceptions"));
+        if (responseCode >= 400 && responseCode != 500 && !noExceptions) {
+            throw new HTTPException(responseCode, null, url);
+        }
+
+        Message inMessage = new MessageImpl();
+        inMessage.setExchange(exchange);
+
+        // Handle headers.
+        inMessage.put(Message.PROTOCOL_HEADERS, headers);
+        List<String> contentType = headers.get("Content-Type");
+        String ct = contentType == null || contentType.isEmpty() ? null : contentType.get(0);
+
+        inMessage.put(Message.RESPONSE_CODE, responseCode);
+        inMessage.put(Message.CONTENT_TYPE, ct);
+
+        String charset = HttpHeaderHelper.findCharset(ct);
+        String normalizedEncoding = HttpHeaderHelper.mapCharset(charset);
+        if (normalizedEncoding == null) {
+            String m = new org.apache.cxf.common.i18n.Message("INVALID_ENCODING_MSG",
+                    getLogger(), charset).toString();
+            getLogger().log(Level.WARNING, m);
+            throw new IOException(m);
+        }
+        inMessage.put(Message.ENCODING, normalizedEncoding);
+
+        InputStream in = new ByteArrayInputStream(content != null ? content : EMPTY_CONTENT);
+        inMessage.setContent(InputStream.class, in);
+
+        DummyHttpURLConnection conn = new DummyHttpURLConnection(url, in, headers);
+        outMessage.put(HTTPConduit.KEY_HTTP_CONNECTION, conn);
+
+        incomingObserver.onMessage(inMessage);
+    }
+
+    /**
+     * A buffer for request bodies, handing over its contents without copying when it was
+     * sized exactly.
+     */
+    static final class PayloadBuffer extends ByteArrayOutputStream {
+
+        PayloadBuffer(int size) {
+            super(size);
+        }
+
+        /**
+         * @return the buffered bytes, the internal array itself if it is full.
+         */
+        synchronized byte[] toPayload() {
+            return count == buf.length ? buf : Arrays.copyOf(buf, count);
+        }
+
+        /**
+         * @return the internal array, holding {@link #size()} bytes from its start.
+         */
+        synchronized byte[] getBuffer() {
+            return buf;
+        }
+
+    }
+
+    /**
+     * WebClient (actually AbstractClient) expects an HttpURLConnection to be set
+     * as a property of the message by HTTPConduit. We have to add an appropriate
+     * instance to let the code flow as usually.
+     */
+    protected static class DummyHttpURLConnection extends HttpURLConnection {
+
+        private InputStream in;
+        private Map<String, List<String>> headers;
+
+        public DummyHttpURLConnection(URL u, InputStream out, Map<String, List<String>> headers) {
+            super(u);
+            this.in = out;
+            this.headers = headers;
+        }
+
+        @Override
+        public void disconnect() { }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public void connect() throws IOException { }
+
+        @Override
+        public InputStream getErrorStream() {
+            return in;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return in;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return headers;
+        }
+
+
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.pynode.cxf.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time by which the requests made by the current thread must complete. The GAE
+ * transport passes the time remaining to URLFetch as the deadline of each request, and fails
+ * requests made after it has passed without sending them. Calls made through an
+ * {@link com.pynode.rackspace.client.AsyncRackspaceCloudClient AsyncRackspaceCloudClient}
+ * inherit the deadline of the thread that made them.<br />
+ * A handler on App Engine would typically set it from the deadline of the request it serves,
+ * leaving enough time to respond.
+ * @author Christos Fragoulides
+ */
+public final class FetchDeadline {
+
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<Long>();
+
+    private FetchDeadline() { }
+
+    /**
+     * Sets the deadline of the current thread to the given time from now.
+     * @param timeout the time available to requests.
+     * @param unit the unit of {@code timeout}.
+     */
+    public static void set(long timeout, TimeUnit unit) {
+        setAt(System.currentTimeMillis() + unit.toMillis(timeout));
+    }
+
+    /**
+     * Sets the deadline of the current thread.
+     * @param deadline the time in milliseconds since the epoch, zero to clear the deadline.
+     */
+    public static void setAt(long deadline) {
+        if (deadline == 0) DEADLINE.remove();
+        else DEADLINE.set(deadline);
+    }
+
+    /**
+     * Gets the deadline of the current thread.
+     * @return the time in milliseconds since the epoch, zero if no deadline is set.
+     */
+    public static long get() {
+        Long deadline = DEADLINE.get();
+        return deadline == null ? 0 : deadline;
+    }
+
+    /**
+     * Gets the time remaining until the deadline of the current thread.
+     * @return the time in milliseconds, zero if the deadline has passed, negative if no
+     * deadline is set.
+     */
+    public static long getRemaining() {
+        Long deadline = DEADLINE.get();
+        return deadline == null ? -1 : Math.max(deadline - System.currentTimeMillis(), 0);
+    }
+
+    /**
+     * Clears the deadline of the current thread.
+     */
+    public static void clear() {
+        DEADLINE.remove();
+    }
+
+}
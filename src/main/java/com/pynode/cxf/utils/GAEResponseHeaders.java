@@ -0,0 +1,85 @@
+package com.pynode.cxf.utils;
+
+import com.google.appengine.api.urlfetch.HTTPHeader;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The headers of a URLFetch response, the way CXF expects protocol headers: names are case
+ * insensitive, each header line is a value of its name. CXF reads only a few headers of a
+ * response, so headers are looked up when asked for, and the whole map is built only if it
+ * is iterated or modified.
+ * @author Christos Fragoulides
+ */
+final class GAEResponseHeaders extends AbstractMap<String, List<String>> {
+
+    private final List<HTTPHeader> headers;
+    /** Values already looked up, handed out again so that changes to them are kept. */
+    private final Map<String, List<String>> found =
+            new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+    /** All the headers, {@code null} until needed. */
+    private Map<String, List<String>> parsed;
+
+    GAEResponseHeaders(List<HTTPHeader> headers) {
+        this.headers = headers;
+    }
+
+    @Override
+    public List<String> get(Object key) {
+        if (parsed != null) return parsed.get(key);
+        if (!(key instanceof String)) return null;
+        List<String> result = found.get(key);
+        if (result != null) return result;
+        for (HTTPHeader header : headers) {
+            if (!header.getName().equalsIgnoreCase((String) key)) continue;
+            if (result == null) result = new ArrayList<String>(1);
+            result.add(header.getValue());
+        }
+        if (result != null) found.put((String) key, result);
+        return result;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public List<String> put(String key, List<String> value) {
+        return parse().put(key, value);
+    }
+
+    @Override
+    public List<String> remove(Object key) {
+        return parse().remove(key);
+    }
+
+    @Override
+    public Set<Map.Entry<String, List<String>>> entrySet() {
+        return parse().entrySet();
+    }
+
+    private Map<String, List<String>> parse() {
+        if (parsed == null) {
+            Map<String, List<String>> result =
+                    new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+            result.putAll(found);
+            for (HTTPHeader header : headers) {
+                if (found.containsKey(header.getName())) continue;
+                List<String> values = result.get(header.getName());
+                if (values == null) {
+                    values = new ArrayList<String>(1);
+                    result.put(header.getName(), values);
+                }
+                values.add(header.getValue());
+            }
+            parsed = result;
+        }
+        return parsed;
+    }
+
+}
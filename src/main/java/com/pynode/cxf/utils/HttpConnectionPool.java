@@ -0,0 +1,251 @@
+package com.pynode.cxf.utils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * A pool of persistent (keep-alive) HTTP connections, shared by the clients using a
+ * {@link PooledHttpTransportFactory}, so that calls reuse open connections instead of
+ * connecting, and negotiating TLS, anew.<br />
+ * Connections left idle for longer than the {@linkplain #setIdleTimeout(long) idle timeout}
+ * are closed while requests are made, no background thread is used. Requests are not
+ * pipelined: a connection carries one request at a time, concurrent requests use separate
+ * connections, up to the per host limit.
+ * @author Christos Fragoulides
+ */
+public class HttpConnectionPool {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 10;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_READ_TIMEOUT = 60000;
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+    private static volatile HttpConnectionPool shared;
+
+    private final PoolingClientConnectionManager connectionManager;
+    private final DefaultHttpClient httpClient;
+
+    private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    /** Earliest time idle connections are checked again. */
+    private final AtomicLong nextEviction = new AtomicLong();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+
+    public HttpConnectionPool() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    }
+
+    public HttpConnectionPool(int maxConnections, int maxConnectionsPerHost) {
+        connectionManager = new PoolingClientConnectionManager(SchemeRegistryFactory.createDefault());
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setUseExpectContinue(params, false);
+        HttpConnectionParams.setConnectionTimeout(params, DEFAULT_CONNECT_TIMEOUT);
+        HttpConnectionParams.setSoTimeout(params, DEFAULT_READ_TIMEOUT);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        httpClient = new DefaultHttpClient(connectionManager, params);
+    }
+
+    /**
+     * Returns a pool shared by all the clients that do not need one of their own, created
+     * with the default settings on first use.
+     * @return the shared {@code HttpConnectionPool}.
+     */
+    public static HttpConnectionPool getShared() {
+        HttpConnectionPool result = shared;
+        if (result == null) {
+            synchronized (HttpConnectionPool.class) {
+                result = shared;
+                if (result == null) {
+                    result = new HttpConnectionPool();
+                    shared = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Executes a request on a pooled connection. The caller must consume the entity of the
+     * response, or abort the request, for the connection to be returned to the pool.
+     */
+    HttpResponse execute(HttpUriRequest request) throws IOException {
+        evictIdleConnections(System.currentTimeMillis());
+        requestCount.incrementAndGet();
+        try {
+            return httpClient.execute(request);
+        } catch (IOException e) {
+            failureCount.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the connections idle for longer than the idle timeout, at most once per half
+     * the timeout.
+     */
+    private void evictIdleConnections(long now) {
+        long timeout = idleTimeout;
+        if (timeout <= 0) return;
+        long next = nextEviction.get();
+        if (now < next || !nextEviction.compareAndSet(next, now + timeout / 2)) return;
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes all the connections. The pool may not be used afterwards.
+     */
+    public void shutdown() {
+        connectionManager.shutdown();
+    }
+
+    /* -------------------------    Settings    ------------------------- */
+
+    public int getMaxConnections() {
+        return connectionManager.getMaxTotal();
+    }
+
+    /**
+     * Sets the maximum number of connections open at once, to all hosts.
+     * @param maxConnections the number of connections.
+     */
+    public void setMaxConnections(int maxConnections) {
+        connectionManager.setMaxTotal(maxConnections);
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return connectionManager.getDefaultMaxPerRoute();
+    }
+
+    /**
+     * Sets the maximum number of connections open at once to a single host. Requests made
+     * while all of them are in use wait for one to be released.
+     * @param maxConnectionsPerHost the number of connections.
+     */
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+    }
+
+    public int getConnectTimeout() {
+        return HttpConnectionParams.getConnectionTimeout(httpClient.getParams());
+    }
+
+    /**
+     * Sets the time to wait for a connection to be established.
+     * @param connectTimeout the timeout in milliseconds, zero for no timeout.
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        HttpConnectionParams.setConnectionTimeout(httpClient.getParams(), connectTimeout);
+    }
+
+    public int getReadTimeout() {
+        return HttpConnectionParams.getSoTimeout(httpClient.getParams());
+    }
+
+    /**
+     * Sets the time to wait for data from an established connection.
+     * @param readTimeout the timeout in milliseconds, zero for no timeout.
+     */
+    public void setReadTimeout(int readTimeout) {
+        HttpConnectionParams.setSoTimeout(httpClient.getParams(), readTimeout);
+    }
+
+    public boolean isTcpNoDelay() {
+        return httpClient.getParams().getBooleanParameter(CoreConnectionPNames.TCP_NODELAY, true);
+    }
+
+    /**
+     * Sets whether Nagle's algorithm is disabled on new connections. Enabled by default,
+     * since requests and responses are small and sent whole.
+     * @param tcpNoDelay {@code true} to send packets without delay.
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        HttpConnectionParams.setTcpNoDelay(httpClient.getParams(), tcpNoDelay);
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets the time after which idle connections are closed. It should be shorter than the
+     * time the servers keep idle connections open, to avoid reusing connections closed by
+     * the server.
+     * @param idleTimeout the timeout in milliseconds, zero to keep idle connections open.
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        nextEviction.set(0);
+    }
+
+    /* -------------------------    Statistics    ------------------------- */
+
+    /**
+     * Gets the number of connections carrying a request.
+     * @return the number of connections.
+     */
+    public int getLeasedConnections() {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    /**
+     * Gets the number of open connections waiting to be reused.
+     * @return the number of connections.
+     */
+    public int getAvailableConnections() {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    /**
+     * Gets the number of requests waiting for a connection, because the connection limits
+     * have been reached.
+     * @return the number of requests.
+     */
+    public int getPendingRequests() {
+        return connectionManager.getTotalStats().getPending();
+    }
+
+    /**
+     * Gets the number of requests made through this pool.
+     * @return the number of requests.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Gets the number of requests that failed with an I/O error.
+     * @return the number of requests.
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    @Override
+    public String toString() {
+        PoolStats stats = connectionManager.getTotalStats();
+        return String.format("HttpConnectionPool[leased=%1$d, available=%2$d, pending=%3$d, max=%4$d, "
+                + "requests=%5$d, failures=%6$d]", stats.getLeased(), stats.getAvailable(),
+                stats.getPending(), stats.getMax(), getRequestCount(), getFailureCount());
+    }
+
+}
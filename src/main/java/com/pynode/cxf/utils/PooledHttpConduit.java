@@ -0,0 +1,188 @@
+package com.pynode.cxf.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import org.apache.cxf.Bus;
+import org.apache.cxf.common.logging.LogUtils;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.service.model.EndpointInfo;
+import org.apache.cxf.transport.http.Headers;
+import org.apache.cxf.ws.addressing.EndpointReferenceType;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * A conduit sending requests through the persistent connections of an
+ * {@link HttpConnectionPool}, instead of a new {@code HttpURLConnection} per request.
+ * @author Christos Fragoulides
+ */
+class PooledHttpConduit extends AbstractHttpConduit {
+
+    private static final Logger LOGGER = LogUtils.getL7dLogger(PooledHttpConduit.class);
+
+    private final HttpConnectionPool pool;
+
+    public PooledHttpConduit(Bus bus, EndpointInfo endpointInfo, EndpointReferenceType target,
+            HttpConnectionPool pool) throws IOException {
+        super(bus, endpointInfo, target);
+        this.pool = pool;
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return LOGGER;
+    }
+
+    @Override
+    public void prepare(Message message) throws IOException {
+
+        // This call can possibly change the conduit endpoint address and
+        // protocol from the default set in EndpointInfo that is associated
+        // with the Conduit.
+        URL url = setupURL(message);
+
+        // If the HTTP_REQUEST_METHOD is not set, the default is "POST".
+        String method = (String) message.get(Message.HTTP_REQUEST_METHOD);
+        if (method == null) method = "POST";
+
+        OutputStream out = new WrappedOutputStream(message, url, method);
+        message.setContent(OutputStream.class, out);
+    }
+
+    protected class WrappedOutputStream extends OutputStream {
+
+        private Message outMessage;
+        private URL url;
+        private String method;
+        private PayloadBuffer out;
+
+        public WrappedOutputStream(Message message, URL url, String method) {
+            outMessage = message;
+            this.url = url;
+            this.method = method;
+            out = createPayloadBuffer();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        /**
+         * Time to send the request and handle the response.
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            HttpRequestBase request = createRequest();
+
+            // Handle Headers. The client computes the length of the body itself.
+            Map<String, List<String>> headers = Headers.getSetProtocolHeaders(outMessage);
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if ("content-length".equalsIgnoreCase(header.getKey())
+                        || "transfer-encoding".equalsIgnoreCase(header.getKey())) continue;
+                for (String value : header.getValue()) request.addHeader(header.getKey(), value);
+            }
+
+            HttpResponse response = pool.execute(request);
+            byte[] content;
+            try {
+                HttpEntity entity = response.getEntity();
+                // Reading the whole body releases the connection back to the pool.
+                content = entity == null ? null : EntityUtils.toByteArray(entity);
+            } catch (IOException e) {
+                request.abort();
+                throw e;
+            }
+
+            Map<String, List<String>> responseHeaders =
+                    new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+            for (Header header : response.getAllHeaders()) {
+                List<String> values = responseHeaders.get(header.getName());
+                if (values == null) {
+                    values = new ArrayList<String>(1);
+                    responseHeaders.put(header.getName(), values);
+                }
+                values.add(header.getValue());
+            }
+            handleResponse(outMessage, url, response.getStatusLine().getStatusCode(), responseHeaders,
+                    content);
+        }
+
+        private HttpRequestBase createRequest() throws IOException {
+            URI uri;
+            try {
+                uri = url.toURI();
+            } catch (URISyntaxException e) {
+                throw new IOException("Invalid request URL: " + url, e);
+            }
+            int size = out.size();
+            if (size == 0 && !"POST".equals(method) && !"PUT".equals(method)) {
+                return new Request(method, uri);
+            }
+            updatePayloadSizeHint(size);
+            EntityRequest request = new EntityRequest(method, uri);
+            // The buffer is sent as is, without copying.
+            request.setEntity(new ByteArrayEntity(out.getBuffer(), 0, size));
+            return request;
+        }
+
+    }
+
+    /**
+     * A request of any method, without a body.
+     */
+    private static class Request extends HttpRequestBase {
+
+        private final String method;
+
+        Request(String method, URI uri) {
+            this.method = method;
+            setURI(uri);
+        }
+
+        @Override
+        public String getMethod() {
+            return method;
+        }
+
+    }
+
+    /**
+     * A request of any method, with a body.
+     */
+    private static class EntityRequest extends HttpEntityEnclosingRequestBase {
+
+        private final String method;
+
+        EntityRequest(String method, URI uri) {
+            this.method = method;
+            setURI(uri);
+        }
+
+        @Override
+        public String getMethod() {
+            return method;
+        }
+
+    }
+
+}
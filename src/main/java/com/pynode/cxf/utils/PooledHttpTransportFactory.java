@@ -0,0 +1,37 @@
+package com.pynode.cxf.utils;
+
+import java.io.IOException;
+import org.apache.cxf.service.model.EndpointInfo;
+import org.apache.cxf.transport.Conduit;
+import org.apache.cxf.transport.http.HTTPTransportFactory;
+import org.apache.cxf.ws.addressing.EndpointReferenceType;
+
+/**
+ * A modified version of CXF's HTTPTransportFactory, that will use {@code PooledHttpConduit}
+ * instead of CXF's {@code HTTPConduit}, sending requests over the persistent connections of
+ * an {@link HttpConnectionPool}.
+ * @author Christos Fragoulides
+ */
+public class PooledHttpTransportFactory extends HTTPTransportFactory {
+
+    private final HttpConnectionPool pool;
+
+    public PooledHttpTransportFactory(HttpConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public HttpConnectionPool getPool() {
+        return pool;
+    }
+
+    @Override
+    public Conduit getConduit(EndpointInfo endpointInfo) throws IOException {
+        return getConduit(endpointInfo, endpointInfo.getTarget());
+    }
+
+    @Override
+    public Conduit getConduit(EndpointInfo endpointInfo, EndpointReferenceType target) throws IOException {
+        return new PooledHttpConduit(bus, endpointInfo, target, pool);
+    }
+
+}
@@ -0,0 +1,551 @@
+package com.pynode.rackspace.client;
+
+import com.pynode.cxf.utils.FetchDeadline;
+import com.rackspace.cloud.api.AddressList;
+import com.rackspace.cloud.api.Addresses;
+import com.rackspace.cloud.api.BackupSchedule;
+import com.rackspace.cloud.api.ConfirmResize;
+import com.rackspace.cloud.api.Flavor;
+import com.rackspace.cloud.api.Flavors;
+import com.rackspace.cloud.api.Image;
+import com.rackspace.cloud.api.Images;
+import com.rackspace.cloud.api.Limits;
+import com.rackspace.cloud.api.Reboot;
+import com.rackspace.cloud.api.Rebuild;
+import com.rackspace.cloud.api.Resize;
+import com.rackspace.cloud.api.RevertResize;
+import com.rackspace.cloud.api.Server;
+import com.rackspace.cloud.api.Servers;
+import com.rackspace.cloud.api.ShareIp;
+import com.rackspace.cloud.api.SharedIpGroup;
+import com.rackspace.cloud.api.SharedIpGroups;
+import com.rackspace.cloud.api.Version;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An asynchronous facade of {@link RackspaceCloudClient}. Every operation of the client is
+ * submitted to an {@link ExecutorService} and a {@link Future} of its result is returned
+ * immediately, allowing a caller to fan out many remote calls without dedicating a thread
+ * to each one of them.<br />
+ * All the calls are delegated to the wrapped client, so re-authentication, retries and any
+ * registered {@link com.pynode.rackspace.client.aop.Interceptor Interceptor} apply as usual.
+ * A failed call results in an {@link java.util.concurrent.ExecutionException ExecutionException}
+ * whose cause is the {@link RackspaceCloudClientException} raised by the client.<br />
+ * When no executor is given, one running each task on a virtual thread is used if the JVM
+ * supports them, otherwise a cached pool of daemon threads. For a GAE compatible client the
+ * calls run on request threads of App Engine, so such an instance must be created, used and
+ * shut down while serving a single request.<br />
+ * Calls inherit the {@link FetchDeadline} of the thread that made them, so the calls fanned
+ * out by a request handler are all due by its deadline.
+ * Note that {@link RackspaceCloudClient#getResponse()} is bound to the thread that made the
+ * call and is not meaningful for calls made through this class.
+ * @author Christos Fragoulides
+ */
+public class AsyncRackspaceCloudClient {
+    
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncRackspaceCloudClient.class);
+    
+    private final RackspaceCloudClient client;
+    private final ExecutorService executor;
+    /** Whether the executor was created by this instance and should be shut down by it. */
+    private final boolean ownExecutor;
+
+    /**
+     * Creates an asynchronous client using the default executor.
+     * @param client the client that will make the actual calls.
+     */
+    public AsyncRackspaceCloudClient(RackspaceCloudClient client) {
+        this.client = client;
+        this.executor = client.isAppEngineCompatible() ? GAEExecutors.newRequestThreadPool()
+                : createDefaultExecutor();
+        this.ownExecutor = true;
+    }
+
+    /**
+     * Creates an asynchronous client that will run the calls using the given executor.
+     * @param client the client that will make the actual calls.
+     * @param executor the {@code ExecutorService} to submit the calls to. It is not shut down
+     * by {@link #shutdown()}.
+     */
+    public AsyncRackspaceCloudClient(RackspaceCloudClient client, ExecutorService executor) {
+        this.client = client;
+        this.executor = executor;
+        this.ownExecutor = false;
+    }
+    
+    /* -------------------------    General API Calls    ------------------------- */
+    
+    public Future<Version> getVersionDetails() {
+        return submit(new Callable<Version>() {
+
+            @Override
+            public Version call() throws RackspaceCloudClientException {
+                return client.getVersionDetails();
+            }
+            
+        });
+    }
+    
+    public Future<Limits> listLimits() {
+        return submit(new Callable<Limits>() {
+
+            @Override
+            public Limits call() throws RackspaceCloudClientException {
+                return client.listLimits();
+            }
+            
+        });
+    }
+    
+    /* -------------------------  Server Images methods  ------------------------- */
+    
+    public Future<Images> listImages(final Long changesSince, final Long offset, final Long limit) {
+        return submit(new Callable<Images>() {
+
+            @Override
+            public Images call() throws RackspaceCloudClientException {
+                return client.listImages(changesSince, offset, limit);
+            }
+            
+        });
+    }
+    
+    public Future<Images> listImagesDetail(final Long changesSince, final Long offset, final Long limit) {
+        return submit(new Callable<Images>() {
+
+            @Override
+            public Images call() throws RackspaceCloudClientException {
+                return client.listImagesDetail(changesSince, offset, limit);
+            }
+            
+        });
+    }
+    
+    public Future<Image> getImage(final int imageId) {
+        return submit(new Callable<Image>() {
+
+            @Override
+            public Image call() throws RackspaceCloudClientException {
+                return client.getImage(imageId);
+            }
+            
+        });
+    }
+    
+    public Future<Image> createImage(final Image image) {
+        return submit(new Callable<Image>() {
+
+            @Override
+            public Image call() throws RackspaceCloudClientException {
+                return client.createImage(image);
+            }
+            
+        });
+    }
+    
+    public Future<Void> deleteImage(final int imageId) {
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws RackspaceCloudClientException {
+                client.deleteImage(imageId);
+                return null;
+            }
+            
+        });
+    }
+    
+    /* -------------------------     Server methods      ------------------------- */
+    
+    public Future<Servers> listServers(final Long changesSince, final Long offset, final Long limit) {
+        return submit(new Callable<Servers>() {
+
+            @Override
+            public Servers call() throws RackspaceCloudClientException {
+                return client.listServers(changesSince, offset, limit);
+            }
+            
+        });
+    }
+    
+    public Future<Servers> listServersDetail(final Long changesSince, final Long offset, final Long limit) {
+        return submit(new Callable<Servers>() {
+
+            @Override
+            public Servers call() throws RackspaceCloudClientException {
+                return client.listServersDetail(changesSince, offset, limit);
+            }
+            
+        });
+    }
+    
+    public Future<Server> createServer(final Server server) {
+        return submit(new Callable<Server>() {
+
+            @Override
+            public Server call() throws RackspaceCloudClientException {
+                return client.createServer(server);
+            }
+            
+        });
+    }
+    
+    public Future<Server> getServer(final int serverId) {
+        return submit(new Callable<Server>() {
+
+            @Override
+            public Server call() throws RackspaceCloudClientException {
+                return client.getServer(serverId);
+            }
+            
+        });
+    }
+    
+    public Future<Void> updateServer(final int serverId, final Server newValues) {
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws RackspaceCloudClientException {
+                client.updateServer(serverId, newValues);
+                return null;
+            }
+            
+        });
+    }
+    
+    public Future<Void> deleteServer(final int serverId) {
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws RackspaceCloudClientException {
+                client.deleteServer(serverId);
+                return null;
+            }
+            
+        });
+    }
+    
+    /* -------------------------    Server Addresses     ------------------------- */
+    
+    public Future<Addresses> listAddresses(final int serverId, final Long changesSince) {
+        return submit(new Callable<Addresses>() {
+
+            @Override
+            public Addresses call() throws RackspaceCloudClientException {
+                return client.listAddresses(serverId, changesSince);
+            }
+            
+        });
+    }
+    
+    public Future<AddressList> listPublicAddresses(final int serverId, final Long changesSince) {
+        return submit(new Callable<AddressList>() {
+
+            @Override
+            public AddressList call() throws RackspaceCloudClientException {
+                return client.listPublicAddresses(serverId, changesSince);
+            }
+            
+        });
+    }
+    
+    public Future<AddressList> listPrivateAddresses(final int serverId, final Long changesSince) {
+        return submit(new Callable<AddressList>() {
+
+            @Override
+            public AddressList call() throws RackspaceCloudClientException {
+                return client.listPrivateAddresses(serverId, changesSince);
+            }
+            
+        });
+    }
+    
+    public Future<Void> shareIP(final int serverId, final String ip, final ShareIp shareIp) {
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws RackspaceCloudClientException {
+                client.shareIP(serverId, ip, shareIp);
+                return null;
+            }
+            
+        });
+    }
+    
+    public Future<Void> unshareIP(final int serverId, final String ip, final ShareIp shareIp) {
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws RackspaceCloudClientException {
+                client.unshareIP(serverId, ip, shareIp);
+                return null;
+            }
+            
+        });
+    }
+    
+    /* -------------------------     Server Actions      ------------------------- */
+    
+    public Future<Void> action(final int serverId, final Reboot reboot) {
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws RackspaceCloudClientException {
+                client.action(serverId, reboot);
+                return null;
+            }
+            
+        });
+    }
+    
+    public Future<Void> action(final int serverId, final Rebuild rebuild) {
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws RackspaceCloudClientException {
+                client.action(serverId, rebuild);
+                return null;
+            }
+            
+        });
+    }
+    
+    public Future<Void> action(final int serverId, final Resize resize) {
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws RackspaceCloudClientException {
+                client.action(serverId, resize);
+                return null;
+            }
+            
+        });
+    }
+    
+    public Future<Void> action(final int serverId, final ConfirmResize confResize) {
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws RackspaceCloudClientException {
+                client.action(serverId, confResize);
+                return null;
+            }
+            
+        });
+    }
+    
+    public Future<Void> action(final int serverId, final RevertResize revertResize) {
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws RackspaceCloudClientException {
+                client.action(serverId, revertResize);
+                return null;
+            }
+            
+        });
+    }
+    
+    /* -------------------------         Flavors         ------------------------- */
+    
+    public Future<Flavors> listFlavors(final Long changesSince, final Long offset, final Long limit) {
+        return submit(new Callable<Flavors>() {
+
+            @Override
+            public Flavors call() throws RackspaceCloudClientException {
+                return client.listFlavors(changesSince, offset, limit);
+            }
+            
+        });
+    }
+    
+    public Future<Flavors> listFlavorsDetail(final Long changesSince, final Long offset, final Long limit) {
+        return submit(new Callable<Flavors>() {
+
+            @Override
+            public Flavors call() throws RackspaceCloudClientException {
+                return client.listFlavorsDetail(changesSince, offset, limit);
+            }
+            
+        });
+    }
+    
+    public Future<Flavor> getFlavor(final int flavorId) {
+        return submit(new Callable<Flavor>() {
+
+            @Override
+            public Flavor call() throws RackspaceCloudClientException {
+                return client.getFlavor(flavorId);
+            }
+            
+        });
+    }
+    
+    /* -------------------------    Backup Schedules     ------------------------- */
+    
+    public Future<BackupSchedule> getBackupSchedule(final int serverId) {
+        return submit(new Callable<BackupSchedule>() {
+
+            @Override
+            public BackupSchedule call() throws RackspaceCloudClientException {
+                return client.getBackupSchedule(serverId);
+            }
+            
+        });
+    }
+    
+    public Future<Void> setBackupSchedule(final int serverId, final BackupSchedule schedule) {
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws RackspaceCloudClientException {
+                client.setBackupSchedule(serverId, schedule);
+                return null;
+            }
+            
+        });
+    }
+    
+    public Future<Void> disableBackupSchedule(final int serverId) {
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws RackspaceCloudClientException {
+                client.disableBackupSchedule(serverId);
+                return null;
+            }
+            
+        });
+    }
+    
+    /* -------------------------    Shared IP Groups     ------------------------- */
+    
+    public Future<SharedIpGroups> listSharedIpGroups(final Long changesSince, final Long offset,
+            final Long limit) {
+        return submit(new Callable<SharedIpGroups>() {
+
+            @Override
+            public SharedIpGroups call() throws RackspaceCloudClientException {
+                return client.listSharedIpGroups(changesSince, offset, limit);
+            }
+            
+        });
+    }
+    
+    public Future<SharedIpGroups> listSharedIpGroupsDetail(final Long changesSince, final Long offset,
+            final Long limit) {
+        return submit(new Callable<SharedIpGroups>() {
+
+            @Override
+            public SharedIpGroups call() throws RackspaceCloudClientException {
+                return client.listSharedIpGroupsDetail(changesSince, offset, limit);
+            }
+            
+        });
+    }
+    
+    public Future<SharedIpGroup> createSharedIpGroup(final SharedIpGroup sharedIpGroup) {
+        return submit(new Callable<SharedIpGroup>() {
+
+            @Override
+            public SharedIpGroup call() throws RackspaceCloudClientException {
+                return client.createSharedIpGroup(sharedIpGroup);
+            }
+            
+        });
+    }
+    
+    public Future<SharedIpGroup> getSharedIpGroup(final int sharedIpGroupId) {
+        return submit(new Callable<SharedIpGroup>() {
+
+            @Override
+            public SharedIpGroup call() throws RackspaceCloudClientException {
+                return client.getSharedIpGroup(sharedIpGroupId);
+            }
+            
+        });
+    }
+    
+    public Future<Void> deleteSharedIpGroup(final int sharedIpGroupId) {
+        return submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws RackspaceCloudClientException {
+                client.deleteSharedIpGroup(sharedIpGroupId);
+                return null;
+            }
+            
+        });
+    }
+    
+    /* ------------------------- Client Internal Works ------------------------- */
+    
+    <T> Future<T> submit(final Callable<T> call) {
+        final long deadline = FetchDeadline.get();
+        if (deadline == 0) return executor.submit(call);
+        
+        // Due by the deadline of the caller.
+        return executor.submit(new Callable<T>() {
+
+            @Override
+            public T call() throws Exception {
+                long previous = FetchDeadline.get();
+                FetchDeadline.setAt(deadline);
+                try {
+                    return call.call();
+                } finally {
+                    FetchDeadline.setAt(previous);
+                }
+            }
+            
+        });
+    }
+    
+    /**
+     * Returns the synchronous client calls are delegated to.
+     * @return the wrapped {@code RackspaceCloudClient}.
+     */
+    public RackspaceCloudClient getClient() {
+        return client;
+    }
+    
+    /**
+     * Returns the executor the calls are submitted to.
+     * @return the {@code ExecutorService} of this instance.
+     */
+    ExecutorService getExecutor() {
+        return executor;
+    }
+    
+    /**
+     * Shuts down the executor of this instance, if it was created by it. Calls already
+     * submitted will complete.
+     */
+    public void shutdown() {
+        if (ownExecutor) executor.shutdown();
+    }
+    
+    /**
+     * Creates a virtual thread per task executor when running on a JVM that supports it,
+     * falling back to a cached thread pool of daemon threads.
+     * @return the default {@code ExecutorService}.
+     */
+    private static ExecutorService createDefaultExecutor() {
+        try {
+            // Looked up reflectively, since virtual threads are not available to our source level.
+            Object virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LOGGER.debug("Using a virtual thread per task executor.");
+            return (ExecutorService) virtual;
+        } catch (Exception e) {
+            LOGGER.debug("Virtual threads not supported, using a cached thread pool.");
+        }
+        
+        return Executors.newCachedThreadPool(new DaemonThreadFactory("rackspace-async-"));
+    }
+    
+}
@@ -0,0 +1,57 @@
+package com.pynode.rackspace.client;
+
+import java.net.URI;
+
+/**
+ * The result of a successful authentication against Rackspace Cloud Servers: the auth token,
+ * along with the account ID and base URI extracted from the management URL. Instances are
+ * immutable, so that a thread making a call always sees a consistent set of values, and are
+ * replaced as a whole by {@link RackspaceCloudClient} whenever it re-authenticates.
+ * @author Christos Fragoulides
+ */
+public final class AuthSession {
+
+    private final String authToken;
+    private final long accountId;
+    private final URI baseUri;
+    private final long issuedAt;
+
+    AuthSession(String authToken, long accountId, URI baseUri, long issuedAt) {
+        this.authToken = authToken;
+        this.accountId = accountId;
+        this.baseUri = baseUri;
+        this.issuedAt = issuedAt;
+    }
+
+    public String getAuthToken() {
+        return authToken;
+    }
+
+    public long getAccountId() {
+        return accountId;
+    }
+
+    /**
+     * Base URL for Cloud Servers API calls.
+     * @return the base {@code URI}.
+     * @see <a href="http://docs.rackspace.com/servers/api/cs-bindguide-latest.pdf">
+     * API Language Binding Guide, section "Authentication"</a>
+     */
+    public URI getBaseUri() {
+        return baseUri;
+    }
+
+    /**
+     * Gets the time this session was issued at.
+     * @return the time in milliseconds, as returned by {@link System#currentTimeMillis()}.
+     */
+    public long getIssuedAt() {
+        return issuedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "AuthSession[accountId=" + accountId + ", baseUri=" + baseUri + ", issuedAt=" + issuedAt + "]";
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.pynode.rackspace.client;
+
+import com.rackspace.cloud.client.AccountID;
+import com.rackspace.cloud.client.FlavorsResource;
+import com.rackspace.cloud.client.ImagesResource;
+import com.rackspace.cloud.client.LimitsResource;
+import com.rackspace.cloud.client.ServersResource;
+import com.rackspace.cloud.client.SharedIpGroupsResource;
+import com.rackspace.cloud.client.Versions;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.cxf.jaxrs.client.JAXRSClientFactoryBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the CXF client proxies used by a {@link RackspaceCloudClient}.<br />
+ * Creating a proxy means building a {@code JAXRSClientFactoryBean}, along with its bus and
+ * transport, which costs far more than the remote call itself on a warm connection. The proxies
+ * kept here are created once per base URI (and account) in thread-safe mode, so they may be shared
+ * by all threads: request state and the last {@code Response} are kept per thread by CXF.
+ * @author Christos Fragoulides
+ */
+final class ClientProxyPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClientProxyPool.class);
+
+    private final RackspaceCloudClient client;
+
+    private final ConcurrentMap<URI, Versions> versions = new ConcurrentHashMap<URI, Versions>();
+    private final ConcurrentMap<String, AccountResources> accounts =
+            new ConcurrentHashMap<String, AccountResources>();
+
+    ClientProxyPool(RackspaceCloudClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Returns the proxy of the root resource for the given base URI, creating it if needed.
+     * @param baseUri the base URI of the Cloud Servers API.
+     * @return a thread-safe {@code Versions} proxy.
+     */
+    Versions getVersions(URI baseUri) {
+        Versions result = versions.get(baseUri);
+        if (result == null) {
+            Versions created = createVersions(baseUri);
+            result = versions.putIfAbsent(baseUri, created);
+            if (result == null) result = created;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the sub-resource proxies of the specified account, creating them if needed.
+     * @param baseUri the base URI of the Cloud Servers API.
+     * @param accountId the account ID.
+     * @return the {@code AccountResources} of the account.
+     */
+    AccountResources getAccountResources(URI baseUri, long accountId) {
+        String key = baseUri.toString() + '/' + accountId;
+        AccountResources result = accounts.get(key);
+        if (result == null) {
+            AccountResources created = new AccountResources(getVersions(baseUri).getAccountID(accountId));
+            result = accounts.putIfAbsent(key, created);
+            if (result == null) result = created;
+        }
+        return result;
+    }
+
+    /**
+     * Drops all the pooled proxies. Should be called whenever a setting that affects
+     * the creation of proxies changes.
+     */
+    void clear() {
+        versions.clear();
+        accounts.clear();
+    }
+
+    private Versions createVersions(URI baseUri) {
+
+        long timeTaken = -System.currentTimeMillis();
+
+        JAXRSClientFactoryBean clientFactory = client.getClientFactory();
+
+        clientFactory.setAddress(baseUri.toString());
+        clientFactory.setServiceClass(Versions.class);
+        clientFactory.setInheritHeaders(true);
+        clientFactory.setThreadSafe(true);
+
+        Versions result = clientFactory.create(Versions.class);
+
+        timeTaken += System.currentTimeMillis();
+        LOGGER.debug("Created pooled WebClient for [{}] in [{}] msec.", baseUri, timeTaken);
+
+        return result;
+    }
+
+    /**
+     * The resource proxies of a single account. Sub-resources derived from a thread-safe
+     * proxy are thread-safe as well.
+     */
+    static final class AccountResources {
+
+        private final AccountID account;
+        private final LimitsResource limitsResource;
+        private final ImagesResource imagesResource;
+        private final ServersResource serversResource;
+        private final FlavorsResource flavorsResource;
+        private final SharedIpGroupsResource sharedIpGroupsResource;
+
+        AccountResources(AccountID account) {
+            this.account = account;
+            limitsResource = account.getLimitsResource();
+            imagesResource = account.getImagesResource();
+            serversResource = account.getServersResource();
+            flavorsResource = account.getFlavorsResource();
+            sharedIpGroupsResource = account.getSharedIpGroupsResource();
+        }
+
+        AccountID getAccount() {
+            return account;
+        }
+
+        LimitsResource getLimitsResource() {
+            return limitsResource;
+        }
+
+        ImagesResource getImagesResource() {
+            return imagesResource;
+        }
+
+        ServersResource getServersResource() {
+            return serversResource;
+        }
+
+        FlavorsResource getFlavorsResource() {
+            return flavorsResource;
+        }
+
+        SharedIpGroupsResource getSharedIpGroupsResource() {
+            return sharedIpGroupsResource;
+        }
+
+    }
+
+}
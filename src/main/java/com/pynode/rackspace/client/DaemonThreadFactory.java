@@ -0,0 +1,31 @@
+package com.pynode.rackspace.client;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads for the background tasks of the client and the service, so
+ * that they do not prevent the JVM from exiting.
+ * @author Christos Fragoulides
+ */
+public final class DaemonThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Creates a factory.
+     * @param prefix the prefix of the thread names, followed by a sequence number.
+     */
+    public DaemonThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, prefix + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.pynode.rackspace.client;
+
+import java.util.Random;
+
+/**
+ * A {@link RetryPolicy} that retries overLimit (413) faults, and serviceUnavailable (503)
+ * faults of idempotent calls, with exponentially growing delays. A random jitter is applied
+ * to every delay ("full jitter"), so that clients failing together do not retry together.
+ * Delays are never shorter than the {@code Retry-After} hint of the server.<br />
+ * A call is given up when the maximum number of attempts is reached, or when waiting would
+ * exceed the deadline of the call.<br />
+ * Non-idempotent calls (POST) are retried only on 413, since the server rejects over limit
+ * requests before processing them, while a 503 gives no such guarantee.
+ * @author Christos Fragoulides
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+
+    private static final int HTTP_OVER_LIMIT = 413;
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final long deadline;
+
+    private final Random random = new Random();
+
+    /**
+     * Creates a policy of 4 attempts, starting with a 500 msec delay, capped at 10 seconds,
+     * within a 30 second deadline.
+     */
+    public ExponentialBackoffRetryPolicy() {
+        this(4, 500, 10000, 30000);
+    }
+
+    /**
+     * Creates a policy with the specified parameters.
+     * @param maxAttempts the maximum number of attempts of a call, including the first one.
+     * @param baseDelay the delay in milliseconds before the first retry, doubled on every retry.
+     * @param maxDelay the maximum delay in milliseconds between two attempts, not counting
+     * {@code Retry-After} hints.
+     * @param deadline the maximum total time in milliseconds a call may take.
+     */
+    public ExponentialBackoffRetryPolicy(int maxAttempts, long baseDelay, long maxDelay, long deadline) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.deadline = deadline;
+    }
+
+    @Override
+    public long getRetryDelay(int attempt, int status, boolean idempotent, long retryAfter, long elapsed) {
+
+        if (attempt >= maxAttempts || !isRetryable(status, idempotent)) return -1;
+
+        long cap = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+        long delay;
+        synchronized (random) {
+            delay = (long) (random.nextDouble() * cap);
+        }
+        delay = Math.max(delay, retryAfter);
+
+        return elapsed + delay > deadline ? -1 : delay;
+    }
+
+    /**
+     * Determines whether a fault is worth retrying.
+     * @param status the HTTP status of the fault.
+     * @param idempotent {@code true} if the failed call is idempotent.
+     * @return {@code true} if the call should be retried.
+     */
+    protected boolean isRetryable(int status, boolean idempotent) {
+        return status == HTTP_OVER_LIMIT || (idempotent && status == HTTP_SERVICE_UNAVAILABLE);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+}
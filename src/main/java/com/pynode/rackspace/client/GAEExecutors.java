@@ -0,0 +1,25 @@
+package com.pynode.rackspace.client;
+
+import com.google.appengine.api.ThreadManager;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors of App Engine. Kept apart so that the GAE SDK, a provided dependency, is only
+ * resolved by GAE compatible clients.
+ * @author Christos Fragoulides
+ */
+final class GAEExecutors {
+
+    private GAEExecutors() { }
+
+    /**
+     * Creates an executor running tasks on request threads of the App Engine request being
+     * served, the only threads available to GAE applications that may use URLFetch.
+     * @return the GAE {@code ExecutorService}.
+     */
+    static ExecutorService newRequestThreadPool() {
+        return Executors.newCachedThreadPool(ThreadManager.currentRequestThreadFactory());
+    }
+
+}
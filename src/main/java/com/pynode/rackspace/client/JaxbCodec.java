@@ -0,0 +1,127 @@
+package com.pynode.rackspace.client;
+
+import com.rackspace.cloud.api.Version;
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.cxf.staxutils.StaxUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Marshals and unmarshals the entities of the Cloud Servers API. The {@code JAXBContext} is
+ * created once, and each thread reuses its own {@code Marshaller} and {@code Unmarshaller},
+ * since creating them costs more than marshalling a small entity. Unmarshalling reads from
+ * a StAX stream reader, without building a DOM or a SAX pipeline.
+ * @author Christos Fragoulides
+ */
+public final class JaxbCodec {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JaxbCodec.class);
+
+    private static final JAXBContext JAXB_CTX;
+    static {
+        try {
+            JAXB_CTX = JAXBContext.newInstance(Version.class.getPackage().getName());
+        } catch (JAXBException ex) {
+            String msg = "Failed to initialize JAXBContext.";
+            LOGGER.error(msg, ex);
+            throw new RuntimeException(msg, ex);
+        }
+    }
+
+    /**
+     * Idle instances of each thread. An instance is taken out while in use, so that a
+     * nested call creates its own.
+     */
+    private static final ThreadLocal<Marshaller> MARSHALLERS = new ThreadLocal<Marshaller>();
+    private static final ThreadLocal<Unmarshaller> UNMARSHALLERS = new ThreadLocal<Unmarshaller>();
+
+    private JaxbCodec() { }
+
+    public static JAXBContext getContext() {
+        return JAXB_CTX;
+    }
+
+    /**
+     * Marshals an element to a stream.
+     * @param element the element, an entity annotated as a root element or a
+     * {@code JAXBElement}.
+     * @param out the stream to write to, not closed.
+     * @param formatted {@code true} for line feeds and indentation.
+     * @throws JAXBException if the element could not be marshalled.
+     */
+    public static void marshal(Object element, OutputStream out, boolean formatted) throws JAXBException {
+        Marshaller marshaller = MARSHALLERS.get();
+        if (marshaller == null) marshaller = JAXB_CTX.createMarshaller();
+        else MARSHALLERS.remove();
+        try {
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, formatted);
+            marshaller.marshal(element, out);
+        } finally {
+            MARSHALLERS.set(marshaller);
+        }
+    }
+
+    /**
+     * Unmarshals an entity from a stream.
+     * @param in the stream to read from, not closed.
+     * @return the entity, unwrapped from its {@code JAXBElement}.
+     * @throws JAXBException if the stream does not hold an entity.
+     */
+    public static Object unmarshal(InputStream in) throws JAXBException {
+        Unmarshaller unmarshaller = UNMARSHALLERS.get();
+        if (unmarshaller == null) unmarshaller = JAXB_CTX.createUnmarshaller();
+        else UNMARSHALLERS.remove();
+        XMLStreamReader reader = StaxUtils.createXMLStreamReader(in);
+        try {
+            Object result = unmarshaller.unmarshal(reader);
+            return result instanceof JAXBElement ? ((JAXBElement) result).getValue() : result;
+        } finally {
+            UNMARSHALLERS.set(unmarshaller);
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                LOGGER.debug("Failed to close the stream reader.", e);
+            }
+        }
+    }
+
+    /**
+     * @return the idle marshaller of the current thread, {@code null} if none.
+     */
+    static Marshaller getIdleMarshaller() {
+        return MARSHALLERS.get();
+    }
+
+    /**
+     * @return the idle unmarshaller of the current thread, {@code null} if none.
+     */
+    static Unmarshaller getIdleUnmarshaller() {
+        return UNMARSHALLERS.get();
+    }
+
+    /**
+     * Unmarshals an entity of the given type from a stream.
+     * @param <T> the type of the entity.
+     * @param in the stream to read from, not closed.
+     * @param type the class of the entity.
+     * @return the entity.
+     * @throws JAXBException if the stream does not hold an entity of the given type.
+     */
+    public static <T> T unmarshal(InputStream in, Class<T> type) throws JAXBException {
+        Object result = unmarshal(in);
+        if (!type.isInstance(result)) {
+            throw new JAXBException("Expected " + type.getSimpleName() + ", got "
+                    + (result == null ? null : result.getClass().getSimpleName()) + ".");
+        }
+        return type.cast(result);
+    }
+
+}
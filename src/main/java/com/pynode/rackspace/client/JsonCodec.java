@@ -0,0 +1,475 @@
+package com.pynode.rackspace.client;
+
+import com.rackspace.cloud.api.AbsoluteLimit;
+import com.rackspace.cloud.api.AbsoluteLimits;
+import com.rackspace.cloud.api.Address;
+import com.rackspace.cloud.api.AddressList;
+import com.rackspace.cloud.api.Addresses;
+import com.rackspace.cloud.api.BackupOrResizeInProgressAPIFault;
+import com.rackspace.cloud.api.BackupSchedule;
+import com.rackspace.cloud.api.BadMediaTypeAPIFault;
+import com.rackspace.cloud.api.BadMethodAPIFault;
+import com.rackspace.cloud.api.BadRequestAPIFault;
+import com.rackspace.cloud.api.BuildInProgressAPIFault;
+import com.rackspace.cloud.api.CloudServersAPIFault;
+import com.rackspace.cloud.api.DailyBackup;
+import com.rackspace.cloud.api.Flavor;
+import com.rackspace.cloud.api.Flavors;
+import com.rackspace.cloud.api.HTTPVerb;
+import com.rackspace.cloud.api.Image;
+import com.rackspace.cloud.api.ImageStatus;
+import com.rackspace.cloud.api.Images;
+import com.rackspace.cloud.api.ItemNotFoundAPIFault;
+import com.rackspace.cloud.api.Limits;
+import com.rackspace.cloud.api.Metadata;
+import com.rackspace.cloud.api.MetadataItem;
+import com.rackspace.cloud.api.NotImplementedAPIFault;
+import com.rackspace.cloud.api.OverLimitAPIFault;
+import com.rackspace.cloud.api.RateLimit;
+import com.rackspace.cloud.api.RateLimitUnit;
+import com.rackspace.cloud.api.RateLimits;
+import com.rackspace.cloud.api.ResizeNotAllowedAPIFault;
+import com.rackspace.cloud.api.Server;
+import com.rackspace.cloud.api.ServerCapacityUnavailableAPIFault;
+import com.rackspace.cloud.api.ServerID;
+import com.rackspace.cloud.api.ServerIDList;
+import com.rackspace.cloud.api.ServerStatus;
+import com.rackspace.cloud.api.Servers;
+import com.rackspace.cloud.api.ServiceUnavailableAPIFault;
+import com.rackspace.cloud.api.SharedIpGroup;
+import com.rackspace.cloud.api.SharedIpGroups;
+import com.rackspace.cloud.api.UnauthorizedAPIFault;
+import com.rackspace.cloud.api.Version;
+import com.rackspace.cloud.api.VersionStatus;
+import com.rackspace.cloud.api.WeeklyBackup;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the entities of the Cloud Servers API from their JSON representation. Entities are
+ * mapped to the JAXB types of the API field by field as the tokens are streamed, without
+ * building a tree or binding through reflection. Unknown fields are skipped.<br />
+ * Like the XML representation, a document is an object with a single field named after the
+ * entity, e.g. {@code {"servers":[...]}}, or after the fault.
+ * @author Christos Fragoulides
+ */
+public final class JsonCodec {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JsonCodec.class);
+
+    /** Thread safe, reused for all the parsers. Streams are closed by their callers. */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    static {
+        JSON_FACTORY.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+    }
+
+    private static final DatatypeFactory DATATYPE_FACTORY;
+    static {
+        try {
+            DATATYPE_FACTORY = DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException ex) {
+            String msg = "Failed to initialize DatatypeFactory.";
+            LOGGER.error(msg, ex);
+            throw new RuntimeException(msg, ex);
+        }
+    }
+
+    /** The fault types, by the name of their element. */
+    private static final Map<String, Class<? extends CloudServersAPIFault>> FAULTS =
+            new HashMap<String, Class<? extends CloudServersAPIFault>>();
+    static {
+        FAULTS.put("cloudServersFault", CloudServersAPIFault.class);
+        FAULTS.put("itemNotFound", ItemNotFoundAPIFault.class);
+        FAULTS.put("buildInProgress", BuildInProgressAPIFault.class);
+        FAULTS.put("serverCapacityUnavailable", ServerCapacityUnavailableAPIFault.class);
+        FAULTS.put("backupOrResizeInProgress", BackupOrResizeInProgressAPIFault.class);
+        FAULTS.put("resizeNotAllowed", ResizeNotAllowedAPIFault.class);
+        FAULTS.put("serviceUnavailable", ServiceUnavailableAPIFault.class);
+        FAULTS.put("unauthorized", UnauthorizedAPIFault.class);
+        FAULTS.put("overLimit", OverLimitAPIFault.class);
+        FAULTS.put("badRequest", BadRequestAPIFault.class);
+        FAULTS.put("badMediaType", BadMediaTypeAPIFault.class);
+        FAULTS.put("badMethod", BadMethodAPIFault.class);
+        FAULTS.put("notImplemented", NotImplementedAPIFault.class);
+    }
+
+    private JsonCodec() { }
+
+    public static JsonFactory getFactory() {
+        return JSON_FACTORY;
+    }
+
+    /**
+     * Reads an entity from a stream.
+     * @param in the stream to read from, not closed.
+     * @return the entity.
+     * @throws IOException if the stream could not be read or does not hold an entity.
+     */
+    public static Object read(InputStream in) throws IOException {
+        JsonParser p = JSON_FACTORY.createJsonParser(in);
+        try {
+            expect(p, p.nextToken(), JsonToken.START_OBJECT);
+            expect(p, p.nextToken(), JsonToken.FIELD_NAME);
+            String name = p.getCurrentName();
+            p.nextToken();
+            Object result = readEntity(p, name);
+            if (result == null) {
+                throw new JsonParseException("Unknown entity: " + name, p.getCurrentLocation());
+            }
+            return result;
+        } finally {
+            p.close();
+        }
+    }
+
+    /**
+     * Reads an entity of the given type from a stream.
+     * @param <T> the type of the entity.
+     * @param in the stream to read from, not closed.
+     * @param type the class of the entity.
+     * @return the entity.
+     * @throws IOException if the stream could not be read or does not hold an entity of the
+     * given type.
+     */
+    public static <T> T read(InputStream in, Class<T> type) throws IOException {
+        Object result = read(in);
+        if (!type.isInstance(result)) {
+            throw new IOException("Expected " + type.getSimpleName() + ", got "
+                    + result.getClass().getSimpleName() + ".");
+        }
+        return type.cast(result);
+    }
+
+    /**
+     * Reads the value of the root field.
+     * @return the entity, {@code null} if the name of the field is not known.
+     */
+    private static Object readEntity(JsonParser p, String name) throws IOException {
+        if ("servers".equals(name)) return readServers(p);
+        if ("server".equals(name)) return readServer(p);
+        if ("flavors".equals(name)) return readFlavors(p);
+        if ("flavor".equals(name)) return readFlavor(p);
+        if ("images".equals(name)) return readImages(p);
+        if ("image".equals(name)) return readImage(p);
+        if ("sharedIpGroups".equals(name)) return readSharedIpGroups(p);
+        if ("sharedIpGroup".equals(name)) return readSharedIpGroup(p);
+        if ("addresses".equals(name)) return readAddresses(p);
+        if ("public".equals(name) || "private".equals(name)) return readAddressList(p);
+        if ("limits".equals(name)) return readLimits(p);
+        if ("backupSchedule".equals(name)) return readBackupSchedule(p);
+        if ("version".equals(name)) return readVersion(p);
+        Class<? extends CloudServersAPIFault> faultType = FAULTS.get(name);
+        if (faultType != null) return readFault(p, faultType);
+        return null;
+    }
+
+    /* ------------------------------- Servers ------------------------------- */
+
+    private static Servers readServers(JsonParser p) throws IOException {
+        Servers servers = new Servers();
+        expect(p, p.getCurrentToken(), JsonToken.START_ARRAY);
+        while (p.nextToken() != JsonToken.END_ARRAY) servers.getServer().add(readServer(p));
+        return servers;
+    }
+
+    private static Server readServer(JsonParser p) throws IOException {
+        Server server = new Server();
+        expect(p, p.getCurrentToken(), JsonToken.START_OBJECT);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("id".equals(field)) server.setId(integer(p));
+            else if ("name".equals(field)) server.setName(text(p));
+            else if ("imageId".equals(field)) server.setImageId(integer(p));
+            else if ("flavorId".equals(field)) server.setFlavorId(integer(p));
+            else if ("hostId".equals(field)) server.setHostId(text(p));
+            else if ("status".equals(field)) server.setStatus(enumValue(p, ServerStatus.class));
+            else if ("progress".equals(field)) server.setProgress(integer(p));
+            else if ("sharedIpGroupId".equals(field)) server.setSharedIpGroupId(integer(p));
+            else if ("adminPass".equals(field)) server.setAdminPass(text(p));
+            else if ("addresses".equals(field)) server.setAddresses(readAddresses(p));
+            else if ("metadata".equals(field)) server.setMetadata(readMetadata(p));
+            else p.skipChildren();
+        }
+        return server;
+    }
+
+    private static Addresses readAddresses(JsonParser p) throws IOException {
+        if (p.getCurrentToken() == JsonToken.VALUE_NULL) return null;
+        Addresses addresses = new Addresses();
+        expect(p, p.getCurrentToken(), JsonToken.START_OBJECT);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("public".equals(field)) addresses.setPublic(readAddressList(p));
+            else if ("private".equals(field)) addresses.setPrivate(readAddressList(p));
+            else p.skipChildren();
+        }
+        return addresses;
+    }
+
+    /** An address list is an array of the addresses themselves, e.g. {@code ["10.0.0.1"]}. */
+    private static AddressList readAddressList(JsonParser p) throws IOException {
+        if (p.getCurrentToken() == JsonToken.VALUE_NULL) return null;
+        AddressList list = new AddressList();
+        expect(p, p.getCurrentToken(), JsonToken.START_ARRAY);
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            Address address = new Address();
+            address.setAddr(text(p));
+            list.getIp().add(address);
+        }
+        return list;
+    }
+
+    /** Metadata is an object of the items, e.g. {@code {"key":"value"}}. */
+    private static Metadata readMetadata(JsonParser p) throws IOException {
+        if (p.getCurrentToken() == JsonToken.VALUE_NULL) return null;
+        Metadata metadata = new Metadata();
+        expect(p, p.getCurrentToken(), JsonToken.START_OBJECT);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            MetadataItem item = new MetadataItem();
+            item.setKey(p.getCurrentName());
+            p.nextToken();
+            item.setValue(text(p));
+            metadata.getMeta().add(item);
+        }
+        return metadata;
+    }
+
+    /* --------------------------- Flavors & Images --------------------------- */
+
+    private static Flavors readFlavors(JsonParser p) throws IOException {
+        Flavors flavors = new Flavors();
+        expect(p, p.getCurrentToken(), JsonToken.START_ARRAY);
+        while (p.nextToken() != JsonToken.END_ARRAY) flavors.getFlavor().add(readFlavor(p));
+        return flavors;
+    }
+
+    private static Flavor readFlavor(JsonParser p) throws IOException {
+        Flavor flavor = new Flavor();
+        expect(p, p.getCurrentToken(), JsonToken.START_OBJECT);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("id".equals(field)) flavor.setId(p.getValueAsInt());
+            else if ("name".equals(field)) flavor.setName(text(p));
+            else if ("ram".equals(field)) flavor.setRam(integer(p));
+            else if ("disk".equals(field)) flavor.setDisk(integer(p));
+            else p.skipChildren();
+        }
+        return flavor;
+    }
+
+    private static Images readImages(JsonParser p) throws IOException {
+        Images images = new Images();
+        expect(p, p.getCurrentToken(), JsonToken.START_ARRAY);
+        while (p.nextToken() != JsonToken.END_ARRAY) images.getImage().add(readImage(p));
+        return images;
+    }
+
+    private static Image readImage(JsonParser p) throws IOException {
+        Image image = new Image();
+        expect(p, p.getCurrentToken(), JsonToken.START_OBJECT);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("id".equals(field)) image.setId(integer(p));
+            else if ("name".equals(field)) image.setName(text(p));
+            else if ("serverId".equals(field)) image.setServerId(integer(p));
+            else if ("updated".equals(field)) image.setUpdated(dateTime(p));
+            else if ("created".equals(field)) image.setCreated(dateTime(p));
+            else if ("progress".equals(field)) image.setProgress(integer(p));
+            else if ("status".equals(field)) image.setStatus(enumValue(p, ImageStatus.class));
+            else p.skipChildren();
+        }
+        return image;
+    }
+
+    /* ---------------------------- Shared IP Groups ---------------------------- */
+
+    private static SharedIpGroups readSharedIpGroups(JsonParser p) throws IOException {
+        SharedIpGroups groups = new SharedIpGroups();
+        expect(p, p.getCurrentToken(), JsonToken.START_ARRAY);
+        while (p.nextToken() != JsonToken.END_ARRAY) groups.getSharedIpGroup().add(readSharedIpGroup(p));
+        return groups;
+    }
+
+    /** The servers of a group are an array of their IDs, e.g. {@code [422, 3445]}. */
+    private static SharedIpGroup readSharedIpGroup(JsonParser p) throws IOException {
+        SharedIpGroup group = new SharedIpGroup();
+        expect(p, p.getCurrentToken(), JsonToken.START_OBJECT);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("id".equals(field)) group.setId(integer(p));
+            else if ("name".equals(field)) group.setName(text(p));
+            else if ("servers".equals(field) && p.getCurrentToken() == JsonToken.START_ARRAY) {
+                ServerIDList servers = new ServerIDList();
+                while (p.nextToken() != JsonToken.END_ARRAY) {
+                    ServerID id = new ServerID();
+                    id.setId(p.getValueAsInt());
+                    servers.getServer().add(id);
+                }
+                group.setServers(servers);
+            } else p.skipChildren();
+        }
+        return group;
+    }
+
+    /* ------------------------- Limits, Backups, Version ------------------------- */
+
+    /**
+     * Rate limits are an array of objects, absolute limits an object of the limits, e.g.
+     * {@code {"rate":[{"verb":"POST",...}],"absolute":{"maxTotalRAMSize":51200}}}.
+     */
+    private static Limits readLimits(JsonParser p) throws IOException {
+        Limits limits = new Limits();
+        expect(p, p.getCurrentToken(), JsonToken.START_OBJECT);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("rate".equals(field) && p.getCurrentToken() == JsonToken.START_ARRAY) {
+                RateLimits rate = new RateLimits();
+                while (p.nextToken() != JsonToken.END_ARRAY) rate.getLimit().add(readRateLimit(p));
+                limits.setRate(rate);
+            } else if ("absolute".equals(field) && p.getCurrentToken() == JsonToken.START_OBJECT) {
+                AbsoluteLimits absolute = new AbsoluteLimits();
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    AbsoluteLimit limit = new AbsoluteLimit();
+                    limit.setName(p.getCurrentName());
+                    p.nextToken();
+                    limit.setValue(p.getValueAsInt());
+                    absolute.getLimit().add(limit);
+                }
+                limits.setAbsolute(absolute);
+            } else p.skipChildren();
+        }
+        return limits;
+    }
+
+    private static RateLimit readRateLimit(JsonParser p) throws IOException {
+        RateLimit limit = new RateLimit();
+        expect(p, p.getCurrentToken(), JsonToken.START_OBJECT);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("verb".equals(field)) limit.setVerb(enumValue(p, HTTPVerb.class));
+            else if ("URI".equals(field)) limit.setURI(text(p));
+            else if ("regex".equals(field)) limit.setRegex(text(p));
+            else if ("value".equals(field)) limit.setValue(p.getValueAsInt());
+            else if ("remaining".equals(field)) limit.setRemaining(p.getValueAsInt());
+            else if ("unit".equals(field)) limit.setUnit(enumValue(p, RateLimitUnit.class));
+            else if ("resetTime".equals(field)) limit.setResetTime(p.getValueAsLong());
+            else p.skipChildren();
+        }
+        return limit;
+    }
+
+    private static BackupSchedule readBackupSchedule(JsonParser p) throws IOException {
+        BackupSchedule schedule = new BackupSchedule();
+        expect(p, p.getCurrentToken(), JsonToken.START_OBJECT);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("enabled".equals(field)) schedule.setEnabled(p.getValueAsBoolean());
+            else if ("weekly".equals(field)) schedule.setWeekly(enumValue(p, WeeklyBackup.class));
+            else if ("daily".equals(field)) schedule.setDaily(enumValue(p, DailyBackup.class));
+            else p.skipChildren();
+        }
+        return schedule;
+    }
+
+    private static Version readVersion(JsonParser p) throws IOException {
+        Version version = new Version();
+        expect(p, p.getCurrentToken(), JsonToken.START_OBJECT);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("id".equals(field)) version.setId(text(p));
+            else if ("status".equals(field)) version.setStatus(enumValue(p, VersionStatus.class));
+            else if ("docURL".equals(field)) version.setDocURL(text(p));
+            else if ("wadl".equals(field)) version.setWadl(text(p));
+            else p.skipChildren();
+        }
+        return version;
+    }
+
+    /* -------------------------------- Faults -------------------------------- */
+
+    private static CloudServersAPIFault readFault(JsonParser p, Class<? extends CloudServersAPIFault> type)
+            throws IOException {
+        CloudServersAPIFault fault;
+        try {
+            fault = type.newInstance();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to create " + type.getSimpleName() + ".", e);
+        }
+        expect(p, p.getCurrentToken(), JsonToken.START_OBJECT);
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if ("code".equals(field)) fault.setCode(p.getValueAsInt());
+            else if ("message".equals(field)) fault.setMessage(text(p));
+            else if ("details".equals(field)) fault.setDetails(text(p));
+            else if ("retryAfter".equals(field) && fault instanceof OverLimitAPIFault)
+                ((OverLimitAPIFault) fault).setRetryAfter(dateTime(p));
+            else p.skipChildren();
+        }
+        return fault;
+    }
+
+    /* -------------------------------- Values -------------------------------- */
+
+    private static void expect(JsonParser p, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException("Expected " + expected + ", got " + actual + ".",
+                    p.getCurrentLocation());
+        }
+    }
+
+    private static String text(JsonParser p) throws IOException {
+        return p.getCurrentToken() == JsonToken.VALUE_NULL ? null : p.getText();
+    }
+
+    private static Integer integer(JsonParser p) throws IOException {
+        return p.getCurrentToken() == JsonToken.VALUE_NULL ? null : p.getValueAsInt();
+    }
+
+    private static XMLGregorianCalendar dateTime(JsonParser p) throws IOException {
+        String value = text(p);
+        if (value == null) return null;
+        try {
+            return DATATYPE_FACTORY.newXMLGregorianCalendar(value);
+        } catch (IllegalArgumentException e) {
+            throw new JsonParseException("Invalid date: " + value, p.getCurrentLocation(), e);
+        }
+    }
+
+    /**
+     * The values of the enumerations of the API are also the names of their constants. Values
+     * added to the API after these types were generated are read as {@code null}, the way JAXB
+     * reads them.
+     */
+    private static <E extends Enum<E>> E enumValue(JsonParser p, Class<E> type) throws IOException {
+        String value = text(p);
+        if (value == null) return null;
+        try {
+            return Enum.valueOf(type, value);
+        } catch (IllegalArgumentException e) {
+            LOGGER.debug("Unknown {} value: {}", type.getSimpleName(), value);
+            return null;
+        }
+    }
+
+}
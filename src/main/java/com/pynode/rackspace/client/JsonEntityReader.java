@@ -0,0 +1,41 @@
+package com.pynode.rackspace.client;
+
+import com.rackspace.cloud.api.Version;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Provider reading the JSON responses of the API into its JAXB types, registered by
+ * {@code RackspaceCloudClient} when its wire format is {@link WireFormat#JSON}.
+ * @see JsonCodec
+ * @author Christos Fragoulides
+ */
+@Provider
+@Consumes(MediaType.APPLICATION_JSON)
+public class JsonEntityReader implements MessageBodyReader<Object> {
+
+    private static final Package API_PACKAGE = Version.class.getPackage();
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations,
+            MediaType mediaType) {
+        return API_PACKAGE.equals(type.getPackage())
+                && (mediaType == null || "json".equals(mediaType.getSubtype()));
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations,
+            MediaType mediaType, MultivaluedMap<String, String> httpHeaders, InputStream entityStream)
+            throws IOException, WebApplicationException {
+        return JsonCodec.read(entityStream, type);
+    }
+
+}
@@ -1,19 +1,25 @@
 package com.pynode.rackspace.client;
 
 import com.pynode.cxf.utils.GAEHttpTransportFactory;
+import com.pynode.cxf.utils.HttpConnectionPool;
+import com.pynode.cxf.utils.PooledHttpTransportFactory;
+import com.pynode.rackspace.client.ClientProxyPool.AccountResources;
 import com.pynode.rackspace.client.aop.Intercept;
 import com.pynode.rackspace.client.aop.Interceptable;
 import com.pynode.rackspace.client.aop.Interceptor;
 import com.rackspace.cloud.api.AddressList;
 import com.rackspace.cloud.api.Addresses;
 import com.rackspace.cloud.api.BackupSchedule;
+import com.rackspace.cloud.api.CloudServersAPIFault;
 import com.rackspace.cloud.api.ConfirmResize;
 import com.rackspace.cloud.api.Flavor;
 import com.rackspace.cloud.api.Flavors;
+import com.rackspace.cloud.api.HTTPVerb;
 import com.rackspace.cloud.api.Image;
 import com.rackspace.cloud.api.Images;
 import com.rackspace.cloud.api.Limits;
 import com.rackspace.cloud.api.ObjectFactory;
+import com.rackspace.cloud.api.OverLimitAPIFault;
 import com.rackspace.cloud.api.Reboot;
 import com.rackspace.cloud.api.Rebuild;
 import com.rackspace.cloud.api.Resize;
@@ -36,12 +42,21 @@ import java.io.ByteArrayOutputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.ws.rs.core.Response;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
+import javax.xml.datatype.XMLGregorianCalendar;
 import org.apache.cxf.interceptor.LoggingInInterceptor;
 import org.apache.cxf.interceptor.LoggingOutInterceptor;
 import org.apache.cxf.jaxrs.client.Client;
@@ -69,25 +84,9 @@ public class RackspaceCloudClient implements Interceptable {
     private static final Logger LOGGER = LoggerFactory.getLogger(RackspaceCloudClient.class);
 
 
-    private static final JAXBContext JAXB_CTX;
-    static {
-        try {
-            JAXB_CTX = JAXBContext.newInstance(Version.class.getPackage().getName());
-        } catch (JAXBException ex) {
-            String msg = "Failed to initialize JAXBContext.";
-            LOGGER.error(msg, ex);
-            throw new RuntimeException("Failed to initialize JAXBContext.", ex);
-        }
-    }
-    
     private static final int MAX_RETRIES = 3;
-    
-    /**
-     * Base URL for Cloud Servers API calls.
-     * @see <a href="http://docs.rackspace.com/servers/api/cs-bindguide-latest.pdf">
-     * API Language Binding Guide, section "Authentication"</a>
-     */
-    private URI baseUri;
+    /** Minimum time between two attempts of proactive token refreshing. */
+    private static final long PROACTIVE_REFRESH_BACKOFF = 60000;
     
     private AccountBase accountBase;
     private String user;
@@ -102,13 +101,54 @@ public class RackspaceCloudClient implements Interceptable {
      * that utilizes the URLFetchService of GAE.
      */
     private boolean appEngineCompatible = false;
+    /**
+     * Pool of persistent connections used for requests, {@code null} (the default) to use
+     * CXF's transport. Not used by GAE compatible clients.
+     */
+    private HttpConnectionPool connectionPool = null;
+    /** Format the entities of the responses are requested in. Default is {@code XML}. */
+    private WireFormat wireFormat = WireFormat.XML;
+    /**
+     * Age in milliseconds after which the auth token is refreshed in the background, before
+     * it expires. Zero (the default) disables proactive refreshing.
+     */
+    private long tokenRefreshInterval = 0;
     
     private Interceptor interceptor = null;
+    /** Client side rate limiter, {@code null} when rate limiting is disabled (the default). */
+    private volatile RateLimiter rateLimiter = null;
+    /** Policy for retrying failed calls, {@code null} to never retry. */
+    private volatile RetryPolicy retryPolicy = new ExponentialBackoffRetryPolicy();
+    
+    /** Number of retries made because of the retry policy. */
+    private final AtomicLong retryCount = new AtomicLong();
+    /** Total time in milliseconds spent waiting before retries. */
+    private final AtomicLong retryBackoffTime = new AtomicLong();
+    
+    /** Reads the responses of clients using the JSON wire format, stateless and shared. */
+    private static final JsonEntityReader JSON_READER = new JsonEntityReader();
     
     private static final ThreadLocal<Client> CLIENT_STORE = new ThreadLocal<Client>();
     
-    private Long accountId = null;
-    private String authToken = null;
+    /** Client proxies, created once and shared by all threads using this client. */
+    private final ClientProxyPool proxyPool = new ClientProxyPool(this);
+    
+    /** The current authentication session, {@code null} until authenticated. */
+    private final AtomicReference<AuthSession> session = new AtomicReference<AuthSession>();
+    /** The authentication in progress, shared by all the threads waiting for a session. */
+    private final AtomicReference<FutureTask<AuthSession>> pendingAuth =
+            new AtomicReference<FutureTask<AuthSession>>();
+    /** Earliest time the next proactive token refresh may be attempted. */
+    private final AtomicLong nextProactiveRefresh = new AtomicLong();
+    
+    private final Callable<AuthSession> authenticator = new Callable<AuthSession>() {
+
+        @Override
+        public AuthSession call() throws RackspaceCloudClientException {
+            return authenticate();
+        }
+        
+    };
 
     public RackspaceCloudClient(final AccountBase accountBase, String user, String authKey) {
         this.accountBase = accountBase;
@@ -143,13 +183,33 @@ public class RackspaceCloudClient implements Interceptable {
     @Intercept
     public Limits listLimits() throws RackspaceCloudClientException {
         
-        final LimitsResource limitsResource = getVersions().getAccountID(accountId).getLimitsResource();
+        final LimitsResource limitsResource = getAccountResources().getLimitsResource();
         
-        return new ApiCaller<Limits>(this) {
+        return new ApiCaller<Limits>(this, HTTPVerb.GET, "/limits") {
 
             @Override
             Limits call() throws RackspaceCloudClientException {                
-                return limitsResource.listLimits(authToken);
+                return limitsResource.listLimits(getAuthToken());
+            }
+            
+        }.makeCall(limitsResource);
+    }
+    
+    /**
+     * Loads the limits of the account for the {@link RateLimiter}. Unlike {@link #listLimits()},
+     * the call is neither intercepted nor rate limited.
+     * @return Limits - rate and absolute limits.
+     * @throws RackspaceCloudClientException in case of an error.
+     */
+    Limits fetchLimits() throws RackspaceCloudClientException {
+        
+        final LimitsResource limitsResource = getAccountResources().getLimitsResource();
+        
+        return new ApiCaller<Limits>(this, HTTPVerb.GET, null) {
+
+            @Override
+            Limits call() throws RackspaceCloudClientException {
+                return limitsResource.listLimits(getAuthToken());
             }
             
         }.makeCall(limitsResource);
@@ -158,31 +218,46 @@ public class RackspaceCloudClient implements Interceptable {
     
     /* ------------------------- Server Images methods ------------------------- */
     
+    @Intercept
     public Images listImages(final Long changesSince, final Long offset, final Long limit) 
             throws RackspaceCloudClientException {
         
-        final ImagesResource imagesResource = getVersions().getAccountID(accountId).getImagesResource();
-        return new ApiCaller<Images>(this) {
+        final ImagesResource imagesResource = getAccountResources().getImagesResource();
+        return new ApiCaller<Images>(this, HTTPVerb.GET, "/images" + query(changesSince, offset, limit)) {
 
             @Override
             Images call() throws RackspaceCloudClientException {
                 
-                return imagesResource.listImages(authToken, changesSince, offset, limit);
+                return imagesResource.listImages(getAuthToken(), changesSince, offset, limit);
+            }
+            
+            @Override
+            Images notModified() {
+                // Nothing changed since the specified time.
+                return new Images();
             }                       
             
         }.makeCall(imagesResource);
     }
     
+    @Intercept
     public Images listImagesDetail(final Long changesSince, final Long offset, final Long limit) 
             throws RackspaceCloudClientException {
         
-        final ImagesResource imagesResource = getVersions().getAccountID(accountId).getImagesResource();
+        final ImagesResource imagesResource = getAccountResources().getImagesResource();
         
-        return new ApiCaller<Images>(this) {
+        return new ApiCaller<Images>(this, HTTPVerb.GET,
+                "/images/detail" + query(changesSince, offset, limit)) {
 
             @Override
             Images call() throws RackspaceCloudClientException {                
-                return imagesResource.listImagesDetail(authToken, changesSince, offset, limit);
+                return imagesResource.listImagesDetail(getAuthToken(), changesSince, offset, limit);
+            }
+            
+            @Override
+            Images notModified() {
+                // Nothing changed since the specified time.
+                return new Images();
             }
             
         }.makeCall(imagesResource);
@@ -190,14 +265,49 @@ public class RackspaceCloudClient implements Interceptable {
     
     public Image getImage(final int imageId) throws RackspaceCloudClientException {
     
-        final ImagesResource imagesResource = getVersions().getAccountID(accountId).getImagesResource();
+        final ImagesResource imagesResource = getAccountResources().getImagesResource();
         
-        return new ApiCaller<Image>(this) {
+        return new ApiCaller<Image>(this, HTTPVerb.GET, "/images/" + imageId) {
                 
             
             @Override
             Image call() throws RackspaceCloudClientException {                               
-                return imagesResource.getImage(imageId, authToken);
+                return imagesResource.getImage(imageId, getAuthToken());
+            }
+            
+        }.makeCall(imagesResource);
+    }
+    
+    /**
+     * Creates an image of a server, as a backup.
+     * @param image the image to create, holding its name and the id of the server.
+     * @return the image being created.
+     * @throws RackspaceCloudClientException 
+     */
+    public Image createImage(final Image image) throws RackspaceCloudClientException {
+        
+        final ImagesResource imagesResource = getAccountResources().getImagesResource();
+        
+        return new ApiCaller<Image>(this, HTTPVerb.POST, "/images") {
+
+            @Override
+            Image call() throws RackspaceCloudClientException {
+                return imagesResource.createImage(getAuthToken(), image);
+            }
+            
+        }.makeCall(imagesResource);
+    }
+    
+    public void deleteImage(final int imageId) throws RackspaceCloudClientException {
+        
+        final ImagesResource imagesResource = getAccountResources().getImagesResource();
+        
+        new ApiCaller<Void>(this, HTTPVerb.DELETE, "/images/" + imageId) {
+
+            @Override
+            Void call() throws RackspaceCloudClientException {
+                imagesResource.deleteImage(imageId, getAuthToken());
+                return null;
             }
             
         }.makeCall(imagesResource);
@@ -209,13 +319,19 @@ public class RackspaceCloudClient implements Interceptable {
     public Servers listServers(final Long changesSince, final Long offset, final Long limit) 
             throws RackspaceCloudClientException {
         
-        final ServersResource serversResource = getVersions().getAccountID(accountId).getServersResource();
+        final ServersResource serversResource = getAccountResources().getServersResource();
         
-        return new ApiCaller<Servers>(this) {
+        return new ApiCaller<Servers>(this, HTTPVerb.GET, "/servers" + query(changesSince, offset, limit)) {
 
             @Override
             Servers call() throws RackspaceCloudClientException {
-                return serversResource.listServers(authToken, changesSince, offset, limit);
+                return serversResource.listServers(getAuthToken(), changesSince, offset, limit);
+            }
+            
+            @Override
+            Servers notModified() {
+                // Nothing changed since the specified time.
+                return new Servers();
             }
             
         }.makeCall(serversResource);
@@ -225,13 +341,20 @@ public class RackspaceCloudClient implements Interceptable {
     public Servers listServersDetail(final Long changesSince, final Long offset, final Long limit) 
             throws RackspaceCloudClientException {
         
-        final ServersResource serversResource = getVersions().getAccountID(accountId).getServersResource();
+        final ServersResource serversResource = getAccountResources().getServersResource();
         
-        return new ApiCaller<Servers>(this) {
+        return new ApiCaller<Servers>(this, HTTPVerb.GET,
+                "/servers/detail" + query(changesSince, offset, limit)) {
 
             @Override
             Servers call() throws RackspaceCloudClientException {
-                return serversResource.listServersDetail(authToken, changesSince, offset, limit);
+                return serversResource.listServersDetail(getAuthToken(), changesSince, offset, limit);
+            }
+            
+            @Override
+            Servers notModified() {
+                // Nothing changed since the specified time.
+                return new Servers();
             }
             
         }.makeCall(serversResource);
@@ -239,13 +362,13 @@ public class RackspaceCloudClient implements Interceptable {
     
     public Server createServer(final Server server) throws RackspaceCloudClientException {
                 
-        final ServersResource serversResource = getVersions().getAccountID(accountId).getServersResource();
+        final ServersResource serversResource = getAccountResources().getServersResource();
         
-        return new ApiCaller<Server>(this) {
+        return new ApiCaller<Server>(this, HTTPVerb.POST, "/servers") {
 
             @Override
             Server call() throws RackspaceCloudClientException {
-                return serversResource.createServer(authToken, server);
+                return serversResource.createServer(getAuthToken(), server);
             }
             
         }.makeCall(serversResource);
@@ -253,14 +376,13 @@ public class RackspaceCloudClient implements Interceptable {
     
     public Server getServer(final int serverId) throws RackspaceCloudClientException {
         
-        final ServerIDResource serverIDResource = getVersions().getAccountID(accountId)
-                                                               .getServersResource()
-                                                               .getServerIDResource(serverId);        
-        return new ApiCaller<Server>(this) {
+        final ServerIDResource serverIDResource = getAccountResources().getServersResource()
+                                                                       .getServerIDResource(serverId);
+        return new ApiCaller<Server>(this, HTTPVerb.GET, "/servers/" + serverId) {
 
             @Override
             Server call() throws RackspaceCloudClientException {
-                return serverIDResource.getServer(authToken);
+                return serverIDResource.getServer(getAuthToken());
             }
             
         }.makeCall(serverIDResource);        
@@ -269,15 +391,14 @@ public class RackspaceCloudClient implements Interceptable {
     public void updateServer(final int serverId, final Server newValues) 
             throws RackspaceCloudClientException {
                 
-        final ServerIDResource serverIDResource = getVersions().getAccountID(accountId)
-                                                               .getServersResource()
-                                                               .getServerIDResource(serverId);
+        final ServerIDResource serverIDResource = getAccountResources().getServersResource()
+                                                                       .getServerIDResource(serverId);
         
-        new ApiCaller<Void>(this) {
+        new ApiCaller<Void>(this, HTTPVerb.PUT, "/servers/" + serverId) {
 
             @Override
             Void call() throws RackspaceCloudClientException {
-                serverIDResource.updateServer(authToken, newValues);                
+                serverIDResource.updateServer(getAuthToken(), newValues);                
                 return null;
             }
             
@@ -286,15 +407,14 @@ public class RackspaceCloudClient implements Interceptable {
     
     public void deleteServer(final int serverId) throws RackspaceCloudClientException {
                 
-        final ServerIDResource serverIDResource = getVersions().getAccountID(accountId)
-                                                               .getServersResource()
-                                                               .getServerIDResource(serverId);
+        final ServerIDResource serverIDResource = getAccountResources().getServersResource()
+                                                                       .getServerIDResource(serverId);
         
-        new ApiCaller<Void>(this) {
+        new ApiCaller<Void>(this, HTTPVerb.DELETE, "/servers/" + serverId) {
 
             @Override
             Void call() throws RackspaceCloudClientException {                
-                serverIDResource.deleteServer(authToken);                
+                serverIDResource.deleteServer(getAuthToken());                
                 return null;
             }
             
@@ -306,16 +426,16 @@ public class RackspaceCloudClient implements Interceptable {
     public Addresses listAddresses(final int serverId, final Long changesSince) 
             throws RackspaceCloudClientException {
         
-        final ServerAddresses serverAddresses = getVersions().getAccountID(accountId)
-                                                             .getServersResource()
-                                                             .getServerIDResource(serverId)
-                                                             .getServerAddresses();
+        final ServerAddresses serverAddresses = getAccountResources().getServersResource()
+                                                                     .getServerIDResource(serverId)
+                                                                     .getServerAddresses();
         
-        return new ApiCaller<Addresses>(this) {
+        return new ApiCaller<Addresses>(this, HTTPVerb.GET,
+                "/servers/" + serverId + "/ips" + query(changesSince, null, null)) {
 
             @Override
             Addresses call() throws RackspaceCloudClientException {
-                return serverAddresses.getServerAddresses(authToken, changesSince);                
+                return serverAddresses.getServerAddresses(getAuthToken(), changesSince);                
             }
             
         }.makeCall(serverAddresses);
@@ -324,16 +444,16 @@ public class RackspaceCloudClient implements Interceptable {
     public AddressList listPublicAddresses(final int serverId, final Long changesSince)
             throws RackspaceCloudClientException {
                 
-        final ServerAddresses serverAddresses = getVersions().getAccountID(accountId)
-                                                             .getServersResource()
-                                                             .getServerIDResource(serverId)
-                                                             .getServerAddresses();
+        final ServerAddresses serverAddresses = getAccountResources().getServersResource()
+                                                                     .getServerIDResource(serverId)
+                                                                     .getServerAddresses();
         
-        return new ApiCaller<AddressList>(this) {
+        return new ApiCaller<AddressList>(this, HTTPVerb.GET,
+                "/servers/" + serverId + "/ips/public" + query(changesSince, null, null)) {
 
             @Override
             AddressList call() throws RackspaceCloudClientException {
-                return serverAddresses.getServerPublicAddresses(authToken, changesSince);
+                return serverAddresses.getServerPublicAddresses(getAuthToken(), changesSince);
             }
             
         }.makeCall(serverAddresses);
@@ -342,16 +462,16 @@ public class RackspaceCloudClient implements Interceptable {
     public AddressList listPrivateAddresses(final int serverId, final Long changesSince)
             throws RackspaceCloudClientException {
                 
-        final ServerAddresses serverAddresses = getVersions().getAccountID(accountId)
-                                                             .getServersResource()
-                                                             .getServerIDResource(serverId)
-                                                             .getServerAddresses();
+        final ServerAddresses serverAddresses = getAccountResources().getServersResource()
+                                                                     .getServerIDResource(serverId)
+                                                                     .getServerAddresses();
         
-        return new ApiCaller<AddressList>(this) {
+        return new ApiCaller<AddressList>(this, HTTPVerb.GET,
+                "/servers/" + serverId + "/ips/private" + query(changesSince, null, null)) {
 
             @Override
             AddressList call() throws RackspaceCloudClientException {
-                return serverAddresses.getServerPrivateAddresses(authToken, changesSince);
+                return serverAddresses.getServerPrivateAddresses(getAuthToken(), changesSince);
             }
             
         }.makeCall(serverAddresses);
@@ -360,16 +480,15 @@ public class RackspaceCloudClient implements Interceptable {
     public void shareIP(final int serverId, final String ip, final ShareIp shareIp) 
             throws RackspaceCloudClientException {
                 
-        final ServerAddresses serverAddresses = getVersions().getAccountID(accountId)
-                                                             .getServersResource()
-                                                             .getServerIDResource(serverId)
-                                                             .getServerAddresses();
+        final ServerAddresses serverAddresses = getAccountResources().getServersResource()
+                                                                     .getServerIDResource(serverId)
+                                                                     .getServerAddresses();
         
-        new ApiCaller<Void>(this) {
+        new ApiCaller<Void>(this, HTTPVerb.PUT, "/servers/" + serverId + "/ips/public/" + ip) {
 
             @Override
             Void call() throws RackspaceCloudClientException {
-                serverAddresses.shareIp(ip, authToken, shareIp);                
+                serverAddresses.shareIp(ip, getAuthToken(), shareIp);                
                 return null;
             }
             
@@ -379,16 +498,15 @@ public class RackspaceCloudClient implements Interceptable {
     public void unshareIP(final int serverId, final String ip, final ShareIp shareIp) 
             throws RackspaceCloudClientException {
                 
-        final ServerAddresses serverAddresses = getVersions().getAccountID(accountId)
-                                                             .getServersResource()
-                                                             .getServerIDResource(serverId)
-                                                             .getServerAddresses();
+        final ServerAddresses serverAddresses = getAccountResources().getServersResource()
+                                                                     .getServerIDResource(serverId)
+                                                                     .getServerAddresses();
         
-        new ApiCaller<Void>(this) {
+        new ApiCaller<Void>(this, HTTPVerb.DELETE, "/servers/" + serverId + "/ips/public/" + ip) {
 
             @Override
             Void call() throws RackspaceCloudClientException {
-                serverAddresses.unshareIp(ip, authToken);                
+                serverAddresses.unshareIp(ip, getAuthToken());                
                 return null;
             }
             
@@ -399,15 +517,14 @@ public class RackspaceCloudClient implements Interceptable {
     
     public void action(final int serverId, final Reboot reboot) throws RackspaceCloudClientException {
                 
-        final ServerIDResource serverIDResource = getVersions().getAccountID(accountId)
-                                                               .getServersResource()
-                                                               .getServerIDResource(serverId);
+        final ServerIDResource serverIDResource = getAccountResources().getServersResource()
+                                                                       .getServerIDResource(serverId);
         
-        new ApiCaller<Void>(this) {
+        new ApiCaller<Void>(this, HTTPVerb.POST, "/servers/" + serverId + "/action") {
 
             @Override
             Void call() throws RackspaceCloudClientException {
-                serverIDResource.actionreboot(authToken, reboot);                
+                serverIDResource.actionreboot(getAuthToken(), reboot);                
                 return null;
             }
             
@@ -416,15 +533,14 @@ public class RackspaceCloudClient implements Interceptable {
     
     public void action(final int serverId, final Rebuild rebuild) throws RackspaceCloudClientException {
                 
-        final ServerIDResource serverIDResource = getVersions().getAccountID(accountId)
-                                                               .getServersResource()
-                                                               .getServerIDResource(serverId);
+        final ServerIDResource serverIDResource = getAccountResources().getServersResource()
+                                                                       .getServerIDResource(serverId);
         
-        new ApiCaller<Void>(this) {
+        new ApiCaller<Void>(this, HTTPVerb.POST, "/servers/" + serverId + "/action") {
 
             @Override
             Void call() throws RackspaceCloudClientException {
-                serverIDResource.actionrebuild(authToken, rebuild);                
+                serverIDResource.actionrebuild(getAuthToken(), rebuild);                
                 return null;
             }
             
@@ -433,15 +549,14 @@ public class RackspaceCloudClient implements Interceptable {
     
     public void action(final int serverId, final Resize resize) throws RackspaceCloudClientException {
                 
-        final ServerIDResource serverIDResource = getVersions().getAccountID(accountId)
-                                                               .getServersResource()
-                                                               .getServerIDResource(serverId);
+        final ServerIDResource serverIDResource = getAccountResources().getServersResource()
+                                                                       .getServerIDResource(serverId);
         
-        new ApiCaller<Void>(this) {
+        new ApiCaller<Void>(this, HTTPVerb.POST, "/servers/" + serverId + "/action") {
 
             @Override
             Void call() throws RackspaceCloudClientException {
-                serverIDResource.actionresize(authToken, resize);                
+                serverIDResource.actionresize(getAuthToken(), resize);                
                 return null;
             }
             
@@ -451,15 +566,14 @@ public class RackspaceCloudClient implements Interceptable {
     public void action(final int serverId, final ConfirmResize confResize) 
             throws RackspaceCloudClientException {
         
-        final ServerIDResource serverIDResource = getVersions().getAccountID(accountId)
-                                                               .getServersResource()
-                                                               .getServerIDResource(serverId);
+        final ServerIDResource serverIDResource = getAccountResources().getServersResource()
+                                                                       .getServerIDResource(serverId);
         
-        new ApiCaller<Void>(this) {
+        new ApiCaller<Void>(this, HTTPVerb.POST, "/servers/" + serverId + "/action") {
 
             @Override
             Void call() throws RackspaceCloudClientException {
-                serverIDResource.actionconfirmResize(authToken, confResize);                
+                serverIDResource.actionconfirmResize(getAuthToken(), confResize);                
                 return null;
             }
             
@@ -469,15 +583,14 @@ public class RackspaceCloudClient implements Interceptable {
     public void action(final int serverId, final RevertResize revertResize) 
             throws RackspaceCloudClientException {
         
-        final ServerIDResource serverIDResource = getVersions().getAccountID(accountId)
-                                                               .getServersResource()
-                                                               .getServerIDResource(serverId);
+        final ServerIDResource serverIDResource = getAccountResources().getServersResource()
+                                                                       .getServerIDResource(serverId);
         
-        new ApiCaller<Void>(this) {
+        new ApiCaller<Void>(this, HTTPVerb.POST, "/servers/" + serverId + "/action") {
 
             @Override
             Void call() throws RackspaceCloudClientException {
-                serverIDResource.actionrevertResize(authToken, revertResize);                
+                serverIDResource.actionrevertResize(getAuthToken(), revertResize);                
                 return null;
             }
             
@@ -489,14 +602,13 @@ public class RackspaceCloudClient implements Interceptable {
     public Flavors listFlavors(final Long changesSince, final Long offset, final Long limit) 
             throws RackspaceCloudClientException {
         
-        final FlavorsResource flavorsResource = getVersions().getAccountID(accountId)
-                                                             .getFlavorsResource();
+        final FlavorsResource flavorsResource = getAccountResources().getFlavorsResource();
         
-        return new ApiCaller<Flavors>(this) {
+        return new ApiCaller<Flavors>(this, HTTPVerb.GET, "/flavors" + query(changesSince, offset, limit)) {
 
             @Override
             Flavors call() throws RackspaceCloudClientException {
-                return flavorsResource.listFlavors(authToken, changesSince, offset, limit);                
+                return flavorsResource.listFlavors(getAuthToken(), changesSince, offset, limit);
             }
             
         }.makeCall(flavorsResource);
@@ -505,14 +617,14 @@ public class RackspaceCloudClient implements Interceptable {
     public Flavors listFlavorsDetail(final Long changesSince, final Long offset, final Long limit) 
             throws RackspaceCloudClientException {
         
-        final FlavorsResource flavorsResource = getVersions().getAccountID(accountId)
-                                                             .getFlavorsResource();
+        final FlavorsResource flavorsResource = getAccountResources().getFlavorsResource();
         
-        return new ApiCaller<Flavors>(this) {
+        return new ApiCaller<Flavors>(this, HTTPVerb.GET,
+                "/flavors/detail" + query(changesSince, offset, limit)) {
 
             @Override
             Flavors call() throws RackspaceCloudClientException {
-                return flavorsResource.listFlavorsDetailed(authToken, changesSince, offset, limit);
+                return flavorsResource.listFlavorsDetailed(getAuthToken(), changesSince, offset, limit);
             }
             
         }.makeCall(flavorsResource);
@@ -520,14 +632,13 @@ public class RackspaceCloudClient implements Interceptable {
     
     public Flavor getFlavor(final int flavorId) throws RackspaceCloudClientException {
         
-        final FlavorsResource flavorsResource = getVersions().getAccountID(accountId)
-                                                             .getFlavorsResource();
+        final FlavorsResource flavorsResource = getAccountResources().getFlavorsResource();
         
-        return new ApiCaller<Flavor>(this) {
+        return new ApiCaller<Flavor>(this, HTTPVerb.GET, "/flavors/" + flavorId) {
 
             @Override
             Flavor call() throws RackspaceCloudClientException {
-                return flavorsResource.getFlavor(flavorId, authToken);            
+                return flavorsResource.getFlavor(flavorId, getAuthToken());            
             }
             
         }.makeCall(flavorsResource);
@@ -536,15 +647,15 @@ public class RackspaceCloudClient implements Interceptable {
     /* -------------------------   Backup Schedules    ------------------------- */
     
     public BackupSchedule getBackupSchedule(final int serverId) throws RackspaceCloudClientException {
-        final ServerIDResource serverIDResource = getVersions().getAccountID(accountId)
-                                                               .getServersResource()
-                                                               .getServerIDResource(serverId);
+        final ServerIDResource serverIDResource = getAccountResources().getServersResource()
+                                                                       .getServerIDResource(serverId);
         
-        return new ApiCaller<BackupSchedule>(this) {
+        return new ApiCaller<BackupSchedule>(this, HTTPVerb.GET,
+                "/servers/" + serverId + "/backup_schedule") {
 
             @Override
             BackupSchedule call() throws RackspaceCloudClientException {
-                return serverIDResource.getBackupSchedule(authToken);                
+                return serverIDResource.getBackupSchedule(getAuthToken());                
             }
             
         }.makeCall(serverIDResource);
@@ -553,15 +664,14 @@ public class RackspaceCloudClient implements Interceptable {
     public void setBackupSchedule(final int serverId, final BackupSchedule schedule) 
             throws RackspaceCloudClientException {        
         
-        final ServerIDResource serverIDResource = getVersions().getAccountID(accountId)
-                                                               .getServersResource()
-                                                               .getServerIDResource(serverId);
+        final ServerIDResource serverIDResource = getAccountResources().getServersResource()
+                                                                       .getServerIDResource(serverId);
         
-        new ApiCaller<Void>(this) {
+        new ApiCaller<Void>(this, HTTPVerb.POST, "/servers/" + serverId + "/backup_schedule") {
 
             @Override
             Void call() throws RackspaceCloudClientException {
-                serverIDResource.setBackupSchedule(authToken, schedule);
+                serverIDResource.setBackupSchedule(getAuthToken(), schedule);
                 return null;
             }
             
@@ -570,15 +680,14 @@ public class RackspaceCloudClient implements Interceptable {
     
     public void disableBackupSchedule(final int serverId) throws RackspaceCloudClientException {
         
-        final ServerIDResource serverIDResource = getVersions().getAccountID(accountId)
-                                                               .getServersResource()
-                                                               .getServerIDResource(serverId);
+        final ServerIDResource serverIDResource = getAccountResources().getServersResource()
+                                                                       .getServerIDResource(serverId);
         
-        new ApiCaller<Void>(this) {
+        new ApiCaller<Void>(this, HTTPVerb.DELETE, "/servers/" + serverId + "/backup_schedule") {
 
             @Override
             Void call() throws RackspaceCloudClientException {
-                serverIDResource.disableBackupSchedule(authToken);                
+                serverIDResource.disableBackupSchedule(getAuthToken());                
                 return null;
             }
             
@@ -590,14 +699,14 @@ public class RackspaceCloudClient implements Interceptable {
     public SharedIpGroups listSharedIpGroups(final Long changesSince, final Long offset, final Long limit) 
             throws RackspaceCloudClientException {
         
-        final SharedIpGroupsResource sharedIpGroups = getVersions().getAccountID(accountId)
-                                                                   .getSharedIpGroupsResource();
+        final SharedIpGroupsResource sharedIpGroups = getAccountResources().getSharedIpGroupsResource();
         
-        return new ApiCaller<SharedIpGroups>(this) {
+        return new ApiCaller<SharedIpGroups>(this, HTTPVerb.GET,
+                "/shared_ip_groups" + query(changesSince, offset, limit)) {
 
             @Override
             SharedIpGroups call() throws RackspaceCloudClientException {
-                return sharedIpGroups.listSharedIpGroups(authToken, changesSince, offset, limit);
+                return sharedIpGroups.listSharedIpGroups(getAuthToken(), changesSince, offset, limit);
             }
             
         }.makeCall(sharedIpGroups);
@@ -606,14 +715,14 @@ public class RackspaceCloudClient implements Interceptable {
     public SharedIpGroups listSharedIpGroupsDetail(final Long changesSince, final Long offset,
             final Long limit) throws RackspaceCloudClientException {
         
-        final SharedIpGroupsResource sharedIpGroups = getVersions().getAccountID(accountId)
-                                                                   .getSharedIpGroupsResource();
+        final SharedIpGroupsResource sharedIpGroups = getAccountResources().getSharedIpGroupsResource();
         
-        return new ApiCaller<SharedIpGroups>(this) {
+        return new ApiCaller<SharedIpGroups>(this, HTTPVerb.GET,
+                "/shared_ip_groups/detail" + query(changesSince, offset, limit)) {
 
             @Override
             SharedIpGroups call() throws RackspaceCloudClientException {
-                return sharedIpGroups.listSharedIpGroupsDetailed(authToken, changesSince, offset, limit);
+                return sharedIpGroups.listSharedIpGroupsDetailed(getAuthToken(), changesSince, offset, limit);
                 
             }
             
@@ -623,14 +732,13 @@ public class RackspaceCloudClient implements Interceptable {
     public SharedIpGroup createSharedIpGroup(final SharedIpGroup sharedIpGroup)
             throws RackspaceCloudClientException {
         
-        final SharedIpGroupsResource sharedIpGroups = getVersions().getAccountID(accountId)
-                                                                   .getSharedIpGroupsResource();
+        final SharedIpGroupsResource sharedIpGroups = getAccountResources().getSharedIpGroupsResource();
 
-        return new ApiCaller<SharedIpGroup>(this) {
+        return new ApiCaller<SharedIpGroup>(this, HTTPVerb.POST, "/shared_ip_groups") {
 
             @Override
             SharedIpGroup call() throws RackspaceCloudClientException {
-                return sharedIpGroups.createSharedIpGroup(authToken, sharedIpGroup);                
+                return sharedIpGroups.createSharedIpGroup(getAuthToken(), sharedIpGroup);                
             }
             
         }.makeCall(sharedIpGroups);
@@ -638,14 +746,13 @@ public class RackspaceCloudClient implements Interceptable {
     
     public SharedIpGroup getSharedIpGroup(final int sharedIpGroupId) throws RackspaceCloudClientException {
         
-        final SharedIpGroupsResource sharedIpGroups = getVersions().getAccountID(accountId)
-                                                                   .getSharedIpGroupsResource();
+        final SharedIpGroupsResource sharedIpGroups = getAccountResources().getSharedIpGroupsResource();
         
-        return new ApiCaller<SharedIpGroup>(this) {
+        return new ApiCaller<SharedIpGroup>(this, HTTPVerb.GET, "/shared_ip_groups/" + sharedIpGroupId) {
 
             @Override
             SharedIpGroup call() throws RackspaceCloudClientException {
-                return sharedIpGroups.getSharedIpGroupDetail(sharedIpGroupId, authToken);                
+                return sharedIpGroups.getSharedIpGroupDetail(sharedIpGroupId, getAuthToken());                
             }
             
         }.makeCall(sharedIpGroups);
@@ -653,14 +760,13 @@ public class RackspaceCloudClient implements Interceptable {
     
     public void deleteSharedIpGroup(final int sharedIpGroupId) throws RackspaceCloudClientException {
         
-        final SharedIpGroupsResource sharedIpGroups = getVersions().getAccountID(accountId)
-                                                                   .getSharedIpGroupsResource();
+        final SharedIpGroupsResource sharedIpGroups = getAccountResources().getSharedIpGroupsResource();
         
-        new ApiCaller<Void>(this) {
+        new ApiCaller<Void>(this, HTTPVerb.DELETE, "/shared_ip_groups/" + sharedIpGroupId) {
 
             @Override
             Void call() throws RackspaceCloudClientException {
-                sharedIpGroups.deleteSharedIpGroup(sharedIpGroupId, authToken);
+                sharedIpGroups.deleteSharedIpGroup(sharedIpGroupId, getAuthToken());
                 return null;
             }
             
@@ -670,98 +776,193 @@ public class RackspaceCloudClient implements Interceptable {
     /* ------------------------- Client Internal Works ------------------------- */
     
     /**
-     * Creates and returns a {@code WebClient} proxy for the root resource of
-     * Rackspace Cloud Service. All to sub-resources are then derived from this
-     * client.
+     * Returns the {@code WebClient} proxy for the root resource of Rackspace Cloud Service.
+     * All to sub-resources are then derived from this client. Proxies are kept by the
+     * {@link ClientProxyPool} of this client and shared among threads.
      * @return {@code Versions} the client proxy for the root resource.
      * @throws RackspaceCloudClientException in case of an error.
      */
     private Versions getVersions() throws RackspaceCloudClientException {
-        // Not authenitcated.
-        if (authToken == null) {
-            authenticate();
-        }
         
-        long timeTaken = -System.currentTimeMillis();
+        Versions versions = proxyPool.getVersions(getSession().getBaseUri());
         
-        JAXRSClientFactoryBean clientFactory = getClientFactory();
-        
-        clientFactory.setAddress(baseUri.toString());
-        clientFactory.setServiceClass(Versions.class);
-        clientFactory.setInheritHeaders(true);
+        CLIENT_STORE.set(WebClient.client(versions));
         
-        Versions versions = clientFactory.create(Versions.class);
+        return versions;
+    }
+    
+    /**
+     * Returns the pooled sub-resource proxies of the authenticated account.
+     * @return the {@code AccountResources} of this client's account.
+     * @throws RackspaceCloudClientException in case of an error.
+     */
+    private AccountResources getAccountResources() throws RackspaceCloudClientException {
+        AuthSession current = getSession();
+        return proxyPool.getAccountResources(current.getBaseUri(), current.getAccountId());
+    }
+    
+    /**
+     * Returns the current authentication session, authenticating if there is none. When proactive
+     * refreshing is enabled and the session is old enough, a refresh is started in the background
+     * while the current session keeps being used.
+     * @return the current {@code AuthSession}.
+     * @throws RackspaceCloudClientException if authentication fails.
+     */
+    AuthSession getSession() throws RackspaceCloudClientException {
+        AuthSession current = session.get();
+        // Not authenitcated.
+        if (current == null) return refreshSession(null);
+        
+        if (tokenRefreshInterval > 0) {
+            long now = System.currentTimeMillis();
+            long nextAttempt = nextProactiveRefresh.get();
+            if (now - current.getIssuedAt() >= tokenRefreshInterval && now >= nextAttempt
+                    && nextProactiveRefresh.compareAndSet(nextAttempt, now + PROACTIVE_REFRESH_BACKOFF)) {
+                refreshInBackground();
+            }
+        }
         
-        CLIENT_STORE.set(WebClient.client(versions));
+        return current;
+    }
+    
+    /**
+     * Replaces a stale session with a new one. Refreshing is single-flight: only one
+     * authentication request is made at a time and all the threads asking for a refresh
+     * meanwhile share its outcome. If another thread has already replaced the stale session,
+     * its replacement is returned right away.
+     * @param stale the session found to be invalid, or {@code null} if there was none.
+     * @return the new {@code AuthSession}.
+     * @throws RackspaceCloudClientException if authentication fails.
+     */
+    AuthSession refreshSession(AuthSession stale) throws RackspaceCloudClientException {
+        while (true) {
+            AuthSession current = session.get();
+            if (current != null && current != stale) return current;
+            
+            FutureTask<AuthSession> task = pendingAuth.get();
+            if (task == null) {
+                task = new FutureTask<AuthSession>(authenticator);
+                // Lost the race, join the authentication started by another thread.
+                if (!pendingAuth.compareAndSet(null, task)) continue;
+                runAuthentication(task);
+            }
+            
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RackspaceCloudClientException("Interrupted while waiting for authentication.", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RackspaceCloudClientException) 
+                    throw (RackspaceCloudClientException) e.getCause();
+                throw new RackspaceCloudClientException("Failed to authenticate.", e.getCause());
+            }
+        }
+    }
+    
+    private void runAuthentication(FutureTask<AuthSession> task) {
+        try {
+            task.run();
+        } finally {
+            pendingAuth.compareAndSet(task, null);
+        }
+    }
+    
+    /**
+     * Starts refreshing the session in a background thread, unless a refresh is already in
+     * progress. Under GAE, where threads may not be created freely, the refresh runs in the
+     * calling thread.
+     */
+    private void refreshInBackground() {
+        final FutureTask<AuthSession> task = new FutureTask<AuthSession>(authenticator);
+        if (!pendingAuth.compareAndSet(null, task)) return;
         
-        timeTaken += System.currentTimeMillis();
-        LOGGER.debug("Created WebClient in [{}] msec.", timeTaken);
+        Runnable refresh = new Runnable() {
+
+            @Override
+            public void run() {
+                runAuthentication(task);
+            }
+            
+        };
         
-        return versions;
+        if (appEngineCompatible) {
+            refresh.run();
+        } else {
+            Thread t = new Thread(refresh, "rackspace-auth-refresh");
+            t.setDaemon(true);
+            t.start();
+        }
     }
     
     /**
-     * Rackspace Cloud Servers authentication procedure.
+     * Rackspace Cloud Servers authentication procedure. On success the new session becomes
+     * the current session of this client.
+     * @return the new {@code AuthSession}.
      * @throws RackspaceCloudClientException 
      * @see <a href="http://docs.rackspace.com/servers/api/v1.0/cs-devguide/content/index.html">
      * Cloud Servers Developer Guide, section 3.1</a>
      * @see <a href="http://docs.rackspace.com/servers/api/cs-bindguide-latest.pdf">
      * API Language Binding Guide, section "Authentication"</a>
      */
-    private synchronized void authenticate() throws RackspaceCloudClientException {
-        if (authToken == null) {
-            
-            LOGGER.info("RackspaceCloudClient authenticating..");
-            
-            authToken = null;
-            Response authRS;
-            // TODO: API Language Binding Guide suggests that UnauthorizedFaults should not
-            // be raised unless multiple attempts to authenticate fail. This logic have to be
-            // implemented below.
-            try {
-                JAXRSClientFactoryBean clientFactory = getClientFactory();
-                clientFactory.setAddress(accountBase.getAuthUrl());
-                WebClient authClient = clientFactory.createWebClient()
-                                                    .header(Constants.AUTH_USER_HEADER, user)
-                                                    .header(Constants.AUTH_KEY_HEADER, authKey);
-                           
-                authRS = authClient.get();              
-                
-            } catch (Exception e) {
-                String msg = "Failed to authenticate: " + e.getMessage();
-                LOGGER.error(msg, e);
-                throw new RackspaceCloudClientException(msg, e);
-            }
-            
-            int status = authRS.getStatus();
-            
-            if (status != HttpURLConnection.HTTP_NO_CONTENT) {
-                String msg = "Authentication failed, response status: " + status;
-                LOGGER.error(msg);
-                throw new RackspaceCloudClientException(msg);
-            }
+    private AuthSession authenticate() throws RackspaceCloudClientException {
             
-            // Got HTTP 204 - (No Content) status code, authentication was successful.
-            String mgmtUrl = 
-                    authRS.getMetadata().getFirst(Constants.SERVER_MGMT_URL_HEADER).toString();
-            // Extract account ID from the management URL.
-            String[] split = mgmtUrl.split("/");
-            accountId = Long.parseLong(split[split.length - 1]);
-            // Extract base URL from the management URL.
-            String baseUriStr = mgmtUrl.substring(0, mgmtUrl.lastIndexOf('/'));
-            baseUriStr = baseUriStr.substring(0, baseUriStr.lastIndexOf('/'));
-            try {
-                baseUri = new URI(baseUriStr);
-            } catch (URISyntaxException ex) {
-                String msg = "Failed to get Rackspace Cloud Servers management URL.";
-                LOGGER.error(msg, ex);
-                throw new RackspaceCloudClientException(msg, ex);
-            }
-            authToken = authRS.getMetadata().getFirst(Constants.AUTH_TOKEN_HEADER).toString();
+        LOGGER.info("RackspaceCloudClient authenticating..");
+        
+        long issuedAt = System.currentTimeMillis();
+        Response authRS;
+        // TODO: API Language Binding Guide suggests that UnauthorizedFaults should not
+        // be raised unless multiple attempts to authenticate fail. This logic have to be
+        // implemented below.
+        try {
+            JAXRSClientFactoryBean clientFactory = getClientFactory();
+            clientFactory.setAddress(accountBase.getAuthUrl());
+            WebClient authClient = clientFactory.createWebClient()
+                                                .header(Constants.AUTH_USER_HEADER, user)
+                                                .header(Constants.AUTH_KEY_HEADER, authKey);
+                       
+            authRS = authClient.get();              
             
-            LOGGER.info("RackspaceCloudClient authenticated.");
-            LOGGER.info("Account ID is: {}", accountId);
+        } catch (Exception e) {
+            String msg = "Failed to authenticate: " + e.getMessage();
+            LOGGER.error(msg, e);
+            throw new RackspaceCloudClientException(msg, e);
+        }
+        
+        int status = authRS.getStatus();
+        
+        if (status != HttpURLConnection.HTTP_NO_CONTENT) {
+            String msg = "Authentication failed, response status: " + status;
+            LOGGER.error(msg);
+            throw new RackspaceCloudClientException(msg);
         }
+        
+        // Got HTTP 204 - (No Content) status code, authentication was successful.
+        String mgmtUrl = 
+                authRS.getMetadata().getFirst(Constants.SERVER_MGMT_URL_HEADER).toString();
+        // Extract account ID from the management URL.
+        String[] split = mgmtUrl.split("/");
+        long accountId = Long.parseLong(split[split.length - 1]);
+        // Extract base URL from the management URL.
+        String baseUriStr = mgmtUrl.substring(0, mgmtUrl.lastIndexOf('/'));
+        baseUriStr = baseUriStr.substring(0, baseUriStr.lastIndexOf('/'));
+        URI baseUri;
+        try {
+            baseUri = new URI(baseUriStr);
+        } catch (URISyntaxException ex) {
+            String msg = "Failed to get Rackspace Cloud Servers management URL.";
+            LOGGER.error(msg, ex);
+            throw new RackspaceCloudClientException(msg, ex);
+        }
+        String authToken = authRS.getMetadata().getFirst(Constants.AUTH_TOKEN_HEADER).toString();
+        
+        AuthSession newSession = new AuthSession(authToken, accountId, baseUri, issuedAt);
+        session.set(newSession);
+        
+        LOGGER.info("RackspaceCloudClient authenticated.");
+        LOGGER.info("Account ID is: {}", accountId);
+        
+        return newSession;
     }
     
     /* -------------------------    Accessor Methods    ------------------------- */
@@ -771,7 +972,7 @@ public class RackspaceCloudClient implements Interceptable {
      * on this client's configuration.
      * @return a new {@code JAXRSClientFactoryBean}.
      */
-    private JAXRSClientFactoryBean getClientFactory() {
+    JAXRSClientFactoryBean getClientFactory() {
         
         JAXRSClientFactoryBean bean = new JAXRSClientFactoryBean();
         
@@ -779,19 +980,29 @@ public class RackspaceCloudClient implements Interceptable {
         if (appEngineCompatible) {
             GAEHttpTransportFactory gaeTransport = new GAEHttpTransportFactory();
             gaeTransport.setBus(bean.getBus());
+        } else if (connectionPool != null) {
+            // Reuse the connections of the pool.
+            PooledHttpTransportFactory pooledTransport = new PooledHttpTransportFactory(connectionPool);
+            pooledTransport.setBus(bean.getBus());
         } else {
             HTTPTransportFactory httpTransport = new HTTPTransportFactory();
             httpTransport.setBus(bean.getBus());
         }
         
+        Map<String, String> headers = new HashMap<String, String>();
         // Add support for response compression.
         // GAE does not support GZIP (it does it by automaticaly when fetching URLs).
         if (compressionEnabled && !appEngineCompatible) {
-            Map<String, String> headers = new HashMap<String, String>();
             headers.put(Constants.ACCEPT_ENCODING_HEADER, "gzip");
-            bean.setHeaders(headers);
             bean.getInInterceptors().add(new GZIPInInterceptor());
         }
+        
+        // Request JSON instead of the XML the resources produce. Request bodies stay XML.
+        if (wireFormat == WireFormat.JSON) {
+            headers.put(Constants.ACCEPT_HEADER, wireFormat.getMediaType());
+            bean.setProviders(Collections.singletonList(JSON_READER));
+        }
+        if (!headers.isEmpty()) bean.setHeaders(headers);
 
         // Enable logging interceptors if logging level is DEBUG.
         if (LOGGER.isDebugEnabled()) {
@@ -822,8 +1033,47 @@ public class RackspaceCloudClient implements Interceptable {
      */
     public void setAppEngineCompatible(boolean appEngineCompatible) {
         this.appEngineCompatible = appEngineCompatible;
+        proxyPool.clear();
     }    
 
+    /**
+     * Gets the connection pool of this client.
+     * @return the {@link HttpConnectionPool}, or {@code null} if CXF's transport is used.
+     */
+    public HttpConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Sets the pool of persistent connections this client sends its requests through. A
+     * pool may be shared by many clients, see {@link HttpConnectionPool#getShared()}. It is
+     * ignored by GAE compatible clients.
+     * @param connectionPool the {@link HttpConnectionPool}, {@code null} to use CXF's
+     * transport.
+     */
+    public void setConnectionPool(HttpConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+        proxyPool.clear();
+    }
+
+    /**
+     * Gets the format the entities of the responses are requested in.
+     * @return the {@link WireFormat} of this client.
+     */
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /**
+     * Sets the format the entities of the responses are requested in. JSON responses are
+     * smaller and are read by a streaming parser, see {@link JsonCodec}.
+     * @param wireFormat the {@link WireFormat}, {@code null} for the default.
+     */
+    public void setWireFormat(WireFormat wireFormat) {
+        this.wireFormat = wireFormat == null ? WireFormat.XML : wireFormat;
+        proxyPool.clear();
+    }
+
     /**
      * Gets the GZIP compression setting of this client.
      * @return {@code true} if this client is using GZIP compression.
@@ -840,6 +1090,82 @@ public class RackspaceCloudClient implements Interceptable {
      */
     public void setCompressionEnabled(boolean compressionEnabled) {
         this.compressionEnabled = compressionEnabled;
+        proxyPool.clear();
+    }
+
+    /**
+     * Gets the age after which the auth token is proactively refreshed.
+     * @return the interval in milliseconds, zero if proactive refreshing is disabled.
+     */
+    public long getTokenRefreshInterval() {
+        return tokenRefreshInterval;
+    }
+
+    /**
+     * Sets the age after which the auth token is refreshed in the background, before it
+     * expires. Calls keep using the current token while the refresh is in progress, so they
+     * never stall on authentication. Rackspace auth tokens are valid for 24 hours.
+     * @param tokenRefreshInterval the interval in milliseconds, zero to disable.
+     */
+    public void setTokenRefreshInterval(long tokenRefreshInterval) {
+        this.tokenRefreshInterval = tokenRefreshInterval;
+    }
+
+    /**
+     * Returns the current authentication session of this client.
+     * @return the {@link AuthSession}, or {@code null} if not yet authenticated.
+     */
+    public AuthSession getAuthSession() {
+        return session.get();
+    }
+
+    /**
+     * Gets the rate limiter of this client.
+     * @return the {@link RateLimiter}, or {@code null} if rate limiting is disabled.
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Enables or disables client side rate limiting. When enabled, calls are throttled
+     * according to the rate limits of the account, instead of being rejected by Rackspace
+     * with an overLimit fault.
+     * @param mode the behavior of calls when a limit is reached, {@code null} to disable
+     * rate limiting.
+     */
+    public void setRateLimitMode(RateLimiter.Mode mode) {
+        rateLimiter = mode == null ? null : new RateLimiter(this, mode);
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy for retrying calls that failed with server side errors, other than
+     * unauthenticated faults which are always retried after re-authenticating. The default
+     * is an {@link ExponentialBackoffRetryPolicy}.
+     * @param retryPolicy the {@link RetryPolicy}, {@code null} to never retry.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Gets the number of retries made by this client because of its retry policy.
+     * @return the number of retries.
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * Gets the total time spent waiting before retries.
+     * @return the time in milliseconds.
+     */
+    public long getRetryBackoffTime() {
+        return retryBackoffTime.get();
     }
 
     @Override
@@ -875,17 +1201,32 @@ public class RackspaceCloudClient implements Interceptable {
     
     /* ------------------------- Static Utility Mehtods ------------------------- */
     
+    /**
+     * Builds the query string of list calls, as used for matching rate limits.
+     * @return the query string, empty if no parameter is set.
+     */
+    private static String query(Long changesSince, Long offset, Long limit) {
+        StringBuilder query = new StringBuilder();
+        if (changesSince != null) query.append("&changes-since=").append(changesSince);
+        if (offset != null) query.append("&offset=").append(offset);
+        if (limit != null) query.append("&limit=").append(limit);
+        if (query.length() > 0) query.setCharAt(0, '?');
+        return query.toString();
+    }
+    
+    /**
+     * @return the {@code JAXBContext} of the API entities.
+     * @see JaxbCodec
+     */
     public static JAXBContext getJAXBContext() {
-        return JAXB_CTX;
+        return JaxbCodec.getContext();
     }
     
     public static String toXmlString(Object element) throws JAXBException {
         ObjectFactory f = new ObjectFactory();
         element = f.createVersion((Version) element);
-        Marshaller marshaller = JAXB_CTX.createMarshaller();
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
         ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
-        marshaller.marshal(element, baos);
+        JaxbCodec.marshal(element, baos, true);
         return baos.toString();
     }
     
@@ -902,14 +1243,26 @@ public class RackspaceCloudClient implements Interceptable {
         
         /** Reference to the client that will actually make the remote call. */
         private RackspaceCloudClient client;
+        /** The session used by the current attempt of the call. */
+        private AuthSession session;
+        /** The HTTP verb of the call, used for rate limiting and retries. */
+        private HTTPVerb verb;
+        /** The path of the call relative to the account's URI, {@code null} if not rate limited. */
+        private String path;
         
         /**
          * Constructor.
          * @param client a reference of the client instance that will make the
          * remote call.
+         * @param verb the HTTP verb of the call. Calls other than POST are considered
+         * idempotent, and may be retried on more kinds of faults.
+         * @param path the path of the call relative to the account's URI, including the
+         * query string, or {@code null} to bypass rate limiting.
          */
-        public ApiCaller(RackspaceCloudClient client) {
+        public ApiCaller(RackspaceCloudClient client, HTTPVerb verb, String path) {
             this.client = client;
+            this.verb = verb;
+            this.path = path;
         }
         
         /**
@@ -920,9 +1273,27 @@ public class RackspaceCloudClient implements Interceptable {
          */
         abstract T call() throws RackspaceCloudClientException;
         
+        /**
+         * Called when the server responds with 304 (Not Modified), which may only happen for
+         * calls specifying a {@code changes-since} parameter.
+         * @return the result of such a call, {@code null} to handle the response as a fault.
+         */
+        T notModified() {
+            return null;
+        }
+        
+        /**
+         * Returns the auth token to be used by {@link ApiCaller#call()}.
+         * @return the auth token of the session used by the current attempt.
+         */
+        String getAuthToken() {
+            return session.getAuthToken();
+        }
+        
         /**
          * Calls {@link ApiCaller#call()}. The call is wrapped in such a way so that
-         * retries are taking place in case of unauthenticated faults. There is also
+         * retries are taking place in case of unauthenticated faults, and in case of
+         * other faults the client's {@link RetryPolicy} allows retrying. There is also
          * some basic error handling in place.<br />
          * TODO: Improve error handling.
          * @return
@@ -931,7 +1302,13 @@ public class RackspaceCloudClient implements Interceptable {
         public T makeCall(Object cxfClient) throws RackspaceCloudClientException {
             
             int retries = 0;
+            int attempts = 0;
+            long start = System.currentTimeMillis();
+            session = client.getSession();
             while (retries < MAX_RETRIES) {
+                RateLimiter limiter = client.rateLimiter;
+                if (limiter != null && path != null) limiter.acquire(verb, path);
+                attempts++;
                 try {
                     RackspaceCloudClient.CLIENT_STORE.set(WebClient.client(cxfClient));
                     return call();
@@ -942,10 +1319,33 @@ public class RackspaceCloudClient implements Interceptable {
                     // Server side error. If Unauthenticated, retry.
                     int status = wex.getResponse().getStatus();
                     if (HttpURLConnection.HTTP_UNAUTHORIZED == status) {
-                        // Invalidate login. This way the next request will trigger authentication.
-                        client.authToken = null;
+                        // Replace the session used, unless another thread has already done so.
+                        session = client.refreshSession(session);
                         retries++;
-                    } else throw new RackspaceCloudClientException("Server side error.", wex);
+                        continue;
+                    }
+                    if (HttpURLConnection.HTTP_NOT_MODIFIED == status) {
+                        T result = notModified();
+                        if (result != null) return result;
+                    }
+                    // Otherwise let the retry policy decide.
+                    RackspaceCloudClientException error =
+                            new RackspaceCloudClientException("Server side error.", wex);
+                    RetryPolicy policy = client.retryPolicy;
+                    if (policy == null) throw error;
+                    long delay = policy.getRetryDelay(attempts, status, verb != HTTPVerb.POST,
+                            getRetryAfter(wex, error), System.currentTimeMillis() - start);
+                    if (delay < 0) throw error;
+                    
+                    LOGGER.debug("Call failed with status {}, retrying in {} msec.", status, delay);
+                    client.retryCount.incrementAndGet();
+                    client.retryBackoffTime.addAndGet(delay);
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw error;
+                    }
                 }
             }
             // Max retries reached.
@@ -953,6 +1353,48 @@ public class RackspaceCloudClient implements Interceptable {
         }
     }    
     
+    /**
+     * Extracts the time the server asked to wait before retrying a failed call, from the
+     * {@code Retry-After} header or the {@code retryAfter} attribute of an overLimit fault.
+     * The fault is parsed through the exception that will be thrown if the call is not retried,
+     * since the response entity can only be read once.
+     * @param wex the exception of the failed call.
+     * @param error the exception to be thrown for the failed call.
+     * @return the time in milliseconds, zero if no hint was given.
+     */
+    private static long getRetryAfter(ServerWebApplicationException wex,
+            RackspaceCloudClientException error) {
+        
+        long now = System.currentTimeMillis();
+        long result = 0;
+        
+        Object header = wex.getResponse().getMetadata().getFirst(Constants.RETRY_AFTER_HEADER);
+        if (header != null) {
+            String value = header.toString().trim();
+            try {
+                result = Long.parseLong(value) * 1000;
+            } catch (NumberFormatException e) {
+                try {
+                    SimpleDateFormat format = new SimpleDateFormat(Constants.HTTP_DATE_FORMAT, Locale.US);
+                    result = format.parse(value).getTime() - now;
+                } catch (ParseException pe) {
+                    LOGGER.debug("Ignoring invalid Retry-After header: {}", value);
+                }
+            }
+        }
+        
+        if (wex.getResponse().getStatus() == Constants.HTTP_OVER_LIMIT) {
+            CloudServersAPIFault fault = error.getServerFault();
+            if (fault instanceof OverLimitAPIFault) {
+                XMLGregorianCalendar retryAfter = ((OverLimitAPIFault) fault).getRetryAfter();
+                if (retryAfter != null)
+                    result = Math.max(result, retryAfter.toGregorianCalendar().getTimeInMillis() - now);
+            }
+        }
+        
+        return Math.max(result, 0);
+    }
+    
     /**
      * An inner wrapper class defining constant values used by {@code RackspaceCloudClient}.
      */
@@ -962,8 +1404,12 @@ public class RackspaceCloudClient implements Interceptable {
         public static final String AUTH_KEY_HEADER = "X-Auth-Key";
         public static final String SERVER_MGMT_URL_HEADER = "X-Server-Management-Url";
         public static final String AUTH_TOKEN_HEADER = "X-Auth-Token";
+        public static final String ACCEPT_HEADER = "Accept";
         public static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
         public static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+        public static final String RETRY_AFTER_HEADER = "Retry-After";
+        public static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+        public static final int HTTP_OVER_LIMIT = 413;
         
     }
     
@@ -2,7 +2,7 @@ package com.pynode.rackspace.client;
 
 import com.rackspace.cloud.api.CloudServersAPIFault;
 import java.io.InputStream;
-import javax.xml.bind.JAXBElement;
+import javax.ws.rs.core.HttpHeaders;
 import org.apache.cxf.jaxrs.client.ClientWebApplicationException;
 import org.apache.cxf.jaxrs.client.ServerWebApplicationException;
 import org.slf4j.Logger;
@@ -61,12 +61,12 @@ public class RackspaceCloudClientException extends Exception {
         if (ErrorSource.SERVER.equals(getErrorSource())) {
             ServerWebApplicationException sex = (ServerWebApplicationException) cause;
             try {
-                JAXBElement<CloudServersAPIFault> el = 
-                        (JAXBElement<CloudServersAPIFault>) 
-                        RackspaceCloudClient.getJAXBContext()
-                                            .createUnmarshaller()
-                                            .unmarshal((InputStream) sex.getResponse().getEntity());
-                fault = el.getValue();
+                InputStream in = (InputStream) sex.getResponse().getEntity();
+                // Clients using the JSON wire format get their faults in JSON too.
+                Object contentType = sex.getResponse().getMetadata().getFirst(HttpHeaders.CONTENT_TYPE);
+                if (contentType != null && contentType.toString().startsWith(WireFormat.JSON.getMediaType()))
+                    fault = JsonCodec.read(in, CloudServersAPIFault.class);
+                else fault = JaxbCodec.unmarshal(in, CloudServersAPIFault.class);
             } catch (Exception e) {
                 String msg = String.format("Failed to retrieve Rackspace Fault for status code [%1$s].",
                         sex.getStatus());
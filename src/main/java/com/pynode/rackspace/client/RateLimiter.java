@@ -0,0 +1,513 @@
+package com.pynode.rackspace.client;
+
+import com.rackspace.cloud.api.HTTPVerb;
+import com.rackspace.cloud.api.Limits;
+import com.rackspace.cloud.api.RateLimit;
+import com.rackspace.cloud.api.RateLimitUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client side rate limiting, based on the rate limits of the account as returned by the
+ * {@code /limits} resource. A token bucket is kept for every (verb, URI regex) pair of the
+ * account's {@link RateLimit}s, refilled at the rate the limit allows and re-synchronized
+ * periodically with the remaining values reported by Rackspace.<br />
+ * Each outgoing call consumes a token from every bucket matching it. When a bucket is empty the
+ * call either waits for a token ({@link Mode#BLOCKING}) or fails right away
+ * ({@link Mode#FAIL_FAST}), instead of being rejected by the server with an overLimit fault.
+ * A limit allowing no calls at all fails matching calls right away in either mode. Callers
+ * throttling themselves, such as bulk operations, may instead reserve the token of their next
+ * call in advance, waiting for it in either mode.<br />
+ * The limits are loaded by the first call, which waits for them along with the calls made
+ * meanwhile. Later synchronizations run in the background (in the calling thread under GAE),
+ * while calls proceed with the current buckets.
+ * @author Christos Fragoulides
+ * @see <a href="http://docs.rackspace.com/servers/api/v1.0/cs-devguide/content/index.html">
+ * Cloud Servers Developer Guide, section 3.8</a>
+ */
+public class RateLimiter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RateLimiter.class);
+
+    private static final long DEFAULT_SYNC_INTERVAL = 60000;
+    /** Time to a token of a bucket that is never refilled. */
+    private static final long NO_TOKEN = Long.MAX_VALUE;
+
+    public static enum Mode {
+        /** Calls wait until the matching buckets have tokens available. */
+        BLOCKING,
+        /** Calls fail with a client side error if a matching bucket is empty. */
+        FAIL_FAST;
+    }
+
+    private final RackspaceCloudClient client;
+    private final Mode mode;
+
+    private long syncInterval = DEFAULT_SYNC_INTERVAL;
+    /** Maximum time a call may wait in {@code BLOCKING} mode, zero for no limit. */
+    private long maxWait = 0;
+
+    /** Buckets keyed by verb and regex. Guarded by {@code this}. */
+    private Map<String, Bucket> buckets = new HashMap<String, Bucket>();
+    private final AtomicLong nextSync = new AtomicLong();
+    /** Released once the first synchronization has completed or failed. */
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    /** The call a token has been reserved for by each thread, as verb and path. */
+    private final ThreadLocal<String> reserved = new ThreadLocal<String>();
+
+    private final AtomicLong syncCount = new AtomicLong();
+    private final AtomicLong syncFailures = new AtomicLong();
+
+    /**
+     * Creates a rate limiter for the calls of the given client.
+     * @param client the client whose account limits will be loaded.
+     * @param mode the behavior when a limit is reached.
+     */
+    public RateLimiter(RackspaceCloudClient client, Mode mode) {
+        this.client = client;
+        this.mode = mode;
+    }
+
+    /**
+     * Takes a token from every bucket matching the given call, waiting for them or failing
+     * depending on the {@link Mode} of this limiter.
+     * @param verb the HTTP verb of the call.
+     * @param path the path of the call, relative to the account's URI, including the query.
+     * @throws RackspaceCloudClientException if the call may not proceed.
+     */
+    void acquire(HTTPVerb verb, String path) throws RackspaceCloudClientException {
+        String reservation = reserved.get();
+        if (reservation != null) {
+            reserved.remove();
+            if (reservation.equals(verb + " " + path)) return;
+        }
+        take(verb, path, mode == Mode.BLOCKING);
+    }
+
+    /**
+     * Takes a token from every bucket matching the given call, waiting for them regardless of
+     * the {@link Mode} of this limiter, and reserves them for the next call made by the calling
+     * thread. Unlike checking the wait time and sleeping, concurrent callers can not be woken
+     * up for the same token. The reservation is dropped if the next call does not match, and
+     * should be cancelled by the caller once done, since the call may never reach the
+     * limiter: served from a cache, or failing before being sent.
+     * @param verb the HTTP verb of the call.
+     * @param path the path of the call, relative to the account's URI, including the query.
+     * @throws RackspaceCloudClientException if a limit allows no calls, the maximum wait would
+     * be exceeded or the calling thread is interrupted.
+     */
+    public void reserve(HTTPVerb verb, String path) throws RackspaceCloudClientException {
+        reserved.remove();
+        take(verb, path, true);
+        reserved.set(verb + " " + path);
+    }
+
+    /**
+     * Drops the token reserved by the calling thread, if not used yet.
+     * @see #reserve(HTTPVerb, String)
+     */
+    public void cancelReservation() {
+        reserved.remove();
+    }
+
+    private void take(HTTPVerb verb, String path, boolean block) throws RackspaceCloudClientException {
+
+        syncIfNeeded();
+        awaitLoaded();
+
+        long waited = 0;
+        while (true) {
+            long wait;
+            synchronized (this) {
+                List<Bucket> matching = new ArrayList<Bucket>();
+                wait = 0;
+                long now = System.currentTimeMillis();
+                for (Bucket bucket : buckets.values()) {
+                    if (bucket.matches(verb, path)) {
+                        matching.add(bucket);
+                        wait = Math.max(wait, bucket.timeToToken(now));
+                    }
+                }
+                if (wait == 0) {
+                    for (Bucket bucket : matching) bucket.take(waited);
+                    return;
+                }
+                // Waiting is pointless if a limit allows no calls.
+                if (wait == NO_TOKEN || !block || (maxWait > 0 && waited + wait > maxWait)) {
+                    for (Bucket bucket : matching) {
+                        if (bucket.timeToToken(now) > 0) bucket.rejected++;
+                    }
+                    if (wait == NO_TOKEN) {
+                        throw new RackspaceCloudClientException(String.format(
+                                "Rate limit for %1$s %2$s allows no calls.", verb, path));
+                    }
+                    throw new RackspaceCloudClientException(String.format(
+                            "Rate limit reached for %1$s %2$s, next call allowed in %3$d msec.",
+                            verb, path, wait));
+                }
+            }
+
+            LOGGER.debug("Rate limit reached for {} {}, waiting {} msec.", new Object[] {verb, path, wait});
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RackspaceCloudClientException("Interrupted while waiting for a rate limit.", e);
+            }
+            waited += wait;
+        }
+    }
+
+    /**
+     * Returns the time until the matching buckets have a token available, that is how long a
+     * call made now would wait in {@link Mode#BLOCKING} mode, ignoring other callers.
+     * @param verb the HTTP verb of the call.
+     * @param path the path of the call, relative to the account's URI, including the query.
+     * @return the time in milliseconds, zero if the call may be made now. If a limit allows no
+     * calls, the time until the limits are synchronized again.
+     */
+    public synchronized long getWaitTime(HTTPVerb verb, String path) {
+        long now = System.currentTimeMillis();
+        long result = 0;
+        for (Bucket bucket : buckets.values()) {
+            if (bucket.matches(verb, path)) result = Math.max(result, bucket.timeToToken(now));
+        }
+        return Math.min(result, syncInterval);
+    }
+
+    /**
+     * Returns how long a caller making periodic calls should wait before its next call, so that
+     * it leaves room for other calls sharing the same limits. No delay is suggested while the
+     * matching buckets are at least half full. Below that, calls are spaced at the rate the
+     * buckets are refilled, and an empty bucket delays them until a token is available.
+     * @param verb the HTTP verb of the call.
+     * @param path the path of the call, relative to the account's URI, including the query.
+     * @return the delay in milliseconds, zero if the call may be made now. If a limit allows no
+     * calls, the time until the limits are synchronized again.
+     */
+    public synchronized long getPacingDelay(HTTPVerb verb, String path) {
+        long now = System.currentTimeMillis();
+        long result = 0;
+        for (Bucket bucket : buckets.values()) {
+            if (bucket.matches(verb, path)) result = Math.max(result, bucket.pacingDelay(now));
+        }
+        return Math.min(result, syncInterval);
+    }
+
+    /**
+     * Re-synchronizes the buckets with the account's limits, if the sync interval has passed.
+     * Only one thread performs the synchronization, the rest proceed with the current buckets.
+     * The first synchronization blocks the calling thread, and the calls made meanwhile wait
+     * for it in {@code awaitLoaded}. The following ones run in the background, except under
+     * GAE where threads may not be created freely.
+     */
+    private void syncIfNeeded() {
+        long now = System.currentTimeMillis();
+        long next = nextSync.get();
+        if (now < next || !nextSync.compareAndSet(next, now + syncInterval)) return;
+
+        if (next == 0 || client.isAppEngineCompatible()) {
+            syncNow();
+            return;
+        }
+        Thread t = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                syncNow();
+            }
+
+        }, "rackspace-limits-sync");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Waits for the first synchronization, performed by another thread, so that concurrent
+     * first calls are not let through by the buckets not loaded yet.
+     */
+    private void awaitLoaded() throws RackspaceCloudClientException {
+        if (loaded.getCount() == 0) return;
+        try {
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RackspaceCloudClientException("Interrupted while waiting for the rate limits.", e);
+        }
+    }
+
+    /**
+     * Loads the account's limits and updates the buckets. On failure the current buckets are
+     * kept until the next attempt, one sync interval later.
+     */
+    private void syncNow() {
+        try {
+            sync(client.fetchLimits());
+        } catch (RackspaceCloudClientException e) {
+            syncFailures.incrementAndGet();
+            LOGGER.warn("Failed to load rate limits, will keep using the current ones.", e);
+        } catch (RuntimeException e) {
+            syncFailures.incrementAndGet();
+            LOGGER.warn("Failed to load rate limits, will keep using the current ones.", e);
+        } finally {
+            loaded.countDown();
+        }
+    }
+
+    /**
+     * Updates the buckets based on the given limits.
+     * @param limits the account's limits.
+     */
+    synchronized void sync(Limits limits) {
+        Map<String, Bucket> synced = new HashMap<String, Bucket>();
+        long now = System.currentTimeMillis();
+        for (RateLimit limit : limits.getRate().getLimit()) {
+            String key = limit.getVerb() + " " + limit.getRegex();
+            Bucket bucket = buckets.get(key);
+            if (bucket == null) bucket = new Bucket(limit.getVerb(), limit.getRegex(), limit.getURI());
+            bucket.update(limit, now);
+            synced.put(key, bucket);
+        }
+        buckets = synced;
+        nextSync.set(now + syncInterval);
+        syncCount.incrementAndGet();
+        loaded.countDown();
+        LOGGER.debug("Rate limits synchronized, {} buckets.", synced.size());
+    }
+
+    /* -------------------------        Metrics        ------------------------- */
+
+    /**
+     * Returns a snapshot of the state of all the buckets.
+     * @return a list of {@link BucketState}s.
+     */
+    public synchronized List<BucketState> getBucketStates() {
+        List<BucketState> result = new ArrayList<BucketState>();
+        long now = System.currentTimeMillis();
+        for (Bucket bucket : buckets.values()) result.add(bucket.state(now));
+        return Collections.unmodifiableList(result);
+    }
+
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    public long getSyncFailures() {
+        return syncFailures.get();
+    }
+
+    /* -------------------------   Accessor Methods    ------------------------- */
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getSyncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * Sets how often the buckets are re-synchronized with the limits reported by Rackspace.
+     * @param syncInterval the interval in milliseconds.
+     */
+    public void setSyncInterval(long syncInterval) {
+        this.syncInterval = syncInterval;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Sets the maximum time a call may wait for tokens in {@code BLOCKING} mode. Calls
+     * that would have to wait longer fail right away.
+     * @param maxWait the time in milliseconds, zero for no limit.
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Immutable snapshot of a bucket's state.
+     */
+    public static final class BucketState {
+
+        private final HTTPVerb verb;
+        private final String uri;
+        private final String regex;
+        private final int capacity;
+        private final double available;
+        private final long acquired;
+        private final long throttled;
+        private final long rejected;
+        private final long waitTime;
+
+        BucketState(Bucket bucket, double available) {
+            verb = bucket.verb;
+            uri = bucket.uri;
+            regex = bucket.pattern.pattern();
+            capacity = bucket.capacity;
+            this.available = available;
+            acquired = bucket.acquired;
+            throttled = bucket.throttled;
+            rejected = bucket.rejected;
+            waitTime = bucket.waitTime;
+        }
+
+        public HTTPVerb getVerb() {
+            return verb;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public String getRegex() {
+            return regex;
+        }
+
+        /** @return the number of calls allowed per unit of the limit. */
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /** @return the tokens currently available. */
+        public double getAvailable() {
+            return available;
+        }
+
+        /** @return the number of calls that took a token from this bucket. */
+        public long getAcquired() {
+            return acquired;
+        }
+
+        /** @return the number of calls that had to wait for this bucket. */
+        public long getThrottled() {
+            return throttled;
+        }
+
+        /** @return the number of calls failed because of this bucket. */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /** @return the total time in milliseconds calls waited for this bucket. */
+        public long getWaitTime() {
+            return waitTime;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%1$s %2$s: %3$.1f/%4$d available, acquired=%5$d, throttled=%6$d, "
+                    + "rejected=%7$d, waitTime=%8$d", verb, uri, available, capacity, acquired, throttled,
+                    rejected, waitTime);
+        }
+
+    }
+
+    /**
+     * Token bucket of a single rate limit. Guarded by the enclosing {@code RateLimiter}.
+     */
+    private static final class Bucket {
+
+        private final HTTPVerb verb;
+        private final Pattern pattern;
+        private final String uri;
+
+        private int capacity;
+        /** Tokens added per millisecond. */
+        private double refillRate;
+        private double tokens;
+        private long lastRefill;
+
+        private long acquired;
+        private long throttled;
+        private long rejected;
+        private long waitTime;
+
+        Bucket(HTTPVerb verb, String regex, String uri) {
+            this.verb = verb;
+            this.pattern = Pattern.compile(regex);
+            this.uri = uri;
+        }
+
+        boolean matches(HTTPVerb callVerb, String path) {
+            return verb == callVerb && pattern.matcher(path).find();
+        }
+
+        /**
+         * Applies the values reported by Rackspace. The remaining calls reported become
+         * the available tokens.
+         */
+        void update(RateLimit limit, long now) {
+            capacity = limit.getValue();
+            refillRate = (double) capacity / unitMillis(limit.getUnit());
+            tokens = Math.min(capacity, limit.getRemaining());
+            lastRefill = now;
+        }
+
+        private void refill(long now) {
+            if (now > lastRefill) {
+                tokens = Math.min(capacity, tokens + (now - lastRefill) * refillRate);
+                lastRefill = now;
+            }
+        }
+
+        /**
+         * Returns the time until a token becomes available.
+         * @return the time in milliseconds, zero if a token is available now, {@code NO_TOKEN} if
+         * the limit allows no calls.
+         */
+        long timeToToken(long now) {
+            refill(now);
+            if (tokens >= 1) return 0;
+            // A limit of zero calls is never refilled.
+            if (refillRate <= 0) return NO_TOKEN;
+            return Math.max(1, (long) Math.ceil((1 - tokens) / refillRate));
+        }
+
+        long pacingDelay(long now) {
+            long wait = timeToToken(now);
+            if (wait > 0 || tokens >= capacity / 2.0) return wait;
+            return (long) Math.ceil(1 / refillRate);
+        }
+
+        void take(long waited) {
+            tokens -= 1;
+            acquired++;
+            if (waited > 0) {
+                throttled++;
+                waitTime += waited;
+            }
+        }
+
+        BucketState state(long now) {
+            refill(now);
+            return new BucketState(this, tokens);
+        }
+
+        private static long unitMillis(RateLimitUnit unit) {
+            switch (unit) {
+                case MINUTE:
+                    return TimeUnit.MINUTES.toMillis(1);
+                case HOUR:
+                    return TimeUnit.HOURS.toMillis(1);
+                case DAY:
+                    return TimeUnit.DAYS.toMillis(1);
+                default:
+                    throw new IllegalArgumentException("Unknown rate limit unit: " + unit);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.pynode.rackspace.client;
+
+/**
+ * Decides whether, and after how long, a call of {@link RackspaceCloudClient} that failed
+ * with a server side error should be retried. Unauthenticated (401) faults are not passed
+ * to the policy, they are always handled by re-authenticating.<br />
+ * Implementations must be thread-safe, as a single policy is shared by all the calls of
+ * a client.
+ * @author Christos Fragoulides
+ * @see ExponentialBackoffRetryPolicy
+ */
+public interface RetryPolicy {
+
+    /**
+     * Returns the time to wait before retrying a failed call.
+     * @param attempt the number of attempts made so far, starting from 1.
+     * @param status the HTTP status of the failed attempt.
+     * @param idempotent {@code true} if the call may be repeated without side effects.
+     * @param retryAfter the time in milliseconds the server asked to wait before retrying,
+     * zero if no such hint was given.
+     * @param elapsed the time in milliseconds since the first attempt of the call.
+     * @return the delay in milliseconds, or a negative value if the call should not be retried.
+     */
+    long getRetryDelay(int attempt, int status, boolean idempotent, long retryAfter, long elapsed);
+
+}
@@ -0,0 +1,23 @@
+package com.pynode.rackspace.client;
+
+/**
+ * Enumeration defining the formats {@code RackspaceCloudClient} can receive the entities of the
+ * API in. Request bodies are always sent as XML.
+ * @author Christos Fragoulides
+ */
+public enum WireFormat {
+    /** Entities unmarshalled by JAXB, the default. */
+    XML("application/xml"),
+    /** Entities read by a streaming JSON parser, smaller on the wire and faster to parse. */
+    JSON("application/json");
+    private String mediaType;
+
+    private WireFormat(String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.pynode.rackspace.service;
+
+import com.pynode.rackspace.client.RackspaceCloudClientException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of an operation applied to many entities at once, such as
+ * {@link ServerManager#rebootAll(java.util.Collection, com.rackspace.cloud.api.RebootType)}:
+ * the entities the operation succeeded for, the error of each one it failed for, and the time
+ * the calls made for each entity took.
+ * @param <T> the entity type.
+ * @author Christos Fragoulides
+ */
+public final class BulkResult<T> {
+
+    private final List<T> succeeded;
+    private final Map<T, RackspaceCloudClientException> failed;
+    private final Map<T, Long> durations;
+
+    public BulkResult(List<T> succeeded, Map<T, RackspaceCloudClientException> failed) {
+        this(succeeded, failed, Collections.<T, Long>emptyMap());
+    }
+
+    public BulkResult(List<T> succeeded, Map<T, RackspaceCloudClientException> failed,
+            Map<T, Long> durations) {
+        this.succeeded = Collections.unmodifiableList(succeeded);
+        this.failed = Collections.unmodifiableMap(failed);
+        this.durations = Collections.unmodifiableMap(durations);
+    }
+
+    /** @return the entities the operation succeeded for, in the order it completed. */
+    public List<T> getSucceeded() {
+        return succeeded;
+    }
+
+    /** @return the entities the operation failed for, with the error of each one. */
+    public Map<T, RackspaceCloudClientException> getFailed() {
+        return failed;
+    }
+
+    /**
+     * Gets the time the calls made for an entity took, whether they succeeded or not.
+     * @param entity the entity.
+     * @return the time in milliseconds, {@code null} if no call was made for the entity.
+     */
+    public Long getDuration(T entity) {
+        return durations.get(entity);
+    }
+
+    /** @return the time the calls made for each entity took, in milliseconds. */
+    public Map<T, Long> getDurations() {
+        return durations;
+    }
+
+    public boolean isSuccessful() {
+        return failed.isEmpty();
+    }
+
+    /** @return the number of entities the operation was applied to. */
+    public int size() {
+        return succeeded.size() + failed.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BulkResult[succeeded=%1$d, failed=%2$d]", succeeded.size(), failed.size());
+    }
+
+}
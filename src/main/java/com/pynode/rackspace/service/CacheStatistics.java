@@ -0,0 +1,69 @@
+package com.pynode.rackspace.service;
+
+/**
+ * Snapshot of the response cache counters of a {@link CloudServersService}. The cache has two
+ * levels: an in-process cache of response objects (L1), in front of the serialized responses
+ * kept by the {@link StateManager} (L2).
+ * @author Christos Fragoulides
+ */
+public final class CacheStatistics {
+
+    private final long l1Hits;
+    private final long l2Hits;
+    private final long misses;
+    private final int l1Size;
+
+    public CacheStatistics(long l1Hits, long l2Hits, long misses, int l1Size) {
+        this.l1Hits = l1Hits;
+        this.l2Hits = l2Hits;
+        this.misses = misses;
+        this.l1Size = l1Size;
+    }
+
+    /** @return the number of calls answered by the in-process cache. */
+    public long getL1Hits() {
+        return l1Hits;
+    }
+
+    /** @return the number of calls answered by the {@code StateManager} backed cache. */
+    public long getL2Hits() {
+        return l2Hits;
+    }
+
+    /** @return the number of calls that reached Rackspace. */
+    public long getMisses() {
+        return misses;
+    }
+
+    /** @return the number of entries of the in-process cache. */
+    public int getL1Size() {
+        return l1Size;
+    }
+
+    public long getRequests() {
+        return l1Hits + l2Hits + misses;
+    }
+
+    /** @return the fraction of calls answered by the in-process cache. */
+    public double getL1HitRatio() {
+        return getRequests() == 0 ? 0 : (double) l1Hits / getRequests();
+    }
+
+    /** @return the fraction of calls that missed L1 and were answered by L2. */
+    public double getL2HitRatio() {
+        long l2Requests = l2Hits + misses;
+        return l2Requests == 0 ? 0 : (double) l2Hits / l2Requests;
+    }
+
+    /** @return the fraction of calls answered by either level of the cache. */
+    public double getHitRatio() {
+        return getRequests() == 0 ? 0 : (double) (l1Hits + l2Hits) / getRequests();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CacheStatistics[l1Hits=%1$d, l2Hits=%2$d, misses=%3$d, l1Size=%4$d, "
+                + "hitRatio=%5$.3f]", l1Hits, l2Hits, misses, l1Size, getHitRatio());
+    }
+
+}
@@ -3,6 +3,7 @@ package com.pynode.rackspace.service;
 import com.pynode.rackspace.client.RackspaceCloudClientException;
 import com.rackspace.cloud.api.Limits;
 import com.rackspace.cloud.api.Version;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -19,11 +20,21 @@ public interface CloudServersService {
     ImageManager getImageManager();
     SharedIpGroupManager getSharedIpGroupManager();
     FlavorManager getFlavorManager();
+    ServerInventory getServerInventory();
+    
+    /**
+     * Stops the background threads of the service and releases waiting callers with an error.
+     * The service may not be used afterwards.
+     * @see CloudServersServiceFactory#setMaxIdleTime(long) 
+     */
+    void close();
     
     public interface ServiceInfo {
         Version getVersionInfo() throws RackspaceCloudClientException;
         Limits getLimits() throws RackspaceCloudClientException;
         Map<String, Object> getSettings();
+        CacheStatistics getCacheStatistics();
+        List<PollStatistics> getPollStatistics();
     }
     
 }
@@ -2,48 +2,284 @@ package com.pynode.rackspace.service;
 
 import com.pynode.rackspace.client.AccountBase;
 import com.pynode.rackspace.service.impl.CloudServersServiceImpl;
+import com.pynode.rackspace.service.utils.DefaultStateManager;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Creates {@linkplain CloudServersService} instances.
+ * Creates {@linkplain CloudServersService} instances. A single service is created for each
+ * account base, credentials and settings, even when requested by many threads at once, and
+ * handed out to every later request of the same.<br />
+ * Services not requested for longer than the {@linkplain #setMaxIdleTime(long) maximum idle
+ * time} are closed and forgotten, checked while other services are requested. Callers keeping
+ * a service for long should request it again now and then, or disable eviction.
  * @author Christos Fragoulides
  */
 public final class CloudServersServiceFactory {
 
-    private CloudServersServiceFactory() { }   
-    
+    private CloudServersServiceFactory() { }
+
     /**
      * This is used to avoid creating new service instances when one exists for the same
      * credentials and settings.
      */
-    private static final Map<Integer, CloudServersService> SERVICE_STORE = 
-            new HashMap<Integer, CloudServersService>();
-    
+    private static final ConcurrentMap<ServiceKey, ServiceEntry> SERVICE_STORE =
+            new ConcurrentHashMap<ServiceKey, ServiceEntry>();
+
+    /** Idle time after which services are evicted, zero for never. */
+    private static volatile long maxIdleTime = 0;
+    private static final AtomicLong NEXT_SWEEP = new AtomicLong();
+
     public static CloudServersService getService(AccountBase accountBase, String username, String apiKey) {
         return getService(accountBase, username, apiKey, Collections.EMPTY_MAP);
     }
-    
+
     public static CloudServersService getService(AccountBase accountBase, String username, String apiKey,
             Map<String, Object>  settings) {
-        
-        int hash = username.hashCode() + apiKey.hashCode() + settings.hashCode();
-        CloudServersService service = SERVICE_STORE.get(hash);
-        if (service != null) return service;
-        
-        // Service not yet created for the specified settings, create a new one.
-        service = new CloudServersServiceImpl(accountBase, username, apiKey, settings);
-        
-        SERVICE_STORE.put(hash, service);
-        return service;
-    }
-    
+
+        ServiceKey key = new ServiceKey(accountBase, username, apiKey, settings);
+        long now = System.currentTimeMillis();
+        sweep(now);
+
+        while (true) {
+            ServiceEntry entry = SERVICE_STORE.get(key);
+            if (entry == null) {
+                // Service not yet created for the specified settings, create a new one.
+                ServiceEntry created = new ServiceEntry(key);
+                entry = SERVICE_STORE.putIfAbsent(key, created);
+                if (entry == null) entry = created;
+            }
+            CloudServersService service = entry.acquire(now);
+            if (service != null) return service;
+            // Evicted meanwhile, or failed to be created.
+            SERVICE_STORE.remove(key, entry);
+        }
+    }
+
+    /**
+     * Sets the time after which services not requested are closed and forgotten.
+     * @param maxIdleTime the time in milliseconds, zero to never evict services.
+     */
+    public static void setMaxIdleTime(long maxIdleTime) {
+        if (maxIdleTime < 0) throw new IllegalArgumentException("Maximum idle time must not be negative.");
+        CloudServersServiceFactory.maxIdleTime = maxIdleTime;
+        NEXT_SWEEP.set(0);
+    }
+
+    public static long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    /**
+     * Closes and forgets the services not requested for longer than the given time.
+     * @param idleTime the time in milliseconds.
+     * @return the number of services evicted.
+     */
+    public static int evictIdleServices(long idleTime) {
+        long now = System.currentTimeMillis();
+        List<ServiceEntry> evicted = new ArrayList<ServiceEntry>();
+        for (ServiceEntry entry : SERVICE_STORE.values()) {
+            if (entry.evictIfIdle(now - idleTime)) evicted.add(entry);
+        }
+        release(evicted);
+        return evicted.size();
+    }
+
+    /**
+     * Closes and forgets all the services.
+     */
+    public static void closeAll() {
+        List<ServiceEntry> evicted = new ArrayList<ServiceEntry>();
+        for (ServiceEntry entry : SERVICE_STORE.values()) {
+            if (entry.evictIfIdle(Long.MAX_VALUE)) evicted.add(entry);
+        }
+        release(evicted);
+    }
+
+    /**
+     * Gets the number of services created and not evicted.
+     * @return the number of services.
+     */
+    public static int getServiceCount() {
+        return SERVICE_STORE.size();
+    }
+
+    /**
+     * Evicts idle services, at most once per half the maximum idle time, so that the cost of
+     * sweeping is spread over the requests made in the meantime.
+     */
+    private static void sweep(long now) {
+        long idleTime = maxIdleTime;
+        if (idleTime <= 0) return;
+        long next = NEXT_SWEEP.get();
+        if (now < next || !NEXT_SWEEP.compareAndSet(next, now + idleTime / 2)) return;
+        evictIdleServices(idleTime);
+    }
+
+    /**
+     * Removes evicted services from the store and closes them. The default state manager of
+     * an account is forgotten along with the last service of the account.
+     */
+    private static void release(List<ServiceEntry> evicted) {
+        for (ServiceEntry entry : evicted) {
+            SERVICE_STORE.remove(entry.key, entry);
+            entry.close();
+        }
+        for (ServiceEntry entry : evicted) {
+            boolean accountInUse = false;
+            Iterator<ServiceKey> keys = SERVICE_STORE.keySet().iterator();
+            while (!accountInUse && keys.hasNext()) accountInUse = keys.next().isSameAccount(entry.key);
+            if (!accountInUse) DefaultStateManager.removeInstance(entry.key.accountBase, entry.key.username,
+                    entry.key.apiKey);
+        }
+    }
+
+    /**
+     * The account base, credentials and settings of a service.
+     */
+    private static final class ServiceKey {
+
+        private final AccountBase accountBase;
+        private final String username;
+        private final String apiKey;
+        private final Map<String, Object> settings;
+        private final int hash;
+
+        ServiceKey(AccountBase accountBase, String username, String apiKey, Map<String, Object> settings) {
+            if (accountBase == null || username == null || apiKey == null || settings == null)
+                throw new IllegalArgumentException("Account base, credentials and settings are required.");
+            this.accountBase = accountBase;
+            this.username = username;
+            this.apiKey = apiKey;
+            // Later changes to the caller's map must not change the key.
+            this.settings = new HashMap<String, Object>(settings);
+            hash = ((accountBase.hashCode() * 31 + username.hashCode()) * 31 + apiKey.hashCode()) * 31
+                    + this.settings.hashCode();
+        }
+
+        boolean isSameAccount(ServiceKey other) {
+            return accountBase == other.accountBase && username.equals(other.username)
+                    && apiKey.equals(other.apiKey);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ServiceKey)) return false;
+            ServiceKey other = (ServiceKey) obj;
+            return hash == other.hash && isSameAccount(other) && settings.equals(other.settings);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+    /**
+     * A service, created once by the first thread requesting it, and the time it was last
+     * requested.
+     */
+    private static final class ServiceEntry {
+
+        private final ServiceKey key;
+        private final FutureTask<CloudServersService> creation;
+
+        /* Guarded by this. */
+        private long lastAccess;
+        private boolean evicted = false;
+
+        ServiceEntry(final ServiceKey key) {
+            this.key = key;
+            creation = new FutureTask<CloudServersService>(new Callable<CloudServersService>() {
+
+                @Override
+                public CloudServersService call() {
+                    return new CloudServersServiceImpl(key.accountBase, key.username, key.apiKey,
+                            key.settings);
+                }
+
+            });
+        }
+
+        /**
+         * Returns the service, creating it if not created yet.
+         * @return the service, {@code null} if evicted.
+         * @throws RuntimeException if the service could not be created.
+         */
+        CloudServersService acquire(long now) {
+            synchronized (this) {
+                if (evicted) return null;
+                lastAccess = now;
+            }
+            // Concurrent callers wait for the first one to create the service.
+            creation.run();
+            try {
+                return creation.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while creating a service.", e);
+            } catch (ExecutionException e) {
+                synchronized (this) {
+                    evicted = true;
+                }
+                SERVICE_STORE.remove(key, this);
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        /**
+         * Marks the entry evicted if not requested since the given time.
+         * @return {@code true} if evicted by this call.
+         */
+        synchronized boolean evictIfIdle(long notAccessedSince) {
+            if (evicted || lastAccess >= notAccessedSince) return false;
+            evicted = true;
+            return true;
+        }
+
+        void close() {
+            if (!creation.isDone()) return;
+            try {
+                creation.get().close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // Never created, nothing to close.
+            }
+        }
+
+    }
+
     public static enum ServiceSetting {
         CLIENT_GAE_COMPATIBLE,
         CLIENT_RESPONSE_CACHING,
         CLIENT_CACHE_TTL,
-        STATE_MANAGER;      
+        CLIENT_CACHE_OBJECT_ENTRIES,
+        CLIENT_CACHE_MAX_WEIGHT,
+        CLIENT_CACHE_SINGLE_FLIGHT,
+        CLIENT_CACHE_STALE_GRACE,
+        CLIENT_TOKEN_REFRESH_INTERVAL,
+        CLIENT_RATE_LIMITING,
+        CLIENT_RETRY_POLICY,
+        CLIENT_HTTP_CONNECTION_POOL,
+        CLIENT_WIRE_FORMAT,
+        CLIENT_POLL_INTERVAL,
+        CLIENT_BULK_PARALLELISM,
+        CLIENT_CATALOG_SYNC_INTERVAL,
+        STATE_MANAGER;
     }
-    
+
 }
@@ -9,12 +9,28 @@ import java.util.Iterator;
  */
 public abstract class EntityList<T> implements Iterator<T> {
     
+    /**
+     * Gets the time the list was last brought up to date, by {@link #reset()} or
+     * {@link #delta()}.
+     * @return the time in milliseconds.
+     */
     public abstract long getLastModified();
     
     public abstract boolean isEmpty() throws RackspaceCloudClientException;
     
+    /**
+     * Fetches the entities of the list again and restarts the iteration.
+     * @throws RackspaceCloudClientException 
+     */
     public abstract void reset() throws RackspaceCloudClientException;
     
+    /**
+     * Brings the list up to date by fetching only the entities changed since it was last
+     * modified: new entities are added, changed ones are replaced and deleted ones are
+     * removed. The iteration is restarted.
+     * @throws RackspaceCloudClientException 
+     * @throws UnsupportedOperationException if the list does not hold its entities.
+     */
     public abstract void delta() throws RackspaceCloudClientException;
 
     @Override
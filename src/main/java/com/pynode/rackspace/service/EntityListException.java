@@ -0,0 +1,26 @@
+package com.pynode.rackspace.service;
+
+/**
+ * A {@code RuntimeException} raised by the {@link java.util.Iterator} methods of an
+ * {@link EntityList}, which can not throw checked exceptions, when a page of entities could
+ * not be fetched. The cause is usually a
+ * {@link com.pynode.rackspace.client.RackspaceCloudClientException}.
+ * @author Christos Fragoulides
+ */
+public class EntityListException extends RuntimeException {
+
+    public EntityListException(Throwable cause) {
+        super(cause);
+    }
+
+    public EntityListException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public EntityListException(String message) {
+        super(message);
+    }
+
+    public EntityListException() { }
+    
+}
@@ -11,21 +11,42 @@ public interface EntityManager<T> {
     long MAX_LIMIT = 1000;
     
     /* -------------   CRUD Operations  -------------*/
-    T create(T e);
+    T create(T e) throws RackspaceCloudClientException;
     
-    void remove(T e);
+    void remove(T e) throws RackspaceCloudClientException;
     
-    void update(T e);
+    void update(T e) throws RackspaceCloudClientException;
     
-    T refresh(T e);
+    T refresh(T e) throws RackspaceCloudClientException;
     
-    T find(long id);
+    T find(long id) throws RackspaceCloudClientException;
     
     /* ------------- Polling Operations -------------*/
-    void wait(T e);
     
-    void wait(T e, long timeout);
+    /**
+     * Blocks until the entity is no longer in a transitional state, such as a server being
+     * built or rebooted, or is deleted.
+     * @param e
+     * @throws RackspaceCloudClientException 
+     */
+    void wait(T e) throws RackspaceCloudClientException;
+    
+    /**
+     * Blocks until the entity is no longer in a transitional state, or the timeout expires.
+     * @param e
+     * @param timeout the maximum time to wait in milliseconds.
+     * @throws RackspaceCloudClientException if the timeout expires or the entity could not be
+     * polled.
+     */
+    void wait(T e, long timeout) throws RackspaceCloudClientException;
     
+    /**
+     * Registers a listener to be notified whenever the status or progress of the entity
+     * changes, until {@link #stopNotify(Object, ChangeListener) stopNotify} is called or the
+     * entity is deleted.
+     * @param e
+     * @param ch 
+     */
     void notify(T e, ChangeListener<T> ch);
     
     void stopNotify(T e, ChangeListener<T> ch);
@@ -52,8 +73,28 @@ public interface EntityManager<T> {
      */
     EntityList<T> createList(boolean detail, long offset, long limit) throws RackspaceCloudClientException;
     
+    /**
+     * Creates an entity list containing the entities changed since the specified time,
+     * including deleted ones.
+     * @param detail
+     * @param changesSince the time in milliseconds, such as the one returned by
+     * {@link EntityList#getLastModified()}.
+     * @return
+     * @throws RackspaceCloudClientException 
+     */
     EntityList<T> createDeltaList(boolean detail, long changesSince) throws RackspaceCloudClientException;
     
+    /**
+     * Creates a partial delta list, containing the changed entities that fall into the range
+     * specified by the {@code offset} and {@code limit} parameters.
+     * @param detail
+     * @param changesSince the time in milliseconds.
+     * @param offset
+     * @param limit
+     * @return
+     * @throws RackspaceCloudClientException 
+     * @see #createDeltaList(boolean, long) 
+     */
     EntityList<T> createDeltaList(boolean detail, long changesSince, long offset, long limit)
-             throws RackspaceCloudClientException;;
+             throws RackspaceCloudClientException;
 }
@@ -1,9 +1,26 @@
 package com.pynode.rackspace.service;
 
+import com.pynode.rackspace.client.RackspaceCloudClientException;
 import com.rackspace.cloud.api.Flavor;
 
 /**
- * create, remove and update will raise BadMethodFaults
+ * create, remove and update will raise {@code UnsupportedOperationException}s, since flavors
+ * are defined by Rackspace. Flavors never change either, so {@code wait} returns right away
+ * and {@code notify} registers nothing; neither makes a remote call.<br />
+ * Flavors are served from a catalog kept in memory, loaded on first use and brought up to date
+ * with {@code changes-since} requests once older than {@code CLIENT_CATALOG_SYNC_INTERVAL}.
+ * {@link #find(long)} and the lists make no remote calls while the catalog is current, and
+ * hand out copies of the catalog's flavors. Summary lists hold detailed flavors as well.<br />
+ * Flavors removed by Rackspace are not reported by {@code changes-since} requests; they stay
+ * in the catalog until {@link #reload()} is called.
  * @author Christos Fragoulides
  */
-public interface FlavorManager extends EntityManager<Flavor> { }
+public interface FlavorManager extends EntityManager<Flavor> {
+    
+    /**
+     * Fetches all flavors again, replacing the contents of the catalog.
+     * @throws RackspaceCloudClientException 
+     */
+    void reload() throws RackspaceCloudClientException;
+    
+}
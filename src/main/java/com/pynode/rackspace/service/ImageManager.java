@@ -1,9 +1,17 @@
 package com.pynode.rackspace.service;
 
-import com.google.appengine.api.images.Image;
+import com.rackspace.cloud.api.Image;
 
 /**
- * Update will raise a BadMethodFault.
+ * Update will raise an {@code UnsupportedOperationException}.<br />
+ * Images are served from a catalog kept in memory, loaded on first use and brought up to date
+ * with {@code changes-since} requests once older than {@code CLIENT_CATALOG_SYNC_INTERVAL}.
+ * {@link #find(long)}, the lists and the delta lists since the catalog was loaded make no
+ * remote calls while the catalog is current, and hand out copies of the catalog's images.
+ * Summary lists hold detailed images as well.<br />
+ * {@link #create(Object) create} makes a backup image of the server whose id is set on the
+ * image passed in; {@link #wait(Object) wait} and {@link #notify(Object, ChangeListener) notify}
+ * follow the image until it is saved, as they do for servers.
  * @author Christos Fragoulides
  */
 public interface ImageManager extends EntityManager<Image> { }
@@ -0,0 +1,74 @@
+package com.pynode.rackspace.service;
+
+/**
+ * A request to move a shared public IP address from one server of a shared IP group to
+ * another: the address is shared with the destination server, then no longer shared with the
+ * source server, so that it is never left unassigned. Performed in bulk by
+ * {@link SharedIpGroupManager#moveIps(java.util.Collection)}.
+ * @author Christos Fragoulides
+ */
+public final class IpMove {
+
+    private final String ip;
+    private final int sharedIpGroupId;
+    private final Integer fromServerId;
+    private final int toServerId;
+    private final boolean configureServer;
+
+    /**
+     * Creates a move configuring the destination server to use the address.
+     * @param ip the address.
+     * @param sharedIpGroupId the shared IP group of both servers.
+     * @param fromServerId the server currently holding the address, {@code null} to only share
+     * it with the destination server.
+     * @param toServerId the server to move the address to.
+     */
+    public IpMove(String ip, int sharedIpGroupId, Integer fromServerId, int toServerId) {
+        this(ip, sharedIpGroupId, fromServerId, toServerId, true);
+    }
+
+    /**
+     * Creates a move.
+     * @param ip the address.
+     * @param sharedIpGroupId the shared IP group of both servers.
+     * @param fromServerId the server currently holding the address, {@code null} to only share
+     * it with the destination server.
+     * @param toServerId the server to move the address to.
+     * @param configureServer whether the destination server is configured to use the address.
+     */
+    public IpMove(String ip, int sharedIpGroupId, Integer fromServerId, int toServerId,
+            boolean configureServer) {
+        if (ip == null) throw new IllegalArgumentException("IP address is required.");
+        this.ip = ip;
+        this.sharedIpGroupId = sharedIpGroupId;
+        this.fromServerId = fromServerId;
+        this.toServerId = toServerId;
+        this.configureServer = configureServer;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public int getSharedIpGroupId() {
+        return sharedIpGroupId;
+    }
+
+    public Integer getFromServerId() {
+        return fromServerId;
+    }
+
+    public int getToServerId() {
+        return toServerId;
+    }
+
+    public boolean isConfigureServer() {
+        return configureServer;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IpMove[%1$s: %2$s -> %3$d]", ip, fromServerId, toServerId);
+    }
+
+}
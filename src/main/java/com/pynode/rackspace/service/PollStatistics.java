@@ -0,0 +1,55 @@
+package com.pynode.rackspace.service;
+
+/**
+ * Snapshot of the efficiency of the polls made for the polling operations of an
+ * {@link EntityManager}, for the transitions from a single status: how many polls it took to
+ * see entities leave the status, and how long they stayed in it.
+ * @author Christos Fragoulides
+ */
+public final class PollStatistics {
+
+    private final String status;
+    private final long transitions;
+    private final long polls;
+    private final long totalDuration;
+
+    public PollStatistics(String status, long transitions, long polls, long totalDuration) {
+        this.status = status;
+        this.transitions = transitions;
+        this.polls = polls;
+        this.totalDuration = totalDuration;
+    }
+
+    /** @return the status the transitions were made from. */
+    public String getStatus() {
+        return status;
+    }
+
+    /** @return the number of transitions from the status that were seen. */
+    public long getTransitions() {
+        return transitions;
+    }
+
+    /** @return the number of polls made while entities were in the status. */
+    public long getPolls() {
+        return polls;
+    }
+
+    /** @return the average number of polls per transition, one at best. */
+    public double getPollsPerTransition() {
+        return transitions == 0 ? 0 : (double) polls / transitions;
+    }
+
+    /** @return the average time in milliseconds entities stayed in the status. */
+    public long getAverageDuration() {
+        return transitions == 0 ? 0 : totalDuration / transitions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PollStatistics[status=%1$s, transitions=%2$d, polls=%3$d, "
+                + "pollsPerTransition=%4$.2f, averageDuration=%5$d]", status, transitions, polls,
+                getPollsPerTransition(), getAverageDuration());
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.pynode.rackspace.service;
+
+import com.pynode.rackspace.client.RackspaceCloudClientException;
+import com.rackspace.cloud.api.Server;
+import com.rackspace.cloud.api.ServerStatus;
+import java.util.Collection;
+
+/**
+ * An in-memory inventory of all the servers of an account, indexed by id, status, flavor,
+ * image, IP address and metadata. The inventory is loaded in full the first time it is
+ * synchronized and is kept up to date afterwards with {@code changes-since} requests.<br />
+ * Lookups never block: they are answered from an immutable snapshot, which is replaced as a
+ * whole on every synchronization. The servers returned are shared by all callers and must
+ * not be modified.
+ * @author Christos Fragoulides
+ */
+public interface ServerInventory {
+    
+    /**
+     * Brings the inventory up to date, loading it if it has not been loaded yet.
+     * @throws RackspaceCloudClientException 
+     */
+    void sync() throws RackspaceCloudClientException;
+    
+    /**
+     * Loads all the servers again, discarding the current contents.
+     * @throws RackspaceCloudClientException 
+     */
+    void reload() throws RackspaceCloudClientException;
+    
+    /**
+     * Gets the time the inventory was last brought up to date.
+     * @return the time in milliseconds, zero if not loaded yet.
+     */
+    long getLastModified();
+    
+    int size();
+    
+    /**
+     * Finds a server by id.
+     * @param id
+     * @return the server, {@code null} if not found.
+     */
+    Server get(int id);
+    
+    Collection<Server> getServers();
+    
+    Collection<Server> findByStatus(ServerStatus status);
+    
+    Collection<Server> findByFlavor(int flavorId);
+    
+    Collection<Server> findByImage(int imageId);
+    
+    /**
+     * Finds the servers having the given public or private IP address. More than one server
+     * may be found for addresses of shared IP groups.
+     * @param ip
+     * @return 
+     */
+    Collection<Server> findByAddress(String ip);
+    
+    Collection<Server> findByMetadata(String key);
+    
+    Collection<Server> findByMetadata(String key, String value);
+    
+}
@@ -4,6 +4,7 @@ import com.pynode.rackspace.client.RackspaceCloudClientException;
 import com.rackspace.cloud.api.BackupSchedule;
 import com.rackspace.cloud.api.RebootType;
 import com.rackspace.cloud.api.Server;
+import java.util.Collection;
 
 /**
  *
@@ -30,4 +31,38 @@ public interface ServerManager extends EntityManager<Server> {
     
     BackupSchedule getSchedule(Server s) throws RackspaceCloudClientException;
     
+    /* -------------  Bulk Operations   -------------*/
+    
+    /**
+     * Reboots many servers at once, with at most {@code CLIENT_BULK_PARALLELISM} calls in
+     * progress at any time. Failed calls are retried by the client's retry policy; the calls
+     * that still fail are reported in the result.
+     * @param servers
+     * @param type
+     * @return the outcome for each server.
+     */
+    BulkResult<Server> rebootAll(Collection<Server> servers, RebootType type);
+    
+    /**
+     * Reboots many servers at once, reporting the outcome for each server to the listener as
+     * it completes.
+     * @param servers
+     * @param type
+     * @param progress notified from the threads performing the calls.
+     * @return the outcome for each server.
+     * @see #rebootAll(Collection, RebootType) 
+     */
+    BulkResult<Server> rebootAll(Collection<Server> servers, RebootType type,
+            ChangeListener<Server> progress);
+    
+    BulkResult<Server> rebuildAll(Collection<Server> servers, int imageId);
+    
+    BulkResult<Server> rebuildAll(Collection<Server> servers, int imageId,
+            ChangeListener<Server> progress);
+    
+    BulkResult<Server> resizeAll(Collection<Server> servers, int flavorId);
+    
+    BulkResult<Server> resizeAll(Collection<Server> servers, int flavorId,
+            ChangeListener<Server> progress);
+    
 }
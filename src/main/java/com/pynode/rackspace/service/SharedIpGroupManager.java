@@ -1,9 +1,32 @@
 package com.pynode.rackspace.service;
 
 import com.rackspace.cloud.api.SharedIpGroup;
+import java.util.Collection;
 
 /**
- * Update will raise a BadMethodFault.
+ * Update will raise an {@code UnsupportedOperationException}. Shared IP groups have no status,
+ * so there is nothing to wait for, nor to be notified of.
  * @author Christos Fragoulides
  */
-public interface SharedIpGroupManager extends EntityManager<SharedIpGroup> { }
+public interface SharedIpGroupManager extends EntityManager<SharedIpGroup> {
+    
+    /**
+     * Moves many shared IP addresses at once, such as on failover, with at most
+     * {@code CLIENT_BULK_PARALLELISM} moves in progress at any time. Each move waits for the
+     * rate limits of its calls, and failed calls are retried by the client's retry policy.
+     * @param moves
+     * @return the outcome of each move, with the time its calls took.
+     */
+    BulkResult<IpMove> moveIps(Collection<IpMove> moves);
+    
+    /**
+     * Moves many shared IP addresses at once, reporting the outcome of each move to the
+     * listener as it completes.
+     * @param moves
+     * @param progress notified from the threads performing the calls.
+     * @return the outcome of each move, with the time its calls took.
+     * @see #moveIps(Collection) 
+     */
+    BulkResult<IpMove> moveIps(Collection<IpMove> moves, ChangeListener<IpMove> progress);
+    
+}
@@ -0,0 +1,197 @@
+package com.pynode.rackspace.service.impl;
+
+import com.pynode.rackspace.client.RackspaceCloudClient;
+import com.pynode.rackspace.client.RackspaceCloudClientException;
+import com.pynode.rackspace.client.RateLimiter;
+import com.pynode.rackspace.service.BulkResult;
+import com.pynode.rackspace.service.ChangeListener;
+import com.pynode.rackspace.service.NotifyEvent;
+import com.rackspace.cloud.api.HTTPVerb;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An operation applied to many entities at once, by a bounded number of workers: the calling
+ * thread and up to {@code parallelism - 1} tasks of an executor, taking the entities from a
+ * shared queue. Each call reserves a token of the client's rate limiter first, waiting for it
+ * even in fail fast mode, so that the workers are throttled instead of rejected, and goes
+ * through the client's retry policy.
+ * Progress is reported to an optional listener as each entity completes, from the thread that
+ * processed it, and the time the calls for each entity took is recorded. Unexpected runtime
+ * exceptions fail the entity only, wrapped in a {@link RackspaceCloudClientException}.
+ * @param <T> the entity type.
+ * @author Christos Fragoulides
+ */
+abstract class BulkOperation<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkOperation.class);
+
+    private final RackspaceCloudClient client;
+
+    BulkOperation(RackspaceCloudClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Applies the operation to an entity.
+     * @param entity the entity.
+     * @throws RackspaceCloudClientException in case of an error.
+     */
+    abstract void apply(T entity) throws RackspaceCloudClientException;
+
+    /**
+     * Returns the path of the first call made for an entity, to check it against the rate
+     * limits.
+     */
+    abstract String getPath(T entity);
+
+    /**
+     * Returns the method of the first call made for an entity.
+     */
+    HTTPVerb getVerb() {
+        return HTTPVerb.POST;
+    }
+
+    /**
+     * Applies the operation to all the given entities, returning once done.
+     * @param entities the entities.
+     * @param executor the executor of the additional workers, {@code null} to process the
+     * entities in the calling thread only.
+     * @param parallelism the maximum number of entities processed concurrently.
+     * @param listener notified as each entity completes, may be {@code null}.
+     * @return the outcome for each entity.
+     */
+    BulkResult<T> run(Collection<T> entities, Executor executor, int parallelism,
+            final ChangeListener<T> listener) {
+
+        final Queue<T> pending = new ConcurrentLinkedQueue<T>(entities);
+        final List<T> succeeded = Collections.synchronizedList(new ArrayList<T>(entities.size()));
+        final Map<T, RackspaceCloudClientException> failed =
+                Collections.synchronizedMap(new LinkedHashMap<T, RackspaceCloudClientException>());
+        final Map<T, Long> durations = Collections.synchronizedMap(new LinkedHashMap<T, Long>());
+
+        final Runnable worker = new Runnable() {
+
+            @Override
+            public void run() {
+                T entity;
+                while ((entity = pending.poll()) != null) {
+                    long start = 0;
+                    try {
+                        awaitRateLimit(getVerb(), getPath(entity));
+                        start = System.currentTimeMillis();
+                        apply(entity);
+                        durations.put(entity, System.currentTimeMillis() - start);
+                        succeeded.add(entity);
+                        report(listener, new NotifyEvent<T>(false, entity, null));
+                    } catch (RackspaceCloudClientException e) {
+                        if (start > 0) durations.put(entity, System.currentTimeMillis() - start);
+                        failed.put(entity, e);
+                        report(listener, new NotifyEvent<T>(true, entity, e.getServerFault()));
+                    } catch (RuntimeException e) {
+                        // Recorded like any other failure, so that the remaining entities are
+                        // still processed by this worker.
+                        if (start > 0) durations.put(entity, System.currentTimeMillis() - start);
+                        LOGGER.warn("Bulk operation failed unexpectedly.", e);
+                        failed.put(entity, new RackspaceCloudClientException(e));
+                        report(listener, new NotifyEvent<T>(true, entity, null));
+                    } finally {
+                        cancelReservation();
+                    }
+                }
+            }
+
+        };
+
+        int workers = executor == null ? 0 : Math.min(parallelism, entities.size()) - 1;
+        final CountDownLatch done = new CountDownLatch(Math.max(workers, 0));
+        for (int i = 0; i < workers; i++) {
+            try {
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            worker.run();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+
+                });
+            } catch (RejectedExecutionException e) {
+                done.countDown();
+            }
+        }
+        worker.run();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                // Skip the entities not started yet, then wait for the ones in progress.
+                interrupted = true;
+                T entity;
+                while ((entity = pending.poll()) != null) {
+                    failed.put(entity, new RackspaceCloudClientException("Interrupted before processing."));
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        synchronized (failed) {
+            synchronized (durations) {
+                return new BulkResult<T>(new ArrayList<T>(succeeded),
+                        new LinkedHashMap<T, RackspaceCloudClientException>(failed),
+                        new LinkedHashMap<T, Long>(durations));
+            }
+        }
+    }
+
+    /**
+     * Waits for a token of the client's rate limiter and reserves it for the next call of the
+     * calling thread. Operations making several calls per entity do so before each call after
+     * the first.
+     * @param verb the method of the call.
+     * @param path the path of the call.
+     * @throws RackspaceCloudClientException if interrupted, or the limiter does not allow the
+     * call.
+     * @see RateLimiter#reserve(HTTPVerb, String)
+     */
+    void awaitRateLimit(HTTPVerb verb, String path) throws RackspaceCloudClientException {
+        RateLimiter limiter = client.getRateLimiter();
+        if (limiter != null) limiter.reserve(verb, path);
+    }
+
+    /**
+     * Drops a token reserved by {@link #awaitRateLimit(HTTPVerb, String)} but not used, so that
+     * it does not let a later call of the thread through.
+     */
+    private void cancelReservation() {
+        RateLimiter limiter = client.getRateLimiter();
+        if (limiter != null) limiter.cancelReservation();
+    }
+
+    private void report(ChangeListener<T> listener, NotifyEvent<T> event) {
+        if (listener == null) return;
+        try {
+            listener.notify(event);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Bulk operation listener failed.", e);
+        }
+    }
+
+}
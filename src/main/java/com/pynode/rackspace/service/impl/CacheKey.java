@@ -0,0 +1,64 @@
+package com.pynode.rackspace.service.impl;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Key of a cached client response: the account, the intercepted method and its arguments,
+ * in order. Keys are serializable, so that they may be stored by any {@code StateManager},
+ * and their hash code is computed once, from values whose hash codes do not change across
+ * JVMs (e.g. enum constants are hashed by name), so that it may also be used as a key
+ * by persistent stores.
+ * @author Christos Fragoulides
+ */
+final class CacheKey implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String account;
+    private final String method;
+    private final Object[] args;
+    private final int hash;
+
+    /**
+     * Creates a cache key.
+     * @param account identifies the account the cached response belongs to.
+     * @param method the signature of the intercepted method.
+     * @param args the arguments of the call, all of which must be serializable.
+     */
+    CacheKey(String account, String method, Object[] args) {
+        this.account = account;
+        this.method = method;
+        this.args = args.clone();
+
+        int h = 31 * account.hashCode() + method.hashCode();
+        for (Object arg : args) h = 31 * h + stableHashCode(arg);
+        hash = h;
+    }
+
+    private static int stableHashCode(Object arg) {
+        if (arg == null) return 0;
+        if (arg instanceof Enum) return ((Enum<?>) arg).name().hashCode();
+        return arg.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof CacheKey)) return false;
+        CacheKey other = (CacheKey) obj;
+        return hash == other.hash && account.equals(other.account) && method.equals(other.method)
+                && Arrays.equals(args, other.args);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheKey[" + account + ", " + method + ", " + Arrays.toString(args) + "]";
+    }
+
+}
@@ -1,25 +1,54 @@
 package com.pynode.rackspace.service.impl;
 
 import java.io.Serializable;
+import com.pynode.rackspace.service.utils.BoundedStateManager;
 import com.pynode.rackspace.service.utils.DefaultStateManager;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Iterator;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 import com.rackspace.cloud.api.Servers;
 import com.rackspace.cloud.api.Rebuild;
+import com.pynode.rackspace.service.BulkResult;
+import com.pynode.rackspace.service.CacheStatistics;
 import com.pynode.rackspace.service.ChangeListener;
 import com.pynode.rackspace.service.EntityList;
 import com.rackspace.cloud.api.BackupSchedule;
+import com.rackspace.cloud.api.Flavor;
+import com.rackspace.cloud.api.Flavors;
+import com.rackspace.cloud.api.Image;
+import com.rackspace.cloud.api.Images;
+import com.rackspace.cloud.api.HTTPVerb;
+import com.rackspace.cloud.api.ShareIp;
+import com.rackspace.cloud.api.SharedIpGroup;
+import com.rackspace.cloud.api.SharedIpGroups;
+import com.pynode.rackspace.service.IpMove;
 import com.rackspace.cloud.api.RebootType;
 import com.rackspace.cloud.api.Server;
 import com.pynode.rackspace.client.RackspaceCloudClientException;
 import com.pynode.rackspace.client.aop.Interceptor;
 import com.pynode.rackspace.client.AccountBase;
+import com.pynode.rackspace.client.DaemonThreadFactory;
+import com.pynode.rackspace.client.WireFormat;
 import com.pynode.rackspace.service.CloudServersService;
 import com.pynode.rackspace.service.CloudServersServiceFactory.ServiceSetting;
 import com.pynode.rackspace.service.FlavorManager;
 import com.pynode.rackspace.service.ImageManager;
+import com.pynode.rackspace.service.PollStatistics;
+import com.pynode.cxf.utils.HttpConnectionPool;
+import com.pynode.rackspace.client.JaxbCodec;
 import com.pynode.rackspace.client.RackspaceCloudClient;
+import com.pynode.rackspace.client.RateLimiter;
+import com.pynode.rackspace.client.RetryPolicy;
+import com.pynode.rackspace.service.ServerInventory;
 import com.pynode.rackspace.service.ServerManager;
 import com.pynode.rackspace.service.SharedIpGroupManager;
 import com.pynode.rackspace.service.StateManager;
@@ -33,8 +62,6 @@ import java.util.Collections;
 import java.util.Map;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 import javax.xml.namespace.QName;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.slf4j.Logger;
@@ -50,11 +77,23 @@ public class CloudServersServiceImpl implements CloudServersService {
     
     private static final Logger LOGGER = LoggerFactory.getLogger(CloudServersServiceImpl.class);
     
+    private static final int DEFAULT_BULK_PARALLELISM = 4;
+    
     private RackspaceCloudClient client;
     private Map<String, Object> settings;
     private ServiceInfo serviceInfo;
     private ServerManager serverManager;
+    private ServerInventory serverInventory;
+    private EntityWatcher<Server, Servers> serverWatcher;
+    private int bulkParallelism = DEFAULT_BULK_PARALLELISM;
+    private FlavorManagerImpl flavorManager;
+    private ImageManagerImpl imageManager;
+    private EntityWatcher<Image, Images> imageWatcher;
+    private SharedIpGroupManager sharedIpGroupManager;
     private StateManager stateManager;
+    private CachingInterceptor cachingInterceptor;
+    private volatile ExecutorService backgroundExecutor;
+    private volatile boolean closed = false;
 
     public CloudServersServiceImpl(AccountBase accountBase, String username, String apiKey,
             Map<String, Object> settings) {
@@ -65,6 +104,12 @@ public class CloudServersServiceImpl implements CloudServersService {
         client = new RackspaceCloudClient(accountBase, username, apiKey);                    
         boolean cacheEnabled = false;
         long cacheTTL = 0;
+        int objectCacheSize = CachingInterceptor.DEFAULT_OBJECT_CACHE_SIZE;
+        long cacheMaxWeight = 0;
+        boolean singleFlight = false;
+        long staleGrace = 0;
+        long pollInterval = EntityWatcher.DEFAULT_POLL_INTERVAL;
+        long catalogSyncInterval = EntityCatalog.DEFAULT_SYNC_INTERVAL;
         for (String setting : settings.keySet()) {
             
             switch (ServiceSetting.valueOf(setting)) {
@@ -81,6 +126,112 @@ public class CloudServersServiceImpl implements CloudServersService {
                         LOGGER.warn("Invalid value for cache timeout setting, will use the default value.");
                     }
                     break;
+                // Maximum entries of the in-process response cache.
+                case CLIENT_CACHE_OBJECT_ENTRIES:
+                    if (settings.get(setting) instanceof Integer)
+                        objectCacheSize = (Integer) settings.get(setting);
+                    else {
+                        LOGGER.warn("Invalid value for object cache entries setting, will use the "
+                                + "default value.");
+                    }
+                    break;
+                // Maximum weight of the default state manager.
+                case CLIENT_CACHE_MAX_WEIGHT:
+                    if (settings.get(setting) instanceof Long)
+                        cacheMaxWeight = (Long) settings.get(setting);
+                    else {
+                        LOGGER.warn("Invalid value for cache maximum weight setting, the state manager "
+                                + "will not be bounded.");
+                    }
+                    break;
+                // Coalescing of concurrent cache misses.
+                case CLIENT_CACHE_SINGLE_FLIGHT:
+                    if (Boolean.TRUE.equals(settings.get(setting))) singleFlight = true;
+                    break;
+                // Time outdated responses are served while being refreshed.
+                case CLIENT_CACHE_STALE_GRACE:
+                    if (settings.get(setting) instanceof Long)
+                        staleGrace = (Long) settings.get(setting);
+                    else {
+                        LOGGER.warn("Invalid value for cache stale grace setting, outdated responses "
+                                + "will not be served.");
+                    }
+                    break;
+                // Proactive refreshing of the client's auth token.
+                case CLIENT_TOKEN_REFRESH_INTERVAL:
+                    if (settings.get(setting) instanceof Long)
+                        client.setTokenRefreshInterval((Long) settings.get(setting));
+                    else {
+                        LOGGER.warn("Invalid value for token refresh interval setting, will not refresh "
+                                + "tokens proactively.");
+                    }
+                    break;
+                // Client side rate limiting.
+                case CLIENT_RATE_LIMITING:
+                    if (settings.get(setting) instanceof RateLimiter.Mode)
+                        client.setRateLimitMode((RateLimiter.Mode) settings.get(setting));
+                    else if (Boolean.TRUE.equals(settings.get(setting)))
+                        client.setRateLimitMode(RateLimiter.Mode.BLOCKING);
+                    else if (!Boolean.FALSE.equals(settings.get(setting))) {
+                        LOGGER.warn("Invalid value for rate limiting setting, rate limiting will be "
+                                + "disabled.");
+                    }
+                    break;
+                // Retry policy of the client, null disables retries.
+                case CLIENT_RETRY_POLICY:
+                    if (settings.get(setting) == null || settings.get(setting) instanceof RetryPolicy)
+                        client.setRetryPolicy((RetryPolicy) settings.get(setting));
+                    else {
+                        LOGGER.warn("The passed in object for {} setting does not implement {}. "
+                                + "Will use the default one.",
+                                CLIENT_RETRY_POLICY.toString(), RetryPolicy.class.getName());
+                    }
+                    break;
+                // Pool of persistent connections, true for the shared one.
+                case CLIENT_HTTP_CONNECTION_POOL:
+                    if (settings.get(setting) instanceof HttpConnectionPool)
+                        client.setConnectionPool((HttpConnectionPool) settings.get(setting));
+                    else if (Boolean.TRUE.equals(settings.get(setting)))
+                        client.setConnectionPool(HttpConnectionPool.getShared());
+                    else if (!Boolean.FALSE.equals(settings.get(setting))) {
+                        LOGGER.warn("Invalid value for connection pool setting, connections will not be "
+                                + "pooled.");
+                    }
+                    break;
+                // Format of the responses, XML by default.
+                case CLIENT_WIRE_FORMAT:
+                    if (settings.get(setting) instanceof WireFormat)
+                        client.setWireFormat((WireFormat) settings.get(setting));
+                    else {
+                        LOGGER.warn("Invalid value for wire format setting, will use the default value.");
+                    }
+                    break;
+                // Interval of the polls for changes of watched entities.
+                case CLIENT_POLL_INTERVAL:
+                    if (settings.get(setting) instanceof Long)
+                        pollInterval = (Long) settings.get(setting);
+                    else {
+                        LOGGER.warn("Invalid value for poll interval setting, will use the default value.");
+                    }
+                    break;
+                // Age after which catalogs of flavors and images are synchronized.
+                case CLIENT_CATALOG_SYNC_INTERVAL:
+                    if (settings.get(setting) instanceof Long && (Long) settings.get(setting) > 0)
+                        catalogSyncInterval = (Long) settings.get(setting);
+                    else {
+                        LOGGER.warn("Invalid value for catalog sync interval setting, will use the "
+                                + "default value.");
+                    }
+                    break;
+                // Maximum concurrent calls of bulk operations.
+                case CLIENT_BULK_PARALLELISM:
+                    if (settings.get(setting) instanceof Integer && (Integer) settings.get(setting) > 0)
+                        bulkParallelism = (Integer) settings.get(setting);
+                    else {
+                        LOGGER.warn("Invalid value for bulk parallelism setting, will use the "
+                                + "default value.");
+                    }
+                    break;
                 // Client response caching.
                 case CLIENT_RESPONSE_CACHING:
                     if (Boolean.TRUE.equals(settings.get(setting))) cacheEnabled = true;
@@ -101,15 +252,41 @@ public class CloudServersServiceImpl implements CloudServersService {
             }
         }
         
-        if (cacheEnabled) client.setInterceptor(new CachingInterceptor(this, cacheTTL));
+        if (cacheEnabled) {
+            cachingInterceptor = new CachingInterceptor(this, accountBase + ":" + username, cacheTTL,
+                    objectCacheSize);
+            cachingInterceptor.setSingleFlight(singleFlight);
+            cachingInterceptor.setStaleGrace(staleGrace);
+            client.setInterceptor(cachingInterceptor);
+        }
         
+        if (stateManager == null && cacheMaxWeight > 0)
+            stateManager = new BoundedStateManager(cacheMaxWeight);
         if (stateManager == null) 
             stateManager = DefaultStateManager.getInstance(accountBase, username, apiKey);
+        // Expire cached responses along with the cache timeout, unless configured otherwise.
+        if (stateManager instanceof BoundedStateManager
+                && ((BoundedStateManager) stateManager).getTimeToLive() <= 0) {
+            long timeout = cacheTTL > 0 ? cacheTTL : CachingInterceptor.DEFAULT_CACHE_TTL;
+            ((BoundedStateManager) stateManager).setTimeToLive(timeout + Math.max(staleGrace, 0));
+        }
         
         // Initialize ServiceInfo.
         serviceInfo = new ServiceInfoImpl(this);
         // Inialize Entity Managers.
         serverManager = new ServerManagerImpl(this);
+        serverInventory = new ServerInventoryImpl(serverManager, getDeltaSkew());
+        serverWatcher = new EntityWatcher<Server, Servers>(client, EntityListDescriptor.SERVERS,
+                EntityListDescriptor.DELTA_SKEW, !client.isAppEngineCompatible());
+        serverWatcher.setPollInterval(pollInterval);
+        flavorManager = new FlavorManagerImpl(this);
+        flavorManager.catalog.setSyncInterval(catalogSyncInterval);
+        imageManager = new ImageManagerImpl(this);
+        imageManager.catalog.setSyncInterval(catalogSyncInterval);
+        imageWatcher = new EntityWatcher<Image, Images>(client, EntityListDescriptor.IMAGES,
+                EntityListDescriptor.DELTA_SKEW, !client.isAppEngineCompatible());
+        imageWatcher.setPollInterval(pollInterval);
+        sharedIpGroupManager = new SharedIpGroupManagerImpl(this);
     }
     
     /* ----------------------------------------------------------------------------------------------- *
@@ -128,17 +305,70 @@ public class CloudServersServiceImpl implements CloudServersService {
 
     @Override
     public ImageManager getImageManager() {
-        throw new UnsupportedOperationException("Not supported yet.");
+        return imageManager;
     }
 
     @Override
     public SharedIpGroupManager getSharedIpGroupManager() {
-        throw new UnsupportedOperationException("Not supported yet.");
+        return sharedIpGroupManager;
     }
 
     @Override
     public FlavorManager getFlavorManager() {
-        throw new UnsupportedOperationException("Not supported yet.");
+        return flavorManager;
+    }
+
+    @Override
+    public ServerInventory getServerInventory() {
+        return serverInventory;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            if (backgroundExecutor != null) backgroundExecutor.shutdown();
+        }
+        serverWatcher.close();
+        imageWatcher.close();
+        LOGGER.debug("Service closed.");
+    }
+    
+    /**
+     * Returns the margin subtracted from the time an entity list was last modified, when
+     * requesting the changes made since then. Besides clock differences it covers the age
+     * of the cached response the list may have been created from.
+     * @return the time in milliseconds.
+     */
+    private long getDeltaSkew() {
+        CachingInterceptor interceptor = cachingInterceptor;
+        if (interceptor == null) return EntityListDescriptor.DELTA_SKEW;
+        return EntityListDescriptor.DELTA_SKEW + interceptor.cacheTimeout
+                + Math.max(interceptor.staleGrace, 0);
+    }
+    
+    /**
+     * Returns the executor of the background tasks of the service, such as cache refreshes and
+     * page prefetching. Its threads are created on demand and do not prevent the JVM from
+     * exiting.
+     * @return the executor, {@code null} in a GAE compatible service, where background threads
+     * are not available, or once the service is closed.
+     */
+    private ExecutorService getBackgroundExecutor() {
+        if (client.isAppEngineCompatible()) return null;
+        ExecutorService result = backgroundExecutor;
+        if (result == null) {
+            synchronized (this) {
+                if (closed) return null;
+                result = backgroundExecutor;
+                if (result == null) {
+                    result = Executors.newCachedThreadPool(new DaemonThreadFactory("rackspace-service-"));
+                    backgroundExecutor = result;
+                }
+            }
+        }
+        return result;
     }
     
     /* ----------------------------------------------------------------------------------------------- *
@@ -186,6 +416,21 @@ public class CloudServersServiceImpl implements CloudServersService {
         public Map<String, Object> getSettings() {
             return Collections.unmodifiableMap(getService().settings);
         }
+
+        @Override
+        public CacheStatistics getCacheStatistics() {
+            CachingInterceptor interceptor = getService().cachingInterceptor;
+            return interceptor == null ? new CacheStatistics(0, 0, 0, 0) : interceptor.getStatistics();
+        }
+
+        @Override
+        public List<PollStatistics> getPollStatistics() {
+            CloudServersServiceImpl service = getService();
+            List<PollStatistics> result = new ArrayList<PollStatistics>();
+            result.addAll(service.serverWatcher.getStatistics());
+            result.addAll(service.imageWatcher.getStatistics());
+            return result;
+        }
         
     }
     
@@ -219,6 +464,88 @@ public class CloudServersServiceImpl implements CloudServersService {
             getService().client.action(s.getId(), resize);
         }
 
+        @Override
+        public BulkResult<Server> rebootAll(Collection<Server> servers, RebootType type) {
+            return rebootAll(servers, type, null);
+        }
+
+        @Override
+        public BulkResult<Server> rebootAll(Collection<Server> servers, RebootType type,
+                ChangeListener<Server> progress) {
+            final Reboot reboot = new Reboot();
+            reboot.setType(type);
+            return runAll(servers, progress, new ServerAction() {
+
+                @Override
+                void apply(Server s) throws RackspaceCloudClientException {
+                    getService().client.action(s.getId(), reboot);
+                }
+
+            });
+        }
+
+        @Override
+        public BulkResult<Server> rebuildAll(Collection<Server> servers, int imageId) {
+            return rebuildAll(servers, imageId, null);
+        }
+
+        @Override
+        public BulkResult<Server> rebuildAll(Collection<Server> servers, int imageId,
+                ChangeListener<Server> progress) {
+            final Rebuild rebuild = new Rebuild();
+            rebuild.setImageId(imageId);
+            return runAll(servers, progress, new ServerAction() {
+
+                @Override
+                void apply(Server s) throws RackspaceCloudClientException {
+                    getService().client.action(s.getId(), rebuild);
+                }
+
+            });
+        }
+
+        @Override
+        public BulkResult<Server> resizeAll(Collection<Server> servers, int flavorId) {
+            return resizeAll(servers, flavorId, null);
+        }
+
+        @Override
+        public BulkResult<Server> resizeAll(Collection<Server> servers, int flavorId,
+                ChangeListener<Server> progress) {
+            final Resize resize = new Resize();
+            resize.setFlavorId(flavorId);
+            return runAll(servers, progress, new ServerAction() {
+
+                @Override
+                void apply(Server s) throws RackspaceCloudClientException {
+                    getService().client.action(s.getId(), resize);
+                }
+
+            });
+        }
+        
+        private BulkResult<Server> runAll(Collection<Server> servers, ChangeListener<Server> progress,
+                ServerAction action) {
+            CloudServersServiceImpl service = getService();
+            return action.run(servers, service.getBackgroundExecutor(), service.bulkParallelism, progress);
+        }
+        
+        /**
+         * A server action, applied in bulk.
+         */
+        private abstract class ServerAction extends BulkOperation<Server> {
+
+            ServerAction() {
+                super(getService().client);
+            }
+
+            @Override
+            String getPath(Server s) {
+                return "/servers/" + s.getId() + "/action";
+            }
+            
+        }
+
         @Override
         public void confirmResize(Server s) {
             throw new UnsupportedOperationException("Not supported yet.");
@@ -230,13 +557,19 @@ public class CloudServersServiceImpl implements CloudServersService {
         }
 
         @Override
-        public void shareIp(Server s, String ip, long sharedIpGroupId, boolean configureServer) {
-            throw new UnsupportedOperationException("Not supported yet.");
+        public void shareIp(Server s, String ip, long sharedIpGroupId, boolean configureServer)
+                throws RackspaceCloudClientException {
+            if (sharedIpGroupId < Integer.MIN_VALUE || sharedIpGroupId > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Invalid shared IP group id: " + sharedIpGroupId);
+            ShareIp shareIp = new ShareIp();
+            shareIp.setSharedIpGroupId((int) sharedIpGroupId);
+            shareIp.setConfigureServer(configureServer);
+            getService().client.shareIP(s.getId(), ip, shareIp);
         }
 
         @Override
-        public void unshareIp(Server s, String ip) {
-            throw new UnsupportedOperationException("Not supported yet.");
+        public void unshareIp(Server s, String ip) throws RackspaceCloudClientException {
+            getService().client.unshareIP(s.getId(), ip, null);
         }
 
         @Override
@@ -275,91 +608,503 @@ public class CloudServersServiceImpl implements CloudServersService {
         }
 
         @Override
-        public void wait(Server e) {
-            throw new UnsupportedOperationException("Not supported yet.");
+        public void wait(Server e) throws RackspaceCloudClientException {
+            getService().serverWatcher.await(e, 0);
         }
 
         @Override
-        public void wait(Server e, long timeout) {
-            throw new UnsupportedOperationException("Not supported yet.");
+        public void wait(Server e, long timeout) throws RackspaceCloudClientException {
+            if (timeout <= 0) throw new IllegalArgumentException("Timeout must be positive.");
+            getService().serverWatcher.await(e, timeout);
         }
 
         @Override
         public void notify(Server e, ChangeListener<Server> ch) {
-            throw new UnsupportedOperationException("Not supported yet.");
+            getService().serverWatcher.watch(e, ch);
         }
 
         @Override
         public void stopNotify(Server e, ChangeListener<Server> ch) {
-            throw new UnsupportedOperationException("Not supported yet.");
+            getService().serverWatcher.unwatch(e, ch);
         }
 
         @Override
-        public EntityList<Server> createList(boolean detail) throws RackspaceCloudClientException {
-            throw new UnsupportedOperationException("Not supported yet.");
-        }
-
-        @Override
-        public EntityList<Server> createList(final boolean detail, final long offset, final long limit) 
-                throws RackspaceCloudClientException {
+        public EntityList<Server> createList(final boolean detail) throws RackspaceCloudClientException {
             
             final CloudServersServiceImpl service = getService();
             
-            return new EntityList<Server>() {
-                
-                private List<Server> servers = getServers();
-                private Iterator<Server> serversIterator = servers.iterator();
-                
-                private List<Server> getServers() throws RackspaceCloudClientException {
+            EntityList<Server> result = new PaginatingEntityList<Server>(service.getBackgroundExecutor(),
+                    MAX_LIMIT) {
+
+                @Override
+                protected List<Server> fetchPage(long offset, long limit)
+                        throws RackspaceCloudClientException {
                     Servers result;
                     if (detail) result = service.client.listServersDetail(null, offset, limit);
                     else result = service.client.listServers(null, offset, limit);
                     return result.getServer();
                 }
+                
+            };
+            result.reset();
+            return result;
+        }
+
+        @Override
+        public EntityList<Server> createList(boolean detail, long offset, long limit) 
+                throws RackspaceCloudClientException {
+            return createServerList(detail, null, offset, limit);
+        }
+
+        @Override
+        public EntityList<Server> createDeltaList(boolean detail, long changesSince)
+                throws RackspaceCloudClientException {
+            return createServerList(detail, changesSince, null, null);
+        }
+
+        @Override
+        public EntityList<Server> createDeltaList(boolean detail, long changesSince, long offset,
+                long limit) throws RackspaceCloudClientException {
+            return createServerList(detail, changesSince, offset, limit);
+        }
+        
+        private EntityList<Server> createServerList(final boolean detail, Long changesSince,
+                final Long offset, final Long limit) throws RackspaceCloudClientException {
+            
+            final CloudServersServiceImpl service = getService();
+            final Long since = changesSince == null ? null : changesSince / 1000;
+            boolean partial = offset != null || limit != null;
+            
+            EntityList<Server> result = new MaterializedEntityList<Server, Servers>(service.client,
+                    EntityListDescriptor.SERVERS, partial, service.getDeltaSkew()) {
+
+                @Override
+                protected Servers fetchList() throws RackspaceCloudClientException {
+                    if (detail) return service.client.listServersDetail(since, offset, limit);
+                    else return service.client.listServers(since, offset, limit);
+                }
+                
+            };
+            result.reset();
+            return result;
+        }
+        
+    }
+
+    /**
+     * {@code FlavorManager} implementation, serving flavors from an {@link EntityCatalog}.
+     */
+    private static class FlavorManagerImpl extends ServiceAccessor implements FlavorManager {
+        
+        private final EntityCatalog<Flavor, Flavors> catalog;
+
+        public FlavorManagerImpl(final CloudServersServiceImpl service) {
+            super(service);
+            catalog = new EntityCatalog<Flavor, Flavors>(service.client, EntityListDescriptor.FLAVORS,
+                    service.getBackgroundExecutor(), service.getDeltaSkew()) {
 
                 @Override
-                public long getLastModified() {
-                    throw new UnsupportedOperationException("Not supported yet.");
+                protected Flavors fetchList() throws RackspaceCloudClientException {
+                    return service.client.listFlavorsDetail(null, null, null);
                 }
 
+            };
+        }
+
+        @Override
+        public Flavor create(Flavor e) {
+            throw new UnsupportedOperationException("Flavors can not be created.");
+        }
+
+        @Override
+        public void remove(Flavor e) {
+            throw new UnsupportedOperationException("Flavors can not be removed.");
+        }
+
+        @Override
+        public void update(Flavor e) {
+            throw new UnsupportedOperationException("Flavors can not be updated.");
+        }
+
+        /**
+         * Synchronizes the catalog, then returns its copy of the flavor.
+         */
+        @Override
+        public Flavor refresh(Flavor e) throws RackspaceCloudClientException {
+            catalog.sync();
+            return catalog.get(e.getId());
+        }
+
+        @Override
+        public Flavor find(long id) throws RackspaceCloudClientException {
+            if (id < Integer.MIN_VALUE || id > Integer.MAX_VALUE) return null;
+            return catalog.get((int) id);
+        }
+
+        @Override
+        public void reload() throws RackspaceCloudClientException {
+            catalog.reload();
+        }
+
+        /**
+         * Flavors never change on their own, there is nothing to wait for.
+         */
+        @Override
+        public void wait(Flavor e) { }
+
+        @Override
+        public void wait(Flavor e, long timeout) { }
+
+        /**
+         * Flavors never change on their own, the listener would never be notified.
+         */
+        @Override
+        public void notify(Flavor e, ChangeListener<Flavor> ch) { }
+
+        @Override
+        public void stopNotify(Flavor e, ChangeListener<Flavor> ch) { }
+
+        @Override
+        public EntityList<Flavor> createList(boolean detail) throws RackspaceCloudClientException {
+            return catalog.createList(0, 0);
+        }
+
+        @Override
+        public EntityList<Flavor> createList(boolean detail, long offset, long limit)
+                throws RackspaceCloudClientException {
+            return catalog.createList(offset, limit);
+        }
+
+        @Override
+        public EntityList<Flavor> createDeltaList(boolean detail, long changesSince)
+                throws RackspaceCloudClientException {
+            return createDeltaList(detail, changesSince, 0, 0);
+        }
+
+        /**
+         * Delta lists are served by the catalog, unless the changes were made before it was
+         * loaded.
+         */
+        @Override
+        public EntityList<Flavor> createDeltaList(boolean detail, long changesSince, long offset,
+                long limit) throws RackspaceCloudClientException {
+            EntityList<Flavor> result = catalog.createDeltaList(changesSince, offset, limit);
+            if (result != null) return result;
+            return createFlavorList(detail, changesSince, offset > 0 ? offset : null,
+                    limit > 0 ? limit : null);
+        }
+        
+        private EntityList<Flavor> createFlavorList(final boolean detail, long changesSince,
+                final Long offset, final Long limit) throws RackspaceCloudClientException {
+            
+            final CloudServersServiceImpl service = getService();
+            final Long since = changesSince / 1000;
+            boolean partial = offset != null || limit != null;
+            
+            EntityList<Flavor> result = new MaterializedEntityList<Flavor, Flavors>(service.client,
+                    EntityListDescriptor.FLAVORS, partial, service.getDeltaSkew()) {
+
                 @Override
-                public boolean isEmpty() {
-                    return servers.isEmpty();
+                protected Flavors fetchList() throws RackspaceCloudClientException {
+                    if (detail) return service.client.listFlavorsDetail(since, offset, limit);
+                    else return service.client.listFlavors(since, offset, limit);
                 }
+                
+            };
+            result.reset();
+            return result;
+        }
+        
+    }
+
+    /**
+     * {@code ImageManager} implementation, serving images from an {@link EntityCatalog} which
+     * is also updated with the images created, removed and waited for.
+     */
+    private static class ImageManagerImpl extends ServiceAccessor implements ImageManager {
+        
+        private final EntityCatalog<Image, Images> catalog;
+
+        public ImageManagerImpl(final CloudServersServiceImpl service) {
+            super(service);
+            catalog = new EntityCatalog<Image, Images>(service.client, EntityListDescriptor.IMAGES,
+                    service.getBackgroundExecutor(), service.getDeltaSkew()) {
 
                 @Override
-                public boolean hasNext() {
-                    return serversIterator.hasNext();
+                protected Images fetchList() throws RackspaceCloudClientException {
+                    return service.client.listImagesDetail(null, null, null);
                 }
 
+            };
+        }
+
+        @Override
+        public Image create(Image e) throws RackspaceCloudClientException {
+            Image result = getService().client.createImage(e);
+            // Images reported without a status are taken for deleted, leave those to the sync.
+            if (result.getStatus() != null) catalog.update(JaxbCopier.copy(result));
+            return result;
+        }
+
+        @Override
+        public void remove(Image e) throws RackspaceCloudClientException {
+            getService().client.deleteImage(e.getId());
+            Image deleted = new Image();
+            deleted.setId(e.getId());
+            deleted.setName(e.getName());
+            catalog.update(deleted);
+        }
+
+        @Override
+        public void update(Image e) {
+            throw new UnsupportedOperationException("Images can not be updated.");
+        }
+
+        @Override
+        public Image refresh(Image e) throws RackspaceCloudClientException {
+            Image result = getService().client.getImage(e.getId());
+            catalog.update(JaxbCopier.copy(result));
+            return result;
+        }
+
+        @Override
+        public Image find(long id) throws RackspaceCloudClientException {
+            if (id < Integer.MIN_VALUE || id > Integer.MAX_VALUE) return null;
+            return catalog.get((int) id);
+        }
+
+        @Override
+        public void wait(Image e) throws RackspaceCloudClientException {
+            catalog.update(JaxbCopier.copy(getService().imageWatcher.await(e, 0)));
+        }
+
+        @Override
+        public void wait(Image e, long timeout) throws RackspaceCloudClientException {
+            if (timeout <= 0) throw new IllegalArgumentException("Timeout must be positive.");
+            catalog.update(JaxbCopier.copy(getService().imageWatcher.await(e, timeout)));
+        }
+
+        @Override
+        public void notify(Image e, ChangeListener<Image> ch) {
+            getService().imageWatcher.watch(e, ch);
+        }
+
+        @Override
+        public void stopNotify(Image e, ChangeListener<Image> ch) {
+            getService().imageWatcher.unwatch(e, ch);
+        }
+
+        @Override
+        public EntityList<Image> createList(boolean detail) throws RackspaceCloudClientException {
+            return catalog.createList(0, 0);
+        }
+
+        @Override
+        public EntityList<Image> createList(boolean detail, long offset, long limit)
+                throws RackspaceCloudClientException {
+            return catalog.createList(offset, limit);
+        }
+
+        @Override
+        public EntityList<Image> createDeltaList(boolean detail, long changesSince)
+                throws RackspaceCloudClientException {
+            return createDeltaList(detail, changesSince, 0, 0);
+        }
+
+        /**
+         * Delta lists are served by the catalog, unless the changes were made before it was
+         * loaded.
+         */
+        @Override
+        public EntityList<Image> createDeltaList(boolean detail, long changesSince, long offset,
+                long limit) throws RackspaceCloudClientException {
+            EntityList<Image> result = catalog.createDeltaList(changesSince, offset, limit);
+            if (result != null) return result;
+            
+            final CloudServersServiceImpl service = getService();
+            final boolean fetchDetail = detail;
+            final Long since = changesSince / 1000;
+            final Long from = offset > 0 ? offset : null;
+            final Long count = limit > 0 ? limit : null;
+            
+            result = new MaterializedEntityList<Image, Images>(service.client, EntityListDescriptor.IMAGES,
+                    from != null || count != null, service.getDeltaSkew()) {
+
                 @Override
-                public Server next() {
-                    return serversIterator.next();
+                protected Images fetchList() throws RackspaceCloudClientException {
+                    if (fetchDetail) return service.client.listImagesDetail(since, from, count);
+                    else return service.client.listImages(since, from, count);
                 }
+                
+            };
+            result.reset();
+            return result;
+        }
+        
+    }
+
+    /**
+     * {@code SharedIpGroupManager} implementation.
+     */
+    private static class SharedIpGroupManagerImpl extends ServiceAccessor implements SharedIpGroupManager {
+
+        public SharedIpGroupManagerImpl(CloudServersServiceImpl service) {
+            super(service);
+        }
+
+        @Override
+        public SharedIpGroup create(SharedIpGroup e) throws RackspaceCloudClientException {
+            return getService().client.createSharedIpGroup(e);
+        }
+
+        @Override
+        public void remove(SharedIpGroup e) throws RackspaceCloudClientException {
+            getService().client.deleteSharedIpGroup(e.getId());
+        }
+
+        @Override
+        public void update(SharedIpGroup e) {
+            throw new UnsupportedOperationException("Shared IP groups can not be updated.");
+        }
+
+        @Override
+        public SharedIpGroup refresh(SharedIpGroup e) throws RackspaceCloudClientException {
+            return getService().client.getSharedIpGroup(e.getId());
+        }
+
+        @Override
+        public SharedIpGroup find(long id) throws RackspaceCloudClientException {
+            if (id < Integer.MIN_VALUE || id > Integer.MAX_VALUE) return null;
+            try {
+                return getService().client.getSharedIpGroup((int) id);
+            } catch (RackspaceCloudClientException e) {
+                // Not found.
+                if (e.getServerFault() != null && e.getServerFault().getCode() == 404) return null;
+                throw e;
+            }
+        }
+
+        /**
+         * Shared IP groups have no status, there is nothing to wait for.
+         */
+        @Override
+        public void wait(SharedIpGroup e) { }
+
+        @Override
+        public void wait(SharedIpGroup e, long timeout) { }
+
+        @Override
+        public void notify(SharedIpGroup e, ChangeListener<SharedIpGroup> ch) {
+            throw new UnsupportedOperationException("Shared IP groups have no status to be notified of.");
+        }
+
+        @Override
+        public void stopNotify(SharedIpGroup e, ChangeListener<SharedIpGroup> ch) { }
+
+        @Override
+        public EntityList<SharedIpGroup> createList(final boolean detail)
+                throws RackspaceCloudClientException {
+            
+            final CloudServersServiceImpl service = getService();
+            
+            EntityList<SharedIpGroup> result = new PaginatingEntityList<SharedIpGroup>(
+                    service.getBackgroundExecutor(), MAX_LIMIT) {
 
                 @Override
-                public void reset() throws RackspaceCloudClientException {
-                    servers = getServers();
-                    serversIterator = servers.iterator();
+                protected List<SharedIpGroup> fetchPage(long offset, long limit)
+                        throws RackspaceCloudClientException {
+                    SharedIpGroups result;
+                    if (detail) result = service.client.listSharedIpGroupsDetail(null, offset, limit);
+                    else result = service.client.listSharedIpGroups(null, offset, limit);
+                    return result.getSharedIpGroup();
                 }
+                
+            };
+            result.reset();
+            return result;
+        }
+
+        @Override
+        public EntityList<SharedIpGroup> createList(boolean detail, long offset, long limit)
+                throws RackspaceCloudClientException {
+            return createGroupList(detail, null, offset, limit);
+        }
+
+        @Override
+        public EntityList<SharedIpGroup> createDeltaList(boolean detail, long changesSince)
+                throws RackspaceCloudClientException {
+            return createGroupList(detail, changesSince, null, null);
+        }
+
+        @Override
+        public EntityList<SharedIpGroup> createDeltaList(boolean detail, long changesSince, long offset,
+                long limit) throws RackspaceCloudClientException {
+            return createGroupList(detail, changesSince, offset, limit);
+        }
+        
+        private EntityList<SharedIpGroup> createGroupList(final boolean detail, Long changesSince,
+                final Long offset, final Long limit) throws RackspaceCloudClientException {
+            
+            final CloudServersServiceImpl service = getService();
+            final Long since = changesSince == null ? null : changesSince / 1000;
+            boolean partial = offset != null || limit != null;
+            
+            EntityList<SharedIpGroup> result = new MaterializedEntityList<SharedIpGroup, SharedIpGroups>(
+                    service.client, EntityListDescriptor.SHARED_IP_GROUPS, partial, service.getDeltaSkew()) {
 
                 @Override
-                public void delta() {
-                    throw new UnsupportedOperationException("Not supported yet.");
+                protected SharedIpGroups fetchList() throws RackspaceCloudClientException {
+                    if (detail) return service.client.listSharedIpGroupsDetail(since, offset, limit);
+                    else return service.client.listSharedIpGroups(since, offset, limit);
                 }
                 
             };
+            result.reset();
+            return result;
         }
 
         @Override
-        public EntityList<Server> createDeltaList(boolean detail, long changesSince) {
-            throw new UnsupportedOperationException("Not supported yet.");
+        public BulkResult<IpMove> moveIps(Collection<IpMove> moves) {
+            return moveIps(moves, null);
         }
 
+        /**
+         * Each move shares the address with the destination server, waits for the rate limit
+         * of the {@code DELETE} call, then stops sharing it with the source server.
+         */
         @Override
-        public EntityList<Server> createDeltaList(boolean detail, long changesSince, long offset,
-                long limit) {
-            throw new UnsupportedOperationException("Not supported yet.");
+        public BulkResult<IpMove> moveIps(Collection<IpMove> moves, ChangeListener<IpMove> progress) {
+            final CloudServersServiceImpl service = getService();
+            BulkOperation<IpMove> operation = new BulkOperation<IpMove>(service.client) {
+
+                @Override
+                void apply(IpMove move) throws RackspaceCloudClientException {
+                    ShareIp shareIp = new ShareIp();
+                    shareIp.setSharedIpGroupId(move.getSharedIpGroupId());
+                    shareIp.setConfigureServer(move.isConfigureServer());
+                    service.client.shareIP(move.getToServerId(), move.getIp(), shareIp);
+                    if (move.getFromServerId() == null) return;
+                    
+                    awaitRateLimit(HTTPVerb.DELETE, getIpPath(move.getFromServerId(), move.getIp()));
+                    service.client.unshareIP(move.getFromServerId(), move.getIp(), null);
+                }
+
+                @Override
+                String getPath(IpMove move) {
+                    return getIpPath(move.getToServerId(), move.getIp());
+                }
+
+                @Override
+                HTTPVerb getVerb() {
+                    return HTTPVerb.PUT;
+                }
+
+            };
+            return operation.run(moves, service.getBackgroundExecutor(), service.bulkParallelism, progress);
+        }
+        
+        private static String getIpPath(int serverId, String ip) {
+            return "/servers/" + serverId + "/ips/public/" + ip;
         }
         
     }
@@ -373,27 +1118,60 @@ public class CloudServersServiceImpl implements CloudServersService {
     private static class CachingInterceptor extends ServiceAccessor implements Interceptor {
 
         private static final long DEFAULT_CACHE_TTL = 30000;
+        private static final int DEFAULT_OBJECT_CACHE_SIZE = 100;
         
         private long cacheTimeout = DEFAULT_CACHE_TTL;
+        /** Identifies the account, since a StateManager may be shared by several accounts. */
+        private final String account;
+        /** In-process cache of response objects, {@code null} if disabled. */
+        private final ObjectCache objectCache;
+        
+        /** Share a single remote call among concurrent misses of the same key. */
+        private boolean singleFlight = false;
+        /** Time after the cache timeout during which outdated responses are served. */
+        private long staleGrace = 0;
+        /** Remote calls in progress, used for single-flight calls and background refreshes. */
+        private final ConcurrentMap<CacheKey, FutureTask<Object>> inFlight =
+                new ConcurrentHashMap<CacheKey, FutureTask<Object>>();
+        
+        private final AtomicLong l1Hits = new AtomicLong();
+        private final AtomicLong l2Hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
         
-        public CachingInterceptor(CloudServersServiceImpl service, long cacheTimeout) {
+        public CachingInterceptor(CloudServersServiceImpl service, String account, long cacheTimeout,
+                int objectCacheSize) {
             super(service);
+            this.account = account;
             if (cacheTimeout > 0) this.cacheTimeout = cacheTimeout;
+            objectCache = objectCacheSize > 0 ? new ObjectCache(objectCacheSize) : null;
+        }
+        
+        public void setSingleFlight(boolean singleFlight) {
+            this.singleFlight = singleFlight;
+        }
+        
+        public void setStaleGrace(long staleGrace) {
+            this.staleGrace = staleGrace;
+        }
+        
+        public CacheStatistics getStatistics() {
+            return new CacheStatistics(l1Hits.get(), l2Hits.get(), misses.get(),
+                    objectCache == null ? 0 : objectCache.size());
         }
 
-        private CachableResponse getCachedResponse(Integer requestHash) {
+        private CachableResponse getCachedResponse(CacheKey requestKey) {
             
-            ConcurrentMap<Integer, CachableResponse> responseCache = getResponseCache();           
-            CachableResponse result = responseCache.get(requestHash);
+            ConcurrentMap<CacheKey, CachableResponse> responseCache = getResponseCache();           
+            CachableResponse result = responseCache.get(requestKey);
             
             return result;
         }
 
-        private void putCachedResponse(Integer requestHash, CachableResponse response) {
+        private void putCachedResponse(CacheKey requestKey, CachableResponse response) {
             
-            ConcurrentMap<Integer, CachableResponse> responseCache = getResponseCache();
+            ConcurrentMap<CacheKey, CachableResponse> responseCache = getResponseCache();
             
-            CachableResponse existingRS = responseCache.putIfAbsent(requestHash, response);
+            CachableResponse existingRS = responseCache.putIfAbsent(requestKey, response);
             if (existingRS == null) {
                 LOGGER.debug("Added new response to cache.");
                 return;
@@ -403,83 +1181,256 @@ public class CloudServersServiceImpl implements CloudServersService {
             long existingTimestamp = existingRS.getTimeStamp();
             
             if (timeStamp > existingTimestamp) {
-                boolean replaced = responseCache.replace(requestHash, existingRS, response);
+                boolean replaced = responseCache.replace(requestKey, existingRS, response);
                 if (replaced) LOGGER.debug("Response cache updated.");
                 else LOGGER.debug("Response cache contained a more recent response.");
             }
             
         }
 
-        private synchronized ConcurrentMap<Integer, CachableResponse> getResponseCache() {
+        private synchronized ConcurrentMap<CacheKey, CachableResponse> getResponseCache() {
             ConcurrentMap<?, ?> toCast = getStateManager().getState();            
-            return (ConcurrentMap<Integer, CachableResponse>) toCast;
+            return (ConcurrentMap<CacheKey, CachableResponse>) toCast;
         }
 
         @Override
         public Object intercept(ProceedingJoinPoint pjp) throws Throwable {
             LOGGER.debug("Intercepted call: {}", pjp.getSignature());
             
-            int requestHash = pjp.getSignature().toLongString().hashCode();
-            for (Object o : pjp.getArgs()) requestHash += o == null ? 0 : o.hashCode();
+            // Delta requests are only useful to the caller, and used to revalidate full lists.
+            String methodName = pjp.getSignature().getName();
+            EntityListDescriptor<?, ?> descriptor = EntityListDescriptor.forMethod(methodName);
+            if (descriptor != null && pjp.getArgs()[0] != null) return pjp.proceed();
+            
+            CacheKey requestKey = new CacheKey(account, pjp.getSignature().toLongString(), pjp.getArgs());
+            long notBefore = System.currentTimeMillis() - cacheTimeout;
+            
+            // Level 1: live objects, no unmarshalling required.
+            if (objectCache != null) {
+                Object response = objectCache.get(requestKey, notBefore);
+                if (response != null) {
+                    LOGGER.debug("Found an up-to-date response in the object cache.");
+                    l1Hits.incrementAndGet();
+                    return response;
+                }
+            }
             
-            Object response;
-            boolean updateCache = false;
-            CachableResponse cachedRS = getCachedResponse(requestHash);
+            // Level 2: serialized responses kept by the StateManager.
+            CachableResponse cachedRS = getCachedResponse(requestKey);
             
             if (cachedRS == null) {
                 LOGGER.debug("No cached response found, proceeding with actual call.");
-                response = pjp.proceed();
-                updateCache = true;
             } else {
                 long timestamp = cachedRS.getTimeStamp();
-                if (System.currentTimeMillis() - timestamp < cacheTimeout) {
+                if (timestamp > notBefore) {
                     LOGGER.debug("Found an up-to-date cached response.");
-                    response = deserializeResponse(cachedRS.getData());
+                    Object response = deserializeResponse(cachedRS.getData());
+                    l2Hits.incrementAndGet();
+                    putObject(requestKey, response, timestamp);
+                    return response;
+                } else if (timestamp > notBefore - staleGrace) {
+                    LOGGER.debug("Found an outdated cached response within the grace period, will refresh "
+                            + "it in the background.");
+                    l2Hits.incrementAndGet();
+                    refreshInBackground(pjp, requestKey, cachedRS);
+                    return deserializeResponse(cachedRS.getData());
                 } else {
                     LOGGER.debug("Found an outdated cached response, will update cache.");
-                    response = pjp.proceed();
-                    updateCache = true;
                 }
             }
             
-            if (updateCache) {
-                LOGGER.debug("Updating cache..");
-                byte[] data = serializeResponse(response);
-                cachedRS = new CachableResponse(data);
-                putCachedResponse(requestHash, cachedRS);
+            if (!singleFlight) return fetch(pjp, requestKey, cachedRS);
+            
+            // Join the call in progress for the same key, if any.
+            FutureTask<Object> task = createFetchTask(pjp, requestKey, cachedRS);
+            FutureTask<Object> existing = inFlight.putIfAbsent(requestKey, task);
+            if (existing == null) {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.remove(requestKey, task);
+                }
+                return getResult(task);
             }
+            LOGGER.debug("Joining the call in progress for the same response.");
+            // The response is shared with the thread that made the call, so return a copy.
+            return copyResponse(getResult(existing));
+        }
+        
+        /**
+         * Makes the actual call and caches its response. Outdated full lists are brought up to
+         * date with a {@code changes-since} request, instead of being fetched again.
+         * @param outdated the outdated cached response, {@code null} if none exists.
+         */
+        private Object fetch(ProceedingJoinPoint pjp, CacheKey requestKey, CachableResponse outdated)
+                throws Throwable {
+            
+            Object response = null;
+            if (outdated != null) response = revalidate(pjp, outdated);
+            if (response == null) response = pjp.proceed();
+            
+            LOGGER.debug("Updating cache..");
+            misses.incrementAndGet();
+            byte[] data = serializeResponse(response);
+            // Outdated full lists are kept past the cache timeout, to be revalidated with deltas.
+            boolean revalidatable = EntityListDescriptor.isRevalidatable(pjp.getSignature().getName(),
+                    pjp.getArgs());
+            CachableResponse cachedRS = new CachableResponse(data,
+                    revalidatable ? EntityListDescriptor.RETENTION_TIME : 0);
+            putCachedResponse(requestKey, cachedRS);
+            putObject(requestKey, response, cachedRS.getTimeStamp());
             
             return response;
         }
         
+        /**
+         * Applies the changes made since an outdated response was cached to it.
+         * @return the updated response, {@code null} if the call does not support delta requests
+         * or the delta request failed.
+         */
+        private Object revalidate(ProceedingJoinPoint pjp, CachableResponse outdated) throws JAXBException {
+            
+            String methodName = pjp.getSignature().getName();
+            if (!EntityListDescriptor.isRevalidatable(methodName, pjp.getArgs())) return null;
+            EntityListDescriptor<?, ?> descriptor = EntityListDescriptor.forMethod(methodName);
+            
+            long changesSince = (outdated.getTimeStamp() - EntityListDescriptor.DELTA_SKEW) / 1000;
+            Object changes;
+            try {
+                changes = descriptor.getChanges(getService().client, changesSince);
+            } catch (RackspaceCloudClientException e) {
+                LOGGER.warn("Delta request failed, will fetch the full list.", e);
+                return null;
+            }
+            
+            LOGGER.debug("Revalidated cached response, {} entities changed.", descriptor.size(changes));
+            return descriptor.merge(deserializeResponse(outdated.getData()), changes);
+        }
+        
+        private FutureTask<Object> createFetchTask(final ProceedingJoinPoint pjp, final CacheKey requestKey,
+                final CachableResponse outdated) {
+            return new FutureTask<Object>(new Callable<Object>() {
+
+                @Override
+                public Object call() throws Exception {
+                    try {
+                        return fetch(pjp, requestKey, outdated);
+                    } catch (Exception e) {
+                        throw e;
+                    } catch (Error e) {
+                        throw e;
+                    } catch (Throwable t) {
+                        throw new UndeclaredThrowableException(t);
+                    }
+                }
+                
+            });
+        }
+        
+        private Object getResult(FutureTask<Object> task) throws Throwable {
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            }
+        }
+        
+        /**
+         * Refreshes a cached response without blocking the caller. At most one refresh per key
+         * is in progress at any time. In a GAE compatible service, where background threads are
+         * not available, the refresh is made by the calling thread.
+         */
+        private void refreshInBackground(ProceedingJoinPoint pjp, final CacheKey requestKey,
+                CachableResponse outdated) {
+            
+            final FutureTask<Object> task = createFetchTask(pjp, requestKey, outdated);
+            if (inFlight.putIfAbsent(requestKey, task) != null) return;
+            
+            Runnable refresh = new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                        task.get();
+                    } catch (Exception e) {
+                        LOGGER.warn("Failed to refresh cached response.", e);
+                    } finally {
+                        inFlight.remove(requestKey, task);
+                    }
+                }
+                
+            };
+            
+            ExecutorService executor = getService().getBackgroundExecutor();
+            if (executor == null) refresh.run();
+            else executor.execute(refresh);
+        }
+        
+        /**
+         * Returns a copy of a response, that may be handed to another caller.
+         */
+        private Object copyResponse(Object response) throws JAXBException {
+            try {
+                return JaxbCopier.copy(response);
+            } catch (IllegalArgumentException e) {
+                return deserializeResponse(serializeResponse(response));
+            }
+        }
+        
+        private void putObject(CacheKey requestKey, Object response, long timeStamp) {
+            if (objectCache == null) return;
+            try {
+                objectCache.put(requestKey, response, timeStamp);
+            } catch (IllegalArgumentException e) {
+                LOGGER.debug("Response can not be kept in the object cache.", e);
+            }
+        }
+        
         private byte[] serializeResponse(Object response) throws JAXBException {
             QName qname = new QName("http://docs.rackspacecloud.com/servers/api/v1.0",
                     response.getClass().getSimpleName().toLowerCase());
             JAXBElement el = new JAXBElement(qname, response.getClass(), response);
-            Marshaller marshaller = RackspaceCloudClient.getJAXBContext().createMarshaller();
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            marshaller.marshal(el, baos);
+            JaxbCodec.marshal(el, baos, false);
             return baos.toByteArray();
         }
         
         private Object deserializeResponse(byte[] data) throws JAXBException {
-            Unmarshaller unmarshaller = RackspaceCloudClient.getJAXBContext().createUnmarshaller();
-            ByteArrayInputStream bais = new ByteArrayInputStream(data);
-            JAXBElement el = (JAXBElement) unmarshaller.unmarshal(bais);
-            return el.getValue();
+            return JaxbCodec.unmarshal(new ByteArrayInputStream(data));
         }
     }
     
-    private static class CachableResponse implements Serializable {
+    static class CachableResponse implements Serializable, BoundedStateManager.Retainable {
+        
+        /**
+         * The value computed for the class before the retention time was added, so that
+         * responses stored by persistent state managers can still be read, as not retained.
+         */
+        private static final long serialVersionUID = 7779069179082922552L;
+        /** Estimated weight of the response object itself, and of the array header. */
+        private static final long OVERHEAD = 48;
 
-        public CachableResponse(byte[] data) {
-            timeStamp = System.currentTimeMillis();
+        /**
+         * @param data the serialized response.
+         * @param retentionTime the age up to which the response is worth keeping once outdated,
+         * zero if it is not.
+         */
+        public CachableResponse(byte[] data, long retentionTime) {
+            this(data, System.currentTimeMillis(), retentionTime);
+        }
+        
+        CachableResponse(byte[] data, long timeStamp, long retentionTime) {
+            this.timeStamp = timeStamp;
             this.data = data;
-        }       
+            this.retentionTime = retentionTime;
+        }
         
         private long timeStamp = 0;
         private byte[] data;
+        private long retentionTime = 0;
 
+        @Override
         public long getTimeStamp() {
             return timeStamp;
         }
@@ -488,6 +1439,16 @@ public class CloudServersServiceImpl implements CloudServersService {
             return data;
         }
 
+        @Override
+        public long getWeight() {
+            return OVERHEAD + data.length;
+        }
+
+        @Override
+        public long getRetentionTime() {
+            return retentionTime;
+        }
+
         @Override
         public boolean equals(Object obj) {
             if (obj == null) {
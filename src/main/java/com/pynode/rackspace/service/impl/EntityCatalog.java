@@ -0,0 +1,470 @@
+package com.pynode.rackspace.service.impl;
+
+import com.pynode.rackspace.client.RackspaceCloudClient;
+import com.pynode.rackspace.client.RackspaceCloudClientException;
+import com.pynode.rackspace.service.EntityList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory catalog of entities that rarely change, such as flavors and images, so that
+ * looking them up needs no remote calls. The catalog is loaded on first use; once older than
+ * the sync interval it is brought up to date with a {@code changes-since} request, made in the
+ * background while lookups keep being served from the current contents.<br />
+ * The contents are held in a {@link Snapshot} of sorted ids and parallel arrays of entities
+ * and the times they were last seen changed, searched without boxing the ids. Deleted entities
+ * are kept for a day, so that delta lists can be answered without remote calls as well.
+ * Snapshots are never modified once published through a volatile field, so lookups need no
+ * locking; loads and syncs are serialized.<br />
+ * Entities are handed out as deep copies, so that callers may not alter the catalog.
+ * @param <T> the entity type.
+ * @param <L> the list type.
+ * @author Christos Fragoulides
+ */
+abstract class EntityCatalog<T, L> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntityCatalog.class);
+
+    static final long DEFAULT_SYNC_INTERVAL = 600000;
+
+    /** Time deleted entities are kept for, to be included in delta lists. */
+    private static final long DELETED_RETENTION = 86400000;
+
+    private final RackspaceCloudClient client;
+    private final EntityListDescriptor<T, L> descriptor;
+    private final Executor executor;
+    private final long skew;
+    private volatile long syncInterval = DEFAULT_SYNC_INTERVAL;
+
+    /** The contents, {@code null} until loaded. */
+    private volatile Snapshot snapshot;
+    private final AtomicBoolean syncing = new AtomicBoolean();
+    private volatile long syncCount = 0;
+
+    /**
+     * Creates a catalog.
+     * @param client the client to fetch the changes with.
+     * @param descriptor the descriptor of the entity list.
+     * @param executor the executor of background syncs, {@code null} to sync in the thread of
+     * the lookup that found the catalog outdated.
+     * @param skew the time in milliseconds subtracted from the last modification time when
+     * requesting changes.
+     */
+    EntityCatalog(RackspaceCloudClient client, EntityListDescriptor<T, L> descriptor, Executor executor,
+            long skew) {
+        this.client = client;
+        this.descriptor = descriptor;
+        this.executor = executor;
+        this.skew = skew;
+    }
+
+    /**
+     * Fetches all the entities, in detail.
+     * @return the entities.
+     * @throws RackspaceCloudClientException in case of an error.
+     */
+    protected abstract L fetchList() throws RackspaceCloudClientException;
+
+    /* ----------   Synchronization  --------- */
+
+    /**
+     * Fetches all the entities, replacing the contents of the catalog. The times the entities
+     * were changed before are unknown, so delta lists are answered from the time of the load
+     * on.
+     * @throws RackspaceCloudClientException in case of an error.
+     */
+    synchronized void reload() throws RackspaceCloudClientException {
+        long timeStamp = System.currentTimeMillis();
+        Map<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>();
+        for (T entity : descriptor.getEntities(fetchList())) {
+            if (!descriptor.isDeleted(entity)) entries.put(descriptor.getId(entity), new Entry(entity, 0));
+        }
+        snapshot = new Snapshot(entries, timeStamp, timeStamp);
+        LOGGER.debug("Catalog loaded, {} entities.", entries.size());
+    }
+
+    /**
+     * Brings the catalog up to date with the entities changed since it was last modified,
+     * loading it if not loaded yet.
+     * @throws RackspaceCloudClientException in case of an error.
+     */
+    synchronized void sync() throws RackspaceCloudClientException {
+        Snapshot current = snapshot;
+        if (current == null) {
+            reload();
+            return;
+        }
+        long timeStamp = System.currentTimeMillis();
+        long changesSince = Math.max(current.lastModified - skew, 0) / 1000;
+        List<T> changed = descriptor.getEntities(descriptor.getChanges(client, changesSince));
+        syncCount++;
+        if (changed.isEmpty()) {
+            snapshot = new Snapshot(current, timeStamp);
+            return;
+        }
+        publish(current, changed, timeStamp, timeStamp);
+        LOGGER.debug("Catalog synchronized, {} entities changed.", changed.size());
+    }
+
+    /**
+     * Applies a single entity known to have changed, such as one just created, deleted or
+     * polled, without a remote call.
+     * @param entity the entity.
+     */
+    synchronized void update(T entity) {
+        Snapshot current = snapshot;
+        if (current == null) return;
+        List<T> changed = new ArrayList<T>(1);
+        changed.add(entity);
+        publish(current, changed, System.currentTimeMillis(), current.lastModified);
+    }
+
+    /**
+     * Publishes a snapshot with the changes applied, dropping deleted entities once kept long
+     * enough.
+     */
+    private void publish(Snapshot current, List<T> changed, long changeTime, long lastModified) {
+        Map<Integer, Entry> entries = current.toEntries();
+        for (T entity : changed) entries.put(descriptor.getId(entity), new Entry(entity, changeTime));
+
+        long horizon = current.horizon;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (descriptor.isDeleted(entry.entity) && entry.modified < changeTime - DELETED_RETENTION) {
+                iterator.remove();
+                horizon = Math.max(horizon, entry.modified + 1);
+            }
+        }
+        snapshot = new Snapshot(entries, lastModified, horizon);
+    }
+
+    /**
+     * Returns the current contents, loading them if not loaded yet. Outdated contents are
+     * returned as they are, while a sync is started.
+     */
+    private Snapshot current() throws RackspaceCloudClientException {
+        Snapshot result = snapshot;
+        if (result == null) {
+            synchronized (this) {
+                if (snapshot == null) reload();
+                return snapshot;
+            }
+        }
+        if (System.currentTimeMillis() - result.lastModified >= syncInterval) syncInBackground();
+        return result;
+    }
+
+    /**
+     * Starts a sync, unless one is already in progress.
+     */
+    private void syncInBackground() {
+        if (!syncing.compareAndSet(false, true)) return;
+        Runnable task = new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    sync();
+                } catch (RackspaceCloudClientException e) {
+                    LOGGER.warn("Failed to synchronize catalog, will serve outdated entities.", e);
+                } finally {
+                    syncing.set(false);
+                }
+            }
+
+        };
+        if (executor == null) {
+            task.run();
+            return;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            syncing.set(false);
+        }
+    }
+
+    /* ----------      Lookups       --------- */
+
+    /**
+     * Looks up an entity.
+     * @param id the id of the entity.
+     * @return a copy of the entity, {@code null} if not found.
+     * @throws RackspaceCloudClientException if the catalog could not be loaded.
+     */
+    T get(int id) throws RackspaceCloudClientException {
+        Snapshot current = current();
+        int index = Arrays.binarySearch(current.ids, id);
+        return index < 0 ? null : JaxbCopier.copy(current.get(index));
+    }
+
+    /**
+     * Creates a list of the entities in the catalog, in order of id.
+     * @param offset the position of the first entity of the list.
+     * @param limit the maximum number of entities, zero for no limit.
+     * @return the list, which is reset.
+     * @throws RackspaceCloudClientException if the catalog could not be loaded.
+     */
+    EntityList<T> createList(long offset, long limit) throws RackspaceCloudClientException {
+        EntityList<T> result = new CatalogList(null, offset, limit);
+        result.reset();
+        return result;
+    }
+
+    /**
+     * Creates a list of the entities changed since the given time, including deleted ones, in
+     * order of id.
+     * @param changesSince the time in milliseconds.
+     * @param offset the position of the first entity of the list.
+     * @param limit the maximum number of entities, zero for no limit.
+     * @return the list, which is reset, {@code null} if the catalog does not know the changes
+     * made that long ago.
+     * @throws RackspaceCloudClientException if the catalog could not be loaded.
+     */
+    EntityList<T> createDeltaList(long changesSince, long offset, long limit)
+            throws RackspaceCloudClientException {
+        if (changesSince < current().horizon) return null;
+        EntityList<T> result = new CatalogList(changesSince, offset, limit);
+        result.reset();
+        return result;
+    }
+
+    /* ----------      Accessors     --------- */
+
+    /**
+     * Gets the time the catalog was last brought up to date.
+     * @return the time in milliseconds, zero if not loaded yet.
+     */
+    long getLastModified() {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.lastModified;
+    }
+
+    int size() {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.ids.length;
+    }
+
+    long getSyncCount() {
+        return syncCount;
+    }
+
+    long getSyncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * Sets the age after which the catalog is brought up to date.
+     * @param syncInterval the time in milliseconds.
+     */
+    void setSyncInterval(long syncInterval) {
+        if (syncInterval <= 0) throw new IllegalArgumentException("Sync interval must be positive.");
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * A list over a range of the catalog's entities, or of those changed since a time.
+     * Resetting the list, or applying a delta, takes the current contents of the catalog.
+     */
+    private final class CatalogList extends EntityList<T> {
+
+        /** The time changes are listed since, {@code null} for all the entities. */
+        private final Long changesSince;
+        private final long offset;
+        private final long limit;
+
+        private long lastModified;
+        private List<T> entities;
+        private Iterator<T> iterator;
+
+        CatalogList(Long changesSince, long offset, long limit) {
+            this.changesSince = changesSince;
+            this.offset = offset;
+            this.limit = limit;
+        }
+
+        @Override
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return entities.isEmpty();
+        }
+
+        @Override
+        public void reset() throws RackspaceCloudClientException {
+            Snapshot current = current();
+            entities = changesSince == null ? slice(current) : slice(current, changesSince);
+            lastModified = current.lastModified;
+            iterator = entities.iterator();
+        }
+
+        private List<T> slice(Snapshot current) {
+            int from = (int) Math.min(Math.max(offset, 0), current.ids.length);
+            int to = limit > 0 ? (int) Math.min(from + limit, current.ids.length) : current.ids.length;
+            List<T> result = new ArrayList<T>(to - from);
+            for (int i = from; i < to; i++) result.add(JaxbCopier.copy(current.get(i)));
+            return result;
+        }
+
+        /**
+         * Merges the changed entities and the deleted ones in order of id. If the catalog has
+         * been reloaded since the list was created, all of its entities are included.
+         */
+        private List<T> slice(Snapshot current, long since) {
+            long liveSince = since < current.horizon ? 0 : since;
+            List<T> result = new ArrayList<T>();
+            long skipped = 0;
+            int i = 0, j = 0;
+            while (limit <= 0 || result.size() < limit) {
+                T entity;
+                if (i < current.ids.length
+                        && (j == current.deletedIds.length || current.ids[i] < current.deletedIds[j])) {
+                    if (current.modified[i] < liveSince) {
+                        i++;
+                        continue;
+                    }
+                    entity = current.get(i++);
+                } else if (j < current.deletedIds.length) {
+                    if (current.deletedAt[j] < since) {
+                        j++;
+                        continue;
+                    }
+                    entity = current.getDeleted(j++);
+                } else {
+                    break;
+                }
+                if (skipped++ >= offset) result.add(JaxbCopier.copy(entity));
+            }
+            return result;
+        }
+
+        @Override
+        public void delta() throws RackspaceCloudClientException {
+            reset();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public T next() {
+            return iterator.next();
+        }
+
+    }
+
+    /**
+     * An entity and the time it was last seen changed, zero if unknown.
+     */
+    private final class Entry {
+
+        private final T entity;
+        private final long modified;
+
+        Entry(T entity, long modified) {
+            this.entity = entity;
+            this.modified = modified;
+        }
+
+    }
+
+    /**
+     * The contents of the catalog at the time of a load or sync: the ids of the entities in
+     * ascending order, with the entities and the times they changed at the same positions, and
+     * likewise for the deleted entities.
+     */
+    private final class Snapshot {
+
+        private final long lastModified;
+        /** Earliest time changes are known since. */
+        private final long horizon;
+        private final int[] ids;
+        private final Object[] entities;
+        private final long[] modified;
+        private final int[] deletedIds;
+        private final Object[] deleted;
+        private final long[] deletedAt;
+
+        Snapshot(Map<Integer, Entry> entries, long lastModified, long horizon) {
+            this.lastModified = lastModified;
+            this.horizon = horizon;
+
+            int count = 0;
+            for (Entry entry : entries.values()) if (!descriptor.isDeleted(entry.entity)) count++;
+            ids = new int[count];
+            deletedIds = new int[entries.size() - count];
+            int i = 0, j = 0;
+            for (Map.Entry<Integer, Entry> entry : entries.entrySet()) {
+                if (descriptor.isDeleted(entry.getValue().entity)) deletedIds[j++] = entry.getKey();
+                else ids[i++] = entry.getKey();
+            }
+            Arrays.sort(ids);
+            Arrays.sort(deletedIds);
+
+            entities = new Object[ids.length];
+            modified = new long[ids.length];
+            for (i = 0; i < ids.length; i++) {
+                Entry entry = entries.get(ids[i]);
+                entities[i] = entry.entity;
+                modified[i] = entry.modified;
+            }
+            deleted = new Object[deletedIds.length];
+            deletedAt = new long[deletedIds.length];
+            for (j = 0; j < deletedIds.length; j++) {
+                Entry entry = entries.get(deletedIds[j]);
+                deleted[j] = entry.entity;
+                deletedAt[j] = entry.modified;
+            }
+        }
+
+        /**
+         * Creates a snapshot sharing the contents of another, for a sync without changes.
+         */
+        Snapshot(Snapshot other, long lastModified) {
+            this.lastModified = lastModified;
+            horizon = other.horizon;
+            ids = other.ids;
+            entities = other.entities;
+            modified = other.modified;
+            deletedIds = other.deletedIds;
+            deleted = other.deleted;
+            deletedAt = other.deletedAt;
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(int index) {
+            return (T) entities[index];
+        }
+
+        @SuppressWarnings("unchecked")
+        T getDeleted(int index) {
+            return (T) deleted[index];
+        }
+
+        Map<Integer, Entry> toEntries() {
+            Map<Integer, Entry> result =
+                    new LinkedHashMap<Integer, Entry>((ids.length + deletedIds.length) * 2);
+            for (int i = 0; i < ids.length; i++) result.put(ids[i], new Entry(get(i), modified[i]));
+            for (int j = 0; j < deletedIds.length; j++)
+                result.put(deletedIds[j], new Entry(getDeleted(j), deletedAt[j]));
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,400 @@
+package com.pynode.rackspace.service.impl;
+
+import com.pynode.rackspace.client.RackspaceCloudClient;
+import com.pynode.rackspace.client.RackspaceCloudClientException;
+import com.rackspace.cloud.api.Flavor;
+import com.rackspace.cloud.api.Flavors;
+import com.rackspace.cloud.api.Image;
+import com.rackspace.cloud.api.ImageStatus;
+import com.rackspace.cloud.api.Images;
+import com.rackspace.cloud.api.Server;
+import com.rackspace.cloud.api.ServerStatus;
+import com.rackspace.cloud.api.Servers;
+import com.rackspace.cloud.api.SharedIpGroup;
+import com.rackspace.cloud.api.SharedIpGroups;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Describes a list call of {@link RackspaceCloudClient} whose results may be brought up to date
+ * with a {@code changes-since} request, instead of being fetched again as a whole: how to get
+ * the changes and how to merge them into an outdated list.<br />
+ * Only detailed lists are described, since deletions can only be told by the status of an
+ * entity, which summary lists do not include.
+ * @param <T> the entity type.
+ * @param <L> the list type.
+ * @author Christos Fragoulides
+ */
+abstract class EntityListDescriptor<T, L> {
+
+    /** Statuses of servers being changed, that will settle to another status. */
+    private static final Set<ServerStatus> TRANSITIONAL_SERVER_STATUSES = EnumSet.of(
+            ServerStatus.BUILD, ServerStatus.REBUILD, ServerStatus.REBOOT, ServerStatus.HARD_REBOOT,
+            ServerStatus.QUEUE_RESIZE, ServerStatus.PREP_RESIZE, ServerStatus.RESIZE,
+            ServerStatus.QUEUE_MOVE, ServerStatus.PREP_MOVE, ServerStatus.MOVE, ServerStatus.RESTORING,
+            ServerStatus.PASSWORD, ServerStatus.SHARE_IP, ServerStatus.SHARE_IP_NO_CONFIG,
+            ServerStatus.DELETE_IP, ServerStatus.PENDING, ServerStatus.UNKNOWN);
+
+    /** Statuses of images being created. */
+    private static final Set<ImageStatus> TRANSITIONAL_IMAGE_STATUSES = EnumSet.of(
+            ImageStatus.QUEUED, ImageStatus.PREPARING, ImageStatus.SAVING);
+
+    static final EntityListDescriptor<Server, Servers> SERVERS =
+            new EntityListDescriptor<Server, Servers>() {
+
+        @Override
+        Servers getChanges(RackspaceCloudClient client, long changesSince)
+                throws RackspaceCloudClientException {
+            return client.listServersDetail(changesSince, null, null);
+        }
+
+        @Override
+        List<Server> getEntities(Servers list) {
+            return list.getServer();
+        }
+
+        @Override
+        int getId(Server entity) {
+            return entity.getId();
+        }
+
+        @Override
+        boolean isDeleted(Server entity) {
+            return entity.getStatus() == ServerStatus.DELETED;
+        }
+
+        @Override
+        Server getEntity(RackspaceCloudClient client, int id) throws RackspaceCloudClientException {
+            return client.getServer(id);
+        }
+
+        @Override
+        String getChangesPath() {
+            return "/servers/detail?changes-since";
+        }
+
+        @Override
+        Object getStatus(Server entity) {
+            return entity.getStatus();
+        }
+
+        @Override
+        Integer getProgress(Server entity) {
+            return entity.getProgress();
+        }
+
+        @Override
+        boolean isTransitional(Server entity) {
+            return entity.getStatus() == null || TRANSITIONAL_SERVER_STATUSES.contains(entity.getStatus());
+        }
+
+    };
+
+    static final EntityListDescriptor<Image, Images> IMAGES =
+            new EntityListDescriptor<Image, Images>() {
+
+        @Override
+        Images getChanges(RackspaceCloudClient client, long changesSince)
+                throws RackspaceCloudClientException {
+            return client.listImagesDetail(changesSince, null, null);
+        }
+
+        @Override
+        List<Image> getEntities(Images list) {
+            return list.getImage();
+        }
+
+        @Override
+        int getId(Image entity) {
+            return entity.getId();
+        }
+
+        /**
+         * {@code ImageStatus} has no deleted value, deleted images are returned without a status.
+         */
+        @Override
+        boolean isDeleted(Image entity) {
+            return entity.getStatus() == null;
+        }
+
+        @Override
+        Image getEntity(RackspaceCloudClient client, int id) throws RackspaceCloudClientException {
+            return client.getImage(id);
+        }
+
+        @Override
+        String getChangesPath() {
+            return "/images/detail?changes-since";
+        }
+
+        @Override
+        Object getStatus(Image entity) {
+            return entity.getStatus();
+        }
+
+        @Override
+        Integer getProgress(Image entity) {
+            return entity.getProgress();
+        }
+
+        @Override
+        boolean isTransitional(Image entity) {
+            return TRANSITIONAL_IMAGE_STATUSES.contains(entity.getStatus());
+        }
+
+    };
+
+    /**
+     * Flavors, which are never reported deleted, nor change on their own. Not registered for
+     * the revalidation of cached responses, since flavors removed by Rackspace would never
+     * leave a patched list.
+     */
+    static final EntityListDescriptor<Flavor, Flavors> FLAVORS =
+            new EntityListDescriptor<Flavor, Flavors>() {
+
+        @Override
+        Flavors getChanges(RackspaceCloudClient client, long changesSince)
+                throws RackspaceCloudClientException {
+            return client.listFlavorsDetail(changesSince, null, null);
+        }
+
+        @Override
+        List<Flavor> getEntities(Flavors list) {
+            return list.getFlavor();
+        }
+
+        @Override
+        int getId(Flavor entity) {
+            return entity.getId();
+        }
+
+        @Override
+        boolean isDeleted(Flavor entity) {
+            return false;
+        }
+
+        @Override
+        Flavor getEntity(RackspaceCloudClient client, int id) throws RackspaceCloudClientException {
+            return client.getFlavor(id);
+        }
+
+        @Override
+        String getChangesPath() {
+            return "/flavors/detail?changes-since";
+        }
+
+        @Override
+        Object getStatus(Flavor entity) {
+            return null;
+        }
+
+        @Override
+        Integer getProgress(Flavor entity) {
+            return null;
+        }
+
+        @Override
+        boolean isTransitional(Flavor entity) {
+            return false;
+        }
+
+    };
+
+    /**
+     * Shared IP groups, which have no status, so deletions are not reported either. Not
+     * registered for the revalidation of cached responses, like flavors.
+     */
+    static final EntityListDescriptor<SharedIpGroup, SharedIpGroups> SHARED_IP_GROUPS =
+            new EntityListDescriptor<SharedIpGroup, SharedIpGroups>() {
+
+        @Override
+        SharedIpGroups getChanges(RackspaceCloudClient client, long changesSince)
+                throws RackspaceCloudClientException {
+            return client.listSharedIpGroupsDetail(changesSince, null, null);
+        }
+
+        @Override
+        List<SharedIpGroup> getEntities(SharedIpGroups list) {
+            return list.getSharedIpGroup();
+        }
+
+        @Override
+        int getId(SharedIpGroup entity) {
+            return entity.getId();
+        }
+
+        @Override
+        boolean isDeleted(SharedIpGroup entity) {
+            return false;
+        }
+
+        @Override
+        SharedIpGroup getEntity(RackspaceCloudClient client, int id) throws RackspaceCloudClientException {
+            return client.getSharedIpGroup(id);
+        }
+
+        @Override
+        String getChangesPath() {
+            return "/shared_ip_groups/detail?changes-since";
+        }
+
+        @Override
+        Object getStatus(SharedIpGroup entity) {
+            return null;
+        }
+
+        @Override
+        Integer getProgress(SharedIpGroup entity) {
+            return null;
+        }
+
+        @Override
+        boolean isTransitional(SharedIpGroup entity) {
+            return false;
+        }
+
+    };
+
+    /**
+     * Margin subtracted from the time stamp of outdated lists, when requesting the changes
+     * made since then, to allow for clock differences between this host and Rackspace.
+     * Changes already applied are harmless.
+     */
+    static final long DELTA_SKEW = 120000;
+    /**
+     * Age up to which outdated full lists are kept by state managers expiring their entries,
+     * since bringing them up to date with a delta is cheaper than fetching them again.
+     */
+    static final long RETENTION_TIME = 3600000;
+
+    private static final Map<String, EntityListDescriptor<?, ?>> BY_METHOD =
+            new HashMap<String, EntityListDescriptor<?, ?>>();
+    static {
+        BY_METHOD.put("listServersDetail", SERVERS);
+        BY_METHOD.put("listImagesDetail", IMAGES);
+    }
+
+    /**
+     * Returns the descriptor of a client method.
+     * @param methodName the name of the method.
+     * @return the descriptor, {@code null} if the method's results can not be updated with
+     * {@code changes-since} requests.
+     */
+    static EntityListDescriptor<?, ?> forMethod(String methodName) {
+        return BY_METHOD.get(methodName);
+    }
+
+    /**
+     * Returns whether a call lists all the entities of a descriptor, so that its response can
+     * be brought up to date with a {@code changes-since} request. Deltas can not be applied to
+     * pages, nor to lists of changes.
+     * @param methodName the name of the client method.
+     * @param args the arguments of the call: changes-since, offset and limit.
+     * @return {@code true} if the response of the call can be revalidated.
+     */
+    static boolean isRevalidatable(String methodName, Object[] args) {
+        return forMethod(methodName) != null && args[0] == null && args[1] == null && args[2] == null;
+    }
+
+    /**
+     * Fetches the entities changed since the given time.
+     * @param client the client to use.
+     * @param changesSince the time in seconds since the epoch.
+     * @return a list of the changed entities, including deleted ones.
+     * @throws RackspaceCloudClientException in case of an error.
+     */
+    abstract L getChanges(RackspaceCloudClient client, long changesSince)
+            throws RackspaceCloudClientException;
+
+    abstract List<T> getEntities(L list);
+
+    abstract int getId(T entity);
+
+    abstract boolean isDeleted(T entity);
+
+    /**
+     * Fetches a single entity.
+     * @param client the client to use.
+     * @param id the id of the entity.
+     * @return the entity.
+     * @throws RackspaceCloudClientException in case of an error.
+     */
+    abstract T getEntity(RackspaceCloudClient client, int id) throws RackspaceCloudClientException;
+
+    /**
+     * Returns a path matching {@code changes-since} requests for the rate limiter.
+     */
+    abstract String getChangesPath();
+
+    abstract Object getStatus(T entity);
+
+    abstract Integer getProgress(T entity);
+
+    /**
+     * Tells whether an entity is being changed, its status expected to change on its own.
+     */
+    abstract boolean isTransitional(T entity);
+
+    /**
+     * Tells whether the status or the progress of an entity have changed.
+     * @param previous the entity as seen before.
+     * @param current the entity as seen now.
+     * @return {@code true} if changed.
+     */
+    boolean isChanged(T previous, T current) {
+        return !equal(getStatus(previous), getStatus(current))
+                || !equal(getProgress(previous), getProgress(current));
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @SuppressWarnings("unchecked")
+    int size(Object list) {
+        return getEntities((L) list).size();
+    }
+
+    /**
+     * Applies the changes to an outdated list: changed entities replace the outdated ones,
+     * new entities are appended and deleted entities are removed.
+     * @param outdated the outdated list, which is modified and returned.
+     * @param changes the changes.
+     * @return the updated list.
+     */
+    @SuppressWarnings("unchecked")
+    Object merge(Object outdated, Object changes) {
+        List<T> entities = getEntities((L) outdated);
+        List<T> changed = getEntities((L) changes);
+        if (changed.isEmpty()) return outdated;
+
+        Map<Integer, T> merged = new LinkedHashMap<Integer, T>(entities.size() * 2);
+        for (T entity : entities) merged.put(getId(entity), entity);
+        apply(merged, changed, true);
+
+        entities.clear();
+        entities.addAll(merged.values());
+        return outdated;
+    }
+
+    /**
+     * Applies changes to entities kept by id: changed entities replace the outdated ones and
+     * deleted entities are removed.
+     * @param entities the entities, which are modified.
+     * @param changed the changed entities.
+     * @param addNew whether changed entities not found are added, which is not wanted when
+     * the entities are a single page of a list.
+     */
+    void apply(Map<Integer, T> entities, List<T> changed, boolean addNew) {
+        for (T entity : changed) {
+            Integer id = getId(entity);
+            if (isDeleted(entity)) entities.remove(id);
+            else if (addNew || entities.containsKey(id)) entities.put(id, entity);
+        }
+    }
+
+}
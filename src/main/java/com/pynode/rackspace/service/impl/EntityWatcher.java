@@ -0,0 +1,681 @@
+package com.pynode.rackspace.service.impl;
+
+import com.pynode.rackspace.client.DaemonThreadFactory;
+import com.pynode.rackspace.client.RackspaceCloudClient;
+import com.pynode.rackspace.client.RackspaceCloudClientException;
+import com.pynode.rackspace.client.RateLimiter;
+import com.pynode.rackspace.service.ChangeListener;
+import com.pynode.rackspace.service.NotifyEvent;
+import com.pynode.rackspace.service.PollStatistics;
+import com.rackspace.cloud.api.CloudServersAPIFault;
+import com.rackspace.cloud.api.HTTPVerb;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches entities for changes, on behalf of the polling operations of the entity managers.
+ * All the watched entities are polled together, with a single {@code changes-since} request
+ * per tick, so the number of requests does not grow with the number of entities watched.
+ * Entities missing from the first tick after they are watched, having not changed lately, are
+ * fetched once on their own.<br />
+ * Each entity has its own schedule and a tick is made when the earliest one is due. Entities
+ * in a transitional status are polled when their transition is predicted to complete: from
+ * the rate their progress has been advancing at, or else from the average duration of past
+ * transitions from the same status. The schedule backs off while the progress of an entity
+ * is stalled. Entities with listeners are polled at least every poll interval, so that their
+ * progress is reported. Ticks are never closer than a quarter of the poll interval and are
+ * delayed further when the rate limit of {@code changes-since} requests runs low.<br />
+ * Listeners are notified on a bounded executor, in order for each entity, once the tick has
+ * released its locks. Waiting callers are released through futures once their entity is no
+ * longer in a transitional status.<br />
+ * In a GAE compatible service, where background threads are not available, waiting callers
+ * perform the ticks themselves and listeners are not supported.
+ * @param <T> the entity type.
+ * @param <L> the list type.
+ * @author Christos Fragoulides
+ */
+final class EntityWatcher<T, L> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntityWatcher.class);
+
+    /** Rackspace allows three {@code changes-since} requests per minute by default. */
+    static final long DEFAULT_POLL_INTERVAL = 20000;
+    static final int DISPATCH_THREADS = 4;
+    static final int DISPATCH_QUEUE_SIZE = 1000;
+    private static final int HTTP_NOT_FOUND = 404;
+    /** Maximum schedule of an entity, in poll intervals. */
+    private static final int MAX_INTERVALS = 16;
+    /** Maximum number of times the schedule of a stalled entity is doubled. */
+    private static final int MAX_BACKOFF_SHIFT = 4;
+
+    private final RackspaceCloudClient client;
+    private final EntityListDescriptor<T, L> descriptor;
+    private final long skew;
+    private final boolean background;
+    private volatile long pollInterval = DEFAULT_POLL_INTERVAL;
+
+    private final ConcurrentMap<Integer, Watch> watches = new ConcurrentHashMap<Integer, Watch>();
+
+    /** Time the last successful poll was started at. Written while holding {@code this}. */
+    private volatile long lastPoll = 0;
+    /** Executors of the ticks and the notifications, {@code null} without background threads. */
+    private final ScheduledExecutorService scheduler;
+    private final ThreadPoolExecutor dispatcher;
+    /** Whether a tick is scheduled, the tick and when it is due. Guarded by {@code scheduler}. */
+    private boolean scheduled = false;
+    private ScheduledFuture<?> pending;
+    private long pendingAt;
+    private volatile boolean closed = false;
+
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong pollFailures = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+    /** Metrics of the transitions from each status. */
+    private final ConcurrentMap<Object, StatusMetrics> metrics =
+            new ConcurrentHashMap<Object, StatusMetrics>();
+
+    private final Runnable tickTask = new Runnable() {
+
+        @Override
+        public void run() {
+            try {
+                tick();
+            } catch (RuntimeException e) {
+                LOGGER.error("Unexpected failure while polling.", e);
+            } finally {
+                synchronized (scheduler) {
+                    scheduled = false;
+                }
+                schedule();
+            }
+        }
+
+    };
+
+    /**
+     * Creates a watcher.
+     * @param client the client to poll with.
+     * @param descriptor the descriptor of the entities' list.
+     * @param skew the time in milliseconds subtracted from the time of the last poll when
+     * requesting changes.
+     * @param background whether background threads may be used.
+     */
+    EntityWatcher(RackspaceCloudClient client, EntityListDescriptor<T, L> descriptor, long skew,
+            boolean background) {
+        this.client = client;
+        this.descriptor = descriptor;
+        this.skew = skew;
+        this.background = background;
+        if (background) {
+            // Both create their threads on demand.
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new DaemonThreadFactory("rackspace-watcher-"));
+            // When the queue is full the polling thread notifies the listeners itself, which
+            // slows down polling instead of dropping events. It holds no locks while doing so.
+            dispatcher = new ThreadPoolExecutor(DISPATCH_THREADS, DISPATCH_THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(DISPATCH_QUEUE_SIZE),
+                    new DaemonThreadFactory("rackspace-notify-"), new ThreadPoolExecutor.CallerRunsPolicy());
+            dispatcher.allowCoreThreadTimeOut(true);
+        } else {
+            scheduler = null;
+            dispatcher = null;
+        }
+    }
+
+    /* ----------   Watch Operations  --------- */
+
+    /**
+     * Waits until the entity is no longer in a transitional status, or deleted.
+     * @param entity the entity.
+     * @param timeout the maximum time to wait in milliseconds, zero to wait indefinitely.
+     * @return the entity as last seen.
+     * @throws RackspaceCloudClientException if the timeout expires, the waiting thread is
+     * interrupted or the entity can not be fetched.
+     */
+    T await(T entity, long timeout) throws RackspaceCloudClientException {
+
+        Completion<T> completion = new Completion<T>();
+        Watch watch = register(entity, null, completion);
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        try {
+            if (!background) pollUntil(completion, deadline);
+            if (timeout > 0) return completion.get(Math.max(deadline - System.currentTimeMillis(), 0),
+                    TimeUnit.MILLISECONDS);
+            else return completion.get();
+        } catch (TimeoutException e) {
+            throw new RackspaceCloudClientException(String.format(
+                    "Timed out waiting for entity %1$d after %2$d msec.", watch.id, timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RackspaceCloudClientException("Interrupted while waiting for an entity.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RackspaceCloudClientException)
+                throw (RackspaceCloudClientException) e.getCause();
+            throw new RackspaceCloudClientException(e.getCause());
+        } finally {
+            watch.remove(null, completion);
+        }
+    }
+
+    /**
+     * Registers a listener to be notified of the changes of an entity, until removed or the
+     * entity is deleted.
+     * @param entity the entity.
+     * @param listener the listener.
+     */
+    void watch(T entity, ChangeListener<T> listener) {
+        if (!background) throw new UnsupportedOperationException(
+                "Notifications are not available in GAE compatible services.");
+        register(entity, listener, null);
+    }
+
+    /**
+     * Removes a listener registered by {@link #watch(Object, ChangeListener)}.
+     * @param entity the entity.
+     * @param listener the listener.
+     */
+    void unwatch(T entity, ChangeListener<T> listener) {
+        Watch watch = watches.get(descriptor.getId(entity));
+        if (watch != null) watch.remove(listener, null);
+    }
+
+    /**
+     * Stops watching: waiting callers are released with an error, listeners are dropped and
+     * the background threads are stopped.
+     */
+    void close() {
+        closed = true;
+        for (Watch watch : watches.values()) {
+            watch.fail(new RackspaceCloudClientException("The watcher has been closed."));
+            watch.dispatch();
+        }
+        if (background) {
+            scheduler.shutdownNow();
+            dispatcher.shutdown();
+        }
+    }
+
+    private Watch register(T entity, ChangeListener<T> listener, Completion<T> completion) {
+        if (closed) throw new IllegalStateException("The watcher has been closed.");
+        int id = descriptor.getId(entity);
+        while (true) {
+            Watch watch = watches.get(id);
+            if (watch == null) {
+                watch = new Watch(id, entity);
+                Watch existing = watches.putIfAbsent(id, watch);
+                if (existing != null) watch = existing;
+            }
+            if (watch.add(listener, completion)) {
+                schedule();
+                return watch;
+            }
+        }
+    }
+
+    /* ----------       Polling       --------- */
+
+    /**
+     * Schedules the next tick, unless nothing is watched. A scheduled tick is kept unless it
+     * is due later than the next tick should be, which happens when a new entity is watched
+     * while the others are polled rarely.
+     */
+    private void schedule() {
+        if (!background) return;
+        synchronized (scheduler) {
+            if (closed || watches.isEmpty()) return;
+            long delay = getNextDelay();
+            long at = System.currentTimeMillis() + delay;
+            // A tick that has already started can not be cancelled, it schedules the next one.
+            if (scheduled && (at >= pendingAt || !pending.cancel(false))) return;
+            pending = scheduler.schedule(tickTask, delay, TimeUnit.MILLISECONDS);
+            pendingAt = at;
+            scheduled = true;
+        }
+    }
+
+    /**
+     * Returns the time until the next tick: until the earliest schedule of the watched
+     * entities, or longer if the minimum interval has not passed or the rate limit of
+     * {@code changes-since} requests is running low.
+     */
+    private long getNextDelay() {
+        long now = System.currentTimeMillis();
+        long due = Long.MAX_VALUE;
+        for (Watch watch : watches.values()) due = Math.min(due, watch.nextPoll);
+        long result = Math.max(lastPoll + pollInterval / 4 - now, due - now);
+        RateLimiter limiter = client.getRateLimiter();
+        if (limiter != null)
+            result = Math.max(result, limiter.getPacingDelay(HTTPVerb.GET, descriptor.getChangesPath()));
+        return Math.max(result, 0);
+    }
+
+    /**
+     * Performs ticks in the calling thread until the completion is done or the deadline passes.
+     */
+    private void pollUntil(Completion<T> completion, long deadline) throws InterruptedException {
+        while (!completion.isDone()) {
+            long delay = getNextDelay();
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return;
+            if (delay > 0) {
+                Thread.sleep(Math.min(delay, remaining));
+                continue;
+            }
+            tick();
+        }
+    }
+
+    /**
+     * Polls once for the changes of all the watched entities, then notifies their listeners.
+     */
+    void tick() {
+        for (Watch watch : poll()) watch.dispatch();
+    }
+
+    /**
+     * Applies the changes of the watched entities, queueing the events of their listeners.
+     * @return the watches updated.
+     */
+    private synchronized List<Watch> poll() {
+        List<Watch> updated = new ArrayList<Watch>();
+        if (watches.isEmpty()) return updated;
+
+        long start = System.currentTimeMillis();
+        // Include the changes since the earliest time a newly watched entity is known at.
+        long since = lastPoll > 0 ? lastPoll : start;
+        for (Watch watch : watches.values()) {
+            if (!watch.seen) since = Math.min(since, watch.watchedSince);
+        }
+
+        L changes;
+        try {
+            changes = descriptor.getChanges(client, Math.max(since - skew, 0) / 1000);
+        } catch (RackspaceCloudClientException e) {
+            pollFailures.incrementAndGet();
+            LOGGER.warn("Failed to poll for changes of watched entities.", e);
+            return updated;
+        }
+        polls.incrementAndGet();
+
+        int changed = 0;
+        for (T entity : descriptor.getEntities(changes)) {
+            Watch watch = watches.get(descriptor.getId(entity));
+            if (watch != null) {
+                watch.update(entity);
+                updated.add(watch);
+                changed++;
+            }
+        }
+
+        // Entities that have not changed lately are not included in the changes.
+        for (Watch watch : watches.values()) {
+            if (watch.seen || watch.watchedSince > start) continue;
+            fetches.incrementAndGet();
+            try {
+                watch.update(descriptor.getEntity(client, watch.id));
+                updated.add(watch);
+            } catch (RackspaceCloudClientException e) {
+                CloudServersAPIFault fault = e.getServerFault();
+                if (fault != null && fault.getCode() == HTTP_NOT_FOUND) {
+                    watch.fail(e);
+                    updated.add(watch);
+                } else LOGGER.warn("Failed to fetch watched entity " + watch.id + ".", e);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        for (Watch watch : watches.values()) {
+            if (watch.seen) watch.polled(now);
+        }
+
+        lastPoll = start;
+        LOGGER.debug("Polled {} watched entities, {} changed.", watches.size(), changed);
+        return updated;
+    }
+
+    /* ----------   Accessor Methods   --------- */
+
+    long getPollInterval() {
+        return pollInterval;
+    }
+
+    void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    int getWatchCount() {
+        return watches.size();
+    }
+
+    long getPollCount() {
+        return polls.get();
+    }
+
+    long getPollFailureCount() {
+        return pollFailures.get();
+    }
+
+    /**
+     * @return the number of entities fetched on their own, not found in the changes.
+     */
+    long getFetchCount() {
+        return fetches.get();
+    }
+
+    /**
+     * Returns the metrics of the transitions observed so far, one entry per status.
+     * @return the statistics.
+     */
+    List<PollStatistics> getStatistics() {
+        List<PollStatistics> result = new ArrayList<PollStatistics>();
+        for (Map.Entry<Object, StatusMetrics> entry : metrics.entrySet()) {
+            result.add(entry.getValue().toStatistics(entry.getKey()));
+        }
+        return result;
+    }
+
+    private void recordTransition(Object status, int polls, long duration) {
+        StatusMetrics statusMetrics = metrics.get(status);
+        if (statusMetrics == null) {
+            statusMetrics = new StatusMetrics();
+            StatusMetrics existing = metrics.putIfAbsent(status, statusMetrics);
+            if (existing != null) statusMetrics = existing;
+        }
+        statusMetrics.record(polls, duration);
+    }
+
+    /* ----------    Helper Classes    --------- */
+
+    /**
+     * The listeners and waiting callers of an entity. Removed from the watches once it has
+     * neither, after which it is closed and may not be used again.
+     */
+    private final class Watch {
+
+        private final int id;
+        private final long watchedSince = System.currentTimeMillis();
+        /** Whether the entity has been seen by a poll. Written by the polling thread only. */
+        private volatile boolean seen = false;
+
+        /* Guarded by this. */
+        private T entity;
+        private boolean closed = false;
+        private final List<ChangeListener<T>> listeners = new ArrayList<ChangeListener<T>>(1);
+        private final List<Completion<T>> completions = new ArrayList<Completion<T>>(1);
+        private final Queue<Delivery<T>> deliveries = new LinkedList<Delivery<T>>();
+        private boolean dispatching = false;
+
+        /* Schedule, guarded by this. */
+        /** Time the current status was first seen, and the polls made since then. */
+        private long statusSince = watchedSince;
+        private int statusPolls = 0;
+        private boolean statusChanged = false;
+        /** First and latest progress seen in the current status, and when. */
+        private Integer firstProgress;
+        private long firstProgressTime;
+        private Integer lastProgress;
+        private long lastProgressTime;
+        private boolean progressed = false;
+        private int stalledPolls = 0;
+        /** Time the entity should be polled at next. */
+        private volatile long nextPoll = 0;
+
+        Watch(int id, T entity) {
+            this.id = id;
+            this.entity = entity;
+        }
+
+        synchronized boolean add(ChangeListener<T> listener, Completion<T> completion) {
+            if (closed) return false;
+            if (listener != null) listeners.add(listener);
+            if (completion != null) completions.add(completion);
+            return true;
+        }
+
+        synchronized void remove(ChangeListener<T> listener, Completion<T> completion) {
+            if (listener != null) listeners.remove(listener);
+            if (completion != null) completions.remove(completion);
+            closeIfUnused();
+        }
+
+        /**
+         * Applies the entity as seen by a poll: an event is queued for the listeners if it
+         * changed and waiting callers are released if it has settled.
+         */
+        synchronized void update(T current) {
+            boolean deleted = descriptor.isDeleted(current);
+            if (deleted || descriptor.isChanged(entity, current))
+                enqueue(new NotifyEvent<T>(false, current, null));
+            track(current, System.currentTimeMillis());
+            seen = true;
+            entity = current;
+
+            if (deleted || !descriptor.isTransitional(current)) {
+                for (Completion<T> completion : completions) completion.complete(current);
+                completions.clear();
+            }
+            if (deleted) {
+                listeners.clear();
+                closeIfUnused();
+            }
+        }
+
+        /**
+         * Reports a failure concerning the entity, which is no longer watched.
+         */
+        synchronized void fail(RackspaceCloudClientException e) {
+            seen = true;
+            enqueue(new NotifyEvent<T>(true, entity, e.getServerFault()));
+            for (Completion<T> completion : completions) completion.fail(e);
+            completions.clear();
+            listeners.clear();
+            closeIfUnused();
+        }
+
+        /**
+         * Tracks the status and progress of the entity, recording the transitions from
+         * transitional statuses.
+         */
+        private void track(T current, long now) {
+            Object status = descriptor.getStatus(current);
+            Integer progress = descriptor.getProgress(current);
+            Object previousStatus = descriptor.getStatus(entity);
+
+            if (status == null ? previousStatus != null : !status.equals(previousStatus)) {
+                if (descriptor.isTransitional(entity))
+                    recordTransition(previousStatus, statusPolls + 1, now - statusSince);
+                statusSince = now;
+                statusPolls = 0;
+                statusChanged = true;
+                progressed = true;
+                firstProgress = lastProgress = progress;
+                firstProgressTime = lastProgressTime = now;
+            } else if (firstProgress == null || !seen) {
+                // The progress of the entity passed in is not a sample, it may be stale.
+                firstProgress = lastProgress = progress;
+                firstProgressTime = lastProgressTime = now;
+            } else if (progress != null && !progress.equals(lastProgress)) {
+                progressed = true;
+                lastProgress = progress;
+                lastProgressTime = now;
+            }
+        }
+
+        /**
+         * Called after every tick that has seen the entity, to schedule its next poll.
+         */
+        synchronized void polled(long now) {
+            if (!statusChanged) statusPolls++;
+            if (progressed) stalledPolls = 0;
+            else stalledPolls++;
+            statusChanged = false;
+            progressed = false;
+
+            long interval = pollInterval;
+            if (descriptor.isTransitional(entity)) {
+                long remaining = estimateRemaining(now);
+                if (remaining >= 0) interval = remaining;
+                if (!listeners.isEmpty()) interval = Math.min(interval, pollInterval);
+                if (stalledPolls > 1) interval = Math.max(interval,
+                        pollInterval << Math.min(stalledPolls - 1, MAX_BACKOFF_SHIFT));
+            }
+            nextPoll = now + Math.max(pollInterval / 4, Math.min(interval, pollInterval * MAX_INTERVALS));
+        }
+
+        /**
+         * Estimates the time until the entity completes its transition.
+         * @return the time in milliseconds, negative if no estimate can be made.
+         */
+        private long estimateRemaining(long now) {
+            if (firstProgress != null && lastProgress != null && lastProgress > firstProgress
+                    && lastProgressTime > firstProgressTime) {
+                double rate = (double) (lastProgress - firstProgress)
+                        / (lastProgressTime - firstProgressTime);
+                long remaining = (long) ((100 - lastProgress) / rate) - (now - lastProgressTime);
+                return Math.max(remaining, 0);
+            }
+            StatusMetrics statusMetrics = metrics.get(descriptor.getStatus(entity));
+            if (statusMetrics != null) {
+                long average = statusMetrics.getAverageDuration();
+                if (average > 0) return Math.max(average - (now - statusSince), 0);
+            }
+            return -1;
+        }
+
+        private void closeIfUnused() {
+            if (closed || !listeners.isEmpty() || !completions.isEmpty()) return;
+            closed = true;
+            watches.remove(id, this);
+        }
+
+        private void enqueue(NotifyEvent<T> event) {
+            if (!listeners.isEmpty())
+                deliveries.add(new Delivery<T>(event, new ArrayList<ChangeListener<T>>(listeners)));
+        }
+
+        /**
+         * Hands the pending events to the dispatcher, one task per entity at a time so that
+         * listeners see the changes in order. Called without holding any lock, since the task
+         * may run in the calling thread.
+         */
+        void dispatch() {
+            synchronized (this) {
+                if (dispatching || deliveries.isEmpty()) return;
+                dispatching = true;
+            }
+            dispatcher.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    deliverEvents();
+                }
+
+            });
+        }
+
+        private void deliverEvents() {
+            while (true) {
+                Delivery<T> delivery;
+                synchronized (this) {
+                    delivery = deliveries.poll();
+                    if (delivery == null) {
+                        dispatching = false;
+                        return;
+                    }
+                }
+                for (ChangeListener<T> listener : delivery.listeners) {
+                    try {
+                        listener.notify(delivery.event);
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("Change listener failed.", e);
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * The transitions completed from a status.
+     */
+    private static final class StatusMetrics {
+
+        private long transitions;
+        private long polls;
+        private long totalDuration;
+
+        synchronized void record(int transitionPolls, long duration) {
+            transitions++;
+            polls += transitionPolls;
+            totalDuration += duration;
+        }
+
+        synchronized long getAverageDuration() {
+            return transitions == 0 ? 0 : totalDuration / transitions;
+        }
+
+        synchronized PollStatistics toStatistics(Object status) {
+            return new PollStatistics(String.valueOf(status), transitions, polls, totalDuration);
+        }
+
+    }
+
+    /**
+     * An event and the listeners registered at the time it occurred.
+     */
+    private static final class Delivery<T> {
+
+        private final NotifyEvent<T> event;
+        private final List<ChangeListener<T>> listeners;
+
+        Delivery(NotifyEvent<T> event, List<ChangeListener<T>> listeners) {
+            this.event = event;
+            this.listeners = listeners;
+        }
+
+    }
+
+    /**
+     * A future completed by the watcher.
+     */
+    private static final class Completion<T> extends FutureTask<T> {
+
+        private static final Runnable NOTHING = new Runnable() {
+
+            @Override
+            public void run() { }
+
+        };
+
+        Completion() {
+            super(NOTHING, null);
+        }
+
+        void complete(T entity) {
+            set(entity);
+        }
+
+        void fail(Throwable cause) {
+            setException(cause);
+        }
+
+    }
+
+}
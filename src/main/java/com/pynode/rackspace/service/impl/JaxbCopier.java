@@ -0,0 +1,118 @@
+package com.pynode.rackspace.service.impl;
+
+import com.rackspace.cloud.api.Version;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.xml.bind.JAXBElement;
+import javax.xml.datatype.Duration;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.namespace.QName;
+import org.w3c.dom.Node;
+
+/**
+ * Deep copies objects of the Cloud Servers API model, the classes generated in the
+ * {@code com.rackspace.cloud.api} package. Copying the fields of a graph directly is much
+ * cheaper than marshalling it to XML and back, which is what the response cache did on
+ * every hit.<br />
+ * The fields of each class are looked up once and kept for later copies.
+ * @author Christos Fragoulides
+ */
+final class JaxbCopier {
+
+    private static final Package API_PACKAGE = Version.class.getPackage();
+
+    private static final ConcurrentMap<Class<?>, Field[]> FIELDS = new ConcurrentHashMap<Class<?>, Field[]>();
+
+    private JaxbCopier() { }
+
+    /**
+     * Returns a deep copy of the given object.
+     * @param source an object of the API model, or a list of such objects.
+     * @return the copy.
+     * @throws IllegalArgumentException if the graph contains an object of unsupported type.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T copy(T source) {
+        return (T) copyValue(source);
+    }
+
+    private static Object copyValue(Object value) {
+
+        if (value == null || isImmutable(value)) return value;
+
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            List<Object> result = new ArrayList<Object>(list.size());
+            for (Object element : list) result.add(copyValue(element));
+            return result;
+        }
+        if (value.getClass().getPackage() == API_PACKAGE) return copyBean(value);
+        if (value instanceof XMLGregorianCalendar) return ((XMLGregorianCalendar) value).clone();
+        if (value instanceof JAXBElement) return copyElement((JAXBElement<?>) value);
+        if (value instanceof Node) return ((Node) value).cloneNode(true);
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            Map<Object, Object> result = new HashMap<Object, Object>(map.size() * 2);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                result.put(entry.getKey(), copyValue(entry.getValue()));
+            }
+            return result;
+        }
+
+        throw new IllegalArgumentException("Cannot copy objects of type " + value.getClass().getName());
+    }
+
+    private static boolean isImmutable(Object value) {
+        return value instanceof String || value instanceof Integer || value instanceof Long
+                || value instanceof Boolean || value instanceof Enum || value instanceof Short
+                || value instanceof Byte || value instanceof Double || value instanceof Float
+                || value instanceof Character || value instanceof BigInteger || value instanceof BigDecimal
+                || value instanceof QName || value instanceof Duration;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copyElement(JAXBElement<?> element) {
+        JAXBElement<Object> result = new JAXBElement<Object>(element.getName(),
+                (Class<Object>) element.getDeclaredType(), element.getScope(), copyValue(element.getValue()));
+        result.setNil(element.isNil());
+        return result;
+    }
+
+    private static Object copyBean(Object source) {
+        try {
+            Object result = source.getClass().newInstance();
+            for (Field field : getFields(source.getClass())) field.set(result, copyValue(field.get(source)));
+            return result;
+        } catch (InstantiationException e) {
+            throw new IllegalArgumentException("Failed to copy " + source.getClass().getName(), e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Failed to copy " + source.getClass().getName(), e);
+        }
+    }
+
+    private static Field[] getFields(Class<?> type) {
+        Field[] result = FIELDS.get(type);
+        if (result == null) {
+            List<Field> fields = new ArrayList<Field>();
+            for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) continue;
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            result = fields.toArray(new Field[fields.size()]);
+            FIELDS.putIfAbsent(type, result);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.pynode.rackspace.service.impl;
+
+import com.pynode.rackspace.client.RackspaceCloudClient;
+import com.pynode.rackspace.client.RackspaceCloudClientException;
+import com.pynode.rackspace.service.EntityList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link EntityList} holding all of its entities, which can be brought up to date with
+ * {@code changes-since} requests: {@link #delta()} fetches the entities changed since the
+ * list was last modified and patches the list in place, so that the cost of keeping it
+ * current depends on the number of changes instead of the size of the list.<br />
+ * Changed entities replace the ones held, deleted entities are removed and new entities are
+ * appended, unless the list is partial, a single page of a list call, in which case only the
+ * entities already held are updated. The changes are always fetched in detail, since
+ * deletions can only be told by the status of an entity.<br />
+ * {@link #reset()} must be called before the list is used. Both {@link #reset()} and
+ * {@link #delta()} restart the iteration.
+ * @param <T> the entity type.
+ * @param <L> the list type.
+ * @author Christos Fragoulides
+ */
+abstract class MaterializedEntityList<T, L> extends EntityList<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MaterializedEntityList.class);
+
+    private final RackspaceCloudClient client;
+    private final EntityListDescriptor<T, L> descriptor;
+    private final boolean partial;
+    private final long skew;
+
+    private final Map<Integer, T> entities = new LinkedHashMap<Integer, T>();
+    private Iterator<T> iterator;
+    private long lastModified;
+
+    /**
+     * Creates a list.
+     * @param client the client to fetch the changes with.
+     * @param descriptor the descriptor of the list.
+     * @param partial whether the list holds a single page of a list call.
+     * @param skew the time in milliseconds subtracted from the last modification time when
+     * requesting changes, which must cover clock differences and the age of cached responses.
+     */
+    MaterializedEntityList(RackspaceCloudClient client, EntityListDescriptor<T, L> descriptor,
+            boolean partial, long skew) {
+        this.client = client;
+        this.descriptor = descriptor;
+        this.partial = partial;
+        this.skew = skew;
+    }
+
+    /**
+     * Fetches the entities of the list.
+     * @return the entities.
+     * @throws RackspaceCloudClientException in case of an error.
+     */
+    protected abstract L fetchList() throws RackspaceCloudClientException;
+
+    /**
+     * Gets the time the list was last brought up to date.
+     * @return the time in milliseconds, as returned by {@link System#currentTimeMillis()}.
+     */
+    @Override
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return entities.isEmpty();
+    }
+
+    @Override
+    public void reset() throws RackspaceCloudClientException {
+        long timeStamp = System.currentTimeMillis();
+        L list = fetchList();
+        entities.clear();
+        for (T entity : descriptor.getEntities(list)) entities.put(descriptor.getId(entity), entity);
+        lastModified = timeStamp;
+        iterator = entities.values().iterator();
+    }
+
+    @Override
+    public void delta() throws RackspaceCloudClientException {
+        if (iterator == null) throw new IllegalStateException("The list has not been reset.");
+        // Responses carry no time stamp, so the list is as recent as the time of the request.
+        long timeStamp = System.currentTimeMillis();
+        long changesSince = Math.max(lastModified - skew, 0) / 1000;
+        L changes = descriptor.getChanges(client, changesSince);
+        descriptor.apply(entities, descriptor.getEntities(changes), !partial);
+        lastModified = timeStamp;
+        iterator = entities.values().iterator();
+        LOGGER.debug("Applied delta, {} entities changed.", descriptor.size(changes));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (iterator == null) throw new IllegalStateException("The list has not been reset.");
+        return iterator.hasNext();
+    }
+
+    @Override
+    public T next() {
+        if (iterator == null) throw new IllegalStateException("The list has not been reset.");
+        return iterator.next();
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.pynode.rackspace.service.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, in-process cache of response objects, used in front of the {@code StateManager}
+ * backed cache of serialized responses. Least recently used entries are evicted once the
+ * maximum number of entries is reached.<br />
+ * Cached objects are never handed out: {@link #get(CacheKey, long)} returns deep copies, so
+ * that callers are free to modify the results of client calls.
+ * @author Christos Fragoulides
+ */
+final class ObjectCache {
+
+    private final Map<CacheKey, CachedObject> entries;
+
+    /**
+     * Creates a cache holding up to the specified number of entries.
+     * @param maxEntries the maximum number of entries.
+     */
+    ObjectCache(final int maxEntries) {
+        entries = new LinkedHashMap<CacheKey, CachedObject>(16, 0.75F, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, CachedObject> eldest) {
+                return size() > maxEntries;
+            }
+
+        };
+    }
+
+    /**
+     * Returns a copy of the cached object, if it is fresh enough.
+     * @param key the key of the object.
+     * @param notBefore the minimum time stamp of an entry to be returned.
+     * @return a deep copy of the cached object, {@code null} if not found or outdated.
+     */
+    Object get(CacheKey key, long notBefore) {
+        CachedObject entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null || entry.timeStamp < notBefore) return null;
+        return JaxbCopier.copy(entry.value);
+    }
+
+    /**
+     * Caches a copy of the given object, unless a more recent one is already cached.
+     * @param key the key of the object.
+     * @param value the object, which must be copyable by {@link JaxbCopier}.
+     * @param timeStamp the time the object was received.
+     */
+    void put(CacheKey key, Object value, long timeStamp) {
+        CachedObject entry = new CachedObject(JaxbCopier.copy(value), timeStamp);
+        synchronized (entries) {
+            CachedObject existing = entries.get(key);
+            if (existing == null || existing.timeStamp < timeStamp) entries.put(key, entry);
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static final class CachedObject {
+
+        private final Object value;
+        private final long timeStamp;
+
+        CachedObject(Object value, long timeStamp) {
+            this.value = value;
+            this.timeStamp = timeStamp;
+        }
+
+    }
+
+}
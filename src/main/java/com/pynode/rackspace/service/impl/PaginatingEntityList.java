@@ -0,0 +1,163 @@
+package com.pynode.rackspace.service.impl;
+
+import com.pynode.rackspace.client.RackspaceCloudClientException;
+import com.pynode.rackspace.service.EntityList;
+import com.pynode.rackspace.service.EntityListException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An {@link EntityList} that walks all the entities of a list call, one page at a time. While
+ * the entities of a page are consumed, the next page is fetched in the background, so that
+ * iterating a large list does not stall at every page boundary. At most two pages are held at
+ * any time: the current one and the one being fetched.<br />
+ * Pagination stops at the first page holding fewer entities than the page size. Failures to
+ * fetch a page are raised by {@link #hasNext()} and {@link #next()} as an
+ * {@link EntityListException}, after which the page may be requested again.<br />
+ * {@link #reset()} must be called before the list is used.
+ * @param <T> the entity type.
+ * @author Christos Fragoulides
+ */
+abstract class PaginatingEntityList<T> extends EntityList<T> {
+
+    private final Executor executor;
+    private final long pageSize;
+
+    private long lastModified;
+    private boolean empty;
+    private Iterator<T> page;
+    private long nextOffset;
+    /** The next page, {@code null} once the last page has been reached. */
+    private FutureTask<List<T>> nextPage;
+
+    /**
+     * Creates a list.
+     * @param executor the executor to prefetch pages with, {@code null} to fetch each page
+     * when it is reached.
+     * @param pageSize the number of entities to request per page.
+     */
+    PaginatingEntityList(Executor executor, long pageSize) {
+        if (pageSize <= 0) throw new IllegalArgumentException("Page size must be positive.");
+        this.executor = executor;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Fetches a page of entities.
+     * @param offset the offset of the first entity of the page.
+     * @param limit the maximum number of entities to fetch.
+     * @return the entities.
+     * @throws RackspaceCloudClientException in case of an error.
+     */
+    protected abstract List<T> fetchPage(long offset, long limit) throws RackspaceCloudClientException;
+
+    @Override
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * Fetches the first page of entities, discarding any page already fetched.
+     * @throws RackspaceCloudClientException in case of an error.
+     */
+    @Override
+    public void reset() throws RackspaceCloudClientException {
+        if (nextPage != null) nextPage.cancel(false);
+        nextPage = null;
+        page = null;
+        nextOffset = 0;
+        
+        long timeStamp = System.currentTimeMillis();
+        List<T> entities = fetchPage(0, pageSize);
+        lastModified = timeStamp;
+        empty = entities.isEmpty();
+        setPage(entities);
+    }
+
+    /**
+     * Not supported, since the pages already consumed are not held.
+     */
+    @Override
+    public void delta() throws RackspaceCloudClientException {
+        throw new UnsupportedOperationException("Auto paginating lists can only be reset.");
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (page == null) throw new IllegalStateException("The list has not been reset.");
+        while (!page.hasNext()) {
+            if (nextPage == null) return false;
+            setPage(awaitNextPage());
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return page.next();
+    }
+
+    /**
+     * Makes the given entities the current page, and starts fetching the next page unless
+     * this is the last one.
+     */
+    private void setPage(List<T> entities) {
+        page = entities.iterator();
+        nextOffset += entities.size();
+        if (entities.size() < pageSize) {
+            nextPage = null;
+            return;
+        }
+        nextPage = createPageTask(nextOffset);
+        if (executor == null) return;
+        try {
+            executor.execute(nextPage);
+        } catch (RejectedExecutionException e) {
+            // The page will be fetched when reached.
+        }
+    }
+
+    private List<T> awaitNextPage() {
+        FutureTask<List<T>> task = nextPage;
+        // Fetch the page in this thread if the executor has not started it yet, otherwise this
+        // does nothing and the page is waited for.
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EntityListException("Interrupted while fetching the next page.", e);
+        } catch (ExecutionException e) {
+            // Allow the page to be requested again.
+            nextPage = createPageTask(nextOffset);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new EntityListException("Failed to fetch the next page.", cause);
+        }
+    }
+
+    private FutureTask<List<T>> createPageTask(final long offset) {
+        return new FutureTask<List<T>>(new Callable<List<T>>() {
+
+            @Override
+            public List<T> call() throws Exception {
+                return fetchPage(offset, pageSize);
+            }
+            
+        });
+    }
+
+}
@@ -0,0 +1,376 @@
+package com.pynode.rackspace.service.impl;
+
+import com.pynode.rackspace.client.RackspaceCloudClientException;
+import com.pynode.rackspace.service.EntityList;
+import com.pynode.rackspace.service.EntityListException;
+import com.pynode.rackspace.service.ServerInventory;
+import com.pynode.rackspace.service.ServerManager;
+import com.rackspace.cloud.api.Address;
+import com.rackspace.cloud.api.AddressList;
+import com.rackspace.cloud.api.MetadataItem;
+import com.rackspace.cloud.api.Server;
+import com.rackspace.cloud.api.ServerStatus;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ServerInventory} implementation built on a {@link ServerManager}. Synchronizations
+ * are serialized; each one builds a new {@link Snapshot} which is then published through a
+ * volatile field, so readers need no locking. Deltas that change nothing keep the current
+ * indexes, and the others copy only the index entries of the keys the changed servers leave
+ * or enter, sharing the rest with the previous snapshot.
+ * @author Christos Fragoulides
+ */
+final class ServerInventoryImpl implements ServerInventory {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServerInventoryImpl.class);
+
+    private final ServerManager serverManager;
+    private final long skew;
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.<Integer, Server>emptyMap(), 0);
+
+    /**
+     * Creates an inventory.
+     * @param serverManager the manager to list the servers with.
+     * @param skew the time in milliseconds subtracted from the last modification time when
+     * requesting changes.
+     */
+    ServerInventoryImpl(ServerManager serverManager, long skew) {
+        this.serverManager = serverManager;
+        this.skew = skew;
+    }
+
+    /* ----------   Synchronization  --------- */
+
+    @Override
+    public synchronized void sync() throws RackspaceCloudClientException {
+        Snapshot current = snapshot;
+        if (current.lastModified == 0) {
+            reload();
+            return;
+        }
+
+        EntityList<Server> changes = serverManager.createDeltaList(true,
+                Math.max(current.lastModified - skew, 0));
+        List<Server> changed = drain(changes);
+        if (changed.isEmpty()) {
+            snapshot = new Snapshot(current, changes.getLastModified());
+            return;
+        }
+
+        Map<Integer, Server> servers = new LinkedHashMap<Integer, Server>(current.byId);
+        EntityListDescriptor.SERVERS.apply(servers, changed, true);
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        for (Server server : changed) ids.add(server.getId());
+        snapshot = new Snapshot(current, servers, ids, changes.getLastModified());
+        LOGGER.debug("Inventory synchronized, {} servers changed.", changed.size());
+    }
+
+    @Override
+    public synchronized void reload() throws RackspaceCloudClientException {
+        EntityList<Server> list = serverManager.createList(true);
+        Map<Integer, Server> servers = new LinkedHashMap<Integer, Server>();
+        for (Server server : drain(list)) servers.put(server.getId(), server);
+        snapshot = new Snapshot(servers, list.getLastModified());
+        LOGGER.debug("Inventory loaded, {} servers.", servers.size());
+    }
+
+    private static List<Server> drain(EntityList<Server> list) throws RackspaceCloudClientException {
+        List<Server> result = new ArrayList<Server>();
+        try {
+            while (list.hasNext()) result.add(list.next());
+        } catch (EntityListException e) {
+            if (e.getCause() instanceof RackspaceCloudClientException)
+                throw (RackspaceCloudClientException) e.getCause();
+            throw e;
+        }
+        return result;
+    }
+
+    /* ----------      Lookups       --------- */
+
+    @Override
+    public long getLastModified() {
+        return snapshot.lastModified;
+    }
+
+    @Override
+    public int size() {
+        return snapshot.byId.size();
+    }
+
+    @Override
+    public Server get(int id) {
+        return snapshot.byId.get(id);
+    }
+
+    @Override
+    public Collection<Server> getServers() {
+        return Collections.unmodifiableCollection(snapshot.byId.values());
+    }
+
+    @Override
+    public Collection<Server> findByStatus(ServerStatus status) {
+        return lookup(snapshot.byStatus, status);
+    }
+
+    @Override
+    public Collection<Server> findByFlavor(int flavorId) {
+        return lookup(snapshot.byFlavor, flavorId);
+    }
+
+    @Override
+    public Collection<Server> findByImage(int imageId) {
+        return lookup(snapshot.byImage, imageId);
+    }
+
+    @Override
+    public Collection<Server> findByAddress(String ip) {
+        return lookup(snapshot.byAddress, ip);
+    }
+
+    @Override
+    public Collection<Server> findByMetadata(String key) {
+        return lookup(snapshot.byMetadataKey, key);
+    }
+
+    @Override
+    public Collection<Server> findByMetadata(String key, String value) {
+        List<Server> result = new ArrayList<Server>();
+        for (Server server : lookup(snapshot.byMetadataKey, key)) {
+            for (MetadataItem item : server.getMetadata().getMeta()) {
+                if (key.equals(item.getKey()) && (value == null ? item.getValue() == null
+                        : value.equals(item.getValue()))) {
+                    result.add(server);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index entry of an address in the current snapshot, not copied.
+     */
+    List<Server> getAddressEntry(String ip) {
+        return snapshot.byAddress.get(ip);
+    }
+
+    private static <K> Collection<Server> lookup(Map<K, List<Server>> index, K key) {
+        List<Server> result = index.get(key);
+        return result == null ? Collections.<Server>emptyList() : Collections.unmodifiableList(result);
+    }
+
+    /**
+     * The servers and their indexes at the time of a synchronization. Never modified once
+     * published, so index entries may be shared between snapshots.
+     */
+    private static final class Snapshot {
+
+        private final long lastModified;
+        private final Map<Integer, Server> byId;
+        private final Map<ServerStatus, List<Server>> byStatus;
+        private final Map<Integer, List<Server>> byFlavor;
+        private final Map<Integer, List<Server>> byImage;
+        private final Map<String, List<Server>> byAddress;
+        private final Map<String, List<Server>> byMetadataKey;
+
+        Snapshot(Map<Integer, Server> servers, long lastModified) {
+            this.lastModified = lastModified;
+            byId = servers;
+            byStatus = build(STATUS, servers.values());
+            byFlavor = build(FLAVOR, servers.values());
+            byImage = build(IMAGE, servers.values());
+            byAddress = build(ADDRESS, servers.values());
+            byMetadataKey = build(METADATA_KEY, servers.values());
+        }
+
+        /**
+         * Creates a snapshot sharing the indexes of another, for a delta without changes.
+         */
+        Snapshot(Snapshot other, long lastModified) {
+            this.lastModified = lastModified;
+            byId = other.byId;
+            byStatus = other.byStatus;
+            byFlavor = other.byFlavor;
+            byImage = other.byImage;
+            byAddress = other.byAddress;
+            byMetadataKey = other.byMetadataKey;
+        }
+
+        /**
+         * Creates a snapshot from another, for a delta changing the given servers.
+         * @param previous the snapshot the delta applies to.
+         * @param servers the servers of the previous snapshot, with the delta applied.
+         * @param changed the ids of the servers changed, added or deleted by the delta.
+         * @param lastModified the time of the delta.
+         */
+        Snapshot(Snapshot previous, Map<Integer, Server> servers, Set<Integer> changed,
+                long lastModified) {
+            this.lastModified = lastModified;
+            byId = servers;
+            byStatus = update(previous.byStatus, STATUS, previous.byId, servers, changed);
+            byFlavor = update(previous.byFlavor, FLAVOR, previous.byId, servers, changed);
+            byImage = update(previous.byImage, IMAGE, previous.byId, servers, changed);
+            byAddress = update(previous.byAddress, ADDRESS, previous.byId, servers, changed);
+            byMetadataKey = update(previous.byMetadataKey, METADATA_KEY, previous.byId, servers, changed);
+        }
+
+        private static <K> Map<K, List<Server>> build(IndexKey<K> key, Collection<Server> servers) {
+            Map<K, List<Server>> index = new HashMap<K, List<Server>>();
+            for (Server server : servers) {
+                for (K k : key.of(server)) {
+                    List<Server> entry = index.get(k);
+                    if (entry == null) {
+                        entry = new ArrayList<Server>(2);
+                        index.put(k, entry);
+                    }
+                    entry.add(server);
+                }
+            }
+            return index;
+        }
+
+        /**
+         * Derives an index from the previous one. The entries of the keys the changed servers
+         * had or have are copied with the changes applied, in place for the servers that stay;
+         * all the other entries are shared.
+         */
+        private static <K> Map<K, List<Server>> update(Map<K, List<Server>> index, IndexKey<K> key,
+                Map<Integer, Server> previous, Map<Integer, Server> servers, Set<Integer> changed) {
+            Set<K> touched = new HashSet<K>();
+            Map<Integer, Set<K>> keys = new HashMap<Integer, Set<K>>();
+            Map<K, List<Integer>> entering = new HashMap<K, List<Integer>>();
+            for (Integer id : changed) {
+                Server old = previous.get(id);
+                if (old != null) touched.addAll(key.of(old));
+                Server server = servers.get(id);
+                Set<K> current = server == null ? Collections.<K>emptySet() : key.of(server);
+                keys.put(id, current);
+                for (K k : current) {
+                    touched.add(k);
+                    List<Integer> ids = entering.get(k);
+                    if (ids == null) {
+                        ids = new ArrayList<Integer>(2);
+                        entering.put(k, ids);
+                    }
+                    ids.add(id);
+                }
+            }
+            if (touched.isEmpty()) return index;
+
+            Map<K, List<Server>> result = new HashMap<K, List<Server>>(index);
+            for (K k : touched) {
+                List<Server> entry = new ArrayList<Server>();
+                Set<Integer> placed = new HashSet<Integer>();
+                List<Server> old = index.get(k);
+                if (old != null) {
+                    for (Server server : old) {
+                        Set<K> current = keys.get(server.getId());
+                        if (current == null) entry.add(server);
+                        else if (current.contains(k) && placed.add(server.getId()))
+                            entry.add(servers.get(server.getId()));
+                    }
+                }
+                List<Integer> ids = entering.get(k);
+                if (ids != null) {
+                    for (Integer id : ids) {
+                        if (placed.add(id)) entry.add(servers.get(id));
+                    }
+                }
+                if (entry.isEmpty()) result.remove(k);
+                else result.put(k, entry);
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * The keys a server is indexed under, in one of the indexes.
+     */
+    private abstract static class IndexKey<K> {
+
+        /**
+         * Adds the keys of a server to the given collection.
+         */
+        abstract void collect(Server server, Collection<K> keys);
+
+        /**
+         * @return the keys of a server, without nulls or repetitions.
+         */
+        Set<K> of(Server server) {
+            Set<K> keys = new LinkedHashSet<K>(2);
+            collect(server, keys);
+            keys.remove(null);
+            return keys;
+        }
+
+    }
+
+    private static final IndexKey<ServerStatus> STATUS = new IndexKey<ServerStatus>() {
+
+        @Override
+        void collect(Server server, Collection<ServerStatus> keys) {
+            keys.add(server.getStatus());
+        }
+
+    };
+
+    private static final IndexKey<Integer> FLAVOR = new IndexKey<Integer>() {
+
+        @Override
+        void collect(Server server, Collection<Integer> keys) {
+            keys.add(server.getFlavorId());
+        }
+
+    };
+
+    private static final IndexKey<Integer> IMAGE = new IndexKey<Integer>() {
+
+        @Override
+        void collect(Server server, Collection<Integer> keys) {
+            keys.add(server.getImageId());
+        }
+
+    };
+
+    private static final IndexKey<String> ADDRESS = new IndexKey<String>() {
+
+        @Override
+        void collect(Server server, Collection<String> keys) {
+            if (server.getAddresses() == null) return;
+            addAll(server.getAddresses().getPublic(), keys);
+            addAll(server.getAddresses().getPrivate(), keys);
+        }
+
+        private void addAll(AddressList addresses, Collection<String> keys) {
+            if (addresses == null) return;
+            for (Address address : addresses.getIp()) keys.add(address.getAddr());
+        }
+
+    };
+
+    private static final IndexKey<String> METADATA_KEY = new IndexKey<String>() {
+
+        @Override
+        void collect(Server server, Collection<String> keys) {
+            if (server.getMetadata() == null) return;
+            // A key may not be repeated, but a server is not indexed twice if it is.
+            for (MetadataItem item : server.getMetadata().getMeta()) keys.add(item.getKey());
+        }
+
+    };
+
+}
@@ -0,0 +1,309 @@
+package com.pynode.rackspace.service.utils;
+
+import com.pynode.rackspace.service.StateManager;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory {@link StateManager} bounded by the approximate size of its contents. When the
+ * total weight of the entries exceeds the configured maximum, the least recently used entries
+ * are evicted. Entries whose values implement {@link Weighable} are also expired once older
+ * than the time to live, both on access and by periodic sweeps performed during writes. Values
+ * implementing {@link Retainable} may be kept longer.<br />
+ * It may be used in place of the default, unbounded state manager through the
+ * {@code STATE_MANAGER} service setting, or created by the service itself when the
+ * {@code CLIENT_CACHE_MAX_WEIGHT} setting is present. In the latter case, or if no time to live
+ * is set, the {@code CLIENT_CACHE_TTL} of the service is used.
+ * @author Christos Fragoulides
+ */
+public class BoundedStateManager extends AbstractMap<Object, Object> implements StateManager,
+        ConcurrentMap<Object, Object> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoundedStateManager.class);
+
+    private static final String NULL_NOT_SUPPORTED = "This map does not support null values, nor keys.";
+
+    /** Estimated weight of values whose weight is unknown. */
+    private static final long DEFAULT_WEIGHT = 256;
+    /** Estimated weight of a key and the map entry holding it. */
+    private static final long KEY_WEIGHT = 128;
+
+    private final long maxWeight;
+    private volatile long timeToLive;
+
+    /** Entries in access order. Guarded by {@code this}. */
+    private final LinkedHashMap<Object, Object> entries = new LinkedHashMap<Object, Object>(16, 0.75F, true);
+    private long weight = 0;
+    private long nextSweep = 0;
+
+    private long evictions = 0;
+    private long expirations = 0;
+
+    /**
+     * Creates a state manager without a time to live of its own.
+     * @param maxWeight the maximum total weight of the entries, in bytes.
+     */
+    public BoundedStateManager(long maxWeight) {
+        this(maxWeight, 0);
+    }
+
+    /**
+     * Creates a state manager.
+     * @param maxWeight the maximum total weight of the entries, in bytes.
+     * @param timeToLive the age in milliseconds after which {@link Weighable} values expire,
+     * zero for no expiration.
+     */
+    public BoundedStateManager(long maxWeight, long timeToLive) {
+        if (maxWeight <= 0) throw new IllegalArgumentException("Maximum weight must be positive.");
+        this.maxWeight = maxWeight;
+        this.timeToLive = timeToLive;
+    }
+
+    @Override
+    public ConcurrentMap<Object, Object> getState() {
+        return this;
+    }
+
+    /* ----------   Read Operations  --------- */
+
+    @Override
+    public synchronized Object get(Object key) {
+        if (key == null) throw new IllegalArgumentException(NULL_NOT_SUPPORTED);
+        return getLive(key, System.currentTimeMillis());
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns a snapshot of the entries. Expired entries may be included.
+     */
+    @Override
+    public synchronized Set<Entry<Object, Object>> entrySet() {
+        return Collections.unmodifiableMap(new HashMap<Object, Object>(entries)).entrySet();
+    }
+
+    /* ---------- Write Operations --------- */
+
+    @Override
+    public synchronized Object put(Object key, Object value) {
+        if (key == null || value == null) throw new IllegalArgumentException(NULL_NOT_SUPPORTED);
+        long now = System.currentTimeMillis();
+        Object result = getLive(key, now);
+        store(key, value, now);
+        return result;
+    }
+
+    @Override
+    public synchronized Object putIfAbsent(Object key, Object value) {
+        if (key == null || value == null) throw new IllegalArgumentException(NULL_NOT_SUPPORTED);
+        long now = System.currentTimeMillis();
+        Object result = getLive(key, now);
+        if (result == null) store(key, value, now);
+        return result;
+    }
+
+    @Override
+    public synchronized boolean replace(Object key, Object oldValue, Object newValue) {
+        if (key == null || oldValue == null || newValue == null)
+            throw new IllegalArgumentException(NULL_NOT_SUPPORTED);
+        long now = System.currentTimeMillis();
+        if (!oldValue.equals(getLive(key, now))) return false;
+        store(key, newValue, now);
+        return true;
+    }
+
+    @Override
+    public synchronized Object replace(Object key, Object value) {
+        if (key == null || value == null) throw new IllegalArgumentException(NULL_NOT_SUPPORTED);
+        long now = System.currentTimeMillis();
+        Object result = getLive(key, now);
+        if (result != null) store(key, value, now);
+        return result;
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+        if (key == null) throw new IllegalArgumentException(NULL_NOT_SUPPORTED);
+        Object result = getLive(key, System.currentTimeMillis());
+        if (result != null) removeEntry(key);
+        return result;
+    }
+
+    @Override
+    public synchronized boolean remove(Object key, Object value) {
+        if (key == null || value == null) throw new IllegalArgumentException(NULL_NOT_SUPPORTED);
+        if (!value.equals(getLive(key, System.currentTimeMillis()))) return false;
+        removeEntry(key);
+        return true;
+    }
+
+    @Override
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /* ---------- Implementation Methods ---------- */
+
+    /**
+     * Returns the value of the given key, removing it if expired.
+     */
+    private Object getLive(Object key, long now) {
+        Object value = entries.get(key);
+        if (value != null && isExpired(value, now)) {
+            removeEntry(key);
+            expirations++;
+            return null;
+        }
+        return value;
+    }
+
+    private void store(Object key, Object value, long now) {
+        Object previous = entries.put(key, value);
+        if (previous != null) weight -= weigh(key, previous);
+        weight += weigh(key, value);
+
+        sweep(now);
+
+        // Evict least recently used entries.
+        Iterator<Map.Entry<Object, Object>> iterator = entries.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            Map.Entry<Object, Object> eldest = iterator.next();
+            weight -= weigh(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes all expired entries, at most once per half the time to live, so that the cost
+     * of sweeping is spread over the writes made in the meantime.
+     */
+    private void sweep(long now) {
+        long ttl = timeToLive;
+        if (ttl <= 0 || now < nextSweep) return;
+        nextSweep = now + ttl / 2;
+
+        int removed = 0;
+        Iterator<Map.Entry<Object, Object>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Object, Object> entry = iterator.next();
+            if (isExpired(entry.getValue(), now)) {
+                weight -= weigh(entry.getKey(), entry.getValue());
+                iterator.remove();
+                removed++;
+            }
+        }
+        expirations += removed;
+        if (removed > 0) LOGGER.debug("Removed {} expired entries.", removed);
+    }
+
+    private void removeEntry(Object key) {
+        Object value = entries.remove(key);
+        if (value != null) weight -= weigh(key, value);
+    }
+
+    private boolean isExpired(Object value, long now) {
+        long ttl = timeToLive;
+        if (ttl <= 0 || !(value instanceof Weighable)) return false;
+        if (value instanceof Retainable) ttl = Math.max(ttl, ((Retainable) value).getRetentionTime());
+        return now - ((Weighable) value).getTimeStamp() >= ttl;
+    }
+
+    private static long weigh(Object key, Object value) {
+        return KEY_WEIGHT + (value instanceof Weighable ? ((Weighable) value).getWeight() : DEFAULT_WEIGHT);
+    }
+
+    /* ---------- Accessor Methods ---------- */
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Gets the approximate total weight of the entries.
+     * @return the weight in bytes.
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Sets the age after which {@link Weighable} values expire.
+     * @param timeToLive the time in milliseconds, zero for no expiration.
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Gets the number of entries evicted because the maximum weight was exceeded.
+     * @return the number of evictions.
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Gets the number of entries removed because they expired.
+     * @return the number of expirations.
+     */
+    public synchronized long getExpirationCount() {
+        return expirations;
+    }
+
+    /**
+     * Implemented by values whose weight is known. Such values also carry the time stamp
+     * their age is measured from.
+     */
+    public interface Weighable {
+
+        /**
+         * Returns the approximate memory footprint of the object.
+         * @return the weight in bytes.
+         */
+        long getWeight();
+
+        /**
+         * Returns the time the object was created at.
+         * @return the time in milliseconds, as returned by {@link System#currentTimeMillis()}.
+         */
+        long getTimeStamp();
+
+    }
+
+    /**
+     * Implemented by values still useful once outdated, such as cached lists that can be
+     * brought up to date with a delta request instead of being fetched again.
+     */
+    public interface Retainable extends Weighable {
+
+        /**
+         * Returns the age up to which the object is kept, when longer than the time to live.
+         * @return the time in milliseconds.
+         */
+        long getRetentionTime();
+
+    }
+
+}
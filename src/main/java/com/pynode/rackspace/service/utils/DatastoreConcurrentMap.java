@@ -72,7 +72,12 @@ public class DatastoreConcurrentMap<K, V> extends AbstractMap<K, V> implements C
             Transaction txn = datastore.beginTransaction();
             try {
                 Entity entry = datastore.get(txn, entityKey);
-                oldValue = deserializeEntry((Blob) entry.getProperty(ENTRY_DATA_PROPERTY)).getValue();
+                oldValue = getValue(key, entry);
+                if (oldValue == null) {
+                    // Entry of another key with the same hash code, take its place.
+                    entry.setUnindexedProperty(ENTRY_DATA_PROPERTY, serializeEntry(key, value));
+                    datastore.put(txn, entry);
+                }
                 txn.commit();
             } catch (EntityNotFoundException ex) {
                 // Entity is absent.
@@ -101,8 +106,7 @@ public class DatastoreConcurrentMap<K, V> extends AbstractMap<K, V> implements C
         
         Key entityKey = getEntityKey(key.hashCode());
         try {
-            Entity entry = datastore.get(entityKey);
-            return deserializeEntry((Blob) entry.getProperty(ENTRY_DATA_PROPERTY)).getValue();
+            return getValue(key, datastore.get(entityKey));
         } catch (EntityNotFoundException ex) {
             return null;
         }
@@ -131,7 +135,7 @@ public class DatastoreConcurrentMap<K, V> extends AbstractMap<K, V> implements C
             Transaction txn = datastore.beginTransaction();
             try {
                 Entity entry = datastore.get(txn, entityKey);
-                existingValue = deserializeEntry((Blob) entry.getProperty(ENTRY_DATA_PROPERTY)).getValue();
+                existingValue = getValue(key, entry);
                 if (oldValue.equals(existingValue)) {
                     entry.setUnindexedProperty(ENTRY_DATA_PROPERTY, serializeEntry(key, newValue));
                     datastore.put(txn, entry);
@@ -171,9 +175,11 @@ public class DatastoreConcurrentMap<K, V> extends AbstractMap<K, V> implements C
             Transaction txn = datastore.beginTransaction();
             try {
                 Entity entry = datastore.get(txn, entityKey);
-                existingValue = deserializeEntry((Blob) entry.getProperty(ENTRY_DATA_PROPERTY)).getValue();
-                entry.setUnindexedProperty(ENTRY_DATA_PROPERTY, serializeEntry(key, value));
-                datastore.put(txn, entry);
+                existingValue = getValue(key, entry);
+                if (existingValue != null) {
+                    entry.setUnindexedProperty(ENTRY_DATA_PROPERTY, serializeEntry(key, value));
+                    datastore.put(txn, entry);
+                }
                 txn.commit();
             } catch (EntityNotFoundException ex) {
                 // Entity is absent.
@@ -211,7 +217,7 @@ public class DatastoreConcurrentMap<K, V> extends AbstractMap<K, V> implements C
             Transaction txn = datastore.beginTransaction();
             try {
                 Entity entry = datastore.get(txn, entityKey);                
-                existingValue = deserializeEntry((Blob) entry.getProperty(ENTRY_DATA_PROPERTY)).getValue();
+                existingValue = getValue(key, entry);
                 if (value.equals(existingValue)) {
                     datastore.delete(txn, entityKey);
                 } else existingValue = null;
@@ -235,6 +241,15 @@ public class DatastoreConcurrentMap<K, V> extends AbstractMap<K, V> implements C
     /* ---------- Implementation Methods & Classes ---------- */
     
     
+    /**
+     * Returns the value of an entity, if it belongs to the given key. Entities are keyed by
+     * the hash code of map keys, so an entity may hold the entry of another key.
+     */
+    private V getValue(Object key, Entity entry) {
+        Entry<K, V> existing = deserializeEntry((Blob) entry.getProperty(ENTRY_DATA_PROPERTY));
+        return key.equals(existing.getKey()) ? existing.getValue() : null;
+    }
+    
     private Key getEntityKey(Integer mapKeyHash) {
         String oldNamespace = NamespaceManager.get();
         NamespaceManager.set(namespace);
@@ -2,17 +2,17 @@ package com.pynode.rackspace.service.utils;
 
 import com.pynode.rackspace.client.AccountBase;
 import com.pynode.rackspace.service.StateManager;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 /**
- *
+ * An unbounded, in-memory {@link StateManager}, one instance per account credentials.
  * @author Christos Fragoulides
  */
 public final class DefaultStateManager implements StateManager {
     
-    private static Map<Integer, StateManager> singletons = new ConcurrentHashMap<Integer, StateManager>();
+    private static final ConcurrentMap<Credentials, StateManager> SINGLETONS =
+            new ConcurrentHashMap<Credentials, StateManager>();
     
     private ConcurrentMap<Object, Object> state = new ConcurrentHashMap<Object, Object>();
     
@@ -20,19 +20,62 @@ public final class DefaultStateManager implements StateManager {
     
     public static StateManager getInstance(AccountBase accountBase, String userName, String apiKey) {
         
-        int hash = accountBase.hashCode() + userName.hashCode() + apiKey.hashCode();
-        StateManager manager = singletons.get(hash);
+        Credentials key = new Credentials(accountBase, userName, apiKey);
+        StateManager manager = SINGLETONS.get(key);
         if (manager == null) {
-            manager = new DefaultStateManager();
-            singletons.put(hash, manager);
+            StateManager created = new DefaultStateManager();
+            manager = SINGLETONS.putIfAbsent(key, created);
+            if (manager == null) manager = created;
         }
         
         return manager;
     }
+    
+    /**
+     * Forgets the instance of the given credentials, so that its state may be reclaimed once
+     * no longer used. A later {@link #getInstance(AccountBase, String, String) getInstance}
+     * call creates a new, empty one.
+     * @param accountBase
+     * @param userName
+     * @param apiKey 
+     */
+    public static void removeInstance(AccountBase accountBase, String userName, String apiKey) {
+        SINGLETONS.remove(new Credentials(accountBase, userName, apiKey));
+    }
 
     @Override
     public ConcurrentMap<Object, Object> getState() {
         return state;
     }
     
+    /**
+     * The account credentials an instance belongs to.
+     */
+    private static final class Credentials {
+        
+        private final AccountBase accountBase;
+        private final String userName;
+        private final String apiKey;
+
+        Credentials(AccountBase accountBase, String userName, String apiKey) {
+            this.accountBase = accountBase;
+            this.userName = userName;
+            this.apiKey = apiKey;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Credentials)) return false;
+            Credentials other = (Credentials) obj;
+            return accountBase == other.accountBase && userName.equals(other.userName)
+                    && apiKey.equals(other.apiKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return (accountBase.hashCode() * 31 + userName.hashCode()) * 31 + apiKey.hashCode();
+        }
+        
+    }
+    
 }
@@ -0,0 +1,258 @@
+package com.pynode.cxf.utils;
+
+import com.google.appengine.api.urlfetch.HTTPHeader;
+import com.google.appengine.api.urlfetch.HTTPMethod;
+import com.google.appengine.api.urlfetch.HTTPRequest;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalURLFetchServiceTestConfig;
+import com.pynode.cxf.utils.AbstractHttpConduit.PayloadBuffer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.cxf.jaxrs.client.JAXRSClientFactoryBean;
+import org.apache.cxf.jaxrs.client.WebClient;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.service.model.EndpointInfo;
+import org.apache.cxf.transport.http.Headers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the deadlines, request buffers and response headers of {@link GAEHttpConduit}, and
+ * compares its request stream and response headers against the former byte-at-a-time
+ * buffering and eager header parsing. Requests are made to a local server only.
+ * @author Christos Fragoulides
+ */
+public class GAEHttpConduitTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GAEHttpConduitTest.class);
+
+    private static final int ITERATIONS = 2000;
+    private static final int PAYLOAD_SIZE = 32 * 1024;
+    private static final int CHUNK_SIZE = 4096;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalURLFetchServiceTestConfig());
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    public GAEHttpConduitTest() { }
+
+    @Before
+    public void setUp() throws IOException {
+        helper.setUp();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                byte[] body = exchange.getRequestMethod().getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        FetchDeadline.clear();
+        server.stop(0);
+        helper.tearDown();
+    }
+
+    @Test
+    public void testDeadline() {
+        FetchDeadline.set(10, TimeUnit.SECONDS);
+        assertTrue(FetchDeadline.getRemaining() > 9000);
+        assertEquals("GET", createClient().get(String.class));
+        assertEquals(1, requests.get());
+
+        // Requests are not sent once the deadline has passed.
+        FetchDeadline.setAt(System.currentTimeMillis() - 1);
+        assertEquals(0, FetchDeadline.getRemaining());
+        try {
+            createClient().get(String.class);
+            fail("Request made after the deadline.");
+        } catch (RuntimeException e) {
+            assertEquals(1, requests.get());
+        }
+
+        FetchDeadline.clear();
+        assertEquals(-1, FetchDeadline.getRemaining());
+        assertEquals("GET", createClient().get(String.class));
+    }
+
+    @Test
+    public void testPayloadBuffer() throws IOException {
+        byte[] data = new byte[100];
+        Arrays.fill(data, (byte) 7);
+
+        PayloadBuffer exact = new PayloadBuffer(100);
+        exact.write(data, 0, 60);
+        exact.write(data, 60, 40);
+        assertSame(exact.getBuffer(), exact.toPayload());
+        assertArrayEquals(data, exact.toPayload());
+
+        PayloadBuffer larger = new PayloadBuffer(512);
+        larger.write(data, 0, data.length);
+        assertNotSame(larger.getBuffer(), larger.toPayload());
+        assertArrayEquals(data, larger.toPayload());
+
+        PayloadBuffer smaller = new PayloadBuffer(10);
+        smaller.write(data, 0, data.length);
+        smaller.write(1);
+        assertEquals(101, smaller.toPayload().length);
+    }
+
+    @Test
+    public void testResponseHeaders() {
+        GAEResponseHeaders headers = new GAEResponseHeaders(createHeaders());
+        assertEquals(Arrays.asList("application/xml"), headers.get("content-type"));
+        assertEquals(Arrays.asList("a=1", "b=2"), headers.get("SET-COOKIE"));
+        // Values are not split on commas.
+        assertEquals(Arrays.asList("Mon, 16 Jan 2012 10:00:00 GMT"), headers.get("Date"));
+        assertNull(headers.get("X-Missing"));
+        assertFalse(headers.containsKey("X-Missing"));
+
+        // Changes to values looked up are kept once all the headers are parsed.
+        headers.get("Content-Type").add("text/xml");
+        headers.put("X-Added", Arrays.asList("1"));
+        assertEquals(Arrays.asList("application/xml", "text/xml"), headers.get("Content-Type"));
+        assertEquals(Arrays.asList("a=1", "b=2"), headers.get("Set-Cookie"));
+        // Nine names received, one added.
+        assertEquals(10, headers.size());
+        assertTrue(headers.containsKey("x-added"));
+    }
+
+    @Test
+    public void testConduitBenchmark() throws IOException {
+        byte[] payload = new byte[PAYLOAD_SIZE];
+        List<HTTPHeader> responseHeaders = createHeaders();
+        GAEHttpConduit conduit = createConduit();
+        HTTPRequest request = new HTTPRequest(new URL("http://localhost/servers"), HTTPMethod.POST);
+
+        // Warm up class loading and the JIT for both paths.
+        for (int i = 0; i < ITERATIONS / 10; i++) {
+            before(payload, responseHeaders);
+            after(conduit, request, payload, responseHeaders);
+        }
+
+        long before = -System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) before(payload, responseHeaders);
+        before += System.nanoTime();
+
+        long after = -System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) after(conduit, request, payload, responseHeaders);
+        after += System.nanoTime();
+
+        LOGGER.info("Handled {} requests of {} bytes: before {} usec/request, after {} usec/request.",
+                new Object[] {ITERATIONS, PAYLOAD_SIZE, before / 1000F / ITERATIONS,
+                    after / 1000F / ITERATIONS});
+    }
+
+    private WebClient createClient() {
+        JAXRSClientFactoryBean bean = new JAXRSClientFactoryBean();
+        new GAEHttpTransportFactory().setBus(bean.getBus());
+        bean.setAddress("http://localhost:" + server.getAddress().getPort());
+        return bean.createWebClient();
+    }
+
+    private GAEHttpConduit createConduit() throws IOException {
+        JAXRSClientFactoryBean bean = new JAXRSClientFactoryBean();
+        GAEHttpTransportFactory factory = new GAEHttpTransportFactory();
+        factory.setBus(bean.getBus());
+        EndpointInfo endpointInfo = new EndpointInfo();
+        endpointInfo.setAddress("http://localhost:" + server.getAddress().getPort());
+        return (GAEHttpConduit) factory.getConduit(endpointInfo);
+    }
+
+    /**
+     * The former conduit: its stream implemented {@code write(int)} only, so the body was
+     * written a byte at a time and then copied out of the buffer, and every response header
+     * was split on commas into the protocol headers of a new message.
+     */
+    private static int before(byte[] payload, List<HTTPHeader> responseHeaders) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        OutputStream out = new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                buffer.write(b);
+            }
+
+        };
+        writeChunks(out, payload);
+        byte[] body = buffer.toByteArray();
+
+        Map<String, List<String>> headers = Headers.getSetProtocolHeaders(new MessageImpl());
+        String ct = null;
+        for (HTTPHeader header : responseHeaders) {
+            List<String> value = Arrays.asList(header.getValue().split(","));
+            headers.put(header.getName(), value);
+            if ("content-type".equals(header.getName().toLowerCase()))
+                ct = value.isEmpty() ? null : value.get(0);
+        }
+        return body.length + ct.length() + headers.get("Content-Length").size();
+    }
+
+    /**
+     * The current conduit: the body is written in bulk through its stream, into a buffer sized
+     * after the previous request, and only the headers read are looked up.
+     */
+    private static int after(GAEHttpConduit conduit, HTTPRequest request, byte[] payload,
+            List<HTTPHeader> responseHeaders) throws IOException {
+        GAEHttpConduit.WrappedOutputStream out = conduit.new WrappedOutputStream(new MessageImpl(), request);
+        writeChunks(out, payload);
+        byte[] body = out.takePayload();
+
+        Map<String, List<String>> headers = new GAEResponseHeaders(responseHeaders);
+        String ct = headers.get("Content-Type").get(0);
+        return body.length + ct.length() + headers.get("Content-Length").size();
+    }
+
+    /**
+     * Writes the way CXF writes a marshalled body, in chunks. The stream is not closed, which
+     * would send the request.
+     */
+    private static void writeChunks(OutputStream out, byte[] payload) throws IOException {
+        for (int offset = 0; offset < payload.length; offset += CHUNK_SIZE) {
+            out.write(payload, offset, Math.min(CHUNK_SIZE, payload.length - offset));
+        }
+    }
+
+    private static List<HTTPHeader> createHeaders() {
+        List<HTTPHeader> headers = new ArrayList<HTTPHeader>();
+        headers.add(new HTTPHeader("Content-Type", "application/xml"));
+        headers.add(new HTTPHeader("Content-Length", "32768"));
+        headers.add(new HTTPHeader("Date", "Mon, 16 Jan 2012 10:00:00 GMT"));
+        headers.add(new HTTPHeader("Last-Modified", "Mon, 16 Jan 2012 09:00:00 GMT"));
+        headers.add(new HTTPHeader("Cache-Control", "no-cache, no-store, must-revalidate"));
+        headers.add(new HTTPHeader("Server", "Apache-Coyote/1.1"));
+        headers.add(new HTTPHeader("Vary", "Accept, Accept-Encoding, X-Auth-Token"));
+        headers.add(new HTTPHeader("Via", "1.1 Repose (Repose/2.3.5)"));
+        headers.add(new HTTPHeader("Set-Cookie", "a=1"));
+        headers.add(new HTTPHeader("Set-Cookie", "b=2"));
+        return headers;
+    }
+
+}
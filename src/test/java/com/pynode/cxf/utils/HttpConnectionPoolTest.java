@@ -0,0 +1,120 @@
+package com.pynode.cxf.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import javax.ws.rs.core.Response;
+import org.apache.cxf.jaxrs.client.JAXRSClientFactoryBean;
+import org.apache.cxf.jaxrs.client.WebClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests sending requests over the pooled connections of an {@link HttpConnectionPool},
+ * against a local server.
+ * @author Christos Fragoulides
+ */
+public class HttpConnectionPoolTest {
+
+    private HttpServer server;
+    private HttpConnectionPool pool;
+    /** Remote ports of the connections the server accepted requests from. */
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    public HttpConnectionPoolTest() { }
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                byte[] body = read(exchange.getRequestBody());
+                if (exchange.getRequestURI().getPath().startsWith("/missing")) body = new byte[0];
+                else if (body.length == 0) body = exchange.getRequestMethod().getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+                int status = exchange.getRequestURI().getPath().startsWith("/missing") ? 404 : 200;
+                exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                exchange.close();
+            }
+
+        });
+        server.start();
+        pool = new HttpConnectionPool(4, 2);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionReuse() {
+        WebClient client = createClient();
+        for (int i = 0; i < 10; i++) {
+            assertEquals("GET", client.get(String.class));
+        }
+        assertEquals("payload", client.post("payload", String.class));
+        assertEquals("DELETE", client.invoke("DELETE", null, String.class));
+
+        assertEquals(12, pool.getRequestCount());
+        assertEquals(0, pool.getFailureCount());
+        assertEquals(1, clientPorts.size());
+        assertEquals(0, pool.getLeasedConnections());
+        assertEquals(1, pool.getAvailableConnections());
+    }
+
+    @Test
+    public void testErrorStatus() {
+        WebClient client = createClient().path("/missing");
+        Response response = client.get();
+        assertEquals(404, response.getStatus());
+        // The connection is released even for errors.
+        assertEquals(0, pool.getLeasedConnections());
+        assertEquals("GET", createClient().get(String.class));
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        pool.setIdleTimeout(10);
+        WebClient client = createClient();
+        client.get(String.class);
+        assertEquals(1, pool.getAvailableConnections());
+        Thread.sleep(30);
+        // Idle connections are closed before the next request is made.
+        client.get(String.class);
+        assertEquals(2, clientPorts.size());
+    }
+
+    private WebClient createClient() {
+        JAXRSClientFactoryBean bean = new JAXRSClientFactoryBean();
+        new PooledHttpTransportFactory(pool).setBus(bean.getBus());
+        bean.setAddress("http://localhost:" + server.getAddress().getPort());
+        return bean.createWebClient();
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+
+}
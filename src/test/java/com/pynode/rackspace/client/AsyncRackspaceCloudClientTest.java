@@ -0,0 +1,136 @@
+package com.pynode.rackspace.client;
+
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalURLFetchServiceTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import com.pynode.cxf.utils.FetchDeadline;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the executors of {@link AsyncRackspaceCloudClient}, and the deadlines calls run with.
+ * No remote calls are made.
+ * @author Christos Fragoulides
+ */
+public class AsyncRackspaceCloudClientTest {
+
+    public AsyncRackspaceCloudClientTest() { }
+
+    @Test
+    public void testDefaultExecutor() throws Exception {
+        RackspaceCloudClient client = new RackspaceCloudClient(AccountBase.UK, "user", "key");
+        AsyncRackspaceCloudClient async = new AsyncRackspaceCloudClient(client);
+
+        // Calls run on daemon threads, virtual or pooled, so they never keep the JVM alive.
+        Thread worker = async.getExecutor().submit(new CurrentThread()).get();
+        assertNotSame(Thread.currentThread(), worker);
+        assertTrue(worker.isDaemon());
+
+        // The executor created by the instance is shut down by it.
+        async.shutdown();
+        assertTrue(async.getExecutor().isShutdown());
+        assertTrue(async.getExecutor().awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testGivenExecutor() throws Exception {
+        RackspaceCloudClient client = new RackspaceCloudClient(AccountBase.UK, "user", "key");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AsyncRackspaceCloudClient async = new AsyncRackspaceCloudClient(client, executor);
+            assertSame(executor, async.getExecutor());
+
+            // An executor given by the caller is left to the caller.
+            async.shutdown();
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAppEngineExecutor() throws Exception {
+        LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalURLFetchServiceTestConfig());
+        helper.setUp();
+        try {
+            RackspaceCloudClient client = new RackspaceCloudClient(AccountBase.UK, "user", "key");
+            client.setAppEngineCompatible(true);
+            AsyncRackspaceCloudClient async = new AsyncRackspaceCloudClient(client);
+
+            // Calls run on request threads, which carry the environment of the request.
+            final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+            assertNotNull(environment);
+            Boolean sameRequest = async.getExecutor().submit(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() {
+                    ApiProxy.Environment current = ApiProxy.getCurrentEnvironment();
+                    return current != null && environment.getAppId().equals(current.getAppId());
+                }
+
+            }).get();
+            assertTrue(sameRequest);
+            Thread worker = async.getExecutor().submit(new CurrentThread()).get();
+            assertFalse(worker.getName().startsWith("rackspace-async-"));
+
+            async.shutdown();
+            assertTrue(async.getExecutor().isShutdown());
+            assertTrue(async.getExecutor().awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            helper.tearDown();
+        }
+    }
+
+    @Test
+    public void testDeadlinePropagation() throws Exception {
+        RackspaceCloudClient client = new RackspaceCloudClient(AccountBase.UK, "user", "key");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AsyncRackspaceCloudClient async = new AsyncRackspaceCloudClient(client, executor);
+            Callable<Long> deadline = new Callable<Long>() {
+
+                @Override
+                public Long call() {
+                    return FetchDeadline.get();
+                }
+
+            };
+
+            // The call runs with the deadline of the caller.
+            FetchDeadline.set(10, TimeUnit.SECONDS);
+            long expected = FetchDeadline.get();
+            assertEquals(expected, async.submit(deadline).get().longValue());
+            assertEquals(expected, FetchDeadline.get());
+
+            // The next call on the same worker thread does not inherit it.
+            FetchDeadline.clear();
+            assertEquals(0, async.submit(deadline).get().longValue());
+            long remaining = async.submit(new Callable<Long>() {
+
+                @Override
+                public Long call() {
+                    return FetchDeadline.getRemaining();
+                }
+
+            }).get();
+            assertEquals(-1, remaining);
+        } finally {
+            FetchDeadline.clear();
+            executor.shutdownNow();
+        }
+    }
+
+    private static class CurrentThread implements Callable<Thread> {
+
+        @Override
+        public Thread call() {
+            return Thread.currentThread();
+        }
+
+    }
+
+}
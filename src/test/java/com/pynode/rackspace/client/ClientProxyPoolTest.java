@@ -0,0 +1,116 @@
+package com.pynode.rackspace.client;
+
+import com.pynode.rackspace.client.ClientProxyPool.AccountResources;
+import com.rackspace.cloud.client.Versions;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the reuse of the proxies of a {@link ClientProxyPool}, by one thread and by many
+ * threads at once. The time taken compared to building a new client proxy for every call (the
+ * former behavior of {@code RackspaceCloudClient}) is logged only. No remote calls are made.
+ * @author Christos Fragoulides
+ */
+public class ClientProxyPoolTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClientProxyPoolTest.class);
+
+    private static final URI BASE_URI = URI.create("https://lon.servers.api.rackspacecloud.com");
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 2000;
+
+    public ClientProxyPoolTest() { }
+
+    @Test
+    public void testProxyReuse() throws Exception {
+        RackspaceCloudClient client = new RackspaceCloudClient(AccountBase.UK, "user", "key");
+        ClientProxyPool pool = new ClientProxyPool(client);
+
+        Versions versions = pool.getVersions(BASE_URI);
+        assertSame(versions, pool.getVersions(BASE_URI));
+        assertSame(pool.getAccountResources(BASE_URI, 1L), pool.getAccountResources(BASE_URI, 1L));
+        assertNotSame(pool.getAccountResources(BASE_URI, 1L), pool.getAccountResources(BASE_URI, 2L));
+
+        pool.clear();
+        assertNotSame(versions, pool.getVersions(BASE_URI));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        RackspaceCloudClient client = new RackspaceCloudClient(AccountBase.UK, "user", "key");
+        final ClientProxyPool pool = new ClientProxyPool(client);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            // All the threads ask for the proxies of an account at once.
+            List<Future<AccountResources>> results = new ArrayList<Future<AccountResources>>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(new Callable<AccountResources>() {
+
+                    @Override
+                    public AccountResources call() throws Exception {
+                        start.await();
+                        return pool.getAccountResources(BASE_URI, 1L);
+                    }
+
+                }));
+            }
+            start.countDown();
+
+            // Only one set of proxies survives the race, shared by every thread.
+            AccountResources shared = results.get(0).get();
+            for (Future<AccountResources> result : results) {
+                assertSame(shared, result.get());
+                assertSame(shared.getServersResource(), result.get().getServersResource());
+            }
+            assertSame(shared, pool.getAccountResources(BASE_URI, 1L));
+
+            // Cleared proxies are replaced by new ones.
+            pool.clear();
+            AccountResources replaced = pool.getAccountResources(BASE_URI, 1L);
+            assertNotSame(shared, replaced);
+            assertNotSame(shared.getServersResource(), replaced.getServersResource());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testProxyCreationBenchmark() throws Exception {
+        RackspaceCloudClient client = new RackspaceCloudClient(AccountBase.UK, "user", "key");
+
+        // Warm up class loading and the JIT for both paths.
+        for (int i = 0; i < ITERATIONS / 10; i++) {
+            new ClientProxyPool(client).getAccountResources(BASE_URI, i).getServersResource();
+        }
+
+        // Before: a new factory bean, bus and proxy per call.
+        long unpooled = -System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            new ClientProxyPool(client).getAccountResources(BASE_URI, 1L).getServersResource();
+        }
+        unpooled += System.nanoTime();
+
+        // After: pooled proxies.
+        ClientProxyPool pool = new ClientProxyPool(client);
+        long pooled = -System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            pool.getAccountResources(BASE_URI, 1L).getServersResource();
+        }
+        pooled += System.nanoTime();
+
+        LOGGER.info("Resolved {} resource proxies: unpooled {} usec/call, pooled {} usec/call.",
+                new Object[] {ITERATIONS, unpooled / 1000F / ITERATIONS, pooled / 1000F / ITERATIONS});
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.pynode.rackspace.client;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the decisions of {@link ExponentialBackoffRetryPolicy}.
+ * @author Christos Fragoulides
+ */
+public class ExponentialBackoffRetryPolicyTest {
+
+    private final ExponentialBackoffRetryPolicy policy =
+            new ExponentialBackoffRetryPolicy(4, 100, 1000, 5000);
+
+    public ExponentialBackoffRetryPolicyTest() { }
+
+    @Test
+    public void testRetryableFaults() {
+        assertTrue(policy.getRetryDelay(1, 413, true, 0, 0) >= 0);
+        assertTrue(policy.getRetryDelay(1, 503, true, 0, 0) >= 0);
+        // Over limit requests are rejected before processing, so even POSTs are retried.
+        assertTrue(policy.getRetryDelay(1, 413, false, 0, 0) >= 0);
+        // A POST may have been processed before a 503.
+        assertTrue(policy.getRetryDelay(1, 503, false, 0, 0) < 0);
+        assertTrue(policy.getRetryDelay(1, 404, true, 0, 0) < 0);
+        assertTrue(policy.getRetryDelay(1, 500, true, 0, 0) < 0);
+    }
+
+    @Test
+    public void testBackoff() {
+        for (int attempt = 1; attempt < 4; attempt++) {
+            long delay = policy.getRetryDelay(attempt, 503, true, 0, 0);
+            assertTrue(delay >= 0 && delay <= Math.min(1000, 100 << (attempt - 1)));
+        }
+        assertTrue(policy.getRetryDelay(4, 503, true, 0, 0) < 0);
+    }
+
+    @Test
+    public void testRetryAfterAndDeadline() {
+        assertTrue(policy.getRetryDelay(1, 413, true, 2000, 0) >= 2000);
+        assertTrue(policy.getRetryDelay(1, 413, true, 2000, 4000) < 0);
+        assertTrue(policy.getRetryDelay(1, 413, true, 60000, 0) < 0);
+    }
+
+}
@@ -0,0 +1,186 @@
+package com.pynode.rackspace.client;
+
+import com.rackspace.cloud.api.CloudServersAPIFault;
+import com.rackspace.cloud.api.ObjectFactory;
+import com.rackspace.cloud.api.OverLimitAPIFault;
+import com.rackspace.cloud.api.Server;
+import com.rackspace.cloud.api.Servers;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static org.junit.Assert.*;
+
+/**
+ * Tests marshalling and unmarshalling with {@link JaxbCodec}, and the reuse of marshallers and
+ * unmarshallers by each thread. The time taken compared to creating them per call is logged
+ * only. No remote calls are made.
+ * @author Christos Fragoulides
+ */
+public class JaxbCodecTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JaxbCodecTest.class);
+
+    private static final int ITERATIONS = 2000;
+
+    public JaxbCodecTest() { }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] data = marshal(createServers(3));
+        Servers servers = JaxbCodec.unmarshal(new ByteArrayInputStream(data), Servers.class);
+        assertEquals(3, servers.getServer().size());
+        assertEquals("server-2", servers.getServer().get(2).getName());
+
+        // Faults are unmarshalled as their subtype.
+        OverLimitAPIFault overLimit = new OverLimitAPIFault();
+        overLimit.setCode(413);
+        overLimit.setMessage("Too many requests.");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JaxbCodec.marshal(new ObjectFactory().createOverLimit(overLimit), baos, false);
+        CloudServersAPIFault fault = JaxbCodec.unmarshal(new ByteArrayInputStream(baos.toByteArray()),
+                CloudServersAPIFault.class);
+        assertTrue(fault instanceof OverLimitAPIFault);
+        assertEquals(413, fault.getCode());
+
+        try {
+            JaxbCodec.unmarshal(new ByteArrayInputStream(data), Server.class);
+            fail("Unmarshalled an entity of the wrong type.");
+        } catch (JAXBException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testReusePerThread() throws Exception {
+        byte[] data = marshal(createServers(1));
+        Marshaller marshaller = JaxbCodec.getIdleMarshaller();
+        assertNotNull(marshaller);
+        JaxbCodec.unmarshal(new ByteArrayInputStream(data));
+        Unmarshaller unmarshaller = JaxbCodec.getIdleUnmarshaller();
+        assertNotNull(unmarshaller);
+
+        // Later calls of the thread use the same instances.
+        marshal(createServers(2));
+        JaxbCodec.unmarshal(new ByteArrayInputStream(data));
+        assertSame(marshaller, JaxbCodec.getIdleMarshaller());
+        assertSame(unmarshaller, JaxbCodec.getIdleUnmarshaller());
+
+        // Other threads have their own.
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Marshaller other = executor.submit(new Callable<Marshaller>() {
+
+                @Override
+                public Marshaller call() throws Exception {
+                    assertNull(JaxbCodec.getIdleMarshaller());
+                    marshal(createServers(1));
+                    return JaxbCodec.getIdleMarshaller();
+                }
+
+            }).get();
+            assertNotNull(other);
+            assertNotSame(marshaller, other);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        // Lists of different sizes, so that output mixed up between threads is detected.
+        final List<byte[]> data = new ArrayList<byte[]>();
+        for (int i = 1; i <= 8; i++) data.add(marshal(createServers(i)));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+            for (int i = 0; i < 64; i++) {
+                final byte[] expected = data.get(i % data.size());
+                results.add(executor.submit(new Callable<byte[]>() {
+
+                    @Override
+                    public byte[] call() throws Exception {
+                        Servers servers = JaxbCodec.unmarshal(new ByteArrayInputStream(expected),
+                                Servers.class);
+                        return marshal(servers);
+                    }
+
+                }));
+            }
+            for (int i = 0; i < results.size(); i++)
+                assertTrue(Arrays.equals(data.get(i % data.size()), results.get(i).get()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCodecBenchmark() throws Exception {
+        Servers servers = createServers(2);
+        byte[] data = marshal(servers);
+
+        // Warm up class loading and the JIT for both paths.
+        for (int i = 0; i < ITERATIONS / 10; i++) {
+            before(servers);
+            after(servers);
+        }
+
+        // Before: a new marshaller and unmarshaller per call.
+        long before = -System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) assertEquals(2, before(servers));
+        before += System.nanoTime();
+
+        // After: the instances of the thread are reused.
+        long after = -System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) assertEquals(2, after(servers));
+        after += System.nanoTime();
+
+        LOGGER.info("Round trip of {} bytes: before {} usec/call, after {} usec/call.",
+                new Object[] {data.length, before / 1000F / ITERATIONS, after / 1000F / ITERATIONS});
+    }
+
+    private static int before(Servers servers) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JaxbCodec.getContext().createMarshaller().marshal(new ObjectFactory().createServers(servers), baos);
+        JAXBElement<?> el = (JAXBElement<?>) JaxbCodec.getContext().createUnmarshaller()
+                .unmarshal(new ByteArrayInputStream(baos.toByteArray()));
+        return ((Servers) el.getValue()).getServer().size();
+    }
+
+    private static int after(Servers servers) throws Exception {
+        byte[] data = marshal(servers);
+        return JaxbCodec.unmarshal(new ByteArrayInputStream(data), Servers.class).getServer().size();
+    }
+
+    private static byte[] marshal(Servers servers) throws JAXBException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JaxbCodec.marshal(new ObjectFactory().createServers(servers), baos, false);
+        return baos.toByteArray();
+    }
+
+    private static Servers createServers(int count) {
+        Servers servers = new Servers();
+        for (int i = 0; i < count; i++) {
+            Server server = new Server();
+            server.setId(i);
+            server.setName("server-" + i);
+            server.setImageId(112);
+            server.setFlavorId(1);
+            servers.getServer().add(server);
+        }
+        return servers;
+    }
+
+}
@@ -0,0 +1,331 @@
+package com.pynode.rackspace.client;
+
+import com.rackspace.cloud.api.Address;
+import com.rackspace.cloud.api.AddressList;
+import com.rackspace.cloud.api.Addresses;
+import com.rackspace.cloud.api.BackupSchedule;
+import com.rackspace.cloud.api.CloudServersAPIFault;
+import com.rackspace.cloud.api.DailyBackup;
+import com.rackspace.cloud.api.Flavors;
+import com.rackspace.cloud.api.HTTPVerb;
+import com.rackspace.cloud.api.ImageStatus;
+import com.rackspace.cloud.api.Images;
+import com.rackspace.cloud.api.ItemNotFoundAPIFault;
+import com.rackspace.cloud.api.Limits;
+import com.rackspace.cloud.api.Metadata;
+import com.rackspace.cloud.api.MetadataItem;
+import com.rackspace.cloud.api.ObjectFactory;
+import com.rackspace.cloud.api.OverLimitAPIFault;
+import com.rackspace.cloud.api.RateLimitUnit;
+import com.rackspace.cloud.api.Server;
+import com.rackspace.cloud.api.ServerStatus;
+import com.rackspace.cloud.api.Servers;
+import com.rackspace.cloud.api.SharedIpGroup;
+import com.rackspace.cloud.api.SharedIpGroups;
+import com.rackspace.cloud.api.WeeklyBackup;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static org.junit.Assert.*;
+
+/**
+ * Tests reading the JSON representation of the entities with {@link JsonCodec}, and that large
+ * lists of servers read from JSON and from XML are the same. The time taken by each format is
+ * logged only. No remote calls are made.
+ * @author Christos Fragoulides
+ */
+public class JsonCodecTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JsonCodecTest.class);
+
+    private static final int ITERATIONS = 20;
+
+    public JsonCodecTest() { }
+
+    @Test
+    public void testServers() throws IOException {
+        Servers servers = read("{\"servers\":[{\"id\":1234,\"name\":\"sample-server\",\"imageId\":2,"
+                + "\"flavorId\":1,\"hostId\":\"e4d909c290d0fb1ca068ffaddf22cbd0\",\"status\":\"BUILD\","
+                + "\"progress\":60,\"addresses\":{\"public\":[\"67.23.10.132\",\"67.23.10.131\"],"
+                + "\"private\":[\"10.176.42.16\"]},\"metadata\":{\"Server Label\":\"Web Head 1\","
+                + "\"Image Version\":\"2.1\"},\"unknown\":{\"a\":[1,2]}},"
+                + "{\"id\":5678,\"name\":\"sample-server2\",\"status\":\"NEW_STATUS\","
+                + "\"sharedIpGroupId\":null}]}",
+                Servers.class);
+        assertEquals(2, servers.getServer().size());
+
+        Server server = servers.getServer().get(0);
+        assertEquals(1234, (int) server.getId());
+        assertEquals("sample-server", server.getName());
+        assertEquals(2, (int) server.getImageId());
+        assertEquals(1, (int) server.getFlavorId());
+        assertEquals("e4d909c290d0fb1ca068ffaddf22cbd0", server.getHostId());
+        assertEquals(ServerStatus.BUILD, server.getStatus());
+        assertEquals(60, (int) server.getProgress());
+        assertEquals(2, server.getAddresses().getPublic().getIp().size());
+        assertEquals("67.23.10.131", server.getAddresses().getPublic().getIp().get(1).getAddr());
+        assertEquals("10.176.42.16", server.getAddresses().getPrivate().getIp().get(0).getAddr());
+        assertEquals(2, server.getMetadata().getMeta().size());
+        assertEquals("Server Label", server.getMetadata().getMeta().get(0).getKey());
+        assertEquals("Web Head 1", server.getMetadata().getMeta().get(0).getValue());
+
+        // Unknown values are read as null, as JAXB reads them.
+        server = servers.getServer().get(1);
+        assertEquals("sample-server2", server.getName());
+        assertNull(server.getStatus());
+        assertNull(server.getSharedIpGroupId());
+        assertNull(server.getAddresses());
+
+        Addresses addresses = read("{\"addresses\":{\"public\":[\"67.23.10.132\"],\"private\":[]}}",
+                Addresses.class);
+        assertEquals("67.23.10.132", addresses.getPublic().getIp().get(0).getAddr());
+        assertTrue(addresses.getPrivate().getIp().isEmpty());
+        AddressList publicIps = read("{\"public\":[\"67.23.10.132\"]}", AddressList.class);
+        assertEquals(1, publicIps.getIp().size());
+    }
+
+    @Test
+    public void testEntities() throws IOException {
+        Flavors flavors = read("{\"flavors\":[{\"id\":1,\"name\":\"256 MB Server\",\"ram\":256,"
+                + "\"disk\":10}]}", Flavors.class);
+        assertEquals(1, flavors.getFlavor().get(0).getId());
+        assertEquals(256, (int) flavors.getFlavor().get(0).getRam());
+
+        Images images = read("{\"images\":[{\"id\":2,\"name\":\"CentOS 5.2\",\"serverId\":12,"
+                + "\"updated\":\"2010-10-10T12:00:00Z\",\"created\":\"2010-08-10T12:00:00Z\","
+                + "\"status\":\"SAVING\",\"progress\":80}]}", Images.class);
+        assertEquals(12, (int) images.getImage().get(0).getServerId());
+        assertEquals(ImageStatus.SAVING, images.getImage().get(0).getStatus());
+        assertEquals(2010, images.getImage().get(0).getUpdated().getYear());
+        assertEquals(8, images.getImage().get(0).getCreated().getMonth());
+
+        SharedIpGroups groups = read("{\"sharedIpGroups\":[{\"id\":1234,\"name\":\"Shared IP Group 1\","
+                + "\"servers\":[422,3445]}]}", SharedIpGroups.class);
+        SharedIpGroup group = groups.getSharedIpGroup().get(0);
+        assertEquals("Shared IP Group 1", group.getName());
+        assertEquals(3445, group.getServers().getServer().get(1).getId());
+
+        Limits limits = read("{\"limits\":{\"rate\":[{\"verb\":\"POST\",\"URI\":\"*\",\"regex\":\".*\","
+                + "\"value\":10,\"remaining\":2,\"unit\":\"MINUTE\",\"resetTime\":1244425439}],"
+                + "\"absolute\":{\"maxTotalRAMSize\":51200,\"maxIPGroups\":50}}}", Limits.class);
+        assertEquals(HTTPVerb.POST, limits.getRate().getLimit().get(0).getVerb());
+        assertEquals(RateLimitUnit.MINUTE, limits.getRate().getLimit().get(0).getUnit());
+        assertEquals(2, limits.getRate().getLimit().get(0).getRemaining());
+        assertEquals(1244425439L, limits.getRate().getLimit().get(0).getResetTime());
+        assertEquals(2, limits.getAbsolute().getLimit().size());
+        assertEquals("maxIPGroups", limits.getAbsolute().getLimit().get(1).getName());
+        assertEquals(50, limits.getAbsolute().getLimit().get(1).getValue());
+
+        BackupSchedule schedule = read("{\"backupSchedule\":{\"enabled\":true,\"weekly\":\"THURSDAY\","
+                + "\"daily\":\"H_0400_0600\"}}", BackupSchedule.class);
+        assertTrue(schedule.isEnabled());
+        assertEquals(WeeklyBackup.THURSDAY, schedule.getWeekly());
+        assertEquals(DailyBackup.H_0400_0600, schedule.getDaily());
+
+        // Faults are read as their subtype.
+        CloudServersAPIFault fault = read("{\"itemNotFound\":{\"code\":404,\"message\":\"Not found\","
+                + "\"details\":\"Server 1 does not exist\"}}", CloudServersAPIFault.class);
+        assertTrue(fault instanceof ItemNotFoundAPIFault);
+        assertEquals(404, fault.getCode());
+        assertEquals("Server 1 does not exist", fault.getDetails());
+        fault = read("{\"overLimit\":{\"code\":413,\"message\":\"Too many requests.\","
+                + "\"retryAfter\":\"2010-08-01T00:00:00Z\"}}", CloudServersAPIFault.class);
+        assertEquals(2010, ((OverLimitAPIFault) fault).getRetryAfter().getYear());
+
+        try {
+            read("{\"flavors\":[]}", Servers.class);
+            fail("Read an entity of the wrong type.");
+        } catch (IOException e) {
+            // Expected.
+        }
+        try {
+            read("{\"servers\":{}}", Servers.class);
+            fail("Read a malformed entity.");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testFormatsMatch() throws Exception {
+        Servers servers = createServers(1000);
+        byte[] xml = writeXml(servers);
+        byte[] json = writeJson(servers);
+        assertTrue(json.length < xml.length);
+
+        // Both formats hold the servers written, every field of them.
+        Servers fromXml = JaxbCodec.unmarshal(new ByteArrayInputStream(xml), Servers.class);
+        Servers fromJson = JsonCodec.read(new ByteArrayInputStream(json), Servers.class);
+        assertEquals(servers.getServer().size(), fromXml.getServer().size());
+        assertEquals(servers.getServer().size(), fromJson.getServer().size());
+        for (int i = 0; i < servers.getServer().size(); i++) {
+            assertServerEquals(servers.getServer().get(i), fromXml.getServer().get(i));
+            assertServerEquals(servers.getServer().get(i), fromJson.getServer().get(i));
+        }
+    }
+
+    @Test
+    public void testFormatBenchmark() throws Exception {
+        benchmark(1000);
+        benchmark(5000);
+    }
+
+    private static void benchmark(int count) throws Exception {
+        Servers servers = createServers(count);
+        byte[] xml = writeXml(servers);
+        byte[] json = writeJson(servers);
+
+        // Warm up class loading and the JIT for both formats.
+        for (int i = 0; i < ITERATIONS / 2; i++) {
+            JaxbCodec.unmarshal(new ByteArrayInputStream(xml), Servers.class);
+            JsonCodec.read(new ByteArrayInputStream(json), Servers.class);
+        }
+
+        // Before: XML unmarshalled by JAXB.
+        long before = -System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertEquals(count, JaxbCodec.unmarshal(new ByteArrayInputStream(xml), Servers.class)
+                    .getServer().size());
+        }
+        before += System.nanoTime();
+
+        // After: JSON read by the streaming parser.
+        long after = -System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertEquals(count, JsonCodec.read(new ByteArrayInputStream(json), Servers.class)
+                    .getServer().size());
+        }
+        after += System.nanoTime();
+
+        LOGGER.info("{} servers: XML {} bytes in {} msec, JSON {} bytes in {} msec.",
+                new Object[] {count, xml.length, before / 1000000F / ITERATIONS, json.length,
+                    after / 1000000F / ITERATIONS});
+    }
+
+    private static void assertServerEquals(Server expected, Server actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getImageId(), actual.getImageId());
+        assertEquals(expected.getFlavorId(), actual.getFlavorId());
+        assertEquals(expected.getHostId(), actual.getHostId());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getProgress(), actual.getProgress());
+        assertAddressesEqual(expected.getAddresses().getPublic().getIp(),
+                actual.getAddresses().getPublic().getIp());
+        assertAddressesEqual(expected.getAddresses().getPrivate().getIp(),
+                actual.getAddresses().getPrivate().getIp());
+        List<MetadataItem> meta = actual.getMetadata().getMeta();
+        assertEquals(expected.getMetadata().getMeta().size(), meta.size());
+        for (int i = 0; i < meta.size(); i++) {
+            assertEquals(expected.getMetadata().getMeta().get(i).getKey(), meta.get(i).getKey());
+            assertEquals(expected.getMetadata().getMeta().get(i).getValue(), meta.get(i).getValue());
+        }
+    }
+
+    private static void assertAddressesEqual(List<Address> expected, List<Address> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(expected.get(i).getAddr(), actual.get(i).getAddr());
+        }
+    }
+
+    private static <T> T read(String json, Class<T> type) throws IOException {
+        return JsonCodec.read(new ByteArrayInputStream(json.getBytes("UTF-8")), type);
+    }
+
+    private static byte[] writeXml(Servers servers) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JaxbCodec.marshal(new ObjectFactory().createServers(servers), baos, false);
+        return baos.toByteArray();
+    }
+
+    /** Writes servers the way the API does. */
+    private static byte[] writeJson(Servers servers) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JsonGenerator g = JsonCodec.getFactory().createJsonGenerator(baos, JsonEncoding.UTF8);
+        g.writeStartObject();
+        g.writeArrayFieldStart("servers");
+        for (Server server : servers.getServer()) {
+            g.writeStartObject();
+            g.writeNumberField("id", server.getId());
+            g.writeStringField("name", server.getName());
+            g.writeNumberField("imageId", server.getImageId());
+            g.writeNumberField("flavorId", server.getFlavorId());
+            g.writeStringField("hostId", server.getHostId());
+            g.writeStringField("status", server.getStatus().value());
+            g.writeNumberField("progress", server.getProgress());
+            g.writeObjectFieldStart("addresses");
+            g.writeArrayFieldStart("public");
+            for (Address address : server.getAddresses().getPublic().getIp()) {
+                g.writeString(address.getAddr());
+            }
+            g.writeEndArray();
+            g.writeArrayFieldStart("private");
+            for (Address address : server.getAddresses().getPrivate().getIp()) {
+                g.writeString(address.getAddr());
+            }
+            g.writeEndArray();
+            g.writeEndObject();
+            g.writeObjectFieldStart("metadata");
+            for (MetadataItem item : server.getMetadata().getMeta()) {
+                g.writeStringField(item.getKey(), item.getValue());
+            }
+            g.writeEndObject();
+            g.writeEndObject();
+        }
+        g.writeEndArray();
+        g.writeEndObject();
+        g.close();
+        return baos.toByteArray();
+    }
+
+    /** Servers as listed in detail by the API. */
+    private static Servers createServers(int count) {
+        Servers servers = new Servers();
+        for (int i = 0; i < count; i++) {
+            Server server = new Server();
+            server.setId(100000 + i);
+            server.setName("web-server-" + i);
+            server.setImageId(112);
+            server.setFlavorId(1 + i % 7);
+            server.setHostId("e4d909c290d0fb1ca068ffaddf22cb" + Integer.toHexString(i % 256));
+            server.setStatus(i % 10 == 0 ? ServerStatus.BUILD : ServerStatus.ACTIVE);
+            server.setProgress(i % 10 == 0 ? 60 : 100);
+
+            Addresses addresses = new Addresses();
+            addresses.setPublic(new AddressList());
+            addresses.getPublic().getIp().add(address("67.23." + (i / 256) % 256 + "." + i % 256));
+            addresses.getPublic().getIp().add(address("67.24." + (i / 256) % 256 + "." + i % 256));
+            addresses.setPrivate(new AddressList());
+            addresses.getPrivate().getIp().add(address("10.176." + (i / 256) % 256 + "." + i % 256));
+            server.setAddresses(addresses);
+
+            Metadata metadata = new Metadata();
+            metadata.getMeta().add(meta("Server Label", "Web Head " + i));
+            metadata.getMeta().add(meta("Image Version", "2." + i % 4));
+            server.setMetadata(metadata);
+            servers.getServer().add(server);
+        }
+        return servers;
+    }
+
+    private static Address address(String addr) {
+        Address address = new Address();
+        address.setAddr(addr);
+        return address;
+    }
+
+    private static MetadataItem meta(String key, String value) {
+        MetadataItem item = new MetadataItem();
+        item.setKey(key);
+        item.setValue(value);
+        return item;
+    }
+
+}
@@ -0,0 +1,254 @@
+package com.pynode.rackspace.client;
+
+import com.rackspace.cloud.api.HTTPVerb;
+import com.rackspace.cloud.api.Limits;
+import com.rackspace.cloud.api.RateLimit;
+import com.rackspace.cloud.api.RateLimitUnit;
+import com.rackspace.cloud.api.RateLimits;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link RateLimiter} against a fixed set of limits. No remote calls are made.
+ * @author Christos Fragoulides
+ */
+public class RateLimiterTest {
+
+    public RateLimiterTest() { }
+
+    @Test
+    public void testFailFast() throws Exception {
+        RateLimiter limiter = createLimiter(RateLimiter.Mode.FAIL_FAST);
+
+        limiter.acquire(HTTPVerb.POST, "/servers");
+        limiter.acquire(HTTPVerb.POST, "/servers/1/action");
+        try {
+            limiter.acquire(HTTPVerb.POST, "/servers");
+            fail("Rate limit not enforced.");
+        } catch (RackspaceCloudClientException e) {
+            // Expected.
+        }
+        // Other verbs are not affected.
+        limiter.acquire(HTTPVerb.GET, "/servers/detail");
+
+        for (RateLimiter.BucketState state : limiter.getBucketStates()) {
+            if (state.getVerb() == HTTPVerb.POST && ".*".equals(state.getRegex())) {
+                assertEquals(2, state.getAcquired());
+                assertEquals(1, state.getRejected());
+            }
+        }
+    }
+
+    @Test
+    public void testBlocking() throws Exception {
+        RateLimiter limiter = createLimiter(RateLimiter.Mode.BLOCKING);
+        limiter.setMaxWait(50);
+
+        limiter.acquire(HTTPVerb.DELETE, "/servers/1");
+        try {
+            // The next token is more than a second away.
+            limiter.acquire(HTTPVerb.DELETE, "/servers/1");
+            fail("Maximum wait not enforced.");
+        } catch (RackspaceCloudClientException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testPacingDelay() throws Exception {
+        RateLimiter limiter = createLimiter(RateLimiter.Mode.FAIL_FAST);
+        // Half full or more, no delay.
+        assertEquals(0, limiter.getPacingDelay(HTTPVerb.GET, "/servers/detail?changes-since=0"));
+        // Two of ten left, spaced at the refill rate of ten per minute.
+        long delay = limiter.getPacingDelay(HTTPVerb.POST, "/servers");
+        assertTrue(delay > 5000 && delay <= 6000);
+        // Empty, delayed until a token is available.
+        limiter.acquire(HTTPVerb.DELETE, "/servers/1");
+        delay = limiter.getPacingDelay(HTTPVerb.DELETE, "/servers/1");
+        assertTrue(delay > 5000 && delay <= 6000);
+    }
+
+    @Test
+    public void testWaitTime() throws Exception {
+        RateLimiter limiter = createLimiter(RateLimiter.Mode.FAIL_FAST);
+        assertEquals(0, limiter.getWaitTime(HTTPVerb.DELETE, "/servers/1"));
+        limiter.acquire(HTTPVerb.DELETE, "/servers/1");
+        assertTrue(limiter.getWaitTime(HTTPVerb.DELETE, "/servers/1") > 5000);
+    }
+
+    @Test(timeout = 5000)
+    public void testLimitAllowingNoCalls() throws Exception {
+        RateLimiter limiter = createLimiter(RateLimiter.Mode.BLOCKING);
+        Limits limits = new Limits();
+        limits.setRate(new RateLimits());
+        limits.getRate().getLimit().add(createLimit(HTTPVerb.PUT, "*", ".*", 0, 0));
+        limiter.sync(limits);
+
+        // Fails right away instead of waiting for a token that never comes.
+        try {
+            limiter.acquire(HTTPVerb.PUT, "/servers/1");
+            fail("Call allowed by a limit of zero calls.");
+        } catch (RackspaceCloudClientException e) {
+            // Expected.
+        }
+        assertEquals(1, limiter.getBucketStates().get(0).getRejected());
+
+        // Delays are capped to the time until the limits are synchronized again.
+        assertEquals(limiter.getSyncInterval(), limiter.getWaitTime(HTTPVerb.PUT, "/servers/1"));
+        assertEquals(limiter.getSyncInterval(), limiter.getPacingDelay(HTTPVerb.PUT, "/servers/1"));
+    }
+
+    @Test
+    public void testReserve() throws Exception {
+        RateLimiter limiter = createLimiter(RateLimiter.Mode.FAIL_FAST);
+
+        limiter.reserve(HTTPVerb.DELETE, "/servers/1");
+        // The next matching call uses the reserved token.
+        limiter.acquire(HTTPVerb.DELETE, "/servers/1");
+        try {
+            limiter.acquire(HTTPVerb.DELETE, "/servers/1");
+            fail("Reserved token used twice.");
+        } catch (RackspaceCloudClientException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testCancelReservation() throws Exception {
+        RateLimiter limiter = createLimiter(RateLimiter.Mode.FAIL_FAST);
+
+        // A reservation not used, such as for a call answered from the cache, is cancelled.
+        limiter.reserve(HTTPVerb.DELETE, "/servers/1");
+        limiter.cancelReservation();
+        try {
+            limiter.acquire(HTTPVerb.DELETE, "/servers/1");
+            fail("Cancelled reservation used.");
+        } catch (RackspaceCloudClientException e) {
+            // Expected.
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testConcurrentReserve() throws Exception {
+        final RateLimiter limiter = createLimiter(RateLimiter.Mode.FAIL_FAST);
+        Limits limits = new Limits();
+        limits.setRate(new RateLimits());
+        // A token every 100 msec, none available.
+        limits.getRate().getLimit().add(createLimit(HTTPVerb.PUT, "*", ".*", 600, 0));
+        limiter.sync(limits);
+
+        // Callers wait for distinct tokens even in fail fast mode, instead of being rejected.
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 4; i++) {
+                final String path = "/servers/" + i;
+                results.add(executor.submit(new Callable<Object>() {
+
+                    @Override
+                    public Object call() throws Exception {
+                        limiter.reserve(HTTPVerb.PUT, path);
+                        limiter.acquire(HTTPVerb.PUT, path);
+                        return null;
+                    }
+
+                }));
+            }
+            for (Future<Object> result : results) result.get();
+        } finally {
+            executor.shutdown();
+        }
+        RateLimiter.BucketState state = limiter.getBucketStates().get(0);
+        assertEquals(4, state.getAcquired());
+        assertEquals(0, state.getRejected());
+        assertEquals(4, state.getThrottled());
+    }
+
+    @Test(timeout = 5000)
+    public void testConcurrentFirstCalls() throws Exception {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RackspaceCloudClient client = new RackspaceCloudClient(AccountBase.UK, "user", "key") {
+
+            @Override
+            Limits fetchLimits() {
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                Limits limits = new Limits();
+                limits.setRate(new RateLimits());
+                limits.getRate().getLimit().add(createLimit(HTTPVerb.POST, "*", ".*", 10, 1));
+                return limits;
+            }
+
+        };
+        final RateLimiter limiter = new RateLimiter(client, RateLimiter.Mode.FAIL_FAST);
+        Callable<Boolean> call = new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() {
+                try {
+                    limiter.acquire(HTTPVerb.POST, "/servers");
+                    return true;
+                } catch (RackspaceCloudClientException e) {
+                    return false;
+                }
+            }
+
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            results.add(executor.submit(call));
+            loading.await();
+            // Calls made while the limits are loading wait for them.
+            for (int i = 0; i < 3; i++) results.add(executor.submit(call));
+            Thread.sleep(100);
+            for (Future<Boolean> result : results) assertFalse(result.isDone());
+            release.countDown();
+
+            int allowed = 0;
+            for (Future<Boolean> result : results) if (result.get()) allowed++;
+            assertEquals(1, allowed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private RateLimiter createLimiter(RateLimiter.Mode mode) {
+        RackspaceCloudClient client = new RackspaceCloudClient(AccountBase.UK, "user", "key");
+        RateLimiter limiter = new RateLimiter(client, mode);
+
+        Limits limits = new Limits();
+        limits.setRate(new RateLimits());
+        limits.getRate().getLimit().add(createLimit(HTTPVerb.POST, "*", ".*", 10, 2));
+        limits.getRate().getLimit().add(createLimit(HTTPVerb.POST, "/servers", "^/servers", 50, 50));
+        limits.getRate().getLimit().add(createLimit(HTTPVerb.DELETE, "*", ".*", 10, 1));
+        limiter.sync(limits);
+
+        return limiter;
+    }
+
+    private RateLimit createLimit(HTTPVerb verb, String uri, String regex, int value, int remaining) {
+        RateLimit limit = new RateLimit();
+        limit.setVerb(verb);
+        limit.setURI(uri);
+        limit.setRegex(regex);
+        limit.setUnit(RateLimitUnit.MINUTE);
+        limit.setValue(value);
+        limit.setRemaining(remaining);
+        return limit;
+    }
+
+}
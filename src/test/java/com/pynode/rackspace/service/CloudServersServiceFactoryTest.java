@@ -0,0 +1,98 @@
+package com.pynode.rackspace.service;
+
+import com.pynode.rackspace.client.AccountBase;
+import com.pynode.rackspace.service.CloudServersServiceFactory.ServiceSetting;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests sharing and evicting the services created by the factory.
+ * @author Christos Fragoulides
+ */
+public class CloudServersServiceFactoryTest {
+
+    public CloudServersServiceFactoryTest() { }
+
+    @After
+    public void tearDown() {
+        CloudServersServiceFactory.setMaxIdleTime(0);
+        CloudServersServiceFactory.closeAll();
+    }
+
+    @Test
+    public void testSharing() {
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put(ServiceSetting.CLIENT_POLL_INTERVAL.name(), 1000L);
+        CloudServersService service = CloudServersServiceFactory.getService(AccountBase.UK, "user", "key",
+                settings);
+        assertSame(service, CloudServersServiceFactory.getService(AccountBase.UK, "user", "key",
+                new HashMap<String, Object>(settings)));
+
+        // Changing the caller's map does not affect the service already created.
+        settings.put(ServiceSetting.CLIENT_POLL_INTERVAL.name(), 2000L);
+        CloudServersService other = CloudServersServiceFactory.getService(AccountBase.UK, "user", "key",
+                settings);
+        assertNotSame(service, other);
+
+        assertNotSame(service, CloudServersServiceFactory.getService(AccountBase.US, "user", "key"));
+        assertNotSame(CloudServersServiceFactory.getService(AccountBase.UK, "user", "key"),
+                CloudServersServiceFactory.getService(AccountBase.UK, "key", "user"));
+        assertEquals(5, CloudServersServiceFactory.getServiceCount());
+    }
+
+    @Test
+    public void testConcurrentCreation() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<CloudServersService>> results = new ArrayList<Future<CloudServersService>>();
+            for (int i = 0; i < 16; i++) {
+                results.add(executor.submit(new Callable<CloudServersService>() {
+
+                    @Override
+                    public CloudServersService call() throws Exception {
+                        start.await();
+                        return CloudServersServiceFactory.getService(AccountBase.US, "user", "key");
+                    }
+
+                }));
+            }
+            start.countDown();
+            CloudServersService service = results.get(0).get();
+            for (Future<CloudServersService> result : results) assertSame(service, result.get());
+            assertEquals(1, CloudServersServiceFactory.getServiceCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        CloudServersService service = CloudServersServiceFactory.getService(AccountBase.UK, "user", "key");
+        assertEquals(0, CloudServersServiceFactory.evictIdleServices(60000));
+        assertSame(service, CloudServersServiceFactory.getService(AccountBase.UK, "user", "key"));
+
+        Thread.sleep(20);
+        assertEquals(1, CloudServersServiceFactory.evictIdleServices(10));
+        assertEquals(0, CloudServersServiceFactory.getServiceCount());
+        assertNotSame(service, CloudServersServiceFactory.getService(AccountBase.UK, "user", "key"));
+
+        // Idle services are swept while others are requested.
+        CloudServersServiceFactory.setMaxIdleTime(10);
+        Thread.sleep(20);
+        CloudServersService other = CloudServersServiceFactory.getService(AccountBase.US, "user", "key");
+        assertEquals(1, CloudServersServiceFactory.getServiceCount());
+        assertSame(other, CloudServersServiceFactory.getService(AccountBase.US, "user", "key"));
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.pynode.rackspace.service.impl;
+
+import com.pynode.rackspace.client.AccountBase;
+import com.pynode.rackspace.client.RackspaceCloudClient;
+import com.pynode.rackspace.client.RackspaceCloudClientException;
+import com.pynode.rackspace.service.BulkResult;
+import com.pynode.rackspace.service.ChangeListener;
+import com.pynode.rackspace.service.NotifyEvent;
+import com.rackspace.cloud.api.Server;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests applying operations to many servers at once.
+ * @author Christos Fragoulides
+ */
+public class BulkOperationTest {
+
+    private RackspaceCloudClient client;
+    private ExecutorService executor;
+
+    public BulkOperationTest() { }
+
+    @Before
+    public void setUp() {
+        client = new RackspaceCloudClient(AccountBase.UK, "user", "key");
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRun() {
+        List<Server> servers = JaxbCopierTest.createServers(20).getServer();
+        TestOperation operation = new TestOperation();
+        final ConcurrentLinkedQueue<NotifyEvent<Server>> events =
+                new ConcurrentLinkedQueue<NotifyEvent<Server>>();
+
+        BulkResult<Server> result = operation.run(servers, executor, 4, new ChangeListener<Server>() {
+
+            @Override
+            public void notify(NotifyEvent<Server> event) {
+                events.add(event);
+            }
+
+        });
+
+        assertEquals(20, result.size());
+        assertFalse(result.isSuccessful());
+        assertEquals(16, result.getSucceeded().size());
+        assertEquals(4, result.getFailed().size());
+        for (Server s : result.getFailed().keySet()) assertEquals(0, s.getId() % 5);
+        // Failed calls are timed as well.
+        assertEquals(20, result.getDurations().size());
+        for (Server s : servers) assertTrue(result.getDuration(s) >= 10);
+
+        assertEquals(20, events.size());
+        int errors = 0;
+        for (NotifyEvent<Server> event : events) if (event.isError()) errors++;
+        assertEquals(4, errors);
+
+        assertTrue("Parallelism not bounded.", operation.maxActive.get() <= 4);
+        assertTrue("Entities not processed concurrently.", operation.maxActive.get() > 1);
+    }
+
+    @Test
+    public void testRunSerially() {
+        List<Server> servers = JaxbCopierTest.createServers(5).getServer();
+        TestOperation operation = new TestOperation();
+
+        BulkResult<Server> result = operation.run(servers, null, 4, null);
+        assertEquals(4, result.getSucceeded().size());
+        assertEquals(1, operation.maxActive.get());
+        // Completed in order.
+        assertEquals(1, (int) result.getSucceeded().get(0).getId());
+        assertEquals(4, (int) result.getSucceeded().get(3).getId());
+    }
+
+    @Test
+    public void testListenerFailure() {
+        List<Server> servers = JaxbCopierTest.createServers(3).getServer();
+        ChangeListener<Server> listener = new ChangeListener<Server>() {
+
+            @Override
+            public void notify(NotifyEvent<Server> event) {
+                throw new IllegalStateException("Listener failure.");
+            }
+
+        };
+        BulkResult<Server> result = new TestOperation().run(servers, executor, 2, listener);
+        assertEquals(3, result.size());
+    }
+
+    @Test
+    public void testUnexpectedFailure() {
+        List<Server> servers = JaxbCopierTest.createServers(5).getServer();
+        final AtomicInteger errors = new AtomicInteger();
+        ChangeListener<Server> listener = new ChangeListener<Server>() {
+
+            @Override
+            public void notify(NotifyEvent<Server> event) {
+                if (event.isError()) errors.incrementAndGet();
+            }
+
+        };
+        TestOperation operation = new TestOperation() {
+
+            @Override
+            void apply(Server s) throws RackspaceCloudClientException {
+                if (s.getId() == 2) throw new IllegalStateException("Unexpected " + s.getId());
+                super.apply(s);
+            }
+
+        };
+
+        BulkResult<Server> result = operation.run(servers, null, 1, listener);
+        assertEquals(5, result.size());
+        assertEquals(3, result.getSucceeded().size());
+        assertEquals(2, result.getFailed().size());
+        RackspaceCloudClientException failure = result.getFailed().get(servers.get(2));
+        assertNotNull(failure);
+        assertTrue(failure.getCause() instanceof IllegalStateException);
+        assertEquals(2, errors.get());
+    }
+
+    /**
+     * Fails for every fifth server, tracking the number of servers processed concurrently.
+     */
+    private class TestOperation extends BulkOperation<Server> {
+
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+
+        TestOperation() {
+            super(client);
+        }
+
+        @Override
+        void apply(Server s) throws RackspaceCloudClientException {
+            int current = active.incrementAndGet();
+            try {
+                int max;
+                while (current > (max = maxActive.get()) && !maxActive.compareAndSet(max, current)) { }
+                Thread.sleep(20);
+                if (s.getId() % 5 == 0) throw new RackspaceCloudClientException("Failed " + s.getId());
+            } catch (InterruptedException e) {
+                throw new RackspaceCloudClientException(e);
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        String getPath(Server s) {
+            return "/servers/" + s.getId() + "/action";
+        }
+
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.pynode.rackspace.service.impl;
+
+import com.rackspace.cloud.api.RebootType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Regression tests for the keys of cached responses. Keys used to be the sum of the hash
+ * codes of the method signature and the arguments, so calls with swapped arguments shared
+ * the same cached response.
+ * @author Christos Fragoulides
+ */
+public class CacheKeyTest {
+
+    private static final String ACCOUNT = "UK:user";
+    private static final String LIST_SERVERS = "public com.rackspace.cloud.api.Servers "
+            + "com.pynode.rackspace.client.RackspaceCloudClient.listServers(java.lang.Long, "
+            + "java.lang.Long, java.lang.Long)";
+
+    public CacheKeyTest() { }
+
+    @Test
+    public void testSwappedArguments() {
+        CacheKey page1 = new CacheKey(ACCOUNT, LIST_SERVERS, new Object[] {null, 1L, 2L});
+        CacheKey page2 = new CacheKey(ACCOUNT, LIST_SERVERS, new Object[] {null, 2L, 1L});
+        assertFalse(page1.equals(page2));
+        assertFalse(page1.hashCode() == page2.hashCode());
+
+        CacheKey nullOffset = new CacheKey(ACCOUNT, LIST_SERVERS, new Object[] {null, null, 3L});
+        CacheKey nullLimit = new CacheKey(ACCOUNT, LIST_SERVERS, new Object[] {null, 3L, null});
+        assertFalse(nullOffset.equals(nullLimit));
+    }
+
+    @Test
+    public void testAccountIdentity() {
+        CacheKey key = new CacheKey(ACCOUNT, LIST_SERVERS, new Object[] {null, null, null});
+        CacheKey other = new CacheKey("US:user", LIST_SERVERS, new Object[] {null, null, null});
+        assertFalse(key.equals(other));
+        assertEquals(key, new CacheKey(ACCOUNT, LIST_SERVERS, new Object[] {null, null, null}));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        CacheKey key = new CacheKey(ACCOUNT, LIST_SERVERS, new Object[] {1L, RebootType.HARD, null});
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(baos);
+        out.writeObject(key);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        CacheKey copy = (CacheKey) in.readObject();
+        in.close();
+
+        assertEquals(key, copy);
+        assertEquals(key.hashCode(), copy.hashCode());
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.pynode.rackspace.service.impl;
+
+import com.pynode.rackspace.client.AccountBase;
+import com.pynode.rackspace.client.RackspaceCloudClient;
+import com.pynode.rackspace.client.RackspaceCloudClientException;
+import com.pynode.rackspace.service.EntityList;
+import com.rackspace.cloud.api.Server;
+import com.rackspace.cloud.api.ServerStatus;
+import com.rackspace.cloud.api.Servers;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests loading, looking up and synchronizing entity catalogs.
+ * @author Christos Fragoulides
+ */
+public class EntityCatalogTest {
+
+    private TestServersDescriptor descriptor;
+    private EntityCatalog<Server, Servers> catalog;
+    private int loads;
+
+    public EntityCatalogTest() { }
+
+    @Before
+    public void setUp() {
+        RackspaceCloudClient client = new RackspaceCloudClient(AccountBase.UK, "user", "key");
+        descriptor = new TestServersDescriptor();
+        loads = 0;
+        catalog = new EntityCatalog<Server, Servers>(client, descriptor, null, 1000) {
+
+            @Override
+            protected Servers fetchList() throws RackspaceCloudClientException {
+                loads++;
+                // Out of order, to be sorted by the catalog.
+                Servers result = JaxbCopierTest.createServers(5);
+                result.getServer().add(result.getServer().remove(0));
+                return result;
+            }
+
+        };
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        assertEquals(0, catalog.getLastModified());
+        Server server = catalog.get(3);
+        assertEquals(3, (int) server.getId());
+        assertEquals(1, loads);
+        assertEquals(5, catalog.size());
+        assertNull(catalog.get(7));
+        assertNull(catalog.get(-1));
+
+        // Copies are handed out.
+        server.setStatus(ServerStatus.ERROR);
+        assertEquals(ServerStatus.ACTIVE, catalog.get(3).getStatus());
+        assertNotSame(catalog.get(3), catalog.get(3));
+
+        // Current, no remote calls.
+        for (int i = 0; i < 5; i++) assertNotNull(catalog.get(i));
+        assertEquals(1, loads);
+        assertEquals(0, descriptor.changeRequests);
+    }
+
+    @Test
+    public void testSync() throws Exception {
+        catalog.get(0);
+        long loaded = catalog.getLastModified();
+
+        Server deleted = new Server();
+        deleted.setId(1);
+        deleted.setStatus(ServerStatus.DELETED);
+        descriptor.changes.getServer().add(deleted);
+        Server added = JaxbCopierTest.createServers(8).getServer().get(7);
+        descriptor.changes.getServer().add(added);
+
+        // Outdated contents are served while synchronizing.
+        catalog.setSyncInterval(1);
+        Thread.sleep(5);
+        assertNotNull(catalog.get(1));
+        assertEquals(1, descriptor.changeRequests);
+        assertEquals(Math.max(loaded - 1000, 0) / 1000, descriptor.changesSince);
+        assertTrue(catalog.getLastModified() > loaded);
+
+        catalog.setSyncInterval(60000);
+        assertNull(catalog.get(1));
+        assertNotNull(catalog.get(7));
+        assertEquals(5, catalog.size());
+        assertEquals(1, loads);
+        assertEquals(1, catalog.getSyncCount());
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        catalog.get(0);
+        Server changed = JaxbCopierTest.createServers(3).getServer().get(2);
+        changed.setStatus(ServerStatus.REBOOT);
+        catalog.update(changed);
+        assertEquals(ServerStatus.REBOOT, catalog.get(2).getStatus());
+        assertEquals(0, descriptor.changeRequests);
+    }
+
+    @Test
+    public void testDeltaList() throws Exception {
+        catalog.get(0);
+        long loaded = catalog.getLastModified();
+        // Changes made before the catalog was loaded are not known.
+        assertNull(catalog.createDeltaList(loaded - 1, 0, 0));
+        assertFalse(catalog.createDeltaList(loaded, 0, 0).hasNext());
+
+        Thread.sleep(5);
+        long since = System.currentTimeMillis();
+        Server changed = JaxbCopierTest.createServers(4).getServer().get(3);
+        changed.setStatus(ServerStatus.REBOOT);
+        Server deleted = new Server();
+        deleted.setId(1);
+        deleted.setStatus(ServerStatus.DELETED);
+        catalog.update(changed);
+        catalog.update(deleted);
+
+        EntityList<Server> list = catalog.createDeltaList(since, 0, 0);
+        Server server = list.next();
+        assertEquals(1, (int) server.getId());
+        assertEquals(ServerStatus.DELETED, server.getStatus());
+        server = list.next();
+        assertEquals(3, (int) server.getId());
+        assertEquals(ServerStatus.REBOOT, server.getStatus());
+        assertFalse(list.hasNext());
+
+        list = catalog.createDeltaList(since, 1, 1);
+        assertEquals(3, (int) list.next().getId());
+        assertFalse(list.hasNext());
+
+        assertNull(catalog.get(1));
+        assertEquals(4, catalog.size());
+        assertEquals(1, loads);
+        assertEquals(0, descriptor.changeRequests);
+    }
+
+    @Test
+    public void testLists() throws Exception {
+        EntityList<Server> list = catalog.createList(0, 0);
+        for (int i = 0; i < 5; i++) assertEquals(i, (int) list.next().getId());
+        assertFalse(list.hasNext());
+
+        list = catalog.createList(3, 10);
+        assertEquals(3, (int) list.next().getId());
+        assertEquals(4, (int) list.next().getId());
+        assertFalse(list.hasNext());
+
+        list = catalog.createList(1, 1);
+        assertEquals(1, (int) list.next().getId());
+        assertFalse(list.hasNext());
+
+        assertTrue(catalog.createList(5, 0).isEmpty());
+        assertEquals(1, loads);
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.pynode.rackspace.service.impl;
+
+import com.pynode.rackspace.service.impl.CloudServersServiceImpl.CachableResponse;
+import com.pynode.rackspace.service.utils.BoundedStateManager;
+import com.rackspace.cloud.api.Server;
+import com.rackspace.cloud.api.ServerStatus;
+import com.rackspace.cloud.api.Servers;
+import java.io.ByteArrayInputStream;
+import java.io.ObjectInputStream;
+import java.util.concurrent.ConcurrentMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests merging {@code changes-since} deltas into outdated lists, and keeping those lists.
+ * @author Christos Fragoulides
+ */
+public class EntityListDescriptorTest {
+
+    public EntityListDescriptorTest() { }
+
+    @Test
+    public void testServersMerge() {
+        Servers cached = JaxbCopierTest.createServers(3);
+
+        Servers changes = new Servers();
+        Server changed = new Server();
+        changed.setId(1);
+        changed.setName("renamed");
+        changed.setStatus(ServerStatus.REBOOT);
+        changes.getServer().add(changed);
+        Server deleted = new Server();
+        deleted.setId(2);
+        deleted.setStatus(ServerStatus.DELETED);
+        changes.getServer().add(deleted);
+        Server added = new Server();
+        added.setId(3);
+        added.setName("server-3");
+        added.setStatus(ServerStatus.BUILD);
+        changes.getServer().add(added);
+
+        Servers merged = (Servers) EntityListDescriptor.SERVERS.merge(cached, changes);
+
+        assertEquals(3, merged.getServer().size());
+        assertEquals(0, merged.getServer().get(0).getId().intValue());
+        assertEquals("renamed", merged.getServer().get(1).getName());
+        assertEquals(ServerStatus.REBOOT, merged.getServer().get(1).getStatus());
+        assertEquals(3, merged.getServer().get(2).getId().intValue());
+    }
+
+    @Test
+    public void testNoChanges() {
+        Servers cached = JaxbCopierTest.createServers(3);
+        assertSame(cached, EntityListDescriptor.SERVERS.merge(cached, new Servers()));
+        assertEquals(3, cached.getServer().size());
+    }
+
+    @Test
+    public void testDescribedMethods() {
+        assertSame(EntityListDescriptor.SERVERS, EntityListDescriptor.forMethod("listServersDetail"));
+        assertSame(EntityListDescriptor.IMAGES, EntityListDescriptor.forMethod("listImagesDetail"));
+        // Summary lists do not carry the status needed to tell deletions.
+        assertNull(EntityListDescriptor.forMethod("listServers"));
+    }
+
+    @Test
+    public void testRevalidatableCalls() {
+        assertTrue(EntityListDescriptor.isRevalidatable("listServersDetail", new Object[3]));
+        assertTrue(EntityListDescriptor.isRevalidatable("listImagesDetail", new Object[3]));
+        // Pages and lists of changes can not be brought up to date with a delta.
+        Object[] page = {null, 0L, 10L};
+        Object[] changes = {1000L, null, null};
+        assertFalse(EntityListDescriptor.isRevalidatable("listServersDetail", page));
+        assertFalse(EntityListDescriptor.isRevalidatable("listServersDetail", changes));
+        assertFalse(EntityListDescriptor.isRevalidatable("listServers", new Object[3]));
+    }
+
+    @Test
+    public void testOutdatedListRetained() {
+        // Configured as by the service, expiring entries along with the cache timeout and grace.
+        long cacheTTL = 30000;
+        BoundedStateManager manager = new BoundedStateManager(100000, cacheTTL + 5000);
+        ConcurrentMap<Object, Object> state = manager.getState();
+
+        long outdated = System.currentTimeMillis() - 2 * cacheTTL;
+        state.putIfAbsent("list", new CachableResponse(new byte[100], outdated,
+                EntityListDescriptor.RETENTION_TIME));
+        state.putIfAbsent("server", new CachableResponse(new byte[100], outdated, 0));
+
+        // The list is still available to be revalidated, the single server is not.
+        assertNotNull(state.get("list"));
+        assertNull(state.get("server"));
+
+        long expired = System.currentTimeMillis() - EntityListDescriptor.RETENTION_TIME;
+        assertTrue(state.replace("list", state.get("list"), new CachableResponse(new byte[100], expired,
+                EntityListDescriptor.RETENTION_TIME)));
+        assertNull(state.get("list"));
+    }
+
+    @Test
+    public void testStoredResponseCompatibility() throws Exception {
+        // A response of three bytes, serialized before the retention time was added.
+        String stored = "aced00057372004a636f6d2e70796e6f64652e7261636b73706163652e736572766963652e696d70"
+                + "6c2e436c6f75645365727665727353657276696365496d706c244361636861626c65526573706f6e"
+                + "73656bf4ce33fe6d5a380200024a000974696d655374616d705b0004646174617400025b42787000"
+                + "00012eae09c800757200025b42acf317f8060854e0020000787000000003010203";
+        byte[] data = new byte[stored.length() / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) Integer.parseInt(stored.substring(2 * i, 2 * i + 2), 16);
+        }
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+        CachableResponse response = (CachableResponse) in.readObject();
+        assertEquals(1300000000000L, response.getTimeStamp());
+        assertArrayEquals(new byte[] {1, 2, 3}, response.getData());
+        assertEquals(0, response.getRetentionTime());
+    }
+
+}
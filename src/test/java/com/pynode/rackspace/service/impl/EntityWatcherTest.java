@@ -0,0 +1,274 @@
+package com.pynode.rackspace.service.impl;
+
+import com.pynode.rackspace.client.AccountBase;
+import com.pynode.rackspace.client.RackspaceCloudClient;
+import com.pynode.rackspace.client.RackspaceCloudClientException;
+import com.pynode.rackspace.service.ChangeListener;
+import com.pynode.rackspace.service.NotifyEvent;
+import com.pynode.rackspace.service.PollStatistics;
+import com.rackspace.cloud.api.Server;
+import com.rackspace.cloud.api.ServerStatus;
+import com.rackspace.cloud.api.Servers;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests waiting for and listening to changes of servers.
+ * @author Christos Fragoulides
+ */
+public class EntityWatcherTest {
+
+    private RackspaceCloudClient client;
+    private TestServersDescriptor descriptor;
+
+    public EntityWatcherTest() { }
+
+    @Before
+    public void setUp() {
+        client = new RackspaceCloudClient(AccountBase.UK, "user", "key");
+        descriptor = new TestServersDescriptor();
+    }
+
+    @Test
+    public void testWaitForChange() throws Exception {
+        EntityWatcher<Server, Servers> watcher = createWatcher(false);
+        descriptor.changes.getServer().add(createServer(1, ServerStatus.ACTIVE, 100));
+
+        Server settled = watcher.await(createServer(1, ServerStatus.BUILD, 0), 1000);
+        assertEquals(ServerStatus.ACTIVE, settled.getStatus());
+        assertEquals(1, watcher.getPollCount());
+        assertEquals(0, watcher.getFetchCount());
+        assertEquals(0, watcher.getWatchCount());
+    }
+
+    @Test
+    public void testWaitForUnchanged() throws Exception {
+        EntityWatcher<Server, Servers> watcher = createWatcher(false);
+        descriptor.servers.put(1, createServer(1, ServerStatus.ACTIVE, 100));
+
+        // Not in the changes, fetched on its own.
+        watcher.await(createServer(1, ServerStatus.ACTIVE, 100), 1000);
+        assertEquals(1, watcher.getFetchCount());
+    }
+
+    @Test
+    public void testWaitTimeout() throws Exception {
+        EntityWatcher<Server, Servers> watcher = createWatcher(false);
+        descriptor.servers.put(1, createServer(1, ServerStatus.BUILD, 10));
+        try {
+            watcher.await(createServer(1, ServerStatus.BUILD, 0), 100);
+            fail("Timeout not enforced.");
+        } catch (RackspaceCloudClientException e) {
+            // Expected.
+        }
+        assertTrue(watcher.getPollCount() > 1);
+        // Fetched once, then expected in the changes.
+        assertEquals(1, watcher.getFetchCount());
+        assertEquals(0, watcher.getWatchCount());
+    }
+
+    @Test
+    public void testNotify() throws Exception {
+        EntityWatcher<Server, Servers> watcher = createWatcher(true);
+        final BlockingQueue<NotifyEvent<Server>> events = new LinkedBlockingQueue<NotifyEvent<Server>>();
+        ChangeListener<Server> listener = new ChangeListener<Server>() {
+
+            @Override
+            public void notify(NotifyEvent<Server> e) {
+                events.add(e);
+            }
+
+        };
+
+        Server server = createServer(1, ServerStatus.BUILD, 0);
+        descriptor.changes.getServer().add(server);
+        watcher.watch(server, listener);
+
+        Servers changes = new Servers();
+        changes.getServer().add(createServer(1, ServerStatus.BUILD, 50));
+        descriptor.changes = changes;
+        NotifyEvent<Server> event = events.poll(1, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertFalse(event.isError());
+        assertEquals(50, event.getTargetEntity().getProgress().intValue());
+
+        changes = new Servers();
+        changes.getServer().add(createServer(1, ServerStatus.ACTIVE, 100));
+        descriptor.changes = changes;
+        event = events.poll(1, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertEquals(ServerStatus.ACTIVE, event.getTargetEntity().getStatus());
+
+        // Unchanged servers in later polls are not notified again.
+        Thread.sleep(50);
+        assertTrue(events.isEmpty());
+
+        watcher.unwatch(server, listener);
+        assertEquals(0, watcher.getWatchCount());
+    }
+
+    @Test
+    public void testSinglePollForAllEntities() throws Exception {
+        EntityWatcher<Server, Servers> watcher = createWatcher(true);
+        final BlockingQueue<NotifyEvent<Server>> events = new LinkedBlockingQueue<NotifyEvent<Server>>();
+        ChangeListener<Server> listener = new ChangeListener<Server>() {
+
+            @Override
+            public void notify(NotifyEvent<Server> e) {
+                events.add(e);
+            }
+
+        };
+
+        Servers changes = new Servers();
+        for (int i = 0; i < 100; i++) {
+            changes.getServer().add(createServer(i, ServerStatus.ACTIVE, 100));
+            descriptor.servers.put(i, createServer(i, ServerStatus.REBUILD, 0));
+        }
+        descriptor.changes = changes;
+        watcher.setPollInterval(60000);
+        // Ticks hold the watcher's lock, so the first one includes all the servers.
+        synchronized (watcher) {
+            for (int i = 0; i < 100; i++) watcher.watch(createServer(i, ServerStatus.REBUILD, 0), listener);
+        }
+
+        for (int i = 0; i < 100; i++) assertNotNull(events.poll(1, TimeUnit.SECONDS));
+        assertEquals(1, watcher.getPollCount());
+        assertEquals(0, watcher.getFetchCount());
+    }
+
+    @Test
+    public void testNotifyWithFullQueue() throws Exception {
+        final EntityWatcher<Server, Servers> watcher = createWatcher(true);
+        final AtomicInteger notified = new AtomicInteger();
+        final AtomicBoolean locked = new AtomicBoolean();
+        final CountDownLatch pollerNotified = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ChangeListener<Server> listener = new ChangeListener<Server>() {
+
+            @Override
+            public void notify(NotifyEvent<Server> e) {
+                if (Thread.holdsLock(watcher)) locked.set(true);
+                if (Thread.currentThread().getName().startsWith("rackspace-watcher-"))
+                    pollerNotified.countDown();
+                else if (notified.get() < EntityWatcher.DISPATCH_THREADS) {
+                    // Keep the dispatcher busy, so that its queue fills up.
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                notified.incrementAndGet();
+            }
+
+        };
+
+        int count = EntityWatcher.DISPATCH_THREADS + EntityWatcher.DISPATCH_QUEUE_SIZE + 10;
+        Servers changes = new Servers();
+        for (int i = 0; i < count; i++) changes.getServer().add(createServer(i, ServerStatus.ACTIVE, 100));
+        descriptor.changes = changes;
+        watcher.setPollInterval(60000);
+        synchronized (watcher) {
+            for (int i = 0; i < count; i++) watcher.watch(createServer(i, ServerStatus.REBUILD, 0), listener);
+        }
+
+        // The polling thread notifies the overflow itself, without holding the watcher's lock.
+        assertTrue(pollerNotified.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (notified.get() < count && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(count, notified.get());
+        assertFalse(locked.get());
+        watcher.close();
+    }
+
+    @Test
+    public void testNewWatchNotDelayedByStalled() throws Exception {
+        EntityWatcher<Server, Servers> watcher = createWatcher(true);
+        final BlockingQueue<NotifyEvent<Server>> events = new LinkedBlockingQueue<NotifyEvent<Server>>();
+        ChangeListener<Server> listener = new ChangeListener<Server>() {
+
+            @Override
+            public void notify(NotifyEvent<Server> e) {
+                events.add(e);
+            }
+
+        };
+
+        descriptor.changes.getServer().add(createServer(1, ServerStatus.BUILD, 10));
+        descriptor.changes.getServer().add(createServer(2, ServerStatus.ACTIVE, 100));
+        watcher.setPollInterval(100);
+        watcher.watch(createServer(1, ServerStatus.BUILD, 10), listener);
+        // Stalled, it is polled at 0, 100, 300, 700 and 1500 msec, then after 1600 msec more.
+        Thread.sleep(1600);
+        assertTrue(events.isEmpty());
+
+        watcher.watch(createServer(2, ServerStatus.BUILD, 0), listener);
+        NotifyEvent<Server> event = events.poll(500, TimeUnit.MILLISECONDS);
+        assertNotNull(event);
+        assertEquals(2, event.getTargetEntity().getId());
+        watcher.close();
+    }
+
+    @Test
+    public void testTransitionMetrics() throws Exception {
+        EntityWatcher<Server, Servers> watcher = createWatcher(false);
+        descriptor.changes.getServer().add(createServer(1, ServerStatus.ACTIVE, 100));
+        watcher.await(createServer(1, ServerStatus.BUILD, 0), 1000);
+
+        List<PollStatistics> statistics = watcher.getStatistics();
+        assertEquals(1, statistics.size());
+        assertEquals("BUILD", statistics.get(0).getStatus());
+        assertEquals(1, statistics.get(0).getTransitions());
+        assertEquals(1.0, statistics.get(0).getPollsPerTransition(), 0.001);
+    }
+
+    @Test
+    public void testPollAtPredictedCompletion() throws Exception {
+        final long start = System.currentTimeMillis();
+        // Progresses by one percent every 20 msec, completing after two seconds.
+        descriptor = new TestServersDescriptor() {
+
+            @Override
+            Servers getChanges(RackspaceCloudClient client, long changesSince) {
+                int progress = (int) Math.min((System.currentTimeMillis() - start) / 20, 100);
+                Servers result = new Servers();
+                result.getServer().add(createServer(1,
+                        progress < 100 ? ServerStatus.BUILD : ServerStatus.ACTIVE, progress));
+                return result;
+            }
+
+        };
+        EntityWatcher<Server, Servers> watcher = createWatcher(false);
+        watcher.setPollInterval(400);
+
+        watcher.await(createServer(1, ServerStatus.BUILD, 0), 5000);
+        // A fixed interval would take five polls or more.
+        assertTrue(watcher.getPollCount() <= 4);
+    }
+
+    private EntityWatcher<Server, Servers> createWatcher(boolean background) {
+        EntityWatcher<Server, Servers> watcher = new EntityWatcher<Server, Servers>(client, descriptor,
+                1000, background);
+        watcher.setPollInterval(10);
+        return watcher;
+    }
+
+    private static Server createServer(int id, ServerStatus status, int progress) {
+        Server server = new Server();
+        server.setId(id);
+        server.setStatus(status);
+        server.setProgress(progress);
+        return server;
+    }
+
+}
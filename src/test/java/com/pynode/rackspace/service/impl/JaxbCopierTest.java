@@ -0,0 +1,173 @@
+package com.pynode.rackspace.service.impl;
+
+import com.pynode.rackspace.client.JaxbCodec;
+import com.pynode.rackspace.client.RackspaceCloudClient;
+import com.rackspace.cloud.api.Address;
+import com.rackspace.cloud.api.AddressList;
+import com.rackspace.cloud.api.Addresses;
+import com.rackspace.cloud.api.Image;
+import com.rackspace.cloud.api.Metadata;
+import com.rackspace.cloud.api.MetadataItem;
+import com.rackspace.cloud.api.ObjectFactory;
+import com.rackspace.cloud.api.Server;
+import com.rackspace.cloud.api.ServerStatus;
+import com.rackspace.cloud.api.Servers;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import javax.xml.datatype.DatatypeFactory;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that {@link JaxbCopier} makes deep copies, sharing no mutable object with the source.
+ * The latency of a cache hit served by copying a live object (object cache) compared to
+ * unmarshalling the serialized response (StateManager cache) is logged only. No remote calls
+ * are made.
+ * @author Christos Fragoulides
+ */
+public class JaxbCopierTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JaxbCopierTest.class);
+
+    private static final int SERVERS = 1000;
+    private static final int ITERATIONS = 50;
+
+    public JaxbCopierTest() { }
+
+    @Test
+    public void testDeepCopy() {
+        Servers servers = createServers(2);
+        Servers copy = JaxbCopier.copy(servers);
+
+        assertNotSame(servers, copy);
+        assertEquals(2, copy.getServer().size());
+        Server server = servers.getServer().get(0);
+        Server serverCopy = copy.getServer().get(0);
+        assertNotSame(server, serverCopy);
+        assertEquals(server.getId(), serverCopy.getId());
+        assertEquals(server.getStatus(), serverCopy.getStatus());
+        assertEquals(server.getAddresses().getPublic().getIp().get(0).getAddr(),
+                serverCopy.getAddresses().getPublic().getIp().get(0).getAddr());
+
+        // Changes to the copy must not affect the original.
+        serverCopy.setName("changed");
+        serverCopy.getAddresses().getPublic().getIp().clear();
+        serverCopy.getMetadata().getMeta().get(0).setValue("changed");
+        assertEquals("server-0", server.getName());
+        assertEquals(1, server.getAddresses().getPublic().getIp().size());
+        assertEquals("value-0", server.getMetadata().getMeta().get(0).getValue());
+    }
+
+    @Test
+    public void testCopyOfLargeGraph() throws Exception {
+        Servers servers = createServers(SERVERS);
+        byte[] original = marshal(servers);
+
+        // The copy holds the same values as the original.
+        Servers copy = JaxbCopier.copy(servers);
+        assertArrayEquals(original, marshal(copy));
+
+        // No object is shared with the original, so changes anywhere in the copy leave it intact.
+        for (Server server : copy.getServer()) {
+            server.setStatus(ServerStatus.DELETED);
+            server.getAddresses().getPrivate().getIp().get(0).setAddr("10.0.0.1");
+            server.getMetadata().getMeta().add(new MetadataItem());
+        }
+        copy.getServer().remove(0);
+        assertArrayEquals(original, marshal(servers));
+    }
+
+    @Test
+    public void testCopyOfDates() throws Exception {
+        Image image = new Image();
+        image.setName("image");
+        image.setUpdated(DatatypeFactory.newInstance().newXMLGregorianCalendar("2010-10-10T12:00:00Z"));
+        Image copy = JaxbCopier.copy(image);
+
+        assertNotSame(image.getUpdated(), copy.getUpdated());
+        assertEquals(image.getUpdated(), copy.getUpdated());
+        copy.getUpdated().setYear(2011);
+        assertEquals(2010, image.getUpdated().getYear());
+    }
+
+    @Test
+    public void testHitLatencyBenchmark() throws Exception {
+        Servers servers = createServers(SERVERS);
+        byte[] data = marshal(servers);
+
+        // Warm up both paths.
+        for (int i = 0; i < ITERATIONS; i++) {
+            unmarshal(data);
+            JaxbCopier.copy(servers);
+        }
+
+        // L2: every hit unmarshals the cached bytes, as the caching interceptor deserializes them.
+        long unmarshalled = -System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertEquals(SERVERS, unmarshal(data).getServer().size());
+        }
+        unmarshalled += System.nanoTime();
+
+        // L1: hits are served by copying the live object.
+        long copied = -System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertEquals(SERVERS, JaxbCopier.copy(servers).getServer().size());
+        }
+        copied += System.nanoTime();
+
+        LOGGER.info("Cache hit of {} servers ({} bytes): unmarshal {} msec/hit, copy {} msec/hit.",
+                new Object[] {SERVERS, data.length, unmarshalled / 1e6F / ITERATIONS,
+                        copied / 1e6F / ITERATIONS});
+    }
+
+    private static Servers unmarshal(byte[] data) throws Exception {
+        return JaxbCodec.unmarshal(new ByteArrayInputStream(data), Servers.class);
+    }
+
+    private static byte[] marshal(Servers servers) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        RackspaceCloudClient.getJAXBContext().createMarshaller()
+                .marshal(new ObjectFactory().createServers(servers), baos);
+        return baos.toByteArray();
+    }
+
+    static Servers createServers(int count) {
+        Servers servers = new Servers();
+        for (int i = 0; i < count; i++) {
+            Server server = new Server();
+            server.setId(i);
+            server.setName("server-" + i);
+            server.setImageId(112);
+            server.setFlavorId(1);
+            server.setHostId("e4d909c290d0fb1ca068ffaddf22cbd0");
+            server.setProgress(100);
+            server.setStatus(ServerStatus.ACTIVE);
+
+            Metadata metadata = new Metadata();
+            MetadataItem item = new MetadataItem();
+            item.setKey("key");
+            item.setValue("value-" + i);
+            metadata.getMeta().add(item);
+            server.setMetadata(metadata);
+
+            Addresses addresses = new Addresses();
+            addresses.setPublic(createAddressList("67.23.10." + (i % 256)));
+            addresses.setPrivate(createAddressList("10.176.42." + (i % 256)));
+            server.setAddresses(addresses);
+
+            servers.getServer().add(server);
+        }
+        return servers;
+    }
+
+    private static AddressList createAddressList(String ip) {
+        AddressList list = new AddressList();
+        Address address = new Address();
+        address.setAddr(ip);
+        list.getIp().add(address);
+        return list;
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.pynode.rackspace.service.impl;
+
+import com.rackspace.cloud.api.Server;
+import com.rackspace.cloud.api.ServerStatus;
+import com.rackspace.cloud.api.Servers;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests patching lists with {@code changes-since} deltas.
+ * @author Christos Fragoulides
+ */
+public class MaterializedEntityListTest {
+
+    public MaterializedEntityListTest() { }
+
+    @Test
+    public void testDelta() throws Exception {
+        TestServersDescriptor descriptor = new TestServersDescriptor();
+        MaterializedEntityList<Server, Servers> list = createList(descriptor, false);
+        list.reset();
+        long reset = list.getLastModified();
+
+        descriptor.changes = createChanges();
+        Thread.sleep(5);
+        list.delta();
+
+        List<Server> servers = drain(list);
+        assertEquals(3, servers.size());
+        assertEquals("renamed", servers.get(1).getName());
+        assertEquals(3, servers.get(2).getId().intValue());
+        assertTrue(list.getLastModified() > reset);
+        // Changes are requested since the last modification, minus the skew, in seconds.
+        assertEquals((reset - 1000) / 1000, descriptor.changesSince);
+    }
+
+    @Test
+    public void testPartialDelta() throws Exception {
+        TestServersDescriptor descriptor = new TestServersDescriptor();
+        MaterializedEntityList<Server, Servers> list = createList(descriptor, true);
+        list.reset();
+
+        descriptor.changes = createChanges();
+        list.delta();
+
+        // The new server belongs to another page.
+        List<Server> servers = drain(list);
+        assertEquals(2, servers.size());
+        assertEquals(0, servers.get(0).getId().intValue());
+        assertEquals("renamed", servers.get(1).getName());
+    }
+
+    private static MaterializedEntityList<Server, Servers> createList(TestServersDescriptor descriptor,
+            boolean partial) {
+        return new MaterializedEntityList<Server, Servers>(null, descriptor, partial, 1000) {
+
+            @Override
+            protected Servers fetchList() {
+                return JaxbCopierTest.createServers(3);
+            }
+
+        };
+    }
+
+    private static Servers createChanges() {
+        Servers changes = new Servers();
+        Server changed = new Server();
+        changed.setId(1);
+        changed.setName("renamed");
+        changes.getServer().add(changed);
+        Server deleted = new Server();
+        deleted.setId(2);
+        deleted.setStatus(ServerStatus.DELETED);
+        changes.getServer().add(deleted);
+        Server added = new Server();
+        added.setId(3);
+        changes.getServer().add(added);
+        return changes;
+    }
+
+    private static List<Server> drain(MaterializedEntityList<Server, Servers> list) {
+        List<Server> result = new ArrayList<Server>();
+        while (list.hasNext()) result.add(list.next());
+        return result;
+    }
+
+}
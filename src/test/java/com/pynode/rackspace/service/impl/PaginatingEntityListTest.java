@@ -0,0 +1,115 @@
+package com.pynode.rackspace.service.impl;
+
+import com.pynode.rackspace.client.RackspaceCloudClientException;
+import com.pynode.rackspace.service.EntityListException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests walking the pages of a list call.
+ * @author Christos Fragoulides
+ */
+public class PaginatingEntityListTest {
+
+    public PaginatingEntityListTest() { }
+
+    @Test
+    public void testAllPagesWalked() throws Exception {
+        TestList list = new TestList(null, 10, 25);
+        list.reset();
+        List<Integer> result = drain(list);
+        assertEquals(25, result.size());
+        for (int i = 0; i < result.size(); i++) assertEquals(i, result.get(i).intValue());
+        // Stops on the short third page.
+        assertEquals(3, list.fetches.get());
+    }
+
+    @Test
+    public void testFullLastPage() throws Exception {
+        TestList list = new TestList(null, 10, 20);
+        list.reset();
+        assertEquals(20, drain(list).size());
+        assertEquals(3, list.fetches.get());
+    }
+
+    @Test
+    public void testEmptyList() throws Exception {
+        TestList list = new TestList(null, 10, 0);
+        list.reset();
+        assertTrue(list.isEmpty());
+        assertFalse(list.hasNext());
+        assertEquals(1, list.fetches.get());
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            TestList list = new TestList(executor, 10, 35);
+            list.reset();
+            assertEquals(35, drain(list).size());
+            assertEquals(4, list.fetches.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedPageRetried() throws Exception {
+        TestList list = new TestList(null, 10, 15);
+        list.reset();
+        list.failAt = 10;
+        for (int i = 0; i < 10; i++) list.next();
+        try {
+            list.hasNext();
+            fail("The failure was not raised.");
+        } catch (EntityListException e) {
+            assertTrue(e.getCause() instanceof RackspaceCloudClientException);
+        }
+        list.failAt = -1;
+        assertEquals(5, drain(list).size());
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        TestList list = new TestList(null, 10, 15);
+        list.reset();
+        drain(list);
+        list.reset();
+        assertEquals(15, drain(list).size());
+    }
+
+    private static List<Integer> drain(TestList list) {
+        List<Integer> result = new ArrayList<Integer>();
+        while (list.hasNext()) result.add(list.next());
+        return result;
+    }
+
+    private static class TestList extends PaginatingEntityList<Integer> {
+
+        private final int total;
+        private final AtomicInteger fetches = new AtomicInteger();
+        private volatile long failAt = -1;
+
+        TestList(ExecutorService executor, long pageSize, int total) {
+            super(executor, pageSize);
+            this.total = total;
+        }
+
+        @Override
+        protected List<Integer> fetchPage(long offset, long limit) throws RackspaceCloudClientException {
+            if (offset == failAt) throw new RackspaceCloudClientException("Failed.");
+            fetches.incrementAndGet();
+            List<Integer> result = new ArrayList<Integer>();
+            for (long i = offset; i < Math.min(total, offset + limit); i++) result.add((int) i);
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.pynode.rackspace.service.impl;
+
+import com.pynode.rackspace.service.EntityList;
+import com.pynode.rackspace.service.ServerManager;
+import com.rackspace.cloud.api.Metadata;
+import com.rackspace.cloud.api.MetadataItem;
+import com.rackspace.cloud.api.Server;
+import com.rackspace.cloud.api.ServerStatus;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests loading, indexing and synchronizing the server inventory.
+ * @author Christos Fragoulides
+ */
+public class ServerInventoryImplTest {
+
+    private List<Server> servers;
+    private List<Server> changes;
+    private long changesSince;
+    private ServerInventoryImpl inventory;
+
+    public ServerInventoryImplTest() { }
+
+    @Before
+    public void setUp() {
+        servers = JaxbCopierTest.createServers(3).getServer();
+        MetadataItem item = new MetadataItem();
+        item.setKey("role");
+        item.setValue("web");
+        servers.get(0).setMetadata(new Metadata());
+        servers.get(0).getMetadata().getMeta().add(item);
+        changes = new ArrayList<Server>();
+        changesSince = -1;
+        inventory = new ServerInventoryImpl(createServerManager(), 1000);
+    }
+
+    @Test
+    public void testLookups() throws Exception {
+        inventory.sync();
+        assertEquals(3, inventory.size());
+        assertTrue(inventory.getLastModified() > 0);
+        assertSame(servers.get(1), inventory.get(1));
+        assertNull(inventory.get(10));
+
+        Server server = servers.get(2);
+        assertTrue(inventory.findByStatus(server.getStatus()).contains(server));
+        assertTrue(inventory.findByFlavor(server.getFlavorId()).contains(server));
+        assertTrue(inventory.findByImage(server.getImageId()).contains(server));
+        String ip = server.getAddresses().getPublic().getIp().get(0).getAddr();
+        assertEquals(1, inventory.findByAddress(ip).size());
+        assertSame(server, inventory.findByAddress(ip).iterator().next());
+
+        assertEquals(1, inventory.findByMetadata("role").size());
+        assertEquals(1, inventory.findByMetadata("role", "web").size());
+        assertTrue(inventory.findByMetadata("role", "db").isEmpty());
+        assertTrue(inventory.findByMetadata("owner").isEmpty());
+    }
+
+    @Test
+    public void testSync() throws Exception {
+        inventory.sync();
+        long loaded = inventory.getLastModified();
+
+        Server deleted = new Server();
+        deleted.setId(0);
+        deleted.setStatus(ServerStatus.DELETED);
+        changes.add(deleted);
+        Server changed = JaxbCopierTest.createServers(2).getServer().get(1);
+        changed.setStatus(ServerStatus.REBOOT);
+        changes.add(changed);
+        Thread.sleep(5);
+        inventory.sync();
+
+        assertEquals((loaded - 1000) / 1000, changesSince);
+        assertTrue(inventory.getLastModified() > loaded);
+        assertEquals(2, inventory.size());
+        assertNull(inventory.get(0));
+        assertTrue(inventory.findByMetadata("role").isEmpty());
+        assertEquals(1, inventory.findByStatus(ServerStatus.REBOOT).size());
+        assertSame(changed, inventory.get(1));
+    }
+
+    @Test
+    public void testSnapshotIsolation() throws Exception {
+        inventory.sync();
+        int active = inventory.findByStatus(ServerStatus.ACTIVE).size();
+        Collection<Server> before = inventory.findByStatus(ServerStatus.ACTIVE);
+
+        Server changed = JaxbCopierTest.createServers(1).getServer().get(0);
+        changed.setStatus(ServerStatus.REBOOT);
+        changes.add(changed);
+        inventory.sync();
+
+        // Results of earlier lookups are not affected by synchronizations.
+        assertEquals(active, before.size());
+    }
+
+    @Test
+    public void testDeltaSharesUntouchedEntries() throws Exception {
+        inventory.sync();
+        String untouched = servers.get(0).getAddresses().getPublic().getIp().get(0).getAddr();
+        String touched = servers.get(1).getAddresses().getPublic().getIp().get(0).getAddr();
+        List<Server> before = inventory.getAddressEntry(untouched);
+
+        Server changed = JaxbCopierTest.createServers(2).getServer().get(1);
+        changed.setStatus(ServerStatus.REBOOT);
+        changes.add(changed);
+        inventory.sync();
+
+        assertSame(before, inventory.getAddressEntry(untouched));
+        assertEquals(1, inventory.getAddressEntry(touched).size());
+        assertSame(changed, inventory.getAddressEntry(touched).get(0));
+        assertEquals(1, inventory.findByStatus(ServerStatus.REBOOT).size());
+        assertEquals(2, inventory.findByStatus(ServerStatus.ACTIVE).size());
+        assertFalse(inventory.findByStatus(ServerStatus.ACTIVE).contains(changed));
+        assertTrue(inventory.findByFlavor(changed.getFlavorId()).contains(changed));
+        assertEquals(3, inventory.findByFlavor(changed.getFlavorId()).size());
+    }
+
+    private ServerManager createServerManager() {
+        return (ServerManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { ServerManager.class }, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("createList")) return new TestList(servers);
+                if (method.getName().equals("createDeltaList")) {
+                    changesSince = (Long) args[1] / 1000;
+                    return new TestList(changes);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+
+        });
+    }
+
+    private static class TestList extends EntityList<Server> {
+
+        private final long lastModified = System.currentTimeMillis();
+        private final List<Server> servers;
+        private final Iterator<Server> iterator;
+
+        TestList(List<Server> servers) {
+            this.servers = new ArrayList<Server>(servers);
+            iterator = this.servers.iterator();
+        }
+
+        @Override
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return servers.isEmpty();
+        }
+
+        @Override
+        public void reset() { }
+
+        @Override
+        public void delta() { }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Server next() {
+            return iterator.next();
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.pynode.rackspace.service.impl;
+
+import com.pynode.rackspace.client.RackspaceCloudClient;
+import com.pynode.rackspace.client.RackspaceCloudClientException;
+import com.rackspace.cloud.api.Server;
+import com.rackspace.cloud.api.Servers;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Servers descriptor answering from canned changes and servers instead of Rackspace.
+ * @author Christos Fragoulides
+ */
+class TestServersDescriptor extends EntityListDescriptor<Server, Servers> {
+
+    volatile Servers changes = new Servers();
+    volatile long changesSince = -1;
+    final Map<Integer, Server> servers = new HashMap<Integer, Server>();
+    volatile int changeRequests = 0;
+
+    @Override
+    Servers getChanges(RackspaceCloudClient client, long changesSince)
+            throws RackspaceCloudClientException {
+        this.changesSince = changesSince;
+        changeRequests++;
+        return changes;
+    }
+
+    @Override
+    List<Server> getEntities(Servers list) {
+        return SERVERS.getEntities(list);
+    }
+
+    @Override
+    int getId(Server entity) {
+        return SERVERS.getId(entity);
+    }
+
+    @Override
+    boolean isDeleted(Server entity) {
+        return SERVERS.isDeleted(entity);
+    }
+
+    @Override
+    synchronized Server getEntity(RackspaceCloudClient client, int id) throws RackspaceCloudClientException {
+        Server result = servers.get(id);
+        if (result == null) throw new RackspaceCloudClientException("Not found.");
+        return result;
+    }
+
+    @Override
+    String getChangesPath() {
+        return SERVERS.getChangesPath();
+    }
+
+    @Override
+    Object getStatus(Server entity) {
+        return SERVERS.getStatus(entity);
+    }
+
+    @Override
+    Integer getProgress(Server entity) {
+        return SERVERS.getProgress(entity);
+    }
+
+    @Override
+    boolean isTransitional(Server entity) {
+        return SERVERS.isTransitional(entity);
+    }
+
+}
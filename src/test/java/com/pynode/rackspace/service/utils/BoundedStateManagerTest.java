@@ -0,0 +1,131 @@
+package com.pynode.rackspace.service.utils;
+
+import java.util.concurrent.ConcurrentMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the eviction and expiration of {@link BoundedStateManager}.
+ * @author Christos Fragoulides
+ */
+public class BoundedStateManagerTest {
+
+    public BoundedStateManagerTest() { }
+
+    @Test
+    public void testEviction() {
+        // Room for three entries of 1000 bytes, including the key weight.
+        BoundedStateManager manager = new BoundedStateManager(3500);
+        ConcurrentMap<Object, Object> state = manager.getState();
+
+        long now = System.currentTimeMillis();
+        state.putIfAbsent("a", new Value(1000, now));
+        state.putIfAbsent("b", new Value(1000, now));
+        state.putIfAbsent("c", new Value(1000, now));
+        // Access "a", so that "b" becomes the least recently used.
+        assertNotNull(state.get("a"));
+        state.putIfAbsent("d", new Value(1000, now));
+
+        assertNull(state.get("b"));
+        assertNotNull(state.get("a"));
+        assertNotNull(state.get("c"));
+        assertNotNull(state.get("d"));
+        assertEquals(1, manager.getEvictionCount());
+        assertTrue(manager.getWeight() <= manager.getMaxWeight());
+
+        // Replacing an entry accounts for the weight of the previous value.
+        Value big = new Value(2000, now);
+        assertTrue(state.replace("a", state.get("a"), big));
+        assertTrue(manager.getWeight() <= manager.getMaxWeight());
+        assertSame(big, state.get("a"));
+    }
+
+    @Test
+    public void testExpiration() {
+        BoundedStateManager manager = new BoundedStateManager(100000, 1000);
+        ConcurrentMap<Object, Object> state = manager.getState();
+
+        long now = System.currentTimeMillis();
+        Value old = new Value(100, now - 2000);
+        state.putIfAbsent("old", old);
+        state.putIfAbsent("fresh", new Value(100, now));
+
+        assertNull(state.get("old"));
+        assertNotNull(state.get("fresh"));
+        // An expired entry is absent, so it may be replaced.
+        assertNull(state.putIfAbsent("old", new Value(100, now)));
+        assertNotNull(state.get("old"));
+        assertTrue(manager.getExpirationCount() >= 1);
+    }
+
+    @Test
+    public void testSweep() throws Exception {
+        BoundedStateManager manager = new BoundedStateManager(100000, 200);
+        ConcurrentMap<Object, Object> state = manager.getState();
+
+        state.putIfAbsent("a", new Value(100, System.currentTimeMillis()));
+        Thread.sleep(250);
+        // Writing another entry removes "a" without accessing it.
+        state.putIfAbsent("b", new Value(100, System.currentTimeMillis()));
+        assertEquals(1, state.size());
+        assertEquals(1, manager.getExpirationCount());
+    }
+
+    @Test
+    public void testRetention() {
+        BoundedStateManager manager = new BoundedStateManager(100000, 1000);
+        ConcurrentMap<Object, Object> state = manager.getState();
+
+        long now = System.currentTimeMillis();
+        state.putIfAbsent("plain", new Value(100, now - 2000));
+        state.putIfAbsent("retained", new RetainedValue(100, now - 2000, 5000));
+        state.putIfAbsent("outlived", new RetainedValue(100, now - 6000, 5000));
+        // A retention time shorter than the time to live does not shorten it.
+        state.putIfAbsent("short", new RetainedValue(100, now - 500, 100));
+
+        assertNull(state.get("plain"));
+        assertNotNull(state.get("retained"));
+        assertNull(state.get("outlived"));
+        assertNotNull(state.get("short"));
+        assertEquals(2, manager.getExpirationCount());
+    }
+
+    private static class Value implements BoundedStateManager.Weighable {
+
+        private final long weight;
+        private final long timeStamp;
+
+        Value(long weight, long timeStamp) {
+            this.weight = weight;
+            this.timeStamp = timeStamp;
+        }
+
+        @Override
+        public long getWeight() {
+            return weight;
+        }
+
+        @Override
+        public long getTimeStamp() {
+            return timeStamp;
+        }
+
+    }
+
+    private static class RetainedValue extends Value implements BoundedStateManager.Retainable {
+
+        private final long retentionTime;
+
+        RetainedValue(long weight, long timeStamp, long retentionTime) {
+            super(weight, timeStamp);
+            this.retentionTime = retentionTime;
+        }
+
+        @Override
+        public long getRetentionTime() {
+            return retentionTime;
+        }
+
+    }
+
+}